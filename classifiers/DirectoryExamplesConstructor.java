@@ -57,12 +57,30 @@ public class DirectoryExamplesConstructor extends ExamplesConstructor {
    */
   public List<Example> getExamples() {
     ArrayList<Example> examples = new ArrayList<Example>();
-    DocumentIterator docIter = new DocumentIterator(new File(dirName), docType, stem);
-    while (docIter.hasMoreDocuments()) { //read in all documents
-      FileDocument doc = docIter.nextDocument();
-      int category = findClassID(doc.file.getName()); // find category of document
-      Example example = new Example(doc.hashMapVector(), category, doc.file.getName(), doc);
-      examples.add(example);
+    DocumentIterator docIter = null;
+    try {
+      // The directory may also be an archive or other source file of documents
+      docIter = DocumentIterator.forSource(new File(dirName), docType, stem);
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not open documents: " + dirName + " (" + e.getMessage() + ")");
+      System.exit(1);
+    }
+    try {
+      while (docIter.hasMoreDocuments()) { //read in all documents
+        FileDocument doc = docIter.nextDocument();
+        int category = findClassID(doc.file.getName()); // find category of document
+        Example example = new Example(doc.hashMapVector(), category, doc.file.getName(), doc);
+        examples.add(example);
+      }
+    }
+    finally {
+      try {
+        docIter.close();
+      }
+      catch (IOException e) {
+        System.out.println("\nCould not close documents: " + dirName + " (" + e.getMessage() + ")");
+      }
     }
     return examples;
   }
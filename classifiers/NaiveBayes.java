@@ -202,13 +202,13 @@ public class NaiveBayes extends Classifier {
     for (Example currentExample : trainExamples) {
       if (debug) {
         System.out.println("\nExample: " + currentExample);
-        System.out.println("Number of tokens: " + currentExample.getHashMapVector().hashMap.size());
+        System.out.println("Number of tokens: " + currentExample.getHashMapVector().size());
       }
-      for (Map.Entry<String, Weight> entry : currentExample.getHashMapVector().entrySet()) {
-        // An entry in the HashMap maps a token to a Weight
-        String token = entry.getKey();
-        // The count for the token is in the value of the Weight value
-        int count = (int) entry.getValue().getValue();
+      HashMapVector vector = currentExample.getHashMapVector();
+      for (int t = 0; t < vector.size(); t++) {
+        String token = vector.token(t);
+        // The count for the token is its weight in the vector
+        int count = (int) vector.weight(t);
         double[] countArray; // stores counts for current feature
         if (debug)
           System.out.println("Counts of token: " + token);
@@ -269,11 +269,11 @@ public class NaiveBayes extends Classifier {
     //set initial probabilities to the prior probs
     double[] probs = trainResult.getClassPriors().clone();
     Hashtable<String, double[]> hashTable = trainResult.getFeatureTable();
-    for (Map.Entry<String, Weight> entry : testExample.getHashMapVector().entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The count for the token is in the value of the Weight
-      int count = (int) entry.getValue().getValue();
+    HashMapVector vector = testExample.getHashMapVector();
+    for (int t = 0; t < vector.size(); t++) {
+      String token = vector.token(t);
+      // The count for the token is its weight in the vector
+      int count = (int) vector.weight(t);
       if (hashTable.containsKey(token)) {//ignore unknowns
         double[] countArray = hashTable.get(token); // stores the category array for one token
         for (int k = 0; k < numCategories; k++)
@@ -47,6 +47,17 @@ public class Experiment {
    */
   InvertedIndex index = null;
 
+  /**
+   * The number of top retrievals taken as relevant for pseudo-relevance
+   * feedback, or 0 to retrieve without feedback
+   */
+  public int pseudoFeedbackDocs = 0;
+
+  /**
+   * The most tokens kept in a query expanded by pseudo-relevance feedback
+   */
+  public int pseudoFeedbackTerms = 50;
+
   /**
    * List of recall-precision data for each query, where data for each
    * query is an ArrayList of RecallPrecisionPair's for each possible
@@ -71,7 +82,7 @@ public class Experiment {
   /**
    * Create an Experiment object for generating Recall/Precision curves
    *
-   * @param corpusDir The directory of files to index.
+   * @param corpusDir The directory of files (or archive or other source file of documents) to index.
    * @param queryFile The file of query/relevant-docs pairs to evaluate.
    * @param outFile   File for output precision/recall data.
    * @param docType   The type of documents to index (See docType in DocumentIterator).
@@ -85,6 +96,25 @@ public class Experiment {
     this.outFile = outFile;
   }
 
+  /**
+   * Create an Experiment object for generating Recall/Precision curves
+   * using an index loaded from (or, the first time, saved to) an index file
+   *
+   * @param corpusDir The directory of files (or archive or other source file of documents) to index.
+   * @param indexFile The index file for the corpus (see InvertedIndex.loadOrBuild).
+   * @param queryFile The file of query/relevant-docs pairs to evaluate.
+   * @param outFile   File for output precision/recall data.
+   * @param docType   The type of documents to index (See docType in DocumentIterator).
+   * @param stem      Whether tokens should be stemmed with Porter stemmer.
+   */
+  public Experiment(File corpusDir, File indexFile, File queryFile, File outFile, short docType, boolean stem)
+      throws IOException {
+    this.corpusDir = corpusDir;
+    this.index = InvertedIndex.loadOrBuild(indexFile, corpusDir, docType, stem, false);
+    this.queryFile = queryFile;
+    this.outFile = outFile;
+  }
+
   /**
    * Create an Experiment object for generating Recall/Precision curves
    * using a provided InvertedIndex
@@ -145,7 +175,7 @@ public class Experiment {
     System.out.println("\nQuery " + (rpResults.size() + 1) + ": " + query);
 
     // Process the query and get the ranked retrievals
-    Retrieval[] retrievals = index.retrieve(query);
+    Retrieval[] retrievals = retrieve(query);
     System.out.println("Returned " + retrievals.length + " documents.");
 
     // Read the known relevant docs from query file and parse them
@@ -166,6 +196,16 @@ public class Experiment {
     return true;
   }
 
+  /**
+   * Get the ranked retrievals for a query, using pseudo-relevance feedback
+   * if pseudoFeedbackDocs is positive.
+   */
+  Retrieval[] retrieve(String query) {
+    if (pseudoFeedbackDocs > 0)
+      return index.retrieveWithPseudoFeedback(query, pseudoFeedbackDocs, pseudoFeedbackTerms);
+    return index.retrieve(query);
+  }
+
   /**
    * Compare retrieved docs to relevant docs and compute recall/precision
    * points.  Goes down ranked retrievals in order, stopping at each
@@ -277,6 +317,10 @@ public class Experiment {
    * OPTIONs can be
    * "-html" to specify HTML files whose HTML tags should be removed, and
    * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-index FILE" to load the index from FILE, or save it there if it does not exist.
+   * "-prf N" to use pseudo-relevance feedback from the top N retrievals of each query.
+   * "-prfterms M" to keep at most M tokens in queries expanded by pseudo-relevance
+   * feedback (default 50).
    */
   public static void main(String[] args) throws IOException {
     // Parse the arguments into a directory name and optional flag
@@ -285,9 +329,18 @@ public class Experiment {
     String outFile = args[args.length - 1];
     short docType = DocumentIterator.TYPE_TEXT;
     boolean stem = false;
+    File indexFile = null;
+    int pseudoFeedbackDocs = 0;
+    int pseudoFeedbackTerms = 50;
     for (int i = 0; i < args.length - 3; i++) {
       String flag = args[i];
-      if (flag.equals("-html"))
+      if (flag.equals("-index"))
+        indexFile = new File(args[++i]);
+      else if (flag.equals("-prf"))
+        pseudoFeedbackDocs = Integer.parseInt(args[++i]);
+      else if (flag.equals("-prfterms"))
+        pseudoFeedbackTerms = Integer.parseInt(args[++i]);
+      else if (flag.equals("-html"))
         // Create HTMLFileDocuments to filter HTML tags
         docType = DocumentIterator.TYPE_HTML;
       else if (flag.equals("-stem"))
@@ -297,8 +350,15 @@ public class Experiment {
         throw new IllegalArgumentException("Unknown flag: " + flag);
       }
     }
-    Experiment exper = new Experiment(new File(corpusDir), new File(queryFile),
-        new File(outFile), docType, stem);
+    Experiment exper;
+    if (indexFile != null)
+      exper = new Experiment(new File(corpusDir), indexFile, new File(queryFile),
+          new File(outFile), docType, stem);
+    else
+      exper = new Experiment(new File(corpusDir), new File(queryFile),
+          new File(outFile), docType, stem);
+    exper.pseudoFeedbackDocs = pseudoFeedbackDocs;
+    exper.pseudoFeedbackTerms = pseudoFeedbackTerms;
     exper.makeRpCurve();
   }
 }
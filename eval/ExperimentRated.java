@@ -61,7 +61,7 @@ public class ExperimentRated extends Experiment {
     System.out.println("\nQuery " + (rpResults.size() + 1) + ": " + query);
 
     // Process the query and get the ranked retrievals
-    Retrieval[] retrievals = index.retrieve(query);
+    Retrieval[] retrievals = retrieve(query);
     System.out.println("Returned " + retrievals.length + " documents.");
 
     // Get the correct retrievals
@@ -0,0 +1,455 @@
+package ir.utilities;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * The Porter stemmer of class Porter, reimplemented to work in place on a
+ * char buffer instead of building a new String at every step.  It gives
+ * exactly the same stems as Porter.stripAffixes, quirks included.
+ * <p/>
+ * An instance reuses its buffer and so must only be used by one thread at
+ * a time.  The static stem(String) method is safe to call from any thread:
+ * it uses an instance per thread, and remembers the stems of the first
+ * MAX_MEMO_SIZE words it is given in a table shared by all threads, so that
+ * the frequent words of a corpus are stemmed only once.
+ */
+
+public class PorterStemmer {
+
+  /**
+   * The most words whose stems are remembered
+   */
+  public static final int MAX_MEMO_SIZE = 100000;
+
+  /**
+   * The stem of each word stemmed so far, up to MAX_MEMO_SIZE words
+   */
+  protected static final ConcurrentHashMap<String, String> memo = new ConcurrentHashMap<String, String>();
+
+  /**
+   * The stemmer of each thread
+   */
+  protected static final ThreadLocal<PorterStemmer> stemmers = ThreadLocal.withInitial(PorterStemmer::new);
+
+  /**
+   * The prefixes removed from the start of a word, tried in order
+   */
+  protected static final char[][] prefixes = chars(new String[]{
+      "kilo", "micro", "milli", "intra", "ultra", "mega", "nano", "pico", "pseudo"});
+
+  /**
+   * The suffixes of step 2 and what they are replaced with, tried in order
+   */
+  protected static final char[][][] step2Suffixes = chars(new String[][]{
+      {"ational", "ate"}, {"tional", "tion"}, {"enci", "ence"}, {"anci", "ance"}, {"izer", "ize"},
+      {"iser", "ize"}, {"abli", "able"}, {"alli", "al"}, {"entli", "ent"}, {"eli", "e"},
+      {"ousli", "ous"}, {"ization", "ize"}, {"isation", "ize"}, {"ation", "ate"}, {"ator", "ate"},
+      {"alism", "al"}, {"iveness", "ive"}, {"fulness", "ful"}, {"ousness", "ous"}, {"aliti", "al"},
+      {"iviti", "ive"}, {"biliti", "ble"}});
+
+  /**
+   * The suffixes of step 3 and what they are replaced with, tried in order
+   */
+  protected static final char[][][] step3Suffixes = chars(new String[][]{
+      {"icate", "ic"}, {"ative", ""}, {"alize", "al"}, {"alise", "al"}, {"iciti", "ic"},
+      {"ical", "ic"}, {"ful", ""}, {"ness", ""}});
+
+  /**
+   * The suffixes removed by step 4, tried in order
+   */
+  protected static final char[][] step4Suffixes = chars(new String[]{
+      "al", "ance", "ence", "er", "ic", "able", "ible", "ant", "ement", "ment", "ent", "sion", "tion",
+      "ou", "ism", "ate", "iti", "ous", "ive", "ize", "ise"});
+
+  /**
+   * The buffer holding the word being stemmed
+   */
+  protected char[] b = new char[64];
+
+  /**
+   * The number of chars of the word in b
+   */
+  protected int k = 0;
+
+  /**
+   * Return the stem of a word, as Porter.stripAffixes would.  Safe to call
+   * from many threads at once.
+   */
+  public static String stem(String word) {
+    String stem = memo.get(word);
+    if (stem == null) {
+      stem = stemmers.get().stripAffixes(word);
+      // Once the table is full, the words already in it (the most frequent,
+      // in a Zipfian vocabulary) keep their places
+      if (memo.size() < MAX_MEMO_SIZE)
+        memo.putIfAbsent(word, stem);
+    }
+    return stem;
+  }
+
+  /**
+   * Takes a String as input and returns its stem as a String.
+   */
+  public String stripAffixes(String word) {
+    int length = word.length();
+    if (b.length < length)
+      b = new char[Math.max(length, 2 * b.length)];
+    word.getChars(0, length, b, 0);
+    return new String(b, 0, stem(b, 0, length));
+  }
+
+  /**
+   * Stem the word in chars start to start + length of an array.  The stem
+   * is left in the first chars of buffer().
+   *
+   * @return The length of the stem.
+   */
+  public int stem(char[] word, int start, int length) {
+    if (length == 0)
+      // As Porter does
+      throw new StringIndexOutOfBoundsException("Cannot stem an empty word");
+    boolean lowerAscii = true;
+    for (int i = start; i < start + length && lowerAscii; i++) {
+      char c = word[i];
+      lowerAscii = c < 128 && (c < 'A' || c > 'Z');
+    }
+    if (lowerAscii) {
+      // Nothing to lower case, so just keep the letters and digits
+      if (b.length < length)
+        b = new char[Math.max(length, 2 * b.length)];
+      k = 0;
+      for (int i = start; i < start + length; i++) {
+        char c = word[i];
+        if ((c >= 'a' && c <= 'z') || (c >= '0' && c <= '9'))
+          b[k++] = c;
+      }
+    } else {
+      // Lower case as a String, which depends on the locale and can change the length
+      String lower = new String(word, start, length).toLowerCase();
+      if (b.length < lower.length())
+        b = new char[Math.max(lower.length(), 2 * b.length)];
+      k = 0;
+      for (int i = 0; i < lower.length(); i++) {
+        if (Character.isLetterOrDigit(lower.charAt(i)))
+          b[k++] = lower.charAt(i);
+      }
+    }
+    if (k > 2) {
+      stripPrefixes();
+      if (k > 0)
+        stripSuffixes();
+    }
+    return k;
+  }
+
+  /**
+   * The buffer holding the last stem computed by stem(char[], int, int)
+   */
+  public char[] buffer() {
+    return b;
+  }
+
+  /**
+   * Remove the first of the prefixes the word starts with, if any
+   */
+  protected void stripPrefixes() {
+    for (char[] prefix : prefixes) {
+      if (k >= prefix.length && Arrays.equals(b, 0, prefix.length, prefix, 0, prefix.length)) {
+        k = k - prefix.length;
+        System.arraycopy(b, prefix.length, b, 0, k);
+        return;
+      }
+    }
+  }
+
+  /**
+   * Apply the five steps of suffix removal
+   */
+  protected void stripSuffixes() {
+    step1();
+    if (k >= 1)
+      step2();
+    if (k >= 1)
+      step3();
+    if (k >= 1)
+      step4();
+    if (k >= 1)
+      step5();
+  }
+
+  /**
+   * Whether the word ends with a suffix and has at least one char before it
+   */
+  protected boolean ends(char[] suffix) {
+    return k > suffix.length && Arrays.equals(b, k - suffix.length, k, suffix, 0, suffix.length);
+  }
+
+  /**
+   * Whether the word ends with a suffix and has at least one char before it
+   */
+  protected boolean ends(String suffix) {
+    if (k <= suffix.length())
+      return false;
+    for (int i = 0; i < suffix.length(); i++) {
+      if (b[k - suffix.length() + i] != suffix.charAt(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Whether a char is a vowel, given the char before it
+   */
+  protected static boolean vowel(char ch, char prev) {
+    switch (ch) {
+      case 'a':
+      case 'e':
+      case 'i':
+      case 'o':
+      case 'u':
+        return true;
+      case 'y':
+        switch (prev) {
+          case 'a':
+          case 'e':
+          case 'i':
+          case 'o':
+          case 'u':
+            return false;
+          default:
+            return true;
+        }
+      default:
+        return false;
+    }
+  }
+
+  /**
+   * The number of vowel-consonant sequences in the first length chars of the word
+   */
+  protected int measure(int length) {
+    int i = 0, count = 0;
+    while (i < length) {
+      for (; i < length; i++) {
+        if (vowel(b[i], i > 0 ? b[i - 1] : 'a'))
+          break;
+      }
+      for (i++; i < length; i++) {
+        if (!vowel(b[i], i > 0 ? b[i - 1] : '?'))
+          break;
+      }
+      if (i < length) {
+        count++;
+        i++;
+      }
+    }
+    return count;
+  }
+
+  /**
+   * Whether the first length chars of the word contain a vowel
+   */
+  protected boolean containsVowel(int length) {
+    for (int i = 0; i < length; i++) {
+      if (vowel(b[i], i > 0 ? b[i - 1] : 'a'))
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * Whether the first length chars of the word end consonant-vowel-consonant,
+   * where the last consonant is not w, x or y
+   */
+  protected boolean cvc(int length) {
+    if (length < 3)
+      return false;
+    char last = b[length - 1];
+    if (!vowel(last, b[length - 2]) && last != 'w' && last != 'x' && last != 'y' &&
+        vowel(b[length - 2], b[length - 3])) {
+      if (length == 3)
+        return !vowel(b[0], '?');
+      else
+        return !vowel(b[length - 3], b[length - 4]);
+    }
+    return false;
+  }
+
+  /**
+   * Remove plurals and -ed or -ing
+   */
+  protected void step1() {
+    if (b[k - 1] == 's') {
+      if (ends("sses") || ends("ies"))
+        k = k - 2;
+      else {
+        if (k == 1) {
+          k = 0;
+          return;
+        }
+        if (b[k - 2] != 's')
+          k = k - 1;
+      }
+    }
+    if (ends("eed")) {
+      if (measure(k - 3) > 0)
+        k = k - 1;
+    } else {
+      int stemLength = ends("ed") ? k - 2 : (ends("ing") ? k - 3 : -1);
+      if (stemLength >= 0 && containsVowel(stemLength)) {
+        k = stemLength;
+        if (k == 1)
+          return;
+        if (ends("at") || ends("bl") || ends("iz"))
+          b[k++] = 'e';
+        else {
+          char last = b[k - 1];
+          if (last == b[k - 2] && last != 'l' && last != 's' && last != 'z')
+            k = k - 1;
+          else if (measure(k) == 1 && cvc(k))
+            b[k++] = 'e';
+        }
+      }
+    }
+    if (ends("y") && containsVowel(k - 1))
+      b[k - 1] = 'i';
+  }
+
+  /**
+   * Replace a suffix with its replacement, for the first suffix the word
+   * ends with whose stem has a measure of more than 0
+   */
+  protected void replaceSuffix(char[][][] suffixes) {
+    for (char[][] suffix : suffixes) {
+      if (ends(suffix[0]) && measure(k - suffix[0].length) > 0) {
+        k = k - suffix[0].length;
+        System.arraycopy(suffix[1], 0, b, k, suffix[1].length);
+        k = k + suffix[1].length;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Map double suffixes to single ones
+   */
+  protected void step2() {
+    replaceSuffix(step2Suffixes);
+  }
+
+  /**
+   * Remove -ic-, -full, -ness, etc.
+   */
+  protected void step3() {
+    replaceSuffix(step3Suffixes);
+  }
+
+  /**
+   * Remove -ant, -ence, etc., when the stem has a measure of more than 1
+   */
+  protected void step4() {
+    for (char[] suffix : step4Suffixes) {
+      if (ends(suffix) && measure(k - suffix.length) > 1) {
+        k = k - suffix.length;
+        return;
+      }
+    }
+  }
+
+  /**
+   * Remove a final -e and change -ll to -l, depending on the measure
+   */
+  protected void step5() {
+    if (b[k - 1] == 'e') {
+      int m = measure(k);
+      if (m > 1)
+        k = k - 1;
+      else if (m == 1 && !cvc(k - 1))
+        k = k - 1;
+    }
+    if (k == 1)
+      return;
+    if (b[k - 1] == 'l' && b[k - 2] == 'l' && measure(k) > 1)
+      k = k - 1;
+  }
+
+  /**
+   * The chars of each string
+   */
+  protected static char[][] chars(String[] strings) {
+    char[][] chars = new char[strings.length][];
+    for (int i = 0; i < strings.length; i++)
+      chars[i] = strings[i].toCharArray();
+    return chars;
+  }
+
+  /**
+   * The chars of each string of each array
+   */
+  protected static char[][][] chars(String[][] strings) {
+    char[][][] chars = new char[strings.length][][];
+    for (int i = 0; i < strings.length; i++)
+      chars[i] = chars(strings[i]);
+    return chars;
+  }
+
+  /**
+   * Check that every word in the given files (split at whitespace and the
+   * tokenizer delimiters of ir.vsr.TextFileDocument) gets the same stem as
+   * from Porter, and compare the time taken by Porter, by a PorterStemmer and
+   * by the memoized stem(String).  A FILE that is a directory stands for
+   * all the files in it.
+   * Command format: "PorterStemmer [FILE]*"
+   */
+  public static void main(String[] args) throws IOException {
+    List<String> words = new ArrayList<String>();
+    for (String fileName : args) {
+      File file = new File(fileName);
+      File[] files = file.isDirectory() ? file.listFiles() : new File[]{file};
+      for (File wordFile : files) {
+        BufferedReader in = new BufferedReader(new FileReader(wordFile));
+        String line;
+        while ((line = in.readLine()) != null) {
+          StringTokenizer tokenizer = new StringTokenizer(line, " \t\n\r\f\'\"\\1234567890!@#$%^&*()_+-={}|[]:;<,>.?/`~");
+          while (tokenizer.hasMoreTokens())
+            words.add(tokenizer.nextToken().toLowerCase());
+        }
+        in.close();
+      }
+    }
+    Porter porter = new Porter();
+    PorterStemmer stemmer = new PorterStemmer();
+    Set<String> distinct = new HashSet<String>(words);
+    int mismatches = 0;
+    for (String word : distinct) {
+      String expected = porter.stripAffixes(word);
+      if (!expected.equals(stemmer.stripAffixes(word)) || !expected.equals(stem(word))) {
+        if (mismatches++ < 10)
+          System.out.println("Stem of " + word + ": Porter " + expected + ", PorterStemmer " + stemmer.stripAffixes(word));
+      }
+    }
+    long[] times = new long[3];
+    // Twice over, so the second round is warmed up
+    for (int rep = 0; rep < 2; rep++) {
+      long start = System.nanoTime();
+      for (String word : words)
+        porter.stripAffixes(word);
+      times[0] = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (String word : words)
+        stemmer.stripAffixes(word);
+      times[1] = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (String word : words)
+        stem(word);
+      times[2] = System.nanoTime() - start;
+    }
+    System.out.println(words.size() + " words, " + distinct.size() + " distinct, " + mismatches + " stems differ");
+    System.out.println("Porter:          " + MoreMath.roundTo(times[0] / (double) words.size(), 1) + " ns/word");
+    System.out.println("PorterStemmer:   " + MoreMath.roundTo(times[1] / (double) words.size(), 1) + " ns/word");
+    System.out.println("memoized stem(): " + MoreMath.roundTo(times[2] / (double) words.size(), 1) + " ns/word");
+  }
+
+}
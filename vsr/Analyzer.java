@@ -0,0 +1,575 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Turns the text of a document into its sequence of tokens without
+ * creating a String per token.  Text is read in blocks into a reused char
+ * buffer and split at the delimiters of TextFileDocument.tokenizerDelim.
+ * Each candidate token is then looked up, straight from the buffer, in a
+ * memo of every candidate seen before, which records what lowercasing,
+ * the letter check, stopword removal and stemming made of it: either a
+ * term ID or nothing.  Only a candidate never seen before is run through
+ * Document.normalize, so the tokens are exactly those of Document.nextToken,
+ * and each distinct term is a single shared String.
+ * <p/>
+ * An Analyzer keeps its memo from one document to the next and so is not
+ * thread-safe; forThread() gives each thread its own.  The tokens of the
+ * current document are available as term IDs in order and as counts of each
+ * distinct term.  The memo grows with the vocabulary of all the documents
+ * analyzed, which is about the size of the index built from them, until
+ * reset() empties it; memorySize() estimates its size.
+ */
+
+public class Analyzer {
+
+  /**
+   * The number of chars of text read at a time
+   */
+  public static final int BUFFER_SIZE = 8192;
+
+  /**
+   * Whether each ASCII char separates tokens; every other char is part of a token
+   */
+  protected static final boolean[] delimiter = new boolean[128];
+
+  static {
+    for (char c : TextFileDocument.tokenizerDelim.toCharArray())
+      delimiter[c] = true;
+  }
+
+  /**
+   * The estimated bytes of memory taken by a term besides the arrays
+   * indexed by term ID: its String, its hash entry, etc.
+   */
+  public static final int TERM_OVERHEAD = 120;
+
+  /**
+   * The term of a candidate that has not been normalized yet
+   */
+  protected static final int UNRESOLVED = -2;
+
+  /**
+   * The term of a candidate that is not a token (a stopword, or not all letters)
+   */
+  protected static final int DROPPED = -1;
+
+  /**
+   * The Analyzer of each thread
+   */
+  protected static final ThreadLocal<Analyzer> analyzers = ThreadLocal.withInitial(Analyzer::new);
+
+  /**
+   * The open-addressing hash table of the memo: 1 + the index of the
+   * candidate in each slot, or 0 if empty.  Its size is a power of 2.
+   */
+  protected int[] slots = new int[1 << 12];
+
+  /**
+   * The chars of every candidate in the memo, one after another
+   */
+  protected char[] candidateChars = new char[1 << 15];
+
+  /**
+   * The number of chars used in candidateChars
+   */
+  protected int numCandidateChars = 0;
+
+  /**
+   * Where the chars of each candidate start in candidateChars
+   */
+  protected int[] candidateStart = new int[1 << 11];
+
+  /**
+   * The number of chars in each candidate
+   */
+  protected int[] candidateLength = new int[1 << 11];
+
+  /**
+   * The hash code of each candidate (as computed by String.hashCode)
+   */
+  protected int[] candidateHash = new int[1 << 11];
+
+  /**
+   * The term ID each candidate becomes without stemming, or DROPPED or UNRESOLVED
+   */
+  protected int[] plainTerm = new int[1 << 11];
+
+  /**
+   * The term ID each candidate becomes with stemming, or DROPPED or UNRESOLVED
+   */
+  protected int[] stemmedTerm = new int[1 << 11];
+
+  /**
+   * The number of candidates in the memo
+   */
+  protected int numCandidates = 0;
+
+  /**
+   * The term of each term ID
+   */
+  protected List<String> terms = new ArrayList<String>();
+
+  /**
+   * The ID of each term
+   */
+  protected Map<String, Integer> termIds = new HashMap<String, Integer>();
+
+  /**
+   * The ID in dictionary of each term, by term ID, or -1 if not
+   * looked up yet; each is looked up once, when a vector is first built
+   * with the term, so that vectors are built without hashing a String
+   */
+  protected int[] dictionaryIds = newDictionaryIds(1 << 11);
+
+  /**
+   * The TermDictionary that dictionaryIds came from, or null if none yet
+   */
+  protected TermDictionary dictionary = null;
+
+  /**
+   * Whether tokens of the current document are stemmed
+   */
+  protected boolean stem = false;
+
+  /**
+   * The term ID of each token of the current document, in order
+   */
+  protected int[] tokens = new int[1024];
+
+  /**
+   * The number of tokens in the current document
+   */
+  protected int numTokens = 0;
+
+  /**
+   * The number of times each term occurs in the current document, by term ID
+   */
+  protected int[] termCounts = new int[1 << 11];
+
+  /**
+   * The distinct terms of the current document, in order of first occurrence
+   */
+  protected int[] docTerms = new int[256];
+
+  /**
+   * The number of distinct terms in the current document
+   */
+  protected int numDocTerms = 0;
+
+  /**
+   * The buffer text is read into
+   */
+  protected char[] buffer = new char[BUFFER_SIZE];
+
+  /**
+   * The Analyzer of the current thread
+   */
+  public static Analyzer forThread() {
+    return analyzers.get();
+  }
+
+  /**
+   * Empty the memo and forget every term, so that the memory they take can
+   * be reclaimed.  Term IDs handed out before are no longer valid.
+   */
+  public void reset() {
+    slots = new int[1 << 12];
+    candidateChars = new char[1 << 15];
+    numCandidateChars = 0;
+    candidateStart = new int[1 << 11];
+    candidateLength = new int[1 << 11];
+    candidateHash = new int[1 << 11];
+    plainTerm = new int[1 << 11];
+    stemmedTerm = new int[1 << 11];
+    numCandidates = 0;
+    terms = new ArrayList<String>();
+    termIds = new HashMap<String, Integer>();
+    dictionaryIds = newDictionaryIds(1 << 11);
+    dictionary = null;
+    termCounts = new int[1 << 11];
+    numDocTerms = 0;
+    numTokens = 0;
+  }
+
+  /**
+   * The estimated bytes of memory taken by the memo and the terms, which
+   * grow with the vocabulary
+   */
+  public long memorySize() {
+    long bytes = 4L * slots.length + 2L * candidateChars.length;
+    // candidateStart, candidateLength, candidateHash, plainTerm and stemmedTerm
+    bytes = bytes + 5L * 4 * candidateHash.length;
+    // termCounts and dictionaryIds
+    bytes = bytes + 2L * 4 * termCounts.length;
+    return bytes + (long) TERM_OVERHEAD * terms.size();
+  }
+
+  /**
+   * Start on the tokens of a new document.
+   *
+   * @param stem Whether tokens should be stemmed with Porter stemmer.
+   */
+  public void startDocument(boolean stem) {
+    this.stem = stem;
+    for (int i = 0; i < numDocTerms; i++)
+      termCounts[docTerms[i]] = 0;
+    numDocTerms = 0;
+    numTokens = 0;
+  }
+
+  /**
+   * Add the tokens of all the text left in a reader to the current document.
+   */
+  public void analyze(Reader reader) throws IOException {
+    // The number of chars at the start of the buffer left from a token cut
+    // off by the end of the last block read
+    int carry = 0;
+    int n;
+    while (true) {
+      if (carry == buffer.length)
+        buffer = Arrays.copyOf(buffer, 2 * buffer.length);
+      n = reader.read(buffer, carry, buffer.length - carry);
+      if (n == -1)
+        break;
+      int end = carry + n;
+      int rest = scan(buffer, 0, end, false);
+      carry = end - rest;
+      System.arraycopy(buffer, rest, buffer, 0, carry);
+    }
+    scan(buffer, 0, carry, true);
+  }
+
+  /**
+   * Add the tokens of some text to the current document.
+   */
+  public void analyze(char[] text, int start, int end) {
+    scan(text, start, end, true);
+  }
+
+  /**
+   * Add the tokens of a string to the current document.
+   */
+  public void analyze(String text) {
+    char[] chars = text.toCharArray();
+    scan(chars, 0, chars.length, true);
+  }
+
+  /**
+   * Add a token that has already been normalized (as by Document.nextToken)
+   * to the current document.
+   */
+  public void addTerm(String term) {
+    addToken(termId(term));
+  }
+
+  /**
+   * Split text into candidate tokens and add each to the current document.
+   *
+   * @param last Whether the text ends the document, so that a candidate
+   *             running to the end is complete.
+   * @return The offset of the candidate running to the end, which was not
+   * added since more of it may follow, or end if there is none.
+   */
+  protected int scan(char[] text, int start, int end, boolean last) {
+    int i = start;
+    while (i < end) {
+      char c = text[i];
+      if (c < 128 && delimiter[c]) {
+        i++;
+        continue;
+      }
+      int candidateStart = i;
+      int hash = 0;
+      while (i < end && ((c = text[i]) >= 128 || !delimiter[c])) {
+        hash = 31 * hash + c;
+        i++;
+      }
+      if (i == end && !last)
+        return candidateStart;
+      addCandidate(text, candidateStart, i - candidateStart, hash);
+    }
+    return end;
+  }
+
+  /**
+   * Add a candidate token to the current document, if it is a token,
+   * normalizing it only if it is not in the memo.
+   */
+  protected void addCandidate(char[] text, int start, int length, int hash) {
+    int candidate = findCandidate(text, start, length, hash);
+    int[] candidateTerms = stem ? stemmedTerm : plainTerm;
+    int termId = candidateTerms[candidate];
+    if (termId == UNRESOLVED) {
+      String token = Document.normalize(new String(text, start, length), stem);
+      termId = (token == null) ? DROPPED : termId(token);
+      candidateTerms[candidate] = termId;
+    }
+    if (termId != DROPPED)
+      addToken(termId);
+  }
+
+  /**
+   * The index of a candidate in the memo, adding it if it is new
+   */
+  protected int findCandidate(char[] text, int start, int length, int hash) {
+    int mask = slots.length - 1;
+    int slot = hash & mask;
+    while (slots[slot] != 0) {
+      int candidate = slots[slot] - 1;
+      if (candidateHash[candidate] == hash && candidateLength[candidate] == length &&
+          Arrays.equals(candidateChars, candidateStart[candidate], candidateStart[candidate] + length,
+              text, start, start + length))
+        return candidate;
+      slot = (slot + 1) & mask;
+    }
+    // A new candidate
+    if (numCandidates == candidateHash.length) {
+      int size = 2 * numCandidates;
+      candidateStart = Arrays.copyOf(candidateStart, size);
+      candidateLength = Arrays.copyOf(candidateLength, size);
+      candidateHash = Arrays.copyOf(candidateHash, size);
+      plainTerm = Arrays.copyOf(plainTerm, size);
+      stemmedTerm = Arrays.copyOf(stemmedTerm, size);
+    }
+    if (numCandidateChars + length > candidateChars.length)
+      candidateChars = Arrays.copyOf(candidateChars, Math.max(2 * candidateChars.length, numCandidateChars + length));
+    int candidate = numCandidates++;
+    System.arraycopy(text, start, candidateChars, numCandidateChars, length);
+    candidateStart[candidate] = numCandidateChars;
+    candidateLength[candidate] = length;
+    candidateHash[candidate] = hash;
+    plainTerm[candidate] = UNRESOLVED;
+    stemmedTerm[candidate] = UNRESOLVED;
+    numCandidateChars = numCandidateChars + length;
+    slots[slot] = candidate + 1;
+    // Keep the table at most half full
+    if (2 * numCandidates > slots.length)
+      rehash();
+    return candidate;
+  }
+
+  /**
+   * Double the size of the hash table of the memo
+   */
+  protected void rehash() {
+    slots = new int[2 * slots.length];
+    int mask = slots.length - 1;
+    for (int candidate = 0; candidate < numCandidates; candidate++) {
+      int slot = candidateHash[candidate] & mask;
+      while (slots[slot] != 0)
+        slot = (slot + 1) & mask;
+      slots[slot] = candidate + 1;
+    }
+  }
+
+  /**
+   * The ID of a term, giving it the next ID if it is new
+   */
+  protected int termId(String term) {
+    Integer termId = termIds.get(term);
+    if (termId == null) {
+      termId = terms.size();
+      terms.add(term);
+      termIds.put(term, termId);
+      if (termId == termCounts.length) {
+        termCounts = Arrays.copyOf(termCounts, 2 * termCounts.length);
+        int[] ids = newDictionaryIds(2 * dictionaryIds.length);
+        System.arraycopy(dictionaryIds, 0, ids, 0, dictionaryIds.length);
+        dictionaryIds = ids;
+      }
+    }
+    return termId;
+  }
+
+  /**
+   * An array of TermDictionary IDs, none of them looked up yet
+   */
+  protected static int[] newDictionaryIds(int size) {
+    int[] ids = new int[size];
+    Arrays.fill(ids, -1);
+    return ids;
+  }
+
+  /**
+   * Add a token with this term ID to the end of the current document
+   */
+  protected void addToken(int termId) {
+    if (numTokens == tokens.length)
+      tokens = Arrays.copyOf(tokens, 2 * tokens.length);
+    tokens[numTokens++] = termId;
+    if (termCounts[termId]++ == 0) {
+      if (numDocTerms == docTerms.length)
+        docTerms = Arrays.copyOf(docTerms, 2 * docTerms.length);
+      docTerms[numDocTerms++] = termId;
+    }
+  }
+
+  /**
+   * The number of tokens in the current document
+   */
+  public int numTokens() {
+    return numTokens;
+  }
+
+  /**
+   * The term ID of the token at this position in the current document
+   */
+  public int token(int position) {
+    return tokens[position];
+  }
+
+  /**
+   * The number of distinct terms in the current document
+   */
+  public int numTerms() {
+    return numDocTerms;
+  }
+
+  /**
+   * The term ID of the i'th distinct term of the current document, in order of first occurrence
+   */
+  public int termId(int i) {
+    return docTerms[i];
+  }
+
+  /**
+   * The number of times the i'th distinct term occurs in the current document
+   */
+  public int count(int i) {
+    return termCounts[docTerms[i]];
+  }
+
+  /**
+   * The term with this term ID
+   */
+  public String term(int termId) {
+    return terms.get(termId);
+  }
+
+  /**
+   * The bag-of-words vector of the current document, as Document.hashMapVector
+   */
+  public HashMapVector vector() {
+    HashMapVector vector = new HashMapVector(numDocTerms);
+    if (vector.dictionary() != dictionary) {
+      // New vectors have a new dictionary, so the IDs looked up before are not in it
+      if (dictionary != null)
+        Arrays.fill(dictionaryIds, -1);
+      dictionary = vector.dictionary();
+    }
+    // Insert terms in order of first occurrence, as counting tokens one at a time would
+    for (int i = 0; i < numDocTerms; i++) {
+      int termId = docTerms[i];
+      if (dictionaryIds[termId] == -1)
+        dictionaryIds[termId] = dictionary.id(terms.get(termId));
+      vector.increment(dictionaryIds[termId], termCounts[termId]);
+    }
+    return vector;
+  }
+
+  /**
+   * The positions at which each term occurs in the current document, as
+   * Document.tokenPositions
+   */
+  public Map<String, int[]> positions() {
+    int[][] termPositions = new int[numDocTerms][];
+    // The index in termPositions of each term, while they are being filled in
+    int[] index = new int[numDocTerms];
+    for (int i = 0; i < numDocTerms; i++) {
+      termPositions[i] = new int[termCounts[docTerms[i]]];
+      termCounts[docTerms[i]] = -(i + 1);
+    }
+    for (int position = 0; position < numTokens; position++) {
+      int i = -termCounts[tokens[position]] - 1;
+      termPositions[i][index[i]++] = position;
+    }
+    Map<String, int[]> positions = new HashMap<String, int[]>(2 * numDocTerms);
+    for (int i = 0; i < numDocTerms; i++) {
+      // Put the counts back
+      termCounts[docTerms[i]] = termPositions[i].length;
+      positions.put(terms.get(docTerms[i]), termPositions[i]);
+    }
+    return positions;
+  }
+
+  /**
+   * Compare the throughput of tokenizing documents one String token at a
+   * time with Document.nextToken and tokenizing them with an Analyzer, and
+   * check that both give the same vectors.
+   * Command format: "Analyzer [OPTION]* [DIR]" where DIR is the directory of
+   * documents to tokenize.  OPTIONs can be "-html" and "-stem" as for
+   * InvertedIndex.
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    long numBytes = 0;
+    int numDocs = 0;
+    for (File file : new File(dirName).listFiles()) {
+      if (!file.isDirectory()) {
+        numBytes = numBytes + file.length();
+        numDocs++;
+      }
+    }
+    long numTokens = 0;
+    long[] times = new long[2];
+    int mismatches = 0;
+    // Twice over, so the second round is warmed up (and the files are cached)
+    for (int rep = 0; rep < 2; rep++) {
+      List<HashMapVector> oneAtATime = new ArrayList<HashMapVector>(numDocs);
+      long start = System.nanoTime();
+      DocumentIterator docIter = new DocumentIterator(new File(dirName), docType, stem);
+      numTokens = 0;
+      while (docIter.hasMoreDocuments()) {
+        FileDocument doc = docIter.nextDocument();
+        HashMapVector vector = new HashMapVector();
+        while (doc.hasMoreTokens())
+          vector.increment(doc.nextToken());
+        numTokens = numTokens + doc.numberOfTokens();
+        oneAtATime.add(vector);
+      }
+      times[0] = System.nanoTime() - start;
+      List<HashMapVector> analyzed = new ArrayList<HashMapVector>(numDocs);
+      start = System.nanoTime();
+      docIter = new DocumentIterator(new File(dirName), docType, stem);
+      while (docIter.hasMoreDocuments())
+        analyzed.add(docIter.nextDocument().hashMapVector());
+      times[1] = System.nanoTime() - start;
+      mismatches = 0;
+      for (int i = 0; i < oneAtATime.size(); i++) {
+        if (!ForwardIndex.sameVectors(oneAtATime.get(i), analyzed.get(i)))
+          mismatches++;
+      }
+    }
+    if (mismatches > 0)
+      System.out.println(mismatches + " document vectors differ from tokenizing one token at a time!");
+    System.out.println(numDocs + " documents, " + numBytes / 1024 + "KB, " + numTokens + " tokens:");
+    System.out.println("one at a time: " + throughput(numDocs, numBytes, numTokens, times[0]));
+    System.out.println("analyzer:      " + throughput(numDocs, numBytes, numTokens, times[1]));
+  }
+
+  /**
+   * Describe the rate at which documents were tokenized
+   */
+  protected static String throughput(int numDocs, long numBytes, long numTokens, long nanos) {
+    double seconds = nanos / 1e9;
+    return MoreMath.roundTo(numDocs / seconds, 0) + " docs/sec, " +
+        MoreMath.roundTo(numBytes / 1048576.0 / seconds, 1) + " MB/sec, " +
+        MoreMath.roundTo(numTokens / 1e6 / seconds, 2) + "M tokens/sec";
+  }
+
+}
@@ -0,0 +1,79 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * A PostingsList that stores just the document number and occurrence count
+ * of each posting, as used by an InvertedIndex that does not keep positions.
+ */
+
+public class CountPostingsList extends PostingsList {
+
+  /**
+   * Create an empty postings list compressed with the given codec
+   */
+  public CountPostingsList(PostingsCodec codec) {
+    super(codec);
+  }
+
+  /**
+   * Create a postings list from already compressed blocks, as read from an index file
+   */
+  protected CountPostingsList(PostingsCodec codec, byte[] data, int[] blockOffsets, int[] blockLastDocs,
+                              int[] blockSizes, int size) {
+    super(codec, data, blockOffsets, blockLastDocs, blockSizes, size);
+  }
+
+  /**
+   * Create a postings list from dataSize bytes of already compressed blocks,
+   * which are held in data or, if it is null, elsewhere by a subclass
+   */
+  protected CountPostingsList(PostingsCodec codec, byte[] data, int dataSize, int[] blockOffsets,
+                              int[] blockLastDocs, int[] blockSizes, int size) {
+    super(codec, data, dataSize, blockOffsets, blockLastDocs, blockSizes, size);
+  }
+
+  /**
+   * Add a posting for a document after all those already in the list.
+   *
+   * @param doc   The number of the document, which must be greater than the last one added.
+   * @param count The number of times the token occurs in the document.
+   */
+  public void add(int doc, int count) {
+    addPosting(doc, count);
+  }
+
+  /**
+   * Add all the postings of another list, renumbering its documents by adding docOffset.
+   */
+  public void addAll(PostingsList other, int docOffset) {
+    int[] docs = new int[BLOCK_SIZE];
+    int[] counts = new int[BLOCK_SIZE];
+    for (int block = 0; block < other.numBlocks(); block++) {
+      int n = other.decodeBlock(block, docs, counts);
+      for (int i = 0; i < n; i++)
+        add(docs[i] + docOffset, counts[i]);
+    }
+  }
+
+  /**
+   * Return a new, finished list of the postings whose documents are not deleted.
+   *
+   * @param docRefs The documents of the index, by document number.
+   */
+  public PostingsList withoutDeleted(List<DocumentReference> docRefs) {
+    CountPostingsList livePostings = new CountPostingsList(codec);
+    int[] docs = new int[BLOCK_SIZE];
+    int[] counts = new int[BLOCK_SIZE];
+    for (int block = 0; block < numBlocks(); block++) {
+      int n = decodeBlock(block, docs, counts);
+      for (int i = 0; i < n; i++) {
+        if (!docRefs.get(docs[i]).deleted)
+          livePostings.add(docs[i], counts[i]);
+      }
+    }
+    livePostings.finish();
+    return livePostings;
+  }
+
+}
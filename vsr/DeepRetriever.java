@@ -72,7 +72,10 @@ public class DeepRetriever {
         dimension = vectorDimension(files[0]);
         for (int k = 0; k < files.length; k++) {
             System.out.print(files[k].getName() + ",");
-            docRefs.add(new DeepDocumentReference(files[k], dimension));
+            DeepDocumentReference docRef = new DeepDocumentReference(files[k], dimension);
+            // Number documents in order so that ties are ranked consistently
+            docRef.id = k;
+            docRefs.add(docRef);
         }
     }
 
@@ -117,14 +120,9 @@ public class DeepRetriever {
         // Make an array to store the final ranked Retrievals.
         Retrieval[] retrievals = new Retrieval[docRefs.size()];
         int pos = 0;
-        double score;
         // Score each stored document using Euclidian or cosine to rank documents
         for (DeepDocumentReference docRef : docRefs) {
-            if (useCosine)
-                score = cosineSimilarity(queryDocRef, docRef);
-            else
-                score = 1 / euclidianDistance(queryDocRef.vector, docRef.vector);
-            retrievals[pos] = new Retrieval(docRef, score);
+            retrievals[pos] = new Retrieval(docRef, score(queryDocRef, docRef));
             pos++;
         }
         // Sort the retrievals based on their computed scores
@@ -132,6 +130,28 @@ public class DeepRetriever {
         return retrievals;
     }
 
+    /**
+     * Perform ranked retrieval on an input query encoded as a
+     * DeepDocumentReference, returning only the top k documents.
+     * Scores are passed through a bounded heap rather than sorted.
+     */
+    public Retrieval[] retrieve(DeepDocumentReference queryDocRef, int k) {
+        RetrievalHeap heap = new RetrievalHeap(Math.min(k, docRefs.size()));
+        for (DeepDocumentReference docRef : docRefs)
+            heap.offer(docRef, score(queryDocRef, docRef));
+        return heap.toRetrievals();
+    }
+
+    /**
+     * Score a stored document against a query using Euclidian or cosine similarity
+     */
+    public double score(DeepDocumentReference queryDocRef, DeepDocumentReference docRef) {
+        if (useCosine)
+            return cosineSimilarity(queryDocRef, docRef);
+        else
+            return 1 / euclidianDistance(queryDocRef.vector, docRef.vector);
+    }
+
     /**
      * Compute Euclidian distance between two vectors
      */
@@ -0,0 +1,50 @@
+package ir.vsr;
+
+import java.io.*;
+
+/**
+ * A Reader that puts off opening the reader it reads from until it is first
+ * read.  A document iterator hands documents out to indexing threads with
+ * a DeferredReader of their text, so that the work of decompressing and
+ * decoding a document is done by the thread that tokenizes it rather than
+ * by the thread reading through the source.
+ */
+
+public abstract class DeferredReader extends Reader {
+
+  /**
+   * The reader of the text, once opened
+   */
+  protected Reader in = null;
+
+  /**
+   * Whether the reader has been closed
+   */
+  protected boolean closed = false;
+
+  /**
+   * Open the reader of the text
+   */
+  protected abstract Reader open() throws IOException;
+
+  /**
+   * Read text into part of a buffer, opening the reader first if needed
+   */
+  public int read(char[] buffer, int offset, int length) throws IOException {
+    if (closed)
+      throw new IOException("Reader closed");
+    if (in == null)
+      in = open();
+    return in.read(buffer, offset, length);
+  }
+
+  /**
+   * Close the reader, if it was ever opened
+   */
+  public void close() throws IOException {
+    closed = true;
+    if (in != null)
+      in.close();
+  }
+
+}
@@ -26,14 +26,10 @@ public abstract class Document {
    */
   protected static final int numStopWords = 514;
   /**
-   * The hashtable where stopwords are indexed
+   * The hashtable where stopwords are indexed.  Volatile so that a set
+   * loaded by one indexing thread is seen fully built by all others.
    */
-  protected static HashSet<String> stopWords = null;
-  /**
-   * The Porter stemmer
-   */
-  protected static Porter stemmer = new Porter();
-
+  protected static volatile HashSet<String> stopWords = null;
   /**
    * The next token in the document
    */
@@ -88,29 +84,44 @@ public abstract class Document {
   protected void prepareNextToken() {
     // Loop until a non-stopword token is found
     do {
-      nextToken = getNextCandidateToken();
-      if (nextToken == null) return; // reached end of document
-      // Normalize token string case to lower case.
-      nextToken = nextToken.toLowerCase();
-      // Do not include a token found in the stopword list as
-      // indexed in the stopwords hashtable.
-      // Also do not include tokens that are not all Unicode letters
-      if (stopWords.contains(nextToken) || !allLetters(nextToken))
+      String candidateToken = getNextCandidateToken();
+      if (candidateToken == null) {
+        // reached end of document
         nextToken = null;
-      else if (stem) {
-        nextToken = stemmer.stripAffixes(nextToken);
-        if (stopWords.contains(nextToken))
-          nextToken = null;
+        return;
       }
+      nextToken = normalize(candidateToken, stem);
     }
     while (nextToken == null);
   }
 
+  /**
+   * Return the token a candidate token becomes, or null if it is not a
+   * token: lower case, and stemmed if stem is true, unless it is a stopword
+   * or is not all letters.
+   */
+  protected static String normalize(String candidateToken, boolean stem) {
+    // Normalize token string case to lower case.
+    String token = candidateToken.toLowerCase();
+    // Do not include a token found in the stopword list as
+    // indexed in the stopwords hashtable.
+    // Also do not include tokens that are not all Unicode letters
+    if (stopWords.contains(token) || !allLetters(token))
+      return null;
+    if (stem) {
+      // Safe to call from the threads that tokenize documents concurrently
+      token = PorterStemmer.stem(token);
+      if (stopWords.contains(token))
+        return null;
+    }
+    return token;
+  }
+
   /**
    * Check if this token consists of all Unicode letters to eliminate
    * other bizarre tokens
    */
-  protected boolean allLetters(String token) {
+  protected static boolean allLetters(String token) {
     for (int i = 0; i < token.length(); i++) {
       if (!Character.isLetter(token.charAt(i)))
         return false;
@@ -137,13 +148,17 @@ public abstract class Document {
 
   /**
    * Load the stopwords from file to the hashtable where they are indexed.
+   * Synchronized so that concurrently created documents load the file only once.
    */
-  protected static void loadStopWords() {
+  protected static synchronized void loadStopWords() {
+    // Another thread may have loaded the stopwords while we waited for the lock
+    if (stopWords != null)
+      return;
     // Initialize hashtable to proper size given known number of
     // stopwords in the file and a default 75% load factor with
     // 10 extra slots for spare room.
     int HashMapSize = (int) (numStopWords / 0.75 + 10);
-    stopWords = new HashSet<String>(HashMapSize);
+    HashSet<String> words = new HashSet<String>(HashMapSize);
     String line;
     try {
       // Open stopword file for reading
@@ -152,7 +167,7 @@ public abstract class Document {
       while ((line = in.readLine()) != null) {
         // Index word into the hashtable with
         // the default empty string as a "dummy" value.
-        stopWords.add(line);
+        words.add(line);
       }
       in.close();
     }
@@ -160,25 +175,61 @@ public abstract class Document {
       System.out.println("\nCould not load stopwords file: " + stopWordsFile);
       System.exit(1);
     }
+    // Only publish the set once it is completely filled
+    stopWords = words;
   }
 
   /**
    * Returns a hashmap version of the term-vector (bag of words) for this
-   * document, where each token is a key whose value is the number of times
-   * it occurs in the document as stored in a Weight.
+   * document, where the weight of each token is the number of times
+   * it occurs in the document.
    *
-   * @see Weight
+   * @see HashMapVector
    */
   public HashMapVector hashMapVector() {
     if (numTokens != 0)
       return null;
-    HashMapVector vector = new HashMapVector();
-    // Process each token in the document and add it to the vector
-    while (hasMoreTokens()) {
-      String token = nextToken();
-      vector.increment(token);
+    // Tokenize the whole document at once rather than a String at a time
+    Analyzer analyzer = Analyzer.forThread();
+    analyze(analyzer);
+    return analyzer.vector();
+  }
+
+  /**
+   * Run the tokens left in this document through an Analyzer, as the
+   * tokens of a new document.  Afterwards this document has no more tokens.
+   */
+  public void analyze(Analyzer analyzer) {
+    analyzer.startDocument(stem);
+    analyzeTokens(analyzer);
+    numTokens = numTokens + analyzer.numTokens();
+    nextToken = null;
+  }
+
+  /**
+   * Add the tokens left in this document to an Analyzer.  Subclasses that
+   * can hand over the rest of their text do so, to save creating a String
+   * per token.
+   */
+  protected void analyzeTokens(Analyzer analyzer) {
+    // Not nextToken(), which would count the tokens before analyze does
+    while (nextToken != null) {
+      analyzer.addTerm(nextToken);
+      prepareNextToken();
     }
-    return vector;
+  }
+
+  /**
+   * Returns the positions at which each token occurs in this document, in
+   * increasing order, where the tokens left after stopword removal are
+   * numbered from 0.
+   */
+  public Map<String, int[]> tokenPositions() {
+    if (numTokens != 0)
+      return null;
+    Analyzer analyzer = Analyzer.forThread();
+    analyze(analyzer);
+    return analyzer.positions();
   }
 
   /**
@@ -9,6 +9,14 @@ import java.lang.*;
  * Produces DocumentFile objects that are either TextFileDocuments
  * or HTMFileDocuments depending on whether docType is TYPE_TEXT
  * or TYPE_HTML
+ * <p/>
+ * Subclasses iterate over the documents stored in a single source file
+ * instead: the entries of a zip or tar(.gz) archive or the lines of a JSONL
+ * or TSV file.  forSource picks the right iterator for a directory or file.
+ * A document from a source file is named by a File under the source file,
+ * e.g. "corpus.zip/docs/doc1", which does not exist itself but can be
+ * fetched again with getDocument.  An iterator over a source file holds it
+ * open until the iterator is closed or reaches its end.
  *
  * @author Ray Mooney
  */
@@ -41,6 +49,28 @@ public class DocumentIterator {
    */
   protected boolean stem = false;
 
+  /**
+   * The most source files whose iterators getDocument keeps open
+   */
+  public static final int MAX_SOURCES = 16;
+
+  /**
+   * The iterators of source files that documents have been fetched from
+   * again, kept open so that fetching the next document from the same
+   * source file is quick (see getDocument).  Once there are more than
+   * MAX_SOURCES, the least recently used is dropped and closed.  The map is
+   * only used while holding its lock, and iterators are opened and closed
+   * without holding it.
+   */
+  protected static final Map<String, DocumentIterator> sources =
+      new LinkedHashMap<String, DocumentIterator>(16, 0.75f, true);
+
+  /**
+   * Whether this iterator has been closed by closeSource, so getDocument
+   * must not fetch from it
+   */
+  protected boolean closed = false;
+
   /**
    * Create an iterator with these attributes
    *
@@ -81,6 +111,206 @@ public class DocumentIterator {
     this(dirFile, TYPE_TEXT, false);
   }
 
+  /**
+   * Create an iterator with these attributes for a subclass that finds its
+   * documents elsewhere than in the files of a directory
+   */
+  protected DocumentIterator(short docType, boolean stem) {
+    this.docType = docType;
+    this.stem = stem;
+  }
+
+  /**
+   * Create an iterator for the documents in a directory or source file:
+   * a zip archive (.zip), a tar archive (.tar, .tar.gz or .tgz), or a file
+   * of one document per line (.jsonl or .tsv, optionally .gz).
+   *
+   * @param source  The directory or file to use as a source of documents.
+   * @param docType The type of Document to create. e.g. TYPE_TEXT or TYPE_HTML
+   * @param stem    Whether tokens should be stemmed with Porter stemmer.
+   */
+  public static DocumentIterator forSource(File source, short docType, boolean stem) throws IOException {
+    if (source.isDirectory())
+      return new DocumentIterator(source, docType, stem);
+    String name = source.getName().toLowerCase();
+    if (name.endsWith(".gz"))
+      name = name.substring(0, name.length() - 3);
+    if (name.endsWith(".zip"))
+      return new ZipDocumentIterator(source, docType, stem);
+    else if (name.endsWith(".tar") || name.endsWith(".tgz"))
+      return new TarDocumentIterator(source, docType, stem);
+    else if (name.endsWith(".jsonl") || name.endsWith(".ndjson"))
+      return new LineDocumentIterator(source, LineDocumentIterator.FORMAT_JSON, docType, stem);
+    else if (name.endsWith(".tsv"))
+      return new LineDocumentIterator(source, LineDocumentIterator.FORMAT_TSV, docType, stem);
+    else
+      throw new IOException("Not a directory or a known kind of document source: " + source);
+  }
+
+  /**
+   * The source file that holds a document, or null if the document is a file
+   * of its own.  The source file is the innermost of the document's
+   * parents that is a file rather than a directory.
+   */
+  public static File sourceOf(File file) {
+    if (file.exists())
+      return null;
+    for (File parent = file.getParentFile(); parent != null; parent = parent.getParentFile()) {
+      if (parent.isFile())
+        return parent;
+      if (parent.isDirectory())
+        return null;
+    }
+    return null;
+  }
+
+  /**
+   * Create a document of the given docType for a file, or for a document
+   * stored in a source file, fetching it from its source file again.
+   */
+  public static FileDocument getDocument(File file, short docType, boolean stem) throws IOException {
+    File source = sourceOf(file);
+    if (source == null)
+      return createDocument(file, null, docType, stem);
+    String key = source.getPath() + "|" + docType + "|" + stem;
+    while (true) {
+      DocumentIterator iterator;
+      synchronized (sources) {
+        iterator = sources.get(key);
+      }
+      if (iterator == null) {
+        // Open the source without holding the lock, which other sources need
+        DocumentIterator opened = forSource(source, docType, stem);
+        DocumentIterator evicted = null;
+        synchronized (sources) {
+          iterator = sources.get(key);
+          if (iterator == null) {
+            iterator = opened;
+            opened = null;
+            sources.put(key, iterator);
+            evicted = removeEldestSource();
+          }
+        }
+        // Another thread may have opened the same source meanwhile
+        if (opened != null)
+          opened.closeSource();
+        if (evicted != null)
+          evicted.closeSource();
+      }
+      synchronized (iterator) {
+        // Another thread may have closed it since, in which case open it again
+        if (iterator.closed)
+          continue;
+        FileDocument doc = iterator.fetch(file);
+        if (doc == null)
+          throw new FileNotFoundException("No document " + file + " in " + source);
+        return doc;
+      }
+    }
+  }
+
+  /**
+   * Remove the least recently used source from sources if there are more
+   * than MAX_SOURCES, returning it to be closed, or return null.  Call
+   * holding the lock of sources.
+   */
+  protected static DocumentIterator removeEldestSource() {
+    if (sources.size() <= MAX_SOURCES)
+      return null;
+    Iterator<DocumentIterator> iterators = sources.values().iterator();
+    DocumentIterator eldest = iterators.next();
+    iterators.remove();
+    return eldest;
+  }
+
+  /**
+   * Close the iterators of source files that getDocument keeps open.
+   * getDocument opens them again if needed.
+   */
+  public static void closeSources() {
+    List<DocumentIterator> iterators;
+    synchronized (sources) {
+      iterators = new ArrayList<DocumentIterator>(sources.values());
+      sources.clear();
+    }
+    for (DocumentIterator iterator : iterators)
+      iterator.closeSource();
+  }
+
+  /**
+   * Close this iterator as a source kept by getDocument, once it is not
+   * fetching a document.
+   */
+  protected synchronized void closeSource() {
+    closed = true;
+    try {
+      close();
+    }
+    catch (IOException e) {
+      System.err.println("Could not close document source: " + e);
+    }
+  }
+
+  /**
+   * Release the source file this iterator reads, if any.  No more documents
+   * can be read from it afterwards.
+   */
+  public void close() throws IOException {
+  }
+
+  /**
+   * Fetch a document of this iterator's source again, by its file, or
+   * return null if it is not there.  The documents of a directory are
+   * files of their own rather than being held in a source file, so this
+   * returns null; subclasses for source files override it.  The document
+   * must be readable after this iterator is closed.
+   */
+  protected FileDocument fetch(File file) throws IOException {
+    return null;
+  }
+
+  /**
+   * Read the documents of a new iterator over a source file until the one
+   * for file is found, and close the iterator; return null if the document
+   * is not there.  This costs a pass over the source per document, so it is
+   * for subclasses that cannot find a document directly.
+   */
+  protected static FileDocument find(DocumentIterator iterator, File file) throws IOException {
+    try {
+      while (iterator.hasMoreDocuments()) {
+        FileDocument doc = iterator.nextDocument();
+        if (doc.file.equals(file))
+          return doc;
+      }
+      return null;
+    }
+    finally {
+      iterator.close();
+    }
+  }
+
+  /**
+   * The name of a document within its source file, i.e. its path relative to
+   * the source file, with '/' separating directories as in archives
+   */
+  protected static String entryName(File source, File file) {
+    return file.getPath().substring(source.getPath().length() + 1).replace(File.separatorChar, '/');
+  }
+
+  /**
+   * Create a document of the given docType for a file.  If text is not
+   * null, it reads the text of the document, which is not stored in the file
+   * itself, e.g. because the file names an entry of an archive.
+   */
+  public static FileDocument createDocument(File file, Reader text, short docType, boolean stem) {
+    switch (docType) {
+      case TYPE_HTML:
+        return text == null ? new HTMLFileDocument(file, stem) : new HTMLFileDocument(file, text, stem);
+      default:
+        return text == null ? new TextFileDocument(file, stem) : new TextFileDocument(file, text, stem);
+    }
+  }
+
   /**
    * Get the next document
    */
@@ -114,10 +344,11 @@ public class DocumentIterator {
 
   /**
    * Test by printing the bag-of-words for each file in the given directory
+   * or source file
    */
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
     String dirName = args[0];
-    DocumentIterator docIter = new DocumentIterator(new File(dirName));
+    DocumentIterator docIter = forSource(new File(dirName), TYPE_TEXT, false);
     while (docIter.hasMoreDocuments()) {
       FileDocument doc = docIter.nextDocument();
       System.out.println("\n" + doc.file);
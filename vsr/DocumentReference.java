@@ -20,6 +20,16 @@ public class DocumentReference {
    * The length of the corresponding Document vector.
    */
   public double length = 0.0;
+  /**
+   * The dense integer ID of this document in the index that contains it,
+   * i.e. its position in the index's list of documents, or -1 if not indexed.
+   */
+  public int id = -1;
+  /**
+   * Whether the document has been deleted from the index.  A deleted document
+   * keeps its place in the index's list of documents so IDs do not change.
+   */
+  public boolean deleted = false;
 
   public DocumentReference(File file, double length) {
     this.file = file;
@@ -39,17 +49,17 @@ public class DocumentReference {
 
   /**
    * Get the full Document for this Document reference by recreating it
-   * with the given docType and stemming
+   * with the given docType and stemming, fetching it from its archive or
+   * other source file if it is not a file of its own
    */
   public Document getDocument(short docType, boolean stem) {
     Document doc = null;
-    switch (docType) {
-      case DocumentIterator.TYPE_TEXT:
-        doc = new TextFileDocument(file, stem);
-        break;
-      case DocumentIterator.TYPE_HTML:
-        doc = new HTMLFileDocument(file, stem);
-        break;
+    try {
+      doc = DocumentIterator.getDocument(file, docType, stem);
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not fetch document: " + file);
+      System.exit(1);
     }
     return doc;
   }
@@ -124,8 +124,7 @@ public class Feedback {
     // Add in the vector for each of the positively rated documents
     for (DocumentReference docRef : goodDocRefs) {
       // Get the document vector for this positive document
-      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem);
-      HashMapVector vector = doc.hashMapVector();
+      HashMapVector vector = invertedIndex.documentVector(docRef);
       // Multiply positive docs by beta and normalize by max token frequency
       vector.multiply(BETA / vector.maxWeight());
       // Add it to the new query vector
@@ -134,8 +133,7 @@ public class Feedback {
     // Subtract the vector for each of the negatively rated documents
     for (DocumentReference docRef : badDocRefs) {
       // Get the document vector for this negative document
-      Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem);
-      HashMapVector vector = doc.hashMapVector();
+      HashMapVector vector = invertedIndex.documentVector(docRef);
       // Multiply negative docs by beta and normalize by max token frequency
       vector.multiply(GAMMA / vector.maxWeight());
       // Subtract it from the new query vector
@@ -144,5 +142,45 @@ public class Feedback {
     return newQuery;
   }
 
+  /**
+   * Use the Ide_regular algorithm to compute a new revised query, keeping
+   * only the maxTerms tokens that count the most in retrieval.  Adding whole
+   * document vectors gives queries with thousands of tokens, which are far
+   * slower to evaluate than the original query.
+   *
+   * @return The revised query vector.
+   */
+  public HashMapVector newQuery(int maxTerms) {
+    return topTerms(newQuery(), maxTerms);
+  }
+
+  /**
+   * Return a copy of a query vector with only the maxTerms tokens whose
+   * weight times IDF is largest in magnitude, ties going to the
+   * alphabetically first token.  Tokens that are not indexed or have an IDF
+   * of 0 add nothing to retrieval, so they are always dropped.
+   */
+  protected HashMapVector topTerms(HashMapVector query, int maxTerms) {
+    List<String> tokens = new ArrayList<String>(query.size());
+    final Map<String, Double> importance = new HashMap<String, Double>();
+    for (int i = 0; i < query.size(); i++) {
+      String token = query.token(i);
+      TokenInfo tokenInfo = invertedIndex.tokenHash.get(token);
+      if (tokenInfo != null && tokenInfo.idf != 0.0 && query.weight(i) != 0.0) {
+        tokens.add(token);
+        importance.put(token, Math.abs(query.weight(i)) * tokenInfo.idf);
+      }
+    }
+    Collections.sort(tokens, new Comparator<String>() {
+      public int compare(String token1, String token2) {
+        int order = Double.compare(importance.get(token2), importance.get(token1));
+        return (order != 0) ? order : token1.compareTo(token2);
+      }
+    });
+    HashMapVector topQuery = new HashMapVector();
+    for (String token : tokens.subList(0, Math.min(maxTerms, tokens.size())))
+      topQuery.increment(token, query.getWeight(token));
+    return topQuery;
+  }
 
 }
@@ -88,8 +88,7 @@ public class FeedbackRated extends Feedback {
         // Add in the vector for each of the positively rated documents
         for (DocumentReference docRef : relavant.keySet()) {
             // Get the document vector for this positive document
-            Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem);
-            HashMapVector vector = doc.hashMapVector();
+            HashMapVector vector = invertedIndex.documentVector(docRef);
             // Multiply positive docs by beta and normalize by max token frequency
             vector.multiply(relavant.get(docRef) * (BETA / vector.maxWeight()));
             // Add it to the new query vector
@@ -98,8 +97,7 @@ public class FeedbackRated extends Feedback {
         // Subtract the vector for each of the negatively rated documents
         for (DocumentReference docRef : irrelavant.keySet()) {
             // Get the document vector for this negative document
-            Document doc = docRef.getDocument(invertedIndex.docType, invertedIndex.stem);
-            HashMapVector vector = doc.hashMapVector();
+            HashMapVector vector = invertedIndex.documentVector(docRef);
             // Multiply negative docs by beta and normalize by max token frequency
             vector.multiply(Math.abs(irrelavant.get(docRef) * (GAMMA / vector.maxWeight())));
             // Subtract it from the new query vector
@@ -17,13 +17,49 @@ public abstract class FileDocument extends Document {
    * The I/O reader for accessing the file
    */
   protected BufferedReader reader = null;
+  /**
+   * The reader of the text of a document that is not stored in a file of its
+   * own, such as an entry of an archive, or null if the text is in the file
+   */
+  protected Reader text = null;
 
   /**
    * Creates a FileDocument and initializes its name and reader.
    */
   public FileDocument(File file, boolean stem) {
+    this(file, stem, true);
+  }
+
+  /**
+   * Creates a FileDocument and initializes its name, and its reader if
+   * openReader is true.  A subclass that opens the file later must call
+   * openReader itself.
+   */
+  protected FileDocument(File file, boolean stem, boolean openReader) {
     super(stem);
     this.file = file;
+    if (openReader)
+      openReader();
+  }
+
+  /**
+   * Creates a FileDocument named by a file whose text comes from the given
+   * reader instead of from the file.  A subclass must call openReader itself.
+   */
+  protected FileDocument(File file, Reader text, boolean stem) {
+    super(stem);
+    this.file = file;
+    this.text = text;
+  }
+
+  /**
+   * Open the reader for accessing the file
+   */
+  protected void openReader() {
+    if (text != null) {
+      this.reader = new BufferedReader(text);
+      return;
+    }
     try {
       this.reader = new BufferedReader(new FileReader(file));
     }
@@ -0,0 +1,223 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A forward index, giving the tokens of each document of an InvertedIndex
+ * and how often each occurs, so that document vectors (as needed for
+ * relevance feedback) can be rebuilt in memory instead of rereading and
+ * retokenizing the documents.
+ * <p/>
+ * Each document is stored as a run of the term IDs of its tokens, in
+ * increasing order, with a parallel run of their counts.  The runs of all
+ * the documents follow one another in two arrays, so the whole forward index
+ * takes two ints per posting.  It is built by transposing the postings of
+ * the inverted index in order of term ID, and must be rebuilt whenever term
+ * IDs are reassigned.
+ */
+
+public class ForwardIndex {
+
+  /**
+   * The number of documents covered, which have IDs 0 to numDocs - 1
+   */
+  public int numDocs;
+
+  /**
+   * The offset in termIds and counts of the run of each document, with an
+   * extra final offset marking the end of the last run
+   */
+  protected int[] docOffsets;
+
+  /**
+   * The term IDs of the tokens of each document, in increasing order within a document
+   */
+  protected int[] termIds;
+
+  /**
+   * The number of times each token occurs in its document
+   */
+  protected int[] counts;
+
+  /**
+   * Build the forward index of every document of an index by transposing its postings.
+   */
+  public ForwardIndex(InvertedIndex index) {
+    numDocs = index.docRefs.size();
+    int[] docs = new int[PostingsList.BLOCK_SIZE];
+    int[] blockCounts = new int[PostingsList.BLOCK_SIZE];
+    // First count the tokens of each document to find where its run starts
+    docOffsets = new int[numDocs + 1];
+    for (TokenInfo tokenInfo : index.tokenHash.values()) {
+      PostingsList postings = tokenInfo.postings;
+      for (int block = 0; block < postings.numBlocks(); block++) {
+        int n = postings.decodeBlock(block, docs, blockCounts);
+        for (int i = 0; i < n; i++)
+          docOffsets[docs[i] + 1]++;
+      }
+    }
+    for (int doc = 0; doc < numDocs; doc++)
+      docOffsets[doc + 1] += docOffsets[doc];
+    termIds = new int[docOffsets[numDocs]];
+    counts = new int[docOffsets[numDocs]];
+    // Then fill in the runs, taking the terms in order so each run comes out sorted
+    int[] next = Arrays.copyOf(docOffsets, numDocs);
+    for (int termId = 0; termId < index.terms.size(); termId++) {
+      TokenInfo tokenInfo = index.tokenHash.get(index.terms.get(termId));
+      if (tokenInfo == null)
+        continue;
+      PostingsList postings = tokenInfo.postings;
+      for (int block = 0; block < postings.numBlocks(); block++) {
+        int n = postings.decodeBlock(block, docs, blockCounts);
+        for (int i = 0; i < n; i++) {
+          termIds[next[docs[i]]] = termId;
+          counts[next[docs[i]]++] = blockCounts[i];
+        }
+      }
+    }
+  }
+
+  /**
+   * Create a forward index from its arrays, as read from an index file
+   */
+  protected ForwardIndex(int[] docOffsets, int[] termIds, int[] counts) {
+    this.numDocs = docOffsets.length - 1;
+    this.docOffsets = docOffsets;
+    this.termIds = termIds;
+    this.counts = counts;
+  }
+
+  /**
+   * Whether the document with this ID is covered by the forward index
+   */
+  public boolean contains(int docId) {
+    return docId >= 0 && docId < numDocs;
+  }
+
+  /**
+   * The number of distinct tokens in a document
+   */
+  public int numTerms(int docId) {
+    return docOffsets[docId + 1] - docOffsets[docId];
+  }
+
+  /**
+   * The term IDs of the tokens of a document, in increasing order
+   */
+  public int[] termIds(int docId) {
+    return Arrays.copyOfRange(termIds, docOffsets[docId], docOffsets[docId + 1]);
+  }
+
+  /**
+   * The counts of the tokens of a document, in the order of termIds
+   */
+  public int[] counts(int docId) {
+    return Arrays.copyOfRange(counts, docOffsets[docId], docOffsets[docId + 1]);
+  }
+
+  /**
+   * The vector of token counts of a document.
+   *
+   * @param docId The ID of the document.
+   * @param terms The tokens of the index, by term ID.
+   */
+  public HashMapVector vector(int docId, List<String> terms) {
+    HashMapVector vector = new HashMapVector();
+    for (int i = docOffsets[docId]; i < docOffsets[docId + 1]; i++)
+      vector.increment(terms.get(termIds[i]), counts[i]);
+    return vector;
+  }
+
+  /**
+   * The number of bytes of memory used by the arrays
+   */
+  public long sizeInBytes() {
+    return 4L * (docOffsets.length + termIds.length + counts.length);
+  }
+
+  /**
+   * Whether two vectors have the same tokens with the same weights
+   */
+  protected static boolean sameVectors(HashMapVector vector1, HashMapVector vector2) {
+    if (vector1.size() != vector2.size())
+      return false;
+    for (int i = 0; i < vector1.size(); i++) {
+      if (vector2.getWeight(vector1.token(i)) != vector1.weight(i))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Compare building relevance feedback document vectors from the forward
+   * index with rereading the documents, for the top retrievals of each query.
+   * Command format: "ForwardIndex [OPTION]* [DIR] [QUERIES]" where DIR is the
+   * directory of documents to index and QUERIES is a query file in the format used by
+   * ir.eval.Experiment.  OPTIONs can be "-html", "-stem" and "-index FILE" as for
+   * InvertedIndex, and "-k K" for the number of top documents per query (default 10).
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 2];
+    File queryFile = new File(args[args.length - 1]);
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    File indexFile = null;
+    int k = 10;
+    for (int i = 0; i < args.length - 2; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-index"))
+        indexFile = new File(args[++i]);
+      else if (flag.equals("-k"))
+        k = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index;
+    if (indexFile != null)
+      index = InvertedIndex.loadOrBuild(indexFile, new File(dirName), docType, stem, false);
+    else
+      index = new InvertedIndex(new File(dirName), docType, stem, false);
+    long start = System.nanoTime();
+    ForwardIndex forward = index.forwardIndex();
+    System.out.println("\nBuilt forward index of " + forward.numDocs + " documents (" +
+        forward.sizeInBytes() / 1024 + "KB) in " + (System.nanoTime() - start) / 1000000 + " ms");
+    List<DocumentReference> docRefs = new ArrayList<DocumentReference>();
+    for (String query : PostingsBenchmark.readQueryStrings(queryFile)) {
+      for (Retrieval retrieval : index.retrieve(query, k))
+        docRefs.add(retrieval.docRef);
+    }
+    int mismatches = 0;
+    long[] times = new long[2];
+    // Twice over, so the second round is warmed up
+    for (int rep = 0; rep < 2; rep++) {
+      start = System.nanoTime();
+      List<HashMapVector> reread = new ArrayList<HashMapVector>();
+      for (DocumentReference docRef : docRefs)
+        reread.add(docRef.getDocument(docType, stem).hashMapVector());
+      times[0] = System.nanoTime() - start;
+      start = System.nanoTime();
+      List<HashMapVector> fromForward = new ArrayList<HashMapVector>();
+      for (DocumentReference docRef : docRefs)
+        fromForward.add(index.documentVector(docRef));
+      times[1] = System.nanoTime() - start;
+      mismatches = 0;
+      for (int i = 0; i < docRefs.size(); i++) {
+        if (!sameVectors(reread.get(i), fromForward.get(i)))
+          mismatches++;
+      }
+    }
+    if (mismatches > 0)
+      System.out.println(mismatches + " document vectors differ from rereading the document!");
+    System.out.println(docRefs.size() + " feedback document vectors:");
+    System.out.println("reread:  " + MoreMath.roundTo(times[0] / 1000.0 / docRefs.size(), 1) + " us/document");
+    System.out.println("forward: " + MoreMath.roundTo(times[1] / 1000.0 / docRefs.size(), 1) + " us/document");
+  }
+
+}
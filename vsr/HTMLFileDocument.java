@@ -2,82 +2,6 @@ package ir.vsr;
 
 import java.io.*;
 import java.util.*;
-import javax.swing.text.html.*;
-import javax.swing.text.html.parser.*;
-import javax.swing.text.MutableAttributeSet;
-
-/**
- * A thread that parses an HTML file document and extracts plain text
- * from the title and the document body.  It feeds the
- * HTMLFileDocument reader with a stream of text free of HTML
- * commands.  It makes use of the Swing HTML parser which converts
- * HTML character entities into Java characters automatically.
- *
- * @author Yuk Wah Wong
- */
-class HTMLFileParserThread extends Thread {
-
-  /**
-   * The name of the HTML file
-   */
-  protected File file;
-  /**
-   * The I/O reader for accessing the HTML file
-   */
-  protected BufferedReader reader;
-  /**
-   * The I/O writer to which extracted plain text is written
-   */
-  protected PrintWriter writer;
-
-  /**
-   * Create an HTMLFileParserThread and initialize its reader and writer.
-   */
-  public HTMLFileParserThread(File file, BufferedReader reader, Writer writer) {
-    this.file = file;
-    this.reader = reader;
-    this.writer = new PrintWriter(writer);
-  }
-
-  /**
-   * Read the HTML file and parse it.  Extract plain text from the
-   * document and print it to the I/O writer.
-   */
-  public void run() {
-    try {
-      // the HTML parser callback ignores everything but the
-      // content of the document
-      HTMLEditorKit.ParserCallback callback =
-          new HTMLEditorKit.ParserCallback() {
-            // Don't add for CSS Styles
-            protected boolean add_it = true;
-
-            public void handleText(char[] data, int pos) {
-              // print the text to the I/O writer
-              if (this.add_it){
-                  writer.println(data);
-                }
-            }
-
-            public void handleStartTag(HTML.Tag t, MutableAttributeSet a, int pos) {
-                if (t == HTML.Tag.STYLE) {
-                  this.add_it = false;
-                }
-              }
-          };
-
-      // entry point into the Swing HTML parser
-      new ParserDelegator().parse(reader, callback, true);
-      // close the I/O reader and writer when parsing is finished
-      reader.close();
-      writer.close();
-    } catch (IOException e) {
-      System.out.println("\nCould not read HTMLFileDocument: " + file);
-      System.exit(1);
-    }
-  }
-
-}
 
 /**
  * An HTML file document where HTML commands are removed
@@ -109,15 +33,33 @@ public class HTMLFileDocument extends FileDocument {
    */
   public HTMLFileDocument(File file, boolean stem) {
     super(file, stem);  // Create a FileDocument
+    openText();
+  }
+
+  /**
+   * Create a new HTML document named by the given file whose HTML is read
+   * from the given reader, e.g. an entry of an archive.
+   */
+  public HTMLFileDocument(File file, Reader text, boolean stem) {
+    super(file, text, stem);
+    openReader();
+    openText();
+  }
+
+  /**
+   * Create a new text document for the given file name.
+   */
+  public HTMLFileDocument(String fileName, boolean stem) {
+    this(new File(fileName), stem);
+  }
+
+  /**
+   * Start extracting plain text from the HTML and prepare the first token
+   */
+  protected void openText() {
     try {
-      // Create a new thread for parsing the HTML file.  The
-      // output stream of the thread is connected to textReader.
-      PipedWriter textWriter = new PipedWriter();
-      textReader = new BufferedReader(new PipedReader(textWriter));
-      HTMLFileParserThread thread = new HTMLFileParserThread(file, reader, textWriter);
-      // The thread parses the HTML file at the same time when
-      // its plain text output is read
-      thread.start();
+      // The plain text is extracted from the HTML file as it is read
+      textReader = new BufferedReader(new HTMLTextReader(reader));
 
       // create a StringTokenizer for the first line of the
       // plain text
@@ -133,13 +75,6 @@ public class HTMLFileDocument extends FileDocument {
     }
   }
 
-  /**
-   * Create a new text document for the given file name.
-   */
-  public HTMLFileDocument(String fileName, boolean stem) {
-    this(new File(fileName), stem);
-  }
-
   /**
    * Return the next purely alpha-character token in the document, or null if none left.
    */
@@ -170,6 +105,28 @@ public class HTMLFileDocument extends FileDocument {
     return candidateToken;
   }
 
+  /**
+   * Add the tokens left in this document to an Analyzer, handing over the
+   * rest of the text read so far and then the rest of the plain text.
+   */
+  protected void analyzeTokens(Analyzer analyzer) {
+    // Once there is no next token, the whole document has been read
+    if (nextToken == null)
+      return;
+    analyzer.addTerm(nextToken);
+    try {
+      // The rest of the line the next token came from
+      while (tokenizer.hasMoreTokens())
+        analyzer.analyze(tokenizer.nextToken());
+      analyzer.analyze(textReader);
+      textReader.close();
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not read from HTMLFileDocument: " + file);
+      System.exit(1);
+    }
+  }
+
   /**
    * For testing, print the bag-of-words vector for a given HTML file
    */
@@ -0,0 +1,80 @@
+package ir.vsr;
+
+import java.io.*;
+import javax.swing.text.html.*;
+import javax.swing.text.html.parser.*;
+import javax.swing.text.MutableAttributeSet;
+
+/**
+ * A thread that parses an HTML file document and extracts plain text
+ * from the title and the document body.  It feeds a reader with a stream
+ * of text free of HTML commands.  It makes use of the Swing HTML parser
+ * which converts HTML character entities into Java characters
+ * automatically.  HTMLFileDocument now uses an HTMLTextReader instead;
+ * HTMLTextReader.main compares the two.
+ *
+ * @author Yuk Wah Wong
+ */
+class HTMLFileParserThread extends Thread {
+
+  /**
+   * The name of the HTML file
+   */
+  protected File file;
+  /**
+   * The I/O reader for accessing the HTML file
+   */
+  protected BufferedReader reader;
+  /**
+   * The I/O writer to which extracted plain text is written
+   */
+  protected PrintWriter writer;
+
+  /**
+   * Create an HTMLFileParserThread and initialize its reader and writer.
+   */
+  public HTMLFileParserThread(File file, BufferedReader reader, Writer writer) {
+    this.file = file;
+    this.reader = reader;
+    this.writer = new PrintWriter(writer);
+  }
+
+  /**
+   * Read the HTML file and parse it.  Extract plain text from the
+   * document and print it to the I/O writer.
+   */
+  public void run() {
+    try {
+      // the HTML parser callback ignores everything but the
+      // content of the document
+      HTMLEditorKit.ParserCallback callback =
+          new HTMLEditorKit.ParserCallback() {
+            // Don't add for CSS Styles
+            protected boolean add_it = true;
+
+            public void handleText(char[] data, int pos) {
+              // print the text to the I/O writer
+              if (this.add_it){
+                  writer.println(data);
+                }
+            }
+
+            public void handleStartTag(HTML.Tag t, MutableAttributeSet a, int pos) {
+                if (t == HTML.Tag.STYLE) {
+                  this.add_it = false;
+                }
+              }
+          };
+
+      // entry point into the Swing HTML parser
+      new ParserDelegator().parse(reader, callback, true);
+      // close the I/O reader and writer when parsing is finished
+      reader.close();
+      writer.close();
+    } catch (IOException e) {
+      System.out.println("\nCould not read HTMLFileDocument: " + file);
+      System.exit(1);
+    }
+  }
+
+}
@@ -0,0 +1,459 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A Reader that extracts the plain text of an HTML document from another
+ * Reader as it is read, in the thread that reads it.  Tags, comments and
+ * declarations are removed, the contents of SCRIPT and STYLE elements are
+ * skipped, and character entities (named ones of HTML 4 Latin-1 and a few
+ * common symbols, and numeric ones) are decoded.  Each tag is replaced by a
+ * line break, so that, as with the Swing HTML parser, text on either side
+ * of a tag never runs together into one token.
+ */
+
+public class HTMLTextReader extends Reader {
+
+  /**
+   * The number of chars of HTML read at a time
+   */
+  public static final int BUFFER_SIZE = 8192;
+
+  /**
+   * The longest entity name (or number) recognized
+   */
+  protected static final int MAX_ENTITY_LENGTH = 10;
+
+  /**
+   * The names of the Latin-1 entities, for chars 160 to 255
+   */
+  protected static final String[] latin1Entities = {
+      "nbsp", "iexcl", "cent", "pound", "curren", "yen", "brvbar", "sect", "uml", "copy", "ordf", "laquo",
+      "not", "shy", "reg", "macr", "deg", "plusmn", "sup2", "sup3", "acute", "micro", "para", "middot",
+      "cedil", "sup1", "ordm", "raquo", "frac14", "frac12", "frac34", "iquest", "Agrave", "Aacute", "Acirc",
+      "Atilde", "Auml", "Aring", "AElig", "Ccedil", "Egrave", "Eacute", "Ecirc", "Euml", "Igrave", "Iacute",
+      "Icirc", "Iuml", "ETH", "Ntilde", "Ograve", "Oacute", "Ocirc", "Otilde", "Ouml", "times", "Oslash",
+      "Ugrave", "Uacute", "Ucirc", "Uuml", "Yacute", "THORN", "szlig", "agrave", "aacute", "acirc", "atilde",
+      "auml", "aring", "aelig", "ccedil", "egrave", "eacute", "ecirc", "euml", "igrave", "iacute", "icirc",
+      "iuml", "eth", "ntilde", "ograve", "oacute", "ocirc", "otilde", "ouml", "divide", "oslash", "ugrave",
+      "uacute", "ucirc", "uuml", "yacute", "thorn", "yuml"};
+
+  /**
+   * The char each entity name stands for
+   */
+  protected static final Map<String, Character> entities = new HashMap<String, Character>();
+
+  static {
+    for (int i = 0; i < latin1Entities.length; i++)
+      entities.put(latin1Entities[i], (char) (160 + i));
+    String[] names = {"quot", "amp", "lt", "gt", "apos", "ndash", "mdash", "lsquo", "rsquo", "sbquo",
+        "ldquo", "rdquo", "bdquo", "bull", "hellip", "trade", "euro", "dagger", "Dagger", "permil"};
+    String chars = "\"&<>'\u2013\u2014\u2018\u2019\u201a\u201c\u201d\u201e\u2022\u2026\u2122\u20ac\u2020\u2021\u2030";
+    for (int i = 0; i < names.length; i++)
+      entities.put(names[i], chars.charAt(i));
+  }
+
+  /**
+   * The reader of the HTML
+   */
+  protected Reader in;
+
+  /**
+   * The buffer HTML is read into
+   */
+  protected char[] buffer = new char[BUFFER_SIZE];
+
+  /**
+   * The position of the next char in buffer
+   */
+  protected int position = 0;
+
+  /**
+   * The number of chars in buffer
+   */
+  protected int limit = 0;
+
+  /**
+   * Chars read but put back to be read again, the next one last
+   */
+  protected char[] pushedBack = new char[MAX_ENTITY_LENGTH + 2];
+
+  /**
+   * The number of chars put back
+   */
+  protected int numPushedBack = 0;
+
+  /**
+   * Text extracted but not yet returned by read
+   */
+  protected char[] text = new char[BUFFER_SIZE];
+
+  /**
+   * The position in text of the next char to return
+   */
+  protected int textStart = 0;
+
+  /**
+   * The number of chars in text
+   */
+  protected int textEnd = 0;
+
+  /**
+   * The name of the entity being read
+   */
+  protected char[] entityName = new char[MAX_ENTITY_LENGTH];
+
+  /**
+   * The name of the tag just read, in lower case
+   */
+  protected StringBuilder tagName = new StringBuilder();
+
+  /**
+   * The (lower case) name of the SCRIPT or STYLE element whose contents are
+   * being skipped, or null if none
+   */
+  protected String skipping = null;
+
+  /**
+   * Whether the end of the HTML has been reached
+   */
+  protected boolean done = false;
+
+  /**
+   * Create a reader of the plain text of the HTML read from a reader.
+   */
+  public HTMLTextReader(Reader in) {
+    this.in = in;
+  }
+
+  /**
+   * Read extracted text into part of an array.
+   */
+  public int read(char[] chars, int offset, int length) throws IOException {
+    if (length == 0)
+      return 0;
+    while (textStart == textEnd) {
+      if (done)
+        return -1;
+      extract();
+    }
+    int n = Math.min(length, textEnd - textStart);
+    System.arraycopy(text, textStart, chars, offset, n);
+    textStart = textStart + n;
+    return n;
+  }
+
+  /**
+   * Close the reader of the HTML
+   */
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /**
+   * Extract text from about a buffer's worth of HTML into text
+   */
+  protected void extract() throws IOException {
+    textStart = 0;
+    textEnd = 0;
+    while (textEnd < BUFFER_SIZE) {
+      int c = next();
+      if (c == -1) {
+        done = true;
+        return;
+      }
+      if (skipping != null) {
+        if (c == '<')
+          skipEndTag();
+      } else if (c == '<')
+        markup();
+      else if (c == '&')
+        entity();
+      else
+        append((char) c);
+    }
+  }
+
+  /**
+   * The next char of HTML, or -1 at the end
+   */
+  protected int next() throws IOException {
+    if (numPushedBack > 0)
+      return pushedBack[--numPushedBack];
+    if (position == limit) {
+      limit = in.read(buffer, 0, buffer.length);
+      position = 0;
+      if (limit <= 0) {
+        limit = 0;
+        return -1;
+      }
+    }
+    return buffer[position++];
+  }
+
+  /**
+   * Put back a char, to be returned by the next call of next
+   */
+  protected void pushBack(int c) {
+    if (c == -1)
+      return;
+    if (numPushedBack == pushedBack.length)
+      pushedBack = Arrays.copyOf(pushedBack, 2 * pushedBack.length);
+    pushedBack[numPushedBack++] = (char) c;
+  }
+
+  /**
+   * Add a char to the extracted text
+   */
+  protected void append(char c) {
+    if (textEnd == text.length)
+      text = Arrays.copyOf(text, 2 * text.length);
+    text[textEnd++] = c;
+  }
+
+  /**
+   * Handle the markup after a '<': a tag, comment or declaration, which is
+   * replaced by a line break, or else just a '<' in the text.
+   */
+  protected void markup() throws IOException {
+    int c = next();
+    if (c == '!') {
+      int c2 = next();
+      int c3 = (c2 == '-') ? next() : -1;
+      if (c2 == '-' && c3 == '-')
+        skipComment();
+      else {
+        pushBack(c3);
+        pushBack(c2);
+        skipTag();
+      }
+    } else if (c == '?')
+      skipTag();
+    else if (c == '/' || Character.isLetter(c)) {
+      boolean endTag = (c == '/');
+      readTagName(endTag ? next() : c);
+      boolean empty = skipTag();
+      if (!endTag && !empty) {
+        if ("script".contentEquals(tagName))
+          skipping = "script";
+        else if ("style".contentEquals(tagName))
+          skipping = "style";
+      }
+    } else {
+      pushBack(c);
+      append('<');
+      return;
+    }
+    append('\n');
+  }
+
+  /**
+   * Read a tag name starting with the given char into tagName, in lower case
+   */
+  protected void readTagName(int c) throws IOException {
+    tagName.setLength(0);
+    while (c != -1 && Character.isLetterOrDigit(c)) {
+      tagName.append(Character.toLowerCase((char) c));
+      c = next();
+    }
+    pushBack(c);
+  }
+
+  /**
+   * Skip the rest of a tag, through the '>' that is not inside a quoted
+   * attribute value.  A quote only starts a value right after an '=', so a
+   * stray quote does not swallow the rest of the document.
+   *
+   * @return Whether the tag ended with "/>".
+   */
+  protected boolean skipTag() throws IOException {
+    int quote = -1;
+    // The last char outside quotes that is not whitespace
+    int last = -1;
+    int c;
+    while ((c = next()) != -1) {
+      if (quote != -1) {
+        if (c == quote)
+          quote = -1;
+      } else if ((c == '"' || c == '\'') && last == '=')
+        quote = c;
+      else if (c == '>')
+        return last == '/';
+      if (quote == -1 && !Character.isWhitespace(c))
+        last = c;
+    }
+    return false;
+  }
+
+  /**
+   * Skip the rest of a comment, through "-->"
+   */
+  protected void skipComment() throws IOException {
+    int dashes = 0;
+    int c;
+    while ((c = next()) != -1) {
+      if (c == '>' && dashes >= 2)
+        return;
+      dashes = (c == '-') ? dashes + 1 : 0;
+    }
+  }
+
+  /**
+   * After a '<' inside a SCRIPT or STYLE element, skip its end tag if that is what follows
+   */
+  protected void skipEndTag() throws IOException {
+    int c = next();
+    if (c != '/') {
+      pushBack(c);
+      return;
+    }
+    readTagName(next());
+    if (skipping.contentEquals(tagName)) {
+      skipTag();
+      skipping = null;
+      append('\n');
+    }
+  }
+
+  /**
+   * Handle what follows a '&': decode a known entity, or else leave the '&' as text
+   */
+  protected void entity() throws IOException {
+    char[] name = entityName;
+    int length = 0;
+    int c = next();
+    while (c != -1 && length < MAX_ENTITY_LENGTH && (Character.isLetterOrDigit(c) || (c == '#' && length == 0))) {
+      name[length++] = (char) c;
+      c = next();
+    }
+    int codePoint = decode(new String(name, 0, length));
+    if (codePoint == -1) {
+      // Not an entity, so read it again as text
+      pushBack(c);
+      for (int i = length - 1; i >= 0; i--)
+        pushBack(name[i]);
+      append('&');
+      return;
+    }
+    // The ';' is part of the entity, anything else is not
+    if (c != ';')
+      pushBack(c);
+    if (Character.isBmpCodePoint(codePoint))
+      append((char) codePoint);
+    else {
+      append(Character.highSurrogate(codePoint));
+      append(Character.lowSurrogate(codePoint));
+    }
+  }
+
+  /**
+   * The code point of an entity name or number ("#65" or "#x41"), or -1 if none
+   */
+  protected static int decode(String name) {
+    if (name.startsWith("#")) {
+      try {
+        int codePoint;
+        if (name.length() > 2 && (name.charAt(1) == 'x' || name.charAt(1) == 'X'))
+          codePoint = Integer.parseInt(name.substring(2), 16);
+        else
+          codePoint = Integer.parseInt(name.substring(1));
+        return Character.isValidCodePoint(codePoint) ? codePoint : -1;
+      }
+      catch (NumberFormatException e) {
+        return -1;
+      }
+    }
+    Character c = entities.get(name);
+    return (c == null) ? -1 : c;
+  }
+
+  /**
+   * Compare extracting the text of HTML documents with the Swing HTML parser
+   * on a separate thread through pipes (as HTMLFileDocument used to) with
+   * extracting it with an HTMLTextReader, and count the documents whose
+   * vectors differ.  (They differ wherever a STYLE element comes before text,
+   * since the Swing path drops everything after the first STYLE tag.)
+   * Command format: "HTMLTextReader [-stem] [DIR]" where DIR is the directory
+   * of HTML documents.
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 1];
+    boolean stem = false;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-stem"))
+        stem = true;
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    List<File> files = new ArrayList<File>();
+    long numBytes = 0;
+    for (File file : new File(dirName).listFiles()) {
+      if (!file.isDirectory()) {
+        files.add(file);
+        numBytes = numBytes + file.length();
+      }
+    }
+    long[] times = new long[2];
+    long[] numTokens = new long[2];
+    int mismatches = 0;
+    // Twice over, so the second round is warmed up (and the files are cached)
+    for (int rep = 0; rep < 2; rep++) {
+      List<HashMapVector> swing = new ArrayList<HashMapVector>(files.size());
+      numTokens[0] = 0;
+      long start = System.nanoTime();
+      for (File file : files) {
+        Document doc = new TextStringDocument(swingText(file), stem);
+        swing.add(doc.hashMapVector());
+        numTokens[0] = numTokens[0] + doc.numberOfTokens();
+      }
+      times[0] = System.nanoTime() - start;
+      List<HashMapVector> streaming = new ArrayList<HashMapVector>(files.size());
+      numTokens[1] = 0;
+      start = System.nanoTime();
+      for (File file : files) {
+        Document doc = new HTMLFileDocument(file, stem);
+        streaming.add(doc.hashMapVector());
+        numTokens[1] = numTokens[1] + doc.numberOfTokens();
+      }
+      times[1] = System.nanoTime() - start;
+      mismatches = 0;
+      for (int i = 0; i < files.size(); i++) {
+        if (!ForwardIndex.sameVectors(swing.get(i), streaming.get(i)))
+          mismatches++;
+      }
+    }
+    System.out.println(files.size() + " documents, " + numBytes / 1024 + "KB, " + mismatches +
+        " with different vectors:");
+    System.out.println("Swing parser thread: " + throughput(files.size(), numBytes, numTokens[0], times[0]));
+    System.out.println("HTMLTextReader:      " + throughput(files.size(), numBytes, numTokens[1], times[1]));
+  }
+
+  /**
+   * The text of an HTML file as extracted by an HTMLFileParserThread
+   */
+  protected static String swingText(File file) throws IOException {
+    PipedWriter textWriter = new PipedWriter();
+    BufferedReader textReader = new BufferedReader(new PipedReader(textWriter));
+    new HTMLFileParserThread(file, new BufferedReader(new FileReader(file)), textWriter).start();
+    StringBuilder text = new StringBuilder();
+    String line;
+    while ((line = textReader.readLine()) != null)
+      text.append(line).append('\n');
+    textReader.close();
+    return text.toString();
+  }
+
+  /**
+   * Describe the rate at which documents were tokenized
+   */
+  protected static String throughput(int numDocs, long numBytes, long numTokens, long nanos) {
+    double seconds = nanos / 1e9;
+    return MoreMath.roundTo(numDocs / seconds, 0) + " docs/sec, " +
+        MoreMath.roundTo(numBytes / 1048576.0 / seconds, 1) + " MB/sec, " + numTokens + " tokens";
+  }
+
+}
@@ -5,67 +5,143 @@ import java.util.*;
 import ir.utilities.*;
 
 /**
- * A data structure for a term vector for a document stored
- * as a HashMap that maps tokens to Weight's that store the
- * weight of that token in the document.
+ * A data structure for a term vector for a document that maps
+ * tokens to the weight of that token in the document.
  * <p/>
  * Needed as an efficient, indexed representation of sparse
- * document vectors.
+ * document vectors.  Tokens are numbered by a TermDictionary (the current
+ * one when the vector is created) and the weights are kept in a SparseVectorBuilder, an open-addressing hash
+ * table from term IDs to doubles, so updating a weight costs no allocation.
+ * The entries can be visited in the order their tokens were first added
+ * with token(i) and weight(i) for i below size(), and sparseVector() gives
+ * a compact sorted copy for repeated comparisons.
  *
  * @author Ray Mooney
  */
 
 public class HashMapVector {
   /**
-   * The HashMap that stores the mapping of tokens to Weights
+   * The weight of each token, by its term ID in the weights' TermDictionary
    */
-  public Map<String, Weight> hashMap = new HashMap<String, Weight>();
+  protected SparseVectorBuilder weights;
+
+  /**
+   * Create an empty vector
+   */
+  public HashMapVector() {
+    weights = new SparseVectorBuilder();
+  }
+
+  /**
+   * Create an empty vector with room for this many tokens before growing
+   */
+  public HashMapVector(int capacity) {
+    weights = new SparseVectorBuilder(capacity);
+  }
+
+  /**
+   * Create a vector holding these weights
+   */
+  protected HashMapVector(SparseVectorBuilder weights) {
+    this.weights = weights;
+  }
 
   /**
    * Returns the number of tokens in the vector.
    */
   public int size() {
-    return hashMap.size();
+    return weights.size();
   }
 
   /**
    * Clears the vector back to all zeros
    */
   public void clear() {
-    hashMap.clear();
+    weights.clear();
+  }
+
+  /**
+   * The dictionary of the term IDs of the vector
+   */
+  public TermDictionary dictionary() {
+    return weights.dictionary();
+  }
+
+  /**
+   * The i'th token of the vector, in the order tokens were added
+   */
+  public String token(int i) {
+    return weights.dictionary().token(weights.termId(i));
   }
 
   /**
-   * Returns the Set of MapEntries in the hashMap
+   * The term ID in the vector's dictionary of the i'th token of the vector
+   */
+  public int termId(int i) {
+    return weights.termId(i);
+  }
+
+  /**
+   * The weight of the i'th token of the vector
+   */
+  public double weight(int i) {
+    return weights.weight(i);
+  }
+
+  /**
+   * Returns true iff the given token is in the vector (even with weight 0)
+   */
+  public boolean contains(String token) {
+    int termId = weights.dictionary().find(token);
+    return termId != -1 && weights.indexOf(termId) != -1;
+  }
+
+  /**
+   * Returns a Set of MapEntries mapping each token to its Weight, in the
+   * order tokens were added.  Each Weight reads and writes the weight in
+   * the vector, so incrementing or setting it changes the vector, as when
+   * the vector kept a HashMap of Weights (until the vector is cleared).
+   * token(i) and weight(i) visit the entries without creating them, and
+   * setWeight(i, weight) changes one.
    */
   public Set<Map.Entry<String, Weight>> entrySet() {
-    return hashMap.entrySet();
+    Set<Map.Entry<String, Weight>> entries = new LinkedHashSet<Map.Entry<String, Weight>>(2 * size());
+    for (int i = 0; i < size(); i++)
+      entries.add(new AbstractMap.SimpleImmutableEntry<String, Weight>(token(i), new EntryWeight(i)));
+    return entries;
+  }
+
+  /**
+   * Set the weight of the i'th token of the vector
+   */
+  public void setWeight(int i, double weight) {
+    weights.setWeight(i, weight);
   }
 
   /**
    * Increment the weight for the given token in the vector by the given amount.
    */
   public double increment(String token, double amount) {
-    Weight weight = hashMap.get(token);
-    if (weight == null) {
-      // If there is no current Weight for this token, create one
-      weight = new Weight();
-      hashMap.put(token, weight);
-    }
-    // Increment the weight of this token in the bag.
-    weight.increment(amount);
-    return weight.getValue();
+    return weights.add(weights.dictionary().id(token), amount);
+  }
+
+  /**
+   * Increment the weight for the token with the given term ID in the
+   * vector's dictionary by the given amount.
+   */
+  public double increment(int termId, double amount) {
+    return weights.add(termId, amount);
   }
 
   /**
    * Return the weight of the given token in the vector
    */
   public double getWeight(String token) {
-    Weight weight = hashMap.get(token);
-    if (weight == null)
+    int termId = weights.dictionary().find(token);
+    if (termId == -1)
       return 0.0;
     else
-      return weight.getValue();
+      return weights.get(termId);
   }
 
   /**
@@ -86,39 +162,21 @@ public class HashMapVector {
    * Destructively add the given vector to the current vector
    */
   public void add(HashMapVector vector) {
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
-      increment(token, weight);
-    }
+    weights.addScaled(vector.weights, 1.0);
   }
 
   /**
    * Destructively add a scaled version of the given vector to the current vector
    */
   public void addScaled(HashMapVector vector, double scalingFactor) {
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
-      increment(token, scalingFactor * weight);
-    }
+    weights.addScaled(vector.weights, scalingFactor);
   }
 
   /**
    * Destructively subtract the given vector from the current vector
    */
   public void subtract(HashMapVector vector) {
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
-      increment(token, -weight);
-    }
+    weights.addScaled(vector.weights, -1.0);
   }
 
 
@@ -126,28 +184,23 @@ public class HashMapVector {
    * Destructively multiply the vector by a constant
    */
   public void multiply(double factor) {
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      Weight weight = entry.getValue();
-      weight.setValue(factor * weight.getValue());
-    }
+    weights.multiply(factor);
   }
 
 
   /**
-   * Produce a copy of this HashMapVector with a new HashMap and new
-   * Weight's
+   * Produce a copy of this HashMapVector with its own weights
    */
   public HashMapVector copy() {
-    HashMapVector result = new HashMapVector();
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
-      result.increment(token, weight);
-    }
-    return result;
+    return new HashMapVector(weights.copy());
+  }
+
+  /**
+   * A compact copy of this vector with its entries sorted by term ID and
+   * its weights rounded to floats, for fast dot products and cosines
+   */
+  public SparseVector sparseVector() {
+    return weights.build();
   }
 
   /**
@@ -155,9 +208,8 @@ public class HashMapVector {
    */
   public double maxWeight() {
     double maxWeight = Double.NEGATIVE_INFINITY;
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
+    for (int i = 0; i < size(); i++) {
+      double weight = weight(i);
       if (weight > maxWeight)
         maxWeight = weight;
     }
@@ -169,24 +221,18 @@ public class HashMapVector {
    * Print out the vector showing the tokens and their weights
    */
   public void print() {
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // Print the term and its weight, where the value of the map entry is a Weight
-      // and then you need to get the value of the Weight as the weight.
-      System.out.println(entry.getKey() + ":" + entry.getValue().getValue());
-    }
+    for (int i = 0; i < size(); i++)
+      System.out.println(token(i) + ":" + weight(i));
   }
 
   /**
    * Return String of the vector showing the tokens and their weights
    */
   public String toString() {
-    String ret = "";
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // Print the term and its weight, where the value of the map entry is a Weight
-      // and then you need to get the value of the Weight as the weight.
-      ret += entry.getKey() + ": " + entry.getValue().getValue() + " ";
-    }
-    return ret;
+    StringBuilder ret = new StringBuilder();
+    for (int i = 0; i < size(); i++)
+      ret.append(token(i)).append(": ").append(weight(i)).append(" ");
+    return ret.toString();
   }
 
   /**
@@ -206,13 +252,13 @@ public class HashMapVector {
     double sum = 0;
     // Stores running sum for dot product of two vectors
     double dotProd = 0;
+    SparseVectorBuilder other = otherVector.weights;
+    // Vectors with different dictionaries are matched up by token
+    boolean sameDictionary = other.dictionary() == weights.dictionary();
     // iterate through elements in current vector
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The weight for the token is in the value of the Weight
-      double weight = entry.getValue().getValue();
-      double otherWeight = otherVector.getWeight(token);
+    for (int i = 0; i < weights.size(); i++) {
+      double weight = weights.weight(i);
+      double otherWeight = sameDictionary ? other.get(weights.termId(i)) : otherVector.getWeight(token(i));
       // Update dot product sum and sum of squares
       dotProd += weight * otherWeight;
       sum += weight * weight;
@@ -225,19 +271,91 @@ public class HashMapVector {
    * Compute Euclidian length (sqrt of sum of squares) of vector
    */
   public double length() {
-    // Stores running sum of squares
-    double sum = 0;
-    for (Map.Entry<String, Weight> entry : entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      double weight = entry.getValue().getValue();
-      sum += weight * weight;
-    }
-    return Math.sqrt(sum);
+    return Math.sqrt(weights.sumOfSquares());
   }
 
-}
+  /**
+   * The Weight of an entry of entrySet, which reads and writes the weight
+   * of the i'th token of the vector
+   */
+  protected class EntryWeight extends Weight {
 
+    /**
+     * The index of the entry in the vector
+     */
+    protected int i;
 
+    /**
+     * Create the Weight of the i'th entry
+     */
+    protected EntryWeight(int i) {
+      this.i = i;
+    }
 
+    /**
+     * The weight in the vector
+     */
+    public double getValue() {
+      return weights.weight(i);
+    }
+
+    /**
+     * Set the weight in the vector
+     */
+    public double setValue(double value) {
+      weights.setWeight(i, value);
+      return value;
+    }
+
+    /**
+     * Set the weight in the vector
+     */
+    public double setValue(int value) {
+      return setValue((double) value);
+    }
 
+    /**
+     * Increment the weight in the vector and return it
+     */
+    public double increment() {
+      return setValue(getValue() + 1);
+    }
+
+    /**
+     * Increment the weight in the vector by n and return it
+     */
+    public double increment(int n) {
+      return setValue(getValue() + n);
+    }
+
+    /**
+     * Increment the weight in the vector by n and return it
+     */
+    public double increment(double n) {
+      return setValue(getValue() + n);
+    }
 
+    /**
+     * Decrement the weight in the vector and return it
+     */
+    public double decrement() {
+      return setValue(getValue() - 1);
+    }
+
+    /**
+     * Decrement the weight in the vector by n and return it
+     */
+    public double decrement(int n) {
+      return setValue(getValue() - n);
+    }
+
+    /**
+     * Decrement the weight in the vector by n and return it
+     */
+    public double decrement(double n) {
+      return setValue(getValue() - n);
+    }
+
+  }
+
+}
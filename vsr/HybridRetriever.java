@@ -26,29 +26,70 @@ public class HybridRetriever {
         index = new InvertedIndex(dir, DocumentIterator.TYPE_TEXT, false, false);
     }
 
+    /**
+     * Constructor initializing retrievers, loading the InvertedIndex from an
+     * index file when one has already been saved
+     * @param corpus used for DeepRetriever
+     * @param dir used for InvertedIndex
+     * @param indexFile index file for dir, created if it does not exist
+     */
+    public HybridRetriever(File corpus, File dir, File indexFile) throws IOException {
+        retriever = new DeepRetriever(corpus, true);
+        index = InvertedIndex.loadOrBuild(indexFile, dir, DocumentIterator.TYPE_TEXT, false, false);
+    }
+
     /**
      * Perform ranked retrieval on an input query based on lambda value, InvertedIndex, and DeepRetriever.
      */
     public Retrieval[] retrieve(String query, File deepQuery, double lambda) {
-        // Sets up Retrieval arrays for DeepRetriever and InvertedIndex
+        // Sets up the query for DeepRetriever and the InvertedIndex scores by file name
         DeepDocumentReference queryDocRef = new DeepDocumentReference(deepQuery,
                 retriever.dimension);
-        Retrieval[] retrievals1 = retriever.retrieve(queryDocRef);
-        Retrieval[] retrievals2 = index.retrieve(query);
-        Retrieval[] combined = new Retrieval[retrievals1.length];
-        // Searches for same document in InvertedIndex and DeepRetriever.
-        for (int i = 0; i < retrievals1.length; i++) {
-            double score = retrievals1[i].score * lambda;
-            for (int j = 0; j < retrievals2.length; j++) {
-                // Calculates new score based on lambda value
-                if (retrievals1[i].docRef.file.getName().equals(retrievals2[j].docRef.file.getName())) {
-                    score = (retrievals1[i].score * lambda) + ((1 - lambda) * retrievals2[j].score);
-                    break;
-                }
-            }
-            combined[i] = new Retrieval(retrievals1[i].docRef, score);
+        Map<String, Double> lexicalScores = lexicalScores(query);
+        Retrieval[] combined = new Retrieval[retriever.docRefs.size()];
+        for (int i = 0; i < combined.length; i++) {
+            DeepDocumentReference docRef = retriever.docRefs.get(i);
+            combined[i] = new Retrieval(docRef, score(queryDocRef, docRef, lexicalScores, lambda));
         }
         Arrays.sort(combined);
         return combined;
     }
+
+    /**
+     * Perform ranked retrieval on an input query based on lambda value, InvertedIndex, and DeepRetriever,
+     * returning only the top k documents.
+     */
+    public Retrieval[] retrieve(String query, File deepQuery, double lambda, int k) {
+        DeepDocumentReference queryDocRef = new DeepDocumentReference(deepQuery,
+                retriever.dimension);
+        Map<String, Double> lexicalScores = lexicalScores(query);
+        // Keep only the best k combined scores in a bounded heap
+        RetrievalHeap heap = new RetrievalHeap(Math.min(k, retriever.docRefs.size()));
+        for (DeepDocumentReference docRef : retriever.docRefs)
+            heap.offer(docRef, score(queryDocRef, docRef, lexicalScores, lambda));
+        return heap.toRetrievals();
+    }
+
+    /**
+     * Map the file name of each document matching the query in the InvertedIndex to its score
+     */
+    protected Map<String, Double> lexicalScores(String query) {
+        Map<String, Double> lexicalScores = new HashMap<String, Double>();
+        // Ranking is not needed, since every match is looked up by name
+        for (Retrieval retrieval : index.retrieveUnranked(new TextStringDocument(query, index.stem).hashMapVector()))
+            lexicalScores.put(retrieval.docRef.file.getName(), retrieval.score);
+        return lexicalScores;
+    }
+
+    /**
+     * Calculates the combined score of a document based on lambda value
+     */
+    protected double score(DeepDocumentReference queryDocRef, DeepDocumentReference docRef,
+                           Map<String, Double> lexicalScores, double lambda) {
+        double score = retriever.score(queryDocRef, docRef) * lambda;
+        Double lexicalScore = lexicalScores.get(docRef.file.getName());
+        if (lexicalScore != null)
+            score = score + ((1 - lambda) * lexicalScore);
+        return score;
+    }
 }
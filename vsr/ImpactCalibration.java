@@ -0,0 +1,213 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Checks that scoring with quantized impacts (see InvertedIndex.setImpactBits)
+ * ranks documents as scoring with exact weights does, to within a tolerance,
+ * and compares their speed.  The tolerance for a query is a bound on the
+ * error quantization can make in any document's score: rounding an impact
+ * is off by at most half its token's scale, and rounding a query weight by
+ * at most half the unit of the integer scores, so each query token adds at
+ * most (|weight| * scale + unit * maximum impact) / 2 divided by the query
+ * length.  Every quantized score must be within the tolerance of the exact
+ * one, and a document may only be ranked above one with a higher exact score
+ * if their exact scores are within twice the tolerance.
+ */
+
+public class ImpactCalibration {
+
+  /**
+   * The number of times the whole query set is run for each way of scoring
+   */
+  public static int REPETITIONS = 100;
+
+  /**
+   * The most quantization can change the score of any document for a query
+   * from its exact score, using the index's current impacts
+   */
+  public static double errorBound(InvertedIndex index, HashMapVector vector) {
+    double queryLength = 0.0;
+    double[] weights = new double[vector.size()];
+    double[] scales = new double[vector.size()];
+    double maxFactor = 0.0;
+    int numTokens = 0;
+    // As in InvertedIndex.accumulateImpacts
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = index.tokenHash.get(vector.token(i));
+      if (tokenInfo == null || tokenInfo.idf == 0.0)
+        continue;
+      weights[numTokens] = tokenInfo.idf * vector.weight(i);
+      scales[numTokens] = index.impacts(tokenInfo).scale;
+      queryLength = queryLength + weights[numTokens] * weights[numTokens];
+      maxFactor = Math.max(maxFactor, Math.abs(weights[numTokens] * scales[numTokens]));
+      numTokens++;
+    }
+    if (queryLength == 0.0)
+      return 0.0;
+    double unit = maxFactor / ImpactList.maxValue(InvertedIndex.QUERY_WEIGHT_BITS);
+    int maxImpact = ImpactList.maxValue(index.impactBits);
+    double bound = 0.0;
+    for (int t = 0; t < numTokens; t++)
+      bound = bound + (Math.abs(weights[t]) * scales[t] + unit * maxImpact) / 2;
+    // Allow for rounding in the floating point arithmetic that follows
+    return bound / Math.sqrt(queryLength) * (1 + 1e-9) + 1e-15;
+  }
+
+  /**
+   * The number of documents among the top k of ranking1 that are also in the
+   * top k of ranking2
+   */
+  public static int overlap(Retrieval[] ranking1, Retrieval[] ranking2, int k) {
+    Set<DocumentReference> top = new HashSet<DocumentReference>();
+    for (int i = 0; i < Math.min(k, ranking2.length); i++)
+      top.add(ranking2[i].docRef);
+    int overlap = 0;
+    for (int i = 0; i < Math.min(k, ranking1.length); i++) {
+      if (top.contains(ranking1[i].docRef))
+        overlap++;
+    }
+    return overlap;
+  }
+
+  /**
+   * Command format: "ImpactCalibration [OPTION]* [DIR] [QUERIES]" where DIR is the
+   * directory of documents to index and QUERIES is a query file in the format used by
+   * ir.eval.Experiment.  OPTIONs can be "-html", "-stem", "-index FILE" as for
+   * InvertedIndex, "-bits BITS" to check only impacts of BITS (8 or 16) bits
+   * rather than both, and "-k K" for the number of top documents compared
+   * (default 10).
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 2];
+    File queryFile = new File(args[args.length - 1]);
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    File indexFile = null;
+    int[] bitsList = {8, 16};
+    int k = 10;
+    for (int i = 0; i < args.length - 2; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-index"))
+        indexFile = new File(args[++i]);
+      else if (flag.equals("-bits"))
+        bitsList = new int[]{Integer.parseInt(args[++i])};
+      else if (flag.equals("-k"))
+        k = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index;
+    if (indexFile != null)
+      index = InvertedIndex.loadOrBuild(indexFile, new File(dirName), docType, stem, false);
+    else
+      index = new InvertedIndex(new File(dirName), docType, stem, false);
+    List<HashMapVector> queries = PostingsBenchmark.readQueries(queryFile, index.stem);
+
+    // The exact retrievals of each query, in order of document ID and ranked
+    List<Retrieval[]> exact = new ArrayList<Retrieval[]>();
+    List<Retrieval[]> exactRanked = new ArrayList<Retrieval[]>();
+    for (HashMapVector query : queries) {
+      Retrieval[] retrievals = index.retrieveUnranked(query);
+      exact.add(retrievals);
+      Retrieval[] ranked = retrievals.clone();
+      Arrays.sort(ranked);
+      exactRanked.add(ranked);
+    }
+    System.out.println("\n" + queries.size() + " queries on " + index.docRefs.size() + " documents:");
+    for (int bits : bitsList) {
+      index.setImpactBits(bits);
+      long impactBytes = 0;
+      for (TokenInfo tokenInfo : index.tokenHash.values())
+        impactBytes = impactBytes + (tokenInfo.impacts == null ? 0 : tokenInfo.impacts.memorySize());
+      double maxError = 0.0;
+      double sumBound = 0.0;
+      int outOfBounds = 0;
+      int misranked = 0;
+      int sameTopK = 0;
+      long totalOverlap = 0;
+      long totalTopK = 0;
+      for (int q = 0; q < queries.size(); q++) {
+        double bound = errorBound(index, queries.get(q));
+        sumBound = sumBound + bound;
+        Retrieval[] retrievals = index.retrieveUnranked(queries.get(q));
+        Retrieval[] expected = exact.get(q);
+        if (retrievals.length != expected.length) {
+          outOfBounds++;
+          continue;
+        }
+        // Documents come in order of ID, so the two lists line up
+        Map<DocumentReference, Double> exactScores = new HashMap<DocumentReference, Double>();
+        boolean inBounds = true;
+        for (int i = 0; i < retrievals.length; i++) {
+          double error = Math.abs(retrievals[i].score - expected[i].score);
+          maxError = Math.max(maxError, error);
+          if (retrievals[i].docRef != expected[i].docRef || error > bound)
+            inBounds = false;
+          exactScores.put(expected[i].docRef, expected[i].score);
+        }
+        if (!inBounds)
+          outOfBounds++;
+        Arrays.sort(retrievals);
+        // Whether a document in the top k is ranked above one whose exact
+        // score is higher by more than twice the tolerance
+        double maxBelow = Double.NEGATIVE_INFINITY;
+        boolean wellRanked = true;
+        for (int i = retrievals.length - 1; i >= 0; i--) {
+          double score = exactScores.get(retrievals[i].docRef);
+          if (i < k && maxBelow > score + 2 * bound)
+            wellRanked = false;
+          maxBelow = Math.max(maxBelow, score);
+        }
+        if (!wellRanked)
+          misranked++;
+        int overlap = overlap(retrievals, exactRanked.get(q), k);
+        totalOverlap = totalOverlap + overlap;
+        totalTopK = totalTopK + Math.min(k, retrievals.length);
+        if (overlap == Math.min(k, retrievals.length))
+          sameTopK++;
+      }
+      System.out.println("\n" + bits + "-bit impacts (" + impactBytes / 1024 + " KB):");
+      System.out.println("Largest score error: " + (float) maxError + ", mean tolerance: " +
+          (float) (sumBound / queries.size()));
+      System.out.println("Same top " + k + " as exact scoring: " + sameTopK + " of " + queries.size() +
+          " queries, " + MoreMath.roundTo(100.0 * totalOverlap / Math.max(totalTopK, 1), 2) + "% of documents");
+      if (outOfBounds > 0)
+        System.out.println(outOfBounds + " queries have scores further than the tolerance from exact scoring!");
+      if (misranked > 0)
+        System.out.println(misranked + " rankings differ from exact scoring by more than the tolerance!");
+    }
+
+    // Time top k retrieval scoring every matching document each way.  Impacts
+    // are quantized once for each way a round, and only the last round is
+    // kept, so every way is timed warmed up.
+    index.pruning = InvertedIndex.PRUNING_NONE;
+    int[] allBits = new int[bitsList.length + 1];
+    System.arraycopy(bitsList, 0, allBits, 1, bitsList.length);
+    long[] times = new long[allBits.length];
+    for (int round = 0; round < 3; round++) {
+      for (int b = 0; b < allBits.length; b++) {
+        index.setImpactBits(allBits[b]);
+        long start = System.nanoTime();
+        for (int rep = 0; rep < REPETITIONS; rep++) {
+          for (HashMapVector query : queries)
+            index.retrieve(query, k);
+        }
+        times[b] = System.nanoTime() - start;
+      }
+    }
+    long numQueries = (long) REPETITIONS * queries.size();
+    System.out.println("\nTop " + k + " scoring every matching document:");
+    for (int b = 0; b < allBits.length; b++)
+      System.out.println((allBits[b] == 0 ? "exact" : allBits[b] + "-bit impacts") + ": " +
+          MoreMath.roundTo(times[b] / 1000.0 / numQueries, 1) + " us/query");
+  }
+
+}
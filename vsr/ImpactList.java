@@ -0,0 +1,150 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * The impact of every posting of a token, quantized to 8 or 16 bit
+ * integers, in the order of its postings.  The impact of a posting is the
+ * weight of the token in the normalized vector of its document: IDF times
+ * occurrence count divided by the length of the document vector.  Each is
+ * stored as round(impact / scale), where the scale spreads this token's
+ * largest impact over the full range of the integers, so a token's
+ * impacts are all stored to the same relative precision however small
+ * they are.  A document's score for a query is then a sum of integer
+ * products of these and the query's quantized token weights (see
+ * InvertedIndex.accumulateImpacts and ScoreAccumulator.addImpacts).
+ * <p/>
+ * The impact of a posting added to the end of the token's postings can be
+ * added under the same scale, as long as it is no larger than the largest
+ * impact the scale can represent.
+ */
+
+public class ImpactList {
+
+  /**
+   * The number of bits in each quantized impact, 8 or 16
+   */
+  public final int bits;
+
+  /**
+   * The impact represented by a quantized impact of 1, so that an impact
+   * is about its quantized value times scale, to within scale / 2
+   */
+  public final double scale;
+
+  /**
+   * The largest impact quantized so far, 0 if all of them were 0, in
+   * which case the scale is arbitrary
+   */
+  protected double maxImpact;
+
+  /**
+   * The quantized impacts when there are 8 bits of them, as unsigned bytes
+   */
+  protected byte[] bytes;
+
+  /**
+   * The quantized impacts when there are 16 bits of them, as unsigned shorts
+   */
+  protected short[] shorts;
+
+  /**
+   * The number of impacts in use at the start of bytes or shorts
+   */
+  protected int size;
+
+  /**
+   * Quantize the impacts of the postings of a token.
+   *
+   * @param postings The postings of the token.
+   * @param idf      The IDF of the token.
+   * @param docRefs  The documents of the index, by ID, with their vector lengths.
+   * @param bits     The number of bits in each quantized impact, 8 or 16.
+   */
+  public ImpactList(PostingsList postings, double idf, List<DocumentReference> docRefs, int bits) {
+    this.bits = bits;
+    int[] docs = new int[PostingsList.BLOCK_SIZE];
+    int[] counts = new int[PostingsList.BLOCK_SIZE];
+    double[] impacts = new double[postings.size()];
+    double maxImpact = 0.0;
+    int p = 0;
+    for (int block = 0; block < postings.numBlocks(); block++) {
+      int n = postings.decodeBlock(block, docs, counts);
+      for (int i = 0; i < n; i++) {
+        double length = docRefs.get(docs[i]).length;
+        // A document with no weighted tokens has a length of 0 and adds nothing
+        impacts[p] = length > 0.0 ? idf * counts[i] / length : 0.0;
+        maxImpact = Math.max(maxImpact, impacts[p++]);
+      }
+    }
+    this.maxImpact = maxImpact;
+    scale = maxImpact > 0.0 ? maxImpact / maxValue(bits) : 1.0;
+    size = p;
+    if (bits == 8) {
+      bytes = new byte[p];
+      shorts = null;
+      for (int i = 0; i < p; i++)
+        bytes[i] = (byte) Math.round(impacts[i] / scale);
+    } else {
+      bytes = null;
+      shorts = new short[p];
+      for (int i = 0; i < p; i++)
+        shorts[i] = (short) Math.round(impacts[i] / scale);
+    }
+  }
+
+  /**
+   * The largest quantized impact with the given number of bits
+   */
+  public static int maxValue(int bits) {
+    return (1 << bits) - 1;
+  }
+
+  /**
+   * Quantize the impact of a posting added after all the others with the
+   * current scale, unless it is larger than the scale can represent, or
+   * the scale is arbitrary and the impact is not 0.
+   *
+   * @return false if the impact was not added, so the impacts of the token
+   * must be quantized again.
+   */
+  public boolean add(double impact) {
+    if (impact > scale * maxValue(bits) || (maxImpact == 0.0 && impact > 0.0))
+      return false;
+    maxImpact = Math.max(maxImpact, impact);
+    if (bits == 8) {
+      if (size == bytes.length)
+        bytes = Arrays.copyOf(bytes, Math.max(2 * size, 4));
+      bytes[size++] = (byte) Math.round(impact / scale);
+    } else {
+      if (size == shorts.length)
+        shorts = Arrays.copyOf(shorts, Math.max(2 * size, 4));
+      shorts[size++] = (short) Math.round(impact / scale);
+    }
+    return true;
+  }
+
+  /**
+   * The number of impacts
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The i'th quantized impact
+   */
+  public int get(int i) {
+    return bits == 8 ? bytes[i] & 0xff : shorts[i] & 0xffff;
+  }
+
+  /**
+   * The estimated bytes of memory used by these impacts, counting the
+   * capacity of their array
+   */
+  public long memorySize() {
+    long capacity = bits == 8 ? bytes.length : shorts.length;
+    return 40 + 16 + capacity * bits / 8;
+  }
+
+}
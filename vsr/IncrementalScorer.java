@@ -0,0 +1,280 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Scores a sequence of revisions of a query, such as those produced by
+ * rounds of relevance feedback, by updating the scores of the previous
+ * revision instead of starting over.  Only the postings of tokens whose
+ * weight changed are traversed, adding the change in weight times the
+ * document weight to each document's score, so a revision costs in
+ * proportion to what changed rather than to the whole query.  Final scores
+ * are then normalized by the length of the new query as usual.
+ * <p/>
+ * Scores are kept for the index as it was when they were computed; if the
+ * index changes (see InvertedIndex.generation), the next revision is scored
+ * from scratch.  Updating scores may round slightly differently than
+ * computing them from scratch.
+ */
+
+public class IncrementalScorer {
+
+  /**
+   * The index whose documents are scored
+   */
+  public final InvertedIndex index;
+
+  /**
+   * The number of postings traversed so far, a measure of the work done
+   */
+  public long numPostingsScored = 0;
+
+  /**
+   * The unnormalized score of every document for scoredVector
+   */
+  protected ScoreAccumulator accumulator = null;
+
+  /**
+   * The number of tokens of scoredVector in each document, so documents
+   * that no longer match any token can be left out
+   */
+  protected int[] numMatched = null;
+
+  /**
+   * The query vector the accumulator holds the scores of
+   */
+  protected HashMapVector scoredVector = new HashMapVector();
+
+  /**
+   * The generation of the index when the scores were computed
+   */
+  protected int generation = -1;
+
+  /**
+   * Buffers for decoding a block of postings
+   */
+  protected int[] docs = new int[PostingsList.BLOCK_SIZE];
+  protected int[] counts = new int[PostingsList.BLOCK_SIZE];
+
+  /**
+   * Create a scorer for an index, with no query scored yet
+   */
+  public IncrementalScorer(InvertedIndex index) {
+    this.index = index;
+  }
+
+  /**
+   * Forget the scores of the last query, so that the next is scored from scratch
+   */
+  public void reset() {
+    scoredVector = new HashMapVector();
+    generation = -1;
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, updating
+   * the scores of the last one.
+   */
+  public Retrieval[] retrieve(HashMapVector vector) {
+    Retrieval[] retrievals = retrieveUnranked(vector);
+    Arrays.sort(retrievals);
+    return retrievals;
+  }
+
+  /**
+   * Perform retrieval on this input query Document vector, updating the
+   * scores of the last one, and return a Retrieval for every matching
+   * document in order of document ID.
+   */
+  public Retrieval[] retrieveUnranked(HashMapVector vector) {
+    index.refreshIfNeeded();
+    if (generation != index.generation()) {
+      // Start over with no query scored
+      int numDocs = index.docRefs.size();
+      if (accumulator == null || accumulator.capacity() < numDocs) {
+        accumulator = new ScoreAccumulator(numDocs);
+        numMatched = new int[numDocs];
+      } else
+        Arrays.fill(numMatched, 0);
+      accumulator.clear();
+      scoredVector = new HashMapVector();
+      generation = index.generation();
+    }
+    // Apply the change in weight of every token that was dropped or is in the new query
+    for (int i = 0; i < scoredVector.size(); i++) {
+      if (!vector.contains(scoredVector.token(i)))
+        changeWeight(scoredVector.token(i), scoredVector.weight(i), 0.0, -1);
+    }
+    for (int i = 0; i < vector.size(); i++) {
+      String token = vector.token(i);
+      if (!scoredVector.contains(token))
+        changeWeight(token, 0.0, vector.weight(i), 1);
+      else if (scoredVector.getWeight(token) != vector.weight(i))
+        changeWeight(token, scoredVector.getWeight(token), vector.weight(i), 0);
+    }
+    scoredVector = vector.copy();
+    double queryLength = index.queryLength(vector);
+    Retrieval[] retrievals = new Retrieval[accumulator.numTouched()];
+    int retrievalCount = 0;
+    accumulator.sortTouched();
+    for (int i = 0; i < accumulator.numTouched(); i++) {
+      int doc = accumulator.touched(i);
+      DocumentReference docRef = index.docRefs.get(doc);
+      if (numMatched[doc] > 0 && !docRef.deleted)
+        retrievals[retrievalCount++] = index.getRetrieval(queryLength, docRef, accumulator.score(doc));
+    }
+    return Arrays.copyOf(retrievals, retrievalCount);
+  }
+
+  /**
+   * Update the score of every document containing a token for a change in
+   * the token's query weight.
+   *
+   * @param token       The token whose weight changed.
+   * @param oldWeight   Its weight in the query last scored.
+   * @param newWeight   Its weight in the new query.
+   * @param matchChange 1 if the token was added to the query, -1 if it was
+   *                    dropped, and 0 if it is in both.
+   */
+  protected void changeWeight(String token, double oldWeight, double newWeight, int matchChange) {
+    TokenInfo tokenInfo = index.tokenHash.get(token);
+    // A token that is not in the index or has no IDF adds nothing to scores
+    if (tokenInfo == null || tokenInfo.idf == 0.0)
+      return;
+    // As in InvertedIndex.incorporateToken, a token adds its weight in the
+    // query (IDF * count) times its weight in the document (IDF * count)
+    double factor = (newWeight - oldWeight) * tokenInfo.idf * tokenInfo.idf;
+    PostingsList postings = tokenInfo.postings;
+    for (int block = 0; block < postings.numBlocks(); block++) {
+      int n = postings.decodeBlock(block, docs, counts);
+      for (int i = 0; i < n; i++) {
+        int doc = docs[i];
+        accumulator.add(doc, factor * counts[i]);
+        if (matchChange != 0) {
+          numMatched[doc] = numMatched[doc] + matchChange;
+          if (numMatched[doc] == 0)
+            // Clear any rounding error left by removing the last token of the document
+            accumulator.set(doc, 0.0);
+        }
+      }
+    }
+    numPostingsScored = numPostingsScored + postings.size();
+  }
+
+  /**
+   * Simulate rounds of relevance feedback, marking one more of the top
+   * retrievals of each query relevant in each round, and compare rescoring the
+   * revised query from scratch with updating the scores of the previous round
+   * (after the first round, which is scored from scratch either way).
+   * Command format: "IncrementalScorer [OPTION]* [DIR] [QUERIES]" where DIR is the
+   * directory of documents to index and QUERIES is a query file in the format used by
+   * ir.eval.Experiment.  OPTIONs can be "-html", "-stem" and "-index FILE" as for
+   * InvertedIndex, and "-rounds N" for the number of feedback rounds (default 5).
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 2];
+    File queryFile = new File(args[args.length - 1]);
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    File indexFile = null;
+    int numRounds = 5;
+    for (int i = 0; i < args.length - 2; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-index"))
+        indexFile = new File(args[++i]);
+      else if (flag.equals("-rounds"))
+        numRounds = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index;
+    if (indexFile != null)
+      index = InvertedIndex.loadOrBuild(indexFile, new File(dirName), docType, stem, false);
+    else
+      index = new InvertedIndex(new File(dirName), docType, stem, false);
+    // The revised query of each round, with null before the first round of each query
+    List<HashMapVector> revisions = new ArrayList<HashMapVector>();
+    int numQueries = 0;
+    for (String query : PostingsBenchmark.readQueryStrings(queryFile)) {
+      HashMapVector queryVector = new TextStringDocument(query, stem).hashMapVector();
+      Retrieval[] retrievals = index.retrieve(queryVector, numRounds);
+      Feedback feedback = new Feedback(queryVector, retrievals, index);
+      revisions.add(null);
+      numQueries++;
+      for (Retrieval retrieval : retrievals) {
+        feedback.addGood(retrieval.docRef);
+        revisions.add(feedback.newQuery());
+      }
+    }
+    int numRevisions = revisions.size() - numQueries;
+    IncrementalScorer scorer = new IncrementalScorer(index);
+    long[] times = new long[2];
+    int mismatches = 0;
+    // Twice over, so the second round is warmed up
+    for (int rep = 0; rep < 2; rep++) {
+      long start = System.nanoTime();
+      List<Retrieval[]> full = new ArrayList<Retrieval[]>();
+      for (HashMapVector revision : revisions)
+        full.add(revision == null ? null : index.retrieve(revision));
+      times[0] = System.nanoTime() - start;
+      scorer.numPostingsScored = 0;
+      start = System.nanoTime();
+      List<Retrieval[]> incremental = new ArrayList<Retrieval[]>();
+      for (HashMapVector revision : revisions) {
+        // As in presentRetrievals, the first round of a query is scored from scratch
+        if (revision == null)
+          scorer.reset();
+        incremental.add(revision == null ? null : scorer.retrieve(revision));
+      }
+      times[1] = System.nanoTime() - start;
+      mismatches = 0;
+      for (int i = 0; i < revisions.size(); i++) {
+        if (revisions.get(i) != null && !sameScores(full.get(i), incremental.get(i)))
+          mismatches++;
+      }
+    }
+    long fullPostings = 0;
+    for (HashMapVector revision : revisions) {
+      if (revision == null)
+        continue;
+      for (int i = 0; i < revision.size(); i++) {
+        TokenInfo tokenInfo = index.tokenHash.get(revision.token(i));
+        if (tokenInfo != null && tokenInfo.idf != 0.0)
+          fullPostings = fullPostings + tokenInfo.postings.size();
+      }
+    }
+    if (mismatches > 0)
+      System.out.println("\n" + mismatches + " rankings differ from rescoring from scratch!");
+    System.out.println("\n" + numRevisions + " feedback revisions of " + numQueries + " queries:");
+    System.out.println("from scratch: " + MoreMath.roundTo(times[0] / 1000.0 / numRevisions, 1) +
+        " us/revision, " + fullPostings / numRevisions + " postings/revision");
+    System.out.println("incremental:  " + MoreMath.roundTo(times[1] / 1000.0 / numRevisions, 1) +
+        " us/revision, " + scorer.numPostingsScored / numRevisions + " postings/revision");
+  }
+
+  /**
+   * Whether two rankings retrieve the same documents with scores that differ
+   * by no more than rounding error
+   */
+  protected static boolean sameScores(Retrieval[] retrievals1, Retrieval[] retrievals2) {
+    if (retrievals1.length != retrievals2.length)
+      return false;
+    Map<DocumentReference, Double> scores = new HashMap<DocumentReference, Double>();
+    for (Retrieval retrieval : retrievals1)
+      scores.put(retrieval.docRef, retrieval.score);
+    for (Retrieval retrieval : retrievals2) {
+      Double score = scores.get(retrieval.docRef);
+      if (score == null || Math.abs(score - retrieval.score) > 1e-9 * Math.max(1.0, Math.abs(score)))
+        return false;
+    }
+    return true;
+  }
+
+}
@@ -0,0 +1,505 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.*;
+import java.util.*;
+
+/**
+ * Reads and writes an InvertedIndex as a compact binary segment file so that
+ * a corpus only has to be tokenized and indexed once.  The file stores the
+ * document references with their vector lengths, followed by the term
+ * dictionary with each term's IDF and postings.  Postings are stored exactly
+ * as they are compressed in memory by PostingsList, so they are copied in
+ * and out without decoding.
+ * <p/>
+ * Layout (all numbers big-endian):
+ * <pre>
+ *   header:    magic, version, docType, stem, positional, numDocs, numTerms,
+ *              offset of document table, offset of term dictionary,
+ *              offset of forward index (0 if none), directory, postings codec
+ *   documents: for each document, its file path, vector length and
+ *              whether it has been deleted
+ *   terms:     in order of term ID, the term, its IDF and maxImpact,
+ *              number of postings, number of blocks, offset, last document,
+ *              size and maxImpact of each block and then the compressed blocks;
+ *              for a positional index, followed by the offset of the positions
+ *              of each block and then the compressed positions
+ *   forward:   if the index has a ForwardIndex, the number of documents it
+ *              covers, the offset of each document's run, the number of
+ *              entries, and then the term IDs and counts of every run
+ * </pre>
+ * Loading memory-maps the file, a window of up to WINDOW_SIZE bytes at a
+ * time, and decodes it directly from the mapped buffers, which avoids all
+ * tokenization and is limited mainly by disk speed.  The compressed blocks
+ * of a non-positional index are not copied onto the heap but left in the
+ * mapped file (see MappedPostingsList), so the file may be larger than the
+ * heap, as one built by SPIMIIndexer may be.  Positions are copied.
+ * <p/>
+ * A file is written under a temporary name and then renamed, so an index
+ * can be saved over the file it was loaded from while its postings are
+ * still mapped.
+ */
+
+public class IndexFile {
+
+  /**
+   * Marks the start of an index file ("IRVS")
+   */
+  public static final int MAGIC = 0x49525653;
+
+  /**
+   * The version of the layout written by this class
+   */
+  public static final int VERSION = 7;
+
+  /**
+   * The number of bytes before the variable length directory name in the header
+   */
+  protected static final int HEADER_SIZE = 4 + 4 + 2 + 1 + 1 + 4 + 4 + 8 + 8 + 8;
+
+  /**
+   * The most bytes of the file mapped at once.  The postings of a term must
+   * fit in a window.
+   */
+  public static final int WINDOW_SIZE = 1 << 30;
+
+  /**
+   * Write the given index to a file.
+   */
+  public static void write(InvertedIndex index, File file) throws IOException {
+    File tempFile = new File(file.getPath() + ".tmp");
+    try (FileChannel channel = FileChannel.open(tempFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel)));
+      // Reserve room for the header, whose offsets are only known at the end
+      int headerSize = headerSize(index.dirFile, index.codec);
+      out.write(new byte[headerSize]);
+      // Offsets are taken from the channel, since DataOutputStream counts bytes in an int
+      out.flush();
+      long docsOffset = channel.position();
+      for (DocumentReference docRef : index.docRefs)
+        writeDocument(out, docRef.file, docRef.length, docRef.deleted);
+      out.flush();
+      long termsOffset = channel.position();
+      for (String token : index.terms) {
+        TokenInfo tokenInfo = index.tokenHash.get(token);
+        writeTerm(out, token, tokenInfo.idf, tokenInfo.maxImpact, tokenInfo.postings);
+        if (index.positional())
+          writePositions(out, (PositionalPostingsList) tokenInfo.postings);
+      }
+      long forwardOffset = 0;
+      if (index.forwardIndex != null) {
+        out.flush();
+        forwardOffset = channel.position();
+        writeForward(out, index.forwardIndex);
+      }
+      out.flush();
+      // Now go back and fill in the header
+      writeHeader(channel, index.dirFile, index.codec, index.docType, index.stem, index.positional(),
+          index.docRefs.size(), index.tokenHash.size(), docsOffset, termsOffset, forwardOffset);
+    }
+    // The old file, if any, stays in place for any index still mapping it
+    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * The size of the header of an index file, which is written first as
+   * zeros to reserve room for it
+   */
+  protected static int headerSize(File dirFile, PostingsCodec codec) {
+    return HEADER_SIZE + 4 + bytes(dirFile == null ? "" : dirFile.getPath()).length +
+        4 + bytes(codec.toString()).length;
+  }
+
+  /**
+   * Fill in the header at the start of an index file once the rest has been written
+   */
+  protected static void writeHeader(FileChannel channel, File dirFile, PostingsCodec codec, short docType,
+                                    boolean stem, boolean positional, int numDocs, int numTerms,
+                                    long docsOffset, long termsOffset, long forwardOffset) throws IOException {
+    byte[] dirName = bytes(dirFile == null ? "" : dirFile.getPath());
+    byte[] codecName = bytes(codec.toString());
+    ByteBuffer header = ByteBuffer.allocate(headerSize(dirFile, codec));
+    header.putInt(MAGIC).putInt(VERSION).putShort(docType).put((byte) (stem ? 1 : 0));
+    header.put((byte) (positional ? 1 : 0));
+    header.putInt(numDocs).putInt(numTerms);
+    header.putLong(docsOffset).putLong(termsOffset).putLong(forwardOffset);
+    header.putInt(dirName.length).put(dirName);
+    header.putInt(codecName.length).put(codecName);
+    header.flip();
+    while (header.hasRemaining())
+      channel.write(header, header.position());
+  }
+
+  /**
+   * Write the entry of a document in the document table
+   */
+  protected static void writeDocument(DataOutputStream out, File file, double length, boolean deleted)
+      throws IOException {
+    writeString(out, file.getPath());
+    out.writeDouble(length);
+    out.writeBoolean(deleted);
+  }
+
+  /**
+   * Write the entry of a term in the term dictionary, with its postings
+   */
+  protected static void writeTerm(DataOutputStream out, String token, double idf, double maxImpact,
+                                  PostingsList postings) throws IOException {
+    writeString(out, token);
+    out.writeDouble(idf);
+    out.writeDouble(maxImpact);
+    writePostings(out, postings);
+  }
+
+  /**
+   * Load the contents of an index file into the given (empty) index.
+   */
+  public static void read(File file, InvertedIndex index) throws IOException {
+    try (FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+      MappedInput buffer = new MappedInput(channel);
+      if (buffer.size < HEADER_SIZE || buffer.getInt() != MAGIC)
+        throw new IOException("Not an index file: " + file);
+      int version = buffer.getInt();
+      if (version != VERSION)
+        throw new IOException("Unsupported index file version " + version + ": " + file);
+      index.docType = buffer.getShort();
+      index.stem = buffer.get() != 0;
+      boolean positional = buffer.get() != 0;
+      if (positional != index.positional())
+        throw new IOException((positional ? "Positional" : "Non-positional") + " index file cannot be loaded into " +
+            index.getClass().getSimpleName() + ": " + file);
+      int numDocs = buffer.getInt();
+      int numTerms = buffer.getInt();
+      long docsOffset = buffer.getLong();
+      long termsOffset = buffer.getLong();
+      long forwardOffset = buffer.getLong();
+      String dirName = readString(buffer);
+      index.dirFile = dirName.isEmpty() ? null : new File(dirName);
+      index.codec = PostingsCodec.forName(readString(buffer));
+      // Read the document table
+      buffer.position(docsOffset);
+      for (int i = 0; i < numDocs; i++) {
+        File docFile = new File(readString(buffer));
+        DocumentReference docRef = new DocumentReference(docFile, buffer.getDouble());
+        docRef.id = i;
+        docRef.deleted = buffer.get() != 0;
+        if (docRef.deleted)
+          index.numDeleted++;
+        index.docRefs.add(docRef);
+      }
+      // Indexes are saved with the postings of deleted documents removed
+      index.numPurged = index.numDeleted;
+      // Read the term dictionary and postings
+      buffer.position(termsOffset);
+      for (int i = 0; i < numTerms; i++) {
+        String token = readString(buffer);
+        TokenInfo tokenInfo = new TokenInfo(index.codec);
+        tokenInfo.idf = buffer.getDouble();
+        tokenInfo.maxImpact = buffer.getDouble();
+        // A positional list keeps its blocks on the heap along with its positions
+        tokenInfo.postings = readPostings(buffer, index.codec, !positional);
+        if (positional)
+          tokenInfo.postings = readPositions(buffer, tokenInfo.postings);
+        tokenInfo.termId = i;
+        index.tokenHash.put(token, tokenInfo);
+        index.terms.add(token);
+      }
+      if (forwardOffset != 0) {
+        buffer.position(forwardOffset);
+        index.forwardIndex = readForward(buffer);
+      }
+    }
+  }
+
+  /**
+   * Write the compressed blocks of a postings list
+   */
+  protected static void writePostings(DataOutputStream out, PostingsList postings) throws IOException {
+    // Make sure every posting is in a compressed block
+    postings.finish();
+    out.writeInt(postings.size);
+    out.writeInt(postings.numBlocks);
+    for (int block = 0; block < postings.numBlocks; block++) {
+      out.writeInt(postings.blockOffsets[block]);
+      out.writeInt(postings.blockLastDocs[block]);
+      out.writeInt(postings.blockSizes[block]);
+      out.writeDouble(postings.blockMaxImpact(block));
+    }
+    out.writeInt(postings.dataSize);
+    postings.writeData(out);
+  }
+
+  /**
+   * Read a postings list written by writePostings, leaving its compressed
+   * blocks in the mapped file if mapped is true and otherwise copying them.
+   */
+  protected static PostingsList readPostings(MappedInput in, PostingsCodec codec, boolean mapped)
+      throws IOException {
+    int size = in.getInt();
+    int numBlocks = in.getInt();
+    int[] blockOffsets = new int[numBlocks];
+    int[] blockLastDocs = new int[numBlocks];
+    int[] blockSizes = new int[numBlocks];
+    double[] blockMaxImpacts = new double[numBlocks];
+    ByteBuffer buffer = in.buffer(20 * numBlocks);
+    for (int block = 0; block < numBlocks; block++) {
+      blockOffsets[block] = buffer.getInt();
+      blockLastDocs[block] = buffer.getInt();
+      blockSizes[block] = buffer.getInt();
+      blockMaxImpacts[block] = buffer.getDouble();
+    }
+    int dataSize = in.getInt();
+    PostingsList postings;
+    if (mapped)
+      postings = new MappedPostingsList(codec, in.slice(dataSize), blockOffsets, blockLastDocs, blockSizes, size);
+    else {
+      byte[] data = new byte[dataSize];
+      in.buffer(dataSize).get(data);
+      postings = new CountPostingsList(codec, data, blockOffsets, blockLastDocs, blockSizes, size);
+    }
+    postings.setBlockMaxImpacts(blockMaxImpacts);
+    return postings;
+  }
+
+  /**
+   * Read a postings list written by writePostings from a stream
+   */
+  protected static PostingsList readPostings(DataInputStream in, PostingsCodec codec) throws IOException {
+    int size = in.readInt();
+    int numBlocks = in.readInt();
+    int[] blockOffsets = new int[numBlocks];
+    int[] blockLastDocs = new int[numBlocks];
+    int[] blockSizes = new int[numBlocks];
+    double[] blockMaxImpacts = new double[numBlocks];
+    for (int block = 0; block < numBlocks; block++) {
+      blockOffsets[block] = in.readInt();
+      blockLastDocs[block] = in.readInt();
+      blockSizes[block] = in.readInt();
+      blockMaxImpacts[block] = in.readDouble();
+    }
+    byte[] data = new byte[in.readInt()];
+    in.readFully(data);
+    PostingsList postings = new CountPostingsList(codec, data, blockOffsets, blockLastDocs, blockSizes, size);
+    postings.setBlockMaxImpacts(blockMaxImpacts);
+    return postings;
+  }
+
+  /**
+   * Read a String written by writeString from a stream
+   */
+  protected static String readString(DataInputStream in) throws IOException {
+    byte[] bytes = new byte[in.readInt()];
+    in.readFully(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write the positions of a finished positional postings list
+   */
+  protected static void writePositions(DataOutputStream out, PositionalPostingsList postings) throws IOException {
+    for (int block = 0; block < postings.numBlocks; block++)
+      out.writeInt(postings.blockPositionOffset(block));
+    out.writeInt(postings.positionSize);
+    out.write(postings.positionData, 0, postings.positionSize);
+  }
+
+  /**
+   * Read the positions written by writePositions and return a positional
+   * version of the postings they belong to
+   */
+  protected static PositionalPostingsList readPositions(MappedInput in, PostingsList postings)
+      throws IOException {
+    int[] blockPositionOffsets = new int[Math.max(postings.numBlocks, 1)];
+    ByteBuffer buffer = in.buffer(4 * postings.numBlocks);
+    for (int block = 0; block < postings.numBlocks; block++)
+      blockPositionOffsets[block] = buffer.getInt();
+    byte[] positionData = new byte[in.getInt()];
+    in.buffer(positionData.length).get(positionData);
+    PositionalPostingsList positional = new PositionalPostingsList(postings.codec, postings.data,
+        postings.blockOffsets, postings.blockLastDocs, postings.blockSizes, postings.size, positionData,
+        blockPositionOffsets);
+    positional.setBlockMaxImpacts(postings.blockMaxImpacts);
+    return positional;
+  }
+
+  /**
+   * Write the arrays of a forward index
+   */
+  protected static void writeForward(DataOutputStream out, ForwardIndex forward) throws IOException {
+    out.writeInt(forward.numDocs);
+    for (int doc = 0; doc <= forward.numDocs; doc++)
+      out.writeInt(forward.docOffsets[doc]);
+    int numEntries = forward.docOffsets[forward.numDocs];
+    out.writeInt(numEntries);
+    for (int i = 0; i < numEntries; i++)
+      out.writeInt(forward.termIds[i]);
+    for (int i = 0; i < numEntries; i++)
+      out.writeInt(forward.counts[i]);
+  }
+
+  /**
+   * Read a forward index written by writeForward
+   */
+  protected static ForwardIndex readForward(MappedInput in) throws IOException {
+    int[] docOffsets = new int[in.getInt() + 1];
+    readInts(in, docOffsets);
+    int[] termIds = new int[in.getInt()];
+    int[] counts = new int[termIds.length];
+    readInts(in, termIds);
+    readInts(in, counts);
+    return new ForwardIndex(docOffsets, termIds, counts);
+  }
+
+  /**
+   * Fill an array with ints read from the mapped file, a window at a time
+   */
+  protected static void readInts(MappedInput in, int[] values) throws IOException {
+    int done = 0;
+    while (done < values.length) {
+      int n = Math.min(values.length - done, WINDOW_SIZE / 8);
+      in.buffer(4 * n).asIntBuffer().get(values, done, n);
+      done = done + n;
+    }
+  }
+
+  /**
+   * Encode a String as UTF-8
+   */
+  protected static byte[] bytes(String string) {
+    return string.getBytes(StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Write a String as its length in bytes followed by its UTF-8 bytes
+   */
+  protected static void writeString(DataOutputStream out, String string) throws IOException {
+    byte[] bytes = bytes(string);
+    out.writeInt(bytes.length);
+    out.write(bytes);
+  }
+
+  /**
+   * Read a String written by writeString
+   */
+  protected static String readString(MappedInput in) throws IOException {
+    byte[] bytes = new byte[in.getInt()];
+    in.buffer(bytes.length).get(bytes);
+    return new String(bytes, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * Reads an index file through memory-mapped windows of up to WINDOW_SIZE
+   * bytes, which may start anywhere in the file, so that a file of any size
+   * can be read as long as each piece asked for fits in a window.
+   */
+  protected static class MappedInput {
+
+    /**
+     * The file being read
+     */
+    protected FileChannel channel;
+
+    /**
+     * The size of the file
+     */
+    protected long size;
+
+    /**
+     * The current window, a mapping of part of the file
+     */
+    protected MappedByteBuffer window = null;
+
+    /**
+     * The offset in the file of the start of the window
+     */
+    protected long windowStart = 0;
+
+    /**
+     * The offset in the file of the next byte to read
+     */
+    protected long position = 0;
+
+    /**
+     * Start reading a file at its beginning
+     */
+    protected MappedInput(FileChannel channel) throws IOException {
+      this.channel = channel;
+      this.size = channel.size();
+    }
+
+    /**
+     * Move to an offset in the file
+     */
+    protected void position(long position) {
+      this.position = position;
+    }
+
+    /**
+     * The window positioned at the next length bytes, which are then passed
+     * over; they must be read from it before anything else is read.
+     */
+    protected ByteBuffer buffer(int length) throws IOException {
+      if (position + length > size)
+        throw new EOFException("Truncated index file");
+      if (window == null || position < windowStart || position + length > windowStart + window.limit()) {
+        windowStart = position;
+        window = channel.map(FileChannel.MapMode.READ_ONLY, position,
+            Math.max(length, Math.min(WINDOW_SIZE, size - position)));
+      }
+      window.position((int) (position - windowStart));
+      position = position + length;
+      return window;
+    }
+
+    /**
+     * A buffer of just the next length bytes, sharing the mapping of the window
+     */
+    protected ByteBuffer slice(int length) throws IOException {
+      ByteBuffer slice = buffer(length).slice();
+      slice.limit(length);
+      return slice;
+    }
+
+    /**
+     * Read the next byte
+     */
+    protected byte get() throws IOException {
+      return buffer(1).get();
+    }
+
+    /**
+     * Read the next short
+     */
+    protected short getShort() throws IOException {
+      return buffer(2).getShort();
+    }
+
+    /**
+     * Read the next int
+     */
+    protected int getInt() throws IOException {
+      return buffer(4).getInt();
+    }
+
+    /**
+     * Read the next long
+     */
+    protected long getLong() throws IOException {
+      return buffer(8).getLong();
+    }
+
+    /**
+     * Read the next double
+     */
+    protected double getDouble() throws IOException {
+      return buffer(8).getDouble();
+    }
+
+  }
+
+}
@@ -0,0 +1,255 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ir.utilities.*;
+
+/**
+ * A read-only view of an InvertedIndex that any number of threads can query
+ * at once.  Retrieval from an InvertedIndex itself is not thread-safe, since
+ * it keeps its score accumulator in a field and may refresh its statistics
+ * in the middle of a query.  A searcher instead brings the statistics up to
+ * date when it is created and gives each thread its own accumulator, so
+ * queries only ever read the index.
+ * <p/>
+ * The index must not be changed while it is being searched.  A searcher
+ * notices if it has been and refuses to answer more queries, after which a
+ * new searcher should be created.
+ * <p/>
+ * retrieveAll runs queries on a pool of threads that lives as long as the
+ * searcher, so each thread keeps its accumulator from one batch to the
+ * next.  Call close to stop the threads when done with the searcher.
+ */
+
+public class IndexSearcher {
+
+  /**
+   * The index searched
+   */
+  public final InvertedIndex index;
+
+  /**
+   * The number of threads retrieveAll runs queries on
+   */
+  public int numThreads = Runtime.getRuntime().availableProcessors();
+
+  /**
+   * The generation of the index when this searcher was created
+   */
+  protected final int generation;
+
+  /**
+   * The score accumulator of each thread using this searcher
+   */
+  protected final ThreadLocal<ScoreAccumulator> accumulators;
+
+  /**
+   * The threads retrieveAll runs queries on, created when first needed
+   */
+  protected ExecutorService pool = null;
+
+  /**
+   * The number of threads in pool, which is replaced if numThreads changes
+   */
+  protected int poolSize = 0;
+
+  /**
+   * Create a searcher for an index, first refreshing its statistics if the
+   * index itself would before its next query.
+   */
+  public IndexSearcher(final InvertedIndex index) {
+    this.index = index;
+    index.refreshIfNeeded();
+    generation = index.generation();
+    accumulators = ThreadLocal.withInitial(() -> new ScoreAccumulator(index.docRefs.size()));
+  }
+
+  /**
+   * Perform ranked retrieval on this input query.
+   */
+  public Retrieval[] retrieve(String input) {
+    return retrieve(new TextStringDocument(input, index.stem).hashMapVector());
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector.
+   */
+  public Retrieval[] retrieve(HashMapVector vector) {
+    // Rank as the index does, which for an InvertedProxIndex also sets proximities
+    return index.rank(vector, index.retrieveUnranked(vector, getAccumulator()));
+  }
+
+  /**
+   * Perform ranked retrieval on this input query, returning only the top k documents.
+   */
+  public Retrieval[] retrieve(String input, int k) {
+    return retrieve(new TextStringDocument(input, index.stem).hashMapVector(), k);
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, returning
+   * only the top k documents.
+   */
+  public Retrieval[] retrieve(HashMapVector vector, int k) {
+    return index.retrieve(vector, k, getAccumulator());
+  }
+
+  /**
+   * Perform ranked retrieval on every query, running them on numThreads threads.
+   *
+   * @return The retrievals for each query, in the order of the queries.
+   */
+  public List<Retrieval[]> retrieveAll(List<String> queries) {
+    return retrieveAll(queries, -1);
+  }
+
+  /**
+   * Perform ranked retrieval on every query, returning only the top k documents
+   * for each (or all of them if k is negative), running them on numThreads threads.
+   *
+   * @return The retrievals for each query, in the order of the queries.
+   */
+  public List<Retrieval[]> retrieveAll(List<String> queries, final int k) {
+    ExecutorService pool = getPool();
+    try {
+      List<Future<Retrieval[]>> pending = new ArrayList<Future<Retrieval[]>>(queries.size());
+      for (final String query : queries) {
+        pending.add(pool.submit(new Callable<Retrieval[]>() {
+          public Retrieval[] call() {
+            return (k < 0) ? retrieve(query) : retrieve(query, k);
+          }
+        }));
+      }
+      List<Retrieval[]> results = new ArrayList<Retrieval[]>(queries.size());
+      for (Future<Retrieval[]> future : pending)
+        results.add(future.get());
+      return results;
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while retrieving");
+    }
+    catch (ExecutionException e) {
+      if (e.getCause() instanceof RuntimeException)
+        throw (RuntimeException) e.getCause();
+      throw new IllegalStateException("Could not retrieve", e.getCause());
+    }
+  }
+
+  /**
+   * Return the pool of numThreads threads that retrieveAll runs queries on,
+   * creating it (or replacing it, if numThreads has changed) if needed.  The
+   * threads are daemons, so a searcher that is never closed does not keep the
+   * program running.
+   */
+  protected synchronized ExecutorService getPool() {
+    if (pool == null || poolSize != numThreads) {
+      if (pool != null)
+        pool.shutdown();
+      pool = Executors.newFixedThreadPool(numThreads, new ThreadFactory() {
+        public Thread newThread(Runnable runnable) {
+          Thread thread = new Thread(runnable, "IndexSearcher");
+          thread.setDaemon(true);
+          return thread;
+        }
+      });
+      poolSize = numThreads;
+    }
+    return pool;
+  }
+
+  /**
+   * Stop the threads of retrieveAll, after any queries running on them are done.
+   * The searcher can still be used, and retrieveAll starts new threads if called.
+   */
+  public synchronized void close() {
+    if (pool != null) {
+      pool.shutdown();
+      pool = null;
+    }
+  }
+
+  /**
+   * Return the calling thread's score accumulator cleared and ready for a new
+   * query, after checking that the index has not changed.
+   */
+  protected ScoreAccumulator getAccumulator() {
+    if (index.generation() != generation)
+      throw new IllegalStateException("Index changed since the searcher was created");
+    ScoreAccumulator accumulator = accumulators.get();
+    accumulator.clear();
+    return accumulator;
+  }
+
+  /**
+   * Measure the throughput of retrieveAll on increasing numbers of threads,
+   * checking that it returns the same retrievals as querying the index itself.
+   * Command format: "IndexSearcher [OPTION]* [DIR] [QUERIES]" where DIR is the
+   * directory of documents to index and QUERIES is a query file in the format used by
+   * ir.eval.Experiment.  OPTIONs can be "-html", "-stem", "-index FILE" as for
+   * InvertedIndex, "-k K" for the number of documents retrieved (default 10), and
+   * "-threads N" for the most threads to use (default the number of processors).
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 2];
+    File queryFile = new File(args[args.length - 1]);
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    File indexFile = null;
+    int k = 10;
+    int maxThreads = Runtime.getRuntime().availableProcessors();
+    for (int i = 0; i < args.length - 2; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-index"))
+        indexFile = new File(args[++i]);
+      else if (flag.equals("-k"))
+        k = Integer.parseInt(args[++i]);
+      else if (flag.equals("-threads"))
+        maxThreads = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index;
+    if (indexFile != null)
+      index = InvertedIndex.loadOrBuild(indexFile, new File(dirName), docType, stem, false);
+    else
+      index = new InvertedIndex(new File(dirName), docType, stem, false);
+    List<String> queries = PostingsBenchmark.readQueryStrings(queryFile);
+    List<Retrieval[]> expected = new ArrayList<Retrieval[]>();
+    for (String query : queries)
+      expected.add(index.retrieve(query, k));
+
+    IndexSearcher searcher = new IndexSearcher(index);
+    System.out.println("\nTop " + k + " of " + index.docRefs.size() + " documents for " + queries.size() + " queries:");
+    // Double the number of threads each time, ending with maxThreads
+    int numThreads = 1;
+    while (true) {
+      searcher.numThreads = numThreads;
+      // Warm up, and check the results against the index
+      List<Retrieval[]> results = searcher.retrieveAll(queries, k);
+      int mismatches = 0;
+      for (int i = 0; i < queries.size(); i++) {
+        if (!TopKBenchmark.sameRetrievals(expected.get(i), results.get(i)))
+          mismatches++;
+      }
+      long start = System.nanoTime();
+      for (int rep = 0; rep < TopKBenchmark.REPETITIONS; rep++)
+        searcher.retrieveAll(queries, k);
+      double seconds = (System.nanoTime() - start) / 1e9;
+      System.out.println(numThreads + " threads: " +
+          MoreMath.roundTo(TopKBenchmark.REPETITIONS * queries.size() / seconds, 1) + " queries/sec" +
+          (mismatches > 0 ? ", " + mismatches + " rankings differ from the index!" : ""));
+      if (numThreads >= maxThreads)
+        break;
+      numThreads = Math.min(2 * numThreads, maxThreads);
+    }
+    searcher.close();
+  }
+
+}
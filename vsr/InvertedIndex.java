@@ -2,6 +2,7 @@ package ir.vsr;
 
 import java.io.*;
 import java.util.*;
+import java.util.concurrent.*;
 import java.lang.*;
 
 import ir.utilities.*;
@@ -12,6 +13,14 @@ import ir.classifiers.*;
  * methods for creating an inverted index from a set of documents
  * and retrieving ranked matches to queries using standard TF/IDF
  * weighting and cosine similarity.
+ * <p/>
+ * The vectors made of documents and queries number their tokens with
+ * TermDictionary.current() rather than with the term IDs of the index (see
+ * terms).  Apart from the query being revised with feedback, the index keeps
+ * no vectors once it is built, so it does not hold on to any dictionary: the
+ * current one is replaced when it reaches TermDictionary.MAX_TOKENS tokens,
+ * and an old one is dropped along with the last vector made with it, such as
+ * the Examples a classifier indexes.
  *
  * @author Ray Mooney
  */
@@ -23,6 +32,12 @@ public class InvertedIndex {
    */
   public static final int MAX_RETRIEVALS = 10;
 
+  /**
+   * The number of documents each worker thread tokenizes at a time
+   * when indexing in parallel
+   */
+  public static final int BATCH_SIZE = 16;
+
   /**
    * A HashMap where tokens are indexed. Each indexed token maps
    * to a TokenInfo.
@@ -31,11 +46,18 @@ public class InvertedIndex {
 
   /**
    * A list of all indexed documents.  Elements are DocumentReference's.
+   * The position of a document in this list is its ID.
    */
   public List<DocumentReference> docRefs = null;
 
   /**
-   * The directory from which the indexed documents come.
+   * The indexed tokens in order of their term ID
+   */
+  public List<String> terms = null;
+
+  /**
+   * The directory (or archive or other source file, see
+   * DocumentIterator.forSource) from which the indexed documents come.
    */
   public File dirFile = null;
 
@@ -54,21 +76,164 @@ public class InvertedIndex {
    */
   public boolean feedback = false;
 
+  /**
+   * Updates scores from one round of relevance feedback to the next (see
+   * feedbackScorer())
+   */
+  protected IncrementalScorer feedbackScorer = null;
+
+  /**
+   * The searcher retrieveAll runs queries on, kept so that its threads are
+   * reused until the index changes
+   */
+  protected IndexSearcher searcher = null;
+
+  /**
+   * The number of threads used to tokenize documents while indexing
+   */
+  public int numThreads = 1;
+
+  /**
+   * The codec used to compress the postings of every token
+   */
+  public PostingsCodec codec = PostingsCodec.VBYTE;
+
+  /**
+   * Ways of finding the top k documents for a query in retrieve(vector, k):
+   * scoring every matching document, or document-at-a-time WAND, MaxScore
+   * or Block-Max WAND pruning (see PruningEvaluator).  All give the same results.
+   */
+  public static final short PRUNING_NONE = 0;
+  public static final short PRUNING_WAND = 1;
+  public static final short PRUNING_MAXSCORE = 2;
+  public static final short PRUNING_BLOCK_MAX_WAND = 3;
+
+  /**
+   * The way top k retrieval is done, one of the PRUNING constants
+   */
+  public short pruning = PRUNING_MAXSCORE;
+
+  /**
+   * The number of bits in the quantized weights of query tokens when scoring
+   * with quantized impacts
+   */
+  public static final int QUERY_WEIGHT_BITS = 16;
+
+  /**
+   * The number of bits (8 or 16) of the quantized impact kept for every
+   * posting (see ImpactList), or 0 to score with exact weights.  With
+   * impacts, retrieval that scores every matching document adds up integer
+   * products of quantized query weights and impacts instead of multiplying
+   * doubles, so scores are only close to exact (see ImpactCalibration).
+   * That is retrieve without k, and retrieve with k when pruning is
+   * PRUNING_NONE; pruned top k retrieval still scores exactly.  The impacts
+   * are quantized as the index changes, so retrieval only reads them.  Set
+   * with setImpactBits.
+   */
+  protected int impactBits = 0;
+
+  /**
+   * The number of documents in docRefs that have been deleted
+   */
+  public int numDeleted = 0;
+
+  /**
+   * The fraction of the indexed documents that can be added, updated or deleted
+   * before IDF factors and document lengths are recomputed over the whole index,
+   * which happens at the next retrieval.  Until then, the IDF of every token
+   * already indexed is left as it is, so an update costs time proportional to
+   * the size of the document rather than of the corpus.  Use 0 to always
+   * recompute before retrieving after a change.
+   */
+  public double refreshFraction = 0.1;
+
+  /**
+   * The number of documents added or deleted since IDF factors and document
+   * lengths were last computed over the whole index
+   */
+  protected int numChanges = 0;
+
+  /**
+   * The number of deleted documents whose postings have been removed
+   */
+  protected int numPurged = 0;
+
+  /**
+   * The current document for each indexed file, built when first needed by
+   * addDocument, updateDocument or deleteDocument
+   */
+  protected Map<File, DocumentReference> docRefsByFile = null;
+
+  /**
+   * Incremented whenever documents are added or deleted or statistics are
+   * recomputed, so that views of the index can tell when it has changed
+   */
+  protected int generation = 0;
+
+  /**
+   * The cache of retrievals for recent queries, or null to evaluate every query
+   */
+  public QueryCache cache = null;
+
+  /**
+   * Scratch space for scoring documents, reused from query to query
+   */
+  protected ScoreAccumulator accumulator = null;
+
+  /**
+   * The forward index of the documents, built when first needed and then
+   * rebuilt whenever term IDs are reassigned, or null if not needed yet
+   */
+  protected ForwardIndex forwardIndex = null;
+
   /**
    * Create an inverted index of the documents in a directory.
    *
-   * @param dirFile  The directory of files to index.
+   * @param dirFile  The directory of files (or source file of documents) to index.
    * @param docType  The type of documents to index (See docType in DocumentIterator)
    * @param stem     Whether tokens should be stemmed with Porter stemmer.
    * @param feedback Whether relevance feedback should be used.
    */
   public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback) {
+    this(dirFile, docType, stem, feedback, 1);
+  }
+
+  /**
+   * Create an inverted index of the documents in a directory, tokenizing
+   * documents on several threads at once.
+   *
+   * @param dirFile    The directory of files to index.
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback   Whether relevance feedback should be used.
+   * @param numThreads The number of threads to use for indexing.
+   */
+  public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numThreads) {
+    this(dirFile, docType, stem, feedback, numThreads, PostingsCodec.VBYTE);
+  }
+
+  /**
+   * Create an inverted index of the documents in a directory, tokenizing
+   * documents on several threads at once and compressing postings with the given codec.
+   *
+   * @param dirFile    The directory of files to index.
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback   Whether relevance feedback should be used.
+   * @param numThreads The number of threads to use for indexing.
+   * @param codec      The codec used to compress postings.
+   */
+  public InvertedIndex(File dirFile, short docType, boolean stem, boolean feedback, int numThreads,
+                       PostingsCodec codec) {
     this.dirFile = dirFile;
     this.docType = docType;
     this.stem = stem;
     this.feedback = feedback;
+    this.numThreads = numThreads;
+    this.codec = codec;
     tokenHash = new HashMap<String, TokenInfo>();
     docRefs = new ArrayList<DocumentReference>();
+    terms = new ArrayList<String>();
     indexDocuments();
   }
 
@@ -81,9 +246,65 @@ public class InvertedIndex {
   public InvertedIndex(List<Example> examples) {
     tokenHash = new HashMap<String, TokenInfo>();
     docRefs = new ArrayList<DocumentReference>();
+    terms = new ArrayList<String>();
     indexDocuments(examples);
   }
 
+  /**
+   * Create an empty inverted index, to be filled in by loading an index file.
+   */
+  protected InvertedIndex() {
+    tokenHash = new HashMap<String, TokenInfo>();
+    docRefs = new ArrayList<DocumentReference>();
+    terms = new ArrayList<String>();
+  }
+
+  /**
+   * Load an inverted index previously written to a file with save.
+   *
+   * @param indexFile The index file to load.
+   */
+  public static InvertedIndex load(File indexFile) throws IOException {
+    InvertedIndex index = new InvertedIndex();
+    IndexFile.read(indexFile, index);
+    System.out.println("Loaded " + index.docRefs.size() + " documents with " + index.size() +
+        " unique terms from " + indexFile);
+    return index;
+  }
+
+  /**
+   * Load the inverted index stored in indexFile if it exists, otherwise index the
+   * documents in dirFile and save the resulting index to indexFile for next time.
+   *
+   * @param indexFile The index file to load or create.
+   * @param dirFile   The directory of files to index.
+   * @param docType   The type of documents to index (See docType in DocumentIterator)
+   * @param stem      Whether tokens should be stemmed with Porter stemmer.
+   * @param feedback  Whether relevance feedback should be used.
+   */
+  public static InvertedIndex loadOrBuild(File indexFile, File dirFile, short docType, boolean stem,
+                                          boolean feedback) throws IOException {
+    InvertedIndex index;
+    if (indexFile.exists()) {
+      index = load(indexFile);
+      index.feedback = feedback;
+    } else {
+      index = new InvertedIndex(dirFile, docType, stem, feedback);
+      index.save(indexFile);
+    }
+    return index;
+  }
+
+  /**
+   * Write this index to a binary index file so that it can be quickly reloaded.
+   */
+  public void save(File indexFile) throws IOException {
+    if (numChanges > 0)
+      refreshStatistics();
+    IndexFile.write(this, indexFile);
+    System.out.println("Saved index to " + indexFile);
+  }
+
 
   /**
    * Index the documents in dirFile.
@@ -93,17 +314,38 @@ public class InvertedIndex {
       // Currently can only index one set of documents when an index is created
       throw new IllegalStateException("Cannot indexDocuments more than once in the same InvertedIndex");
     }
-    // Get an iterator for the documents
-    DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem);
+    // Get an iterator for the documents, in a directory or an archive or other source file
+    DocumentIterator docIter = null;
+    try {
+      docIter = DocumentIterator.forSource(dirFile, docType, stem);
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not open documents: " + dirFile + " (" + e.getMessage() + ")");
+      System.exit(1);
+    }
     System.out.println("Indexing documents in " + dirFile);
-    // Loop, processing each of the documents
-
-    while (docIter.hasMoreDocuments()) {
-      FileDocument doc = docIter.nextDocument();
-      // Create a document vector for this document
-      System.out.print(doc.file.getName() + ",");
-      HashMapVector vector = doc.hashMapVector();
-      indexDocument(doc, vector);
+    try {
+      // A PartialIndex does not keep positions, so a positional index is built in one thread
+      if (numThreads > 1 && !positional())
+        indexDocumentsInParallel(docIter);
+      else {
+        // Loop, processing each of the documents
+        while (docIter.hasMoreDocuments()) {
+          FileDocument doc = docIter.nextDocument();
+          // Create a document vector for this document
+          System.out.print(doc.file.getName() + ",");
+          indexDocument(doc);
+        }
+      }
+    }
+    finally {
+      // Every document has been read, including those of the last batch merged
+      try {
+        docIter.close();
+      }
+      catch (IOException e) {
+        System.out.println("\nCould not close documents: " + dirFile + " (" + e.getMessage() + ")");
+      }
     }
     // Now that all documents have been processed, we can calculate the IDF weights for
     // all tokens and the resulting lengths of all weighted document vectors.
@@ -112,6 +354,70 @@ public class InvertedIndex {
   }
 
 
+  /**
+   * Index all the documents from the iterator using numThreads threads.
+   * Documents are handed out in batches of BATCH_SIZE, each batch is tokenized
+   * into a PartialIndex by a worker, and the partial indices are merged in the
+   * order their documents were read, so the result is identical to indexing
+   * the documents one at a time.
+   */
+  protected void indexDocumentsInParallel(DocumentIterator docIter) {
+    ExecutorService pool = Executors.newFixedThreadPool(numThreads);
+    // Batches handed to workers but not yet merged, oldest first
+    LinkedList<Future<PartialIndex>> pending = new LinkedList<Future<PartialIndex>>();
+    // The document number of the first document in the next batch
+    int numDocs = docRefs.size();
+    try {
+      while (docIter.hasMoreDocuments()) {
+        // Only the (cheap) opening of documents happens on this thread
+        final List<FileDocument> batch = new ArrayList<FileDocument>(BATCH_SIZE);
+        while (batch.size() < BATCH_SIZE && docIter.hasMoreDocuments())
+          batch.add(docIter.nextDocument());
+        final int firstDoc = numDocs;
+        numDocs += batch.size();
+        pending.add(pool.submit(new Callable<PartialIndex>() {
+          public PartialIndex call() {
+            return new PartialIndex(batch, firstDoc, codec);
+          }
+        }));
+        // Bound the number of open documents and unmerged partial indices
+        if (pending.size() >= 2 * numThreads)
+          mergePartialIndex(pending.removeFirst().get());
+      }
+      while (!pending.isEmpty())
+        mergePartialIndex(pending.removeFirst().get());
+    }
+    catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new IllegalStateException("Interrupted while indexing " + dirFile);
+    }
+    catch (ExecutionException e) {
+      throw new IllegalStateException("Could not index " + dirFile, e.getCause());
+    }
+    finally {
+      pool.shutdownNow();
+    }
+  }
+
+  /**
+   * Add the documents and postings of a PartialIndex to the end of this index.
+   */
+  protected void mergePartialIndex(PartialIndex partial) {
+    for (DocumentReference docRef : partial.docRefs) {
+      System.out.print(docRef.file.getName() + ",");
+      docRef.id = docRefs.size();
+      docRefs.add(docRef);
+    }
+    for (Map.Entry<String, TokenInfo> entry : partial.tokenHash.entrySet()) {
+      TokenInfo tokenInfo = tokenHash.get(entry.getKey());
+      if (tokenInfo == null)
+        // A token new to the index can just take over the partial's info
+        tokenHash.put(entry.getKey(), entry.getValue());
+      else
+        tokenInfo.postings.addAll(entry.getValue().postings, 0);
+    }
+  }
+
   /**
    * Index the documents in the List of Examples for text categorization.
    */
@@ -130,45 +436,250 @@ public class InvertedIndex {
     // Now that all documents have been processed, we can calculate the IDF weights for
     // all tokens and the resulting lengths of all weighted document vectors.
     computeIDFandDocumentLengths();
+    generation++;
     System.out.println("Indexed " + docRefs.size() + " documents with " + size() + " unique terms.");
   }
 
+  /**
+   * Index the given document, tokenizing it into its vector
+   *
+   * @return The vector of the document.
+   */
+  protected HashMapVector indexDocument(FileDocument doc) {
+    HashMapVector vector = doc.hashMapVector();
+    indexDocument(doc, vector);
+    return vector;
+  }
+
   /**
    * Index the given document using its corresponding vector
    */
   protected void indexDocument(FileDocument doc, HashMapVector vector) {
     // Create a reference to this document
     DocumentReference docRef = new DocumentReference(doc);
+    // Documents are numbered by their position in the list of documents indexed
+    docRef.id = docRefs.size();
     // Add this document to the list of documents indexed
     docRefs.add(docRef);
     // Iterate through each of the tokens in the document
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      // An entry in the HashMap maps a token to a Weight
-      String token = entry.getKey();
-      // The count for the token is in the value of the Weight
-      int count = (int) entry.getValue().getValue();
+    for (int i = 0; i < vector.size(); i++) {
+      String token = vector.token(i);
+      // The count for the token is its weight in the vector
+      int count = (int) vector.weight(i);
       // Add an occurrence of this token to the inverted index pointing to this document
-      indexToken(token, count, docRef);
+      indexToken(token, count, docRef.id);
     }
   }
 
+  /**
+   * Add a document file to the index without reindexing the corpus.
+   *
+   * @return The reference to the newly indexed document.
+   */
+  public DocumentReference addDocument(File file) {
+    return addDocument(createDocument(file));
+  }
+
+  /**
+   * Add a document to the index without reindexing the corpus.  The document
+   * gets the next document ID and its postings are appended to those of its
+   * tokens.  A token new to the index gets its IDF from the current number
+   * of documents, and the document's length is computed from current IDFs;
+   * everything else waits for the next refreshStatistics.
+   *
+   * @return The reference to the newly indexed document.
+   */
+  public DocumentReference addDocument(FileDocument doc) {
+    Map<File, DocumentReference> byFile = getDocRefsByFile();
+    if (byFile.containsKey(doc.file))
+      throw new IllegalArgumentException("Document already indexed, use updateDocument: " + doc.file);
+    HashMapVector vector = indexDocument(doc);
+    DocumentReference docRef = docRefs.get(docRefs.size() - 1);
+    byFile.put(doc.file, docRef);
+    double length = 0.0;
+    for (int i = 0; i < vector.size(); i++) {
+      String token = vector.token(i);
+      TokenInfo tokenInfo = tokenHash.get(token);
+      if (tokenInfo.postings.size() == 1) {
+        // A token that only occurs in this document
+        tokenInfo.idf = newTokenIdf(token);
+        // Give it the next term ID until IDs are reassigned in order
+        tokenInfo.termId = terms.size();
+        terms.add(token);
+      }
+      length = length + Math.pow(tokenInfo.idf * vector.weight(i), 2);
+    }
+    docRef.length = Math.sqrt(length);
+    // Keep maxImpact an upper bound on the impact of every posting
+    if (docRef.length > 0.0) {
+      for (int i = 0; i < vector.size(); i++) {
+        TokenInfo tokenInfo = tokenHash.get(vector.token(i));
+        tokenInfo.maxImpact = Math.max(tokenInfo.maxImpact,
+            tokenInfo.idf * vector.weight(i) / docRef.length);
+      }
+    }
+    // Quantize the impacts of the new postings now, rather than when their
+    // tokens are next scored, so that retrieval never writes them
+    if (impactBits != 0) {
+      for (int i = 0; i < vector.size(); i++) {
+        TokenInfo tokenInfo = tokenHash.get(vector.token(i));
+        double impact = docRef.length > 0.0 ? tokenInfo.idf * vector.weight(i) / docRef.length : 0.0;
+        // Append under the token's scale, or quantize all its impacts again
+        // if the token is new or the impact is too large for the scale
+        ImpactList impacts = tokenInfo.impacts;
+        if (impacts == null || impacts.size() != tokenInfo.postings.size() - 1 || !impacts.add(impact))
+          quantizeImpacts(tokenInfo);
+      }
+    }
+    numChanges++;
+    generation++;
+    return docRef;
+  }
+
+  /**
+   * The IDF given to a token when a document added by addDocument is the
+   * first to contain it
+   */
+  protected double newTokenIdf(String token) {
+    return Math.log(docRefs.size() - numDeleted);
+  }
+
+  /**
+   * Replace the indexed version of a document file with its current contents.
+   *
+   * @return The reference to the newly indexed document.
+   */
+  public DocumentReference updateDocument(File file) {
+    return updateDocument(createDocument(file));
+  }
+
+  /**
+   * Replace the indexed version of a document with the given one, by deleting
+   * the old version (if any) and adding the new one under a new document ID.
+   *
+   * @return The reference to the newly indexed document.
+   */
+  public DocumentReference updateDocument(FileDocument doc) {
+    deleteDocument(doc.file);
+    return addDocument(doc);
+  }
+
+  /**
+   * Delete a document file from the index.  The document is just marked
+   * deleted and dropped from retrievals; its postings are removed at the
+   * next refreshStatistics.
+   *
+   * @return true if the file was indexed.
+   */
+  public boolean deleteDocument(File file) {
+    DocumentReference docRef = getDocRefsByFile().remove(file);
+    if (docRef == null)
+      return false;
+    docRef.deleted = true;
+    numDeleted++;
+    numChanges++;
+    generation++;
+    return true;
+  }
+
+  /**
+   * Remove the postings of deleted documents and recompute the IDF factor of
+   * every token and the length of every document over the whole index.
+   */
+  public void refreshStatistics() {
+    if (numPurged < numDeleted)
+      purgeDeletedPostings();
+    computeIDFandDocumentLengths();
+    numChanges = 0;
+    generation++;
+  }
+
+  /**
+   * Call refreshStatistics if more than refreshFraction of the documents have
+   * changed since the statistics were last computed.
+   */
+  protected void refreshIfNeeded() {
+    if (numChanges > 0 && numChanges >= refreshFraction * (docRefs.size() - numDeleted))
+      refreshStatistics();
+  }
+
+  /**
+   * Rebuild the postings of every token that occurs in a deleted document without
+   * those documents, and drop tokens that no longer occur in any document.
+   */
+  protected void purgeDeletedPostings() {
+    int[] docs = new int[PostingsList.BLOCK_SIZE];
+    int[] counts = new int[PostingsList.BLOCK_SIZE];
+    Iterator<TokenInfo> tokenInfos = tokenHash.values().iterator();
+    while (tokenInfos.hasNext()) {
+      TokenInfo tokenInfo = tokenInfos.next();
+      PostingsList postings = tokenInfo.postings;
+      if (!hasDeletedPostings(postings, docs, counts))
+        continue;
+      PostingsList livePostings = postings.withoutDeleted(docRefs);
+      if (livePostings.size() == 0)
+        tokenInfos.remove();
+      else
+        tokenInfo.postings = livePostings;
+    }
+    numPurged = numDeleted;
+  }
+
+  /**
+   * Whether any posting is for a deleted document
+   */
+  protected boolean hasDeletedPostings(PostingsList postings, int[] docs, int[] counts) {
+    for (int block = 0; block < postings.numBlocks(); block++) {
+      int n = postings.decodeBlock(block, docs, counts);
+      for (int i = 0; i < n; i++) {
+        if (docRefs.get(docs[i]).deleted)
+          return true;
+      }
+    }
+    return false;
+  }
+
+  /**
+   * Return the map from indexed files to their current documents, building it if needed
+   */
+  protected Map<File, DocumentReference> getDocRefsByFile() {
+    if (docRefsByFile == null) {
+      docRefsByFile = new HashMap<File, DocumentReference>();
+      for (DocumentReference docRef : docRefs) {
+        if (!docRef.deleted)
+          docRefsByFile.put(docRef.file, docRef);
+      }
+    }
+    return docRefsByFile;
+  }
+
+  /**
+   * Create a FileDocument of this index's docType for a file
+   */
+  protected FileDocument createDocument(File file) {
+    if (docType == DocumentIterator.TYPE_HTML)
+      return new HTMLFileDocument(file, stem);
+    else
+      return new TextFileDocument(file, stem);
+  }
+
   /**
    * Add a token occurrence to the index.
    *
-   * @param token  The token to index.
-   * @param count  The number of times it occurs in the document.
-   * @param docRef A reference to the Document it occurs in.
+   * @param token     The token to index.
+   * @param count     The number of times it occurs in the document.
+   * @param docId     The ID of the Document it occurs in.
    */
-  protected void indexToken(String token, int count, DocumentReference docRef) {
+  protected void indexToken(String token, int count, int docId) {
     // Find this token in the index
     TokenInfo tokenInfo = tokenHash.get(token);
     if (tokenInfo == null) {
       // If this is a new token, create info for it to put in the hashtable
-      tokenInfo = new TokenInfo();
+      tokenInfo = new TokenInfo(codec);
       tokenHash.put(token, tokenInfo);
     }
-    // Add a new occurrence for this token to its info
-    tokenInfo.occList.add(new TokenOccurrence(docRef, count));
+    // Add a new posting for this token to its info
+    ((CountPostingsList) tokenInfo.postings).add(docId, count);
   }
 
   /**
@@ -176,30 +687,48 @@ public class InvertedIndex {
    * of the document vector for every document referenced in the index.
    */
   protected void computeIDFandDocumentLengths() {
-    // Let N be the total number of documents indexed
-    double N = docRefs.size();
+    // Let N be the total number of documents indexed, less any deleted ones
+    double N = docRefs.size() - numDeleted;
     // Iterate through each of the tokens in the index
-    Iterator<Map.Entry<String, TokenInfo>> mapEntries = tokenHash.entrySet().iterator();
-    while (mapEntries.hasNext()) {
-      // Get the token and the tokenInfo for each entry in the HashMap
-      Map.Entry<String, TokenInfo> entry = mapEntries.next();
-
-      TokenInfo tokenInfo = entry.getValue();
+    for (TokenInfo tokenInfo : tokenHash.values()) {
+      // Indexing is over, so compress the last postings
+      tokenInfo.postings.finish();
       // Get the total number of documents in which this token occurs
-      double numDocRefs = tokenInfo.occList.size();
+      double numDocRefs = tokenInfo.postings.size();
       // Calculate the IDF factor for this token
-      double idf = Math.log(N / numDocRefs);
+      tokenInfo.idf = Math.log(N / numDocRefs);
       //  System.out.println(token + " occurs in " + Math.round(numDocRefs) + " docs so IDF=" + idf);
-      if (idf == 0.0)
-        // If IDF is 0, then just remove this inconsequential token from the index
-        mapEntries.remove();
-      else {
-        tokenInfo.idf = idf;
+    }
+    computeDocumentLengths();
+  }
+
+  /**
+   * Compute the length of the document vector for every document referenced
+   * in the index from the current IDF factors of its tokens.
+   */
+  protected void computeDocumentLengths() {
+    // Buffers for decoding blocks of postings
+    int[] docs = new int[PostingsList.BLOCK_SIZE];
+    int[] counts = new int[PostingsList.BLOCK_SIZE];
+    // Lengths are summed from scratch, since they may already have been computed
+    for (DocumentReference docRef : docRefs) {
+      docRef.length = 0.0;
+    }
+    for (TokenInfo tokenInfo : tokenHash.values()) {
+      double idf = tokenInfo.idf;
+      // If IDF is 0, this token is inconsequential and retrieval ignores it.  It is
+      // kept in the index, since documents added later may give it a positive IDF.
+      if (idf != 0.0) {
         // In order to compute document vector lengths,  sum the
         // square of the weights (IDF * occurrence count) across
         // every token occurrence for each document and store sum in docRef.length.
-        for (TokenOccurrence occ : tokenInfo.occList) {
-          occ.docRef.length = occ.docRef.length + Math.pow(idf * occ.count, 2);
+        PostingsList postings = tokenInfo.postings;
+        for (int block = 0; block < postings.numBlocks(); block++) {
+          int n = postings.decodeBlock(block, docs, counts);
+          for (int i = 0; i < n; i++) {
+            DocumentReference docRef = docRefs.get(docs[i]);
+            docRef.length = docRef.length + Math.pow(idf * counts[i], 2);
+          }
         }
       }
     }
@@ -209,6 +738,119 @@ public class InvertedIndex {
     for (DocumentReference docRef : docRefs) {
       docRef.length = Math.sqrt(docRef.length);
     }
+    computeMaxImpacts();
+    computeImpacts();
+    assignTermIds();
+  }
+
+  /**
+   * Compute the maxImpact of every token in the index and of every block of
+   * its postings, which requires the final document vector lengths.
+   */
+  protected void computeMaxImpacts() {
+    int[] docs = new int[PostingsList.BLOCK_SIZE];
+    int[] counts = new int[PostingsList.BLOCK_SIZE];
+    for (TokenInfo tokenInfo : tokenHash.values()) {
+      double maxImpact = 0.0;
+      PostingsList postings = tokenInfo.postings;
+      // Postings not yet compressed into a block get no block maximum, since
+      // more may be added to their block
+      double[] blockMaxImpacts = new double[postings.numBlocks];
+      for (int block = 0; block < postings.numBlocks(); block++) {
+        int n = postings.decodeBlock(block, docs, counts);
+        double blockMaxImpact = 0.0;
+        for (int i = 0; i < n; i++)
+          blockMaxImpact = Math.max(blockMaxImpact, tokenInfo.idf * counts[i] / docRefs.get(docs[i]).length);
+        if (block < blockMaxImpacts.length)
+          blockMaxImpacts[block] = blockMaxImpact;
+        maxImpact = Math.max(maxImpact, blockMaxImpact);
+      }
+      postings.setBlockMaxImpacts(blockMaxImpacts);
+      tokenInfo.maxImpact = maxImpact;
+    }
+  }
+
+  /**
+   * Keep a quantized impact with the given number of bits (8 or 16) for every
+   * posting and score with them from now on, or with 0, go back to scoring
+   * with exact weights.  Impacts are only used by retrieval that scores every
+   * matching document: retrieve without k, or retrieve with k when pruning is
+   * PRUNING_NONE.  Pruned top k retrieval ignores them and scores exactly.
+   */
+  public void setImpactBits(int bits) {
+    if (bits != 0 && bits != 8 && bits != 16)
+      throw new IllegalArgumentException("Impacts must have 8 or 16 bits: " + bits);
+    impactBits = bits;
+    computeImpacts();
+    generation++;
+  }
+
+  /**
+   * Quantize the impacts of the postings of every token, if scoring with
+   * impacts, which requires the final IDFs and document vector lengths.
+   */
+  protected void computeImpacts() {
+    for (TokenInfo tokenInfo : tokenHash.values())
+      tokenInfo.impacts = null;
+    if (impactBits == 0)
+      return;
+    for (TokenInfo tokenInfo : tokenHash.values())
+      quantizeImpacts(tokenInfo);
+  }
+
+  /**
+   * Quantize the impacts of the postings of a token from its current IDF
+   * and the current document vector lengths.  A token with an IDF of 0 is
+   * not scored and gets none.
+   */
+  protected void quantizeImpacts(TokenInfo tokenInfo) {
+    if (tokenInfo.idf != 0.0)
+      tokenInfo.impacts = new ImpactList(tokenInfo.postings, tokenInfo.idf, docRefs, impactBits);
+  }
+
+  /**
+   * The quantized impacts of the postings of a token.  These are kept up to
+   * date by whatever changes the index, so this only reads them and can be
+   * called from many threads at once.
+   */
+  protected ImpactList impacts(TokenInfo tokenInfo) {
+    return tokenInfo.impacts;
+  }
+
+  /**
+   * Number the indexed tokens densely, in alphabetical order, and rebuild
+   * the forward index, if there is one, with the new numbers.
+   */
+  protected void assignTermIds() {
+    terms = new ArrayList<String>(tokenHash.keySet());
+    Collections.sort(terms);
+    for (int termId = 0; termId < terms.size(); termId++)
+      tokenHash.get(terms.get(termId)).termId = termId;
+    if (forwardIndex != null)
+      forwardIndex = new ForwardIndex(this);
+  }
+
+  /**
+   * Return the forward index of the documents, building it if needed.
+   * Documents added after it was built are not covered until term IDs are
+   * next reassigned by refreshStatistics.
+   */
+  public ForwardIndex forwardIndex() {
+    if (forwardIndex == null)
+      forwardIndex = new ForwardIndex(this);
+    return forwardIndex;
+  }
+
+  /**
+   * Return the vector of token counts of an indexed document, as for
+   * relevance feedback.  It comes from the forward index if that covers the
+   * document, and otherwise from rereading the document.
+   */
+  public HashMapVector documentVector(DocumentReference docRef) {
+    ForwardIndex forward = forwardIndex();
+    if (!docRef.deleted && forward.contains(docRef.id) && docRefs.get(docRef.id) == docRef)
+      return forward.vector(docRef.id, terms);
+    return docRef.getDocument(docType, stem).hashMapVector();
   }
 
   /**
@@ -223,13 +865,29 @@ public class InvertedIndex {
       System.out.println(token + " (IDF=" + entry.getValue().idf + ") occurs in:");
       // For each document referenced, print its name, occurrence count for this token, and
       // document vector length (|D|).
-      for (TokenOccurrence occ : entry.getValue().occList) {
+      for (TokenOccurrence occ : entry.getValue().postings.occurrences(docRefs)) {
         System.out.println("   " + occ.docRef.file.getName() + " " + occ.count +
             " times; |D|=" + occ.docRef.length);
       }
     }
   }
 
+  /**
+   * Whether the postings of this index store token positions
+   * (see PositionalPostingsList)
+   */
+  public boolean positional() {
+    return false;
+  }
+
+  /**
+   * The number of changes made to the index so far; the index is unchanged
+   * as long as this stays the same.
+   */
+  public int generation() {
+    return generation;
+  }
+
   /**
    * Return the number of tokens indexed.
    */
@@ -243,6 +901,13 @@ public class InvertedIndex {
   public void clear() {
     docRefs.clear();
     tokenHash.clear();
+    terms.clear();
+    numDeleted = 0;
+    numPurged = 0;
+    numChanges = 0;
+    docRefsByFile = null;
+    forwardIndex = null;
+    generation++;
   }
 
   /**
@@ -260,45 +925,273 @@ public class InvertedIndex {
   }
 
   /**
-   * Perform ranked retrieval on this input query Document vector.
+   * Perform ranked retrieval on this input query Document vector.  The
+   * retrievals come from the cache, if there is one and it holds them.
    */
   public Retrieval[] retrieve(HashMapVector vector) {
-    // Create a hashtable to store the retrieved documents.  Keys
-    // are docRefs and values are DoubleValues which indicate the
-    // partial score accumulated for this document so far.
-    // As each token in the query is processed, each document
-    // it indexes is added to this hashtable and its retrieval
-    // score (similarity to the query) is appropriately updated.
-    Map<DocumentReference, DoubleValue> retrievalHash =
-        new HashMap<DocumentReference, DoubleValue>();
+    refreshIfNeeded();
+    if (cache != null) {
+      Retrieval[] cached = cache.get(vector, -1, generation);
+      if (cached != null)
+        return cached;
+    }
+    Retrieval[] retrievals = rank(vector, retrieveUnranked(vector, getAccumulator()));
+    if (cache != null)
+      cache.put(vector, -1, generation, retrievals);
+    return retrievals;
+  }
+
+  /**
+   * Rank the retrievals of a query, given in order of document ID.
+   */
+  protected Retrieval[] rank(HashMapVector vector, Retrieval[] retrievals) {
+    // Sort the retrievals to produce a final ranked list using the
+    // Comparator for retrievals that produces a best to worst ordering.
+    Arrays.sort(retrievals);
+    return retrievals;
+  }
+
+  /**
+   * The scorer that rescores the queries revised by relevance feedback,
+   * created the first time it is needed
+   */
+  protected IncrementalScorer feedbackScorer() {
+    if (feedbackScorer == null)
+      feedbackScorer = new IncrementalScorer(this);
+    return feedbackScorer;
+  }
+
+  /**
+   * Perform ranked retrieval on a query revised by relevance feedback.
+   * Scores are updated from those of the previous revision of the same
+   * query, so each round costs in proportion to how much the query changed.
+   */
+  protected Retrieval[] retrieveRevised(HashMapVector vector) {
+    return rank(vector, feedbackScorer().retrieveUnranked(vector));
+  }
+
+  /**
+   * Perform retrieval on this input query Document vector, returning a Retrieval
+   * for every matching document in order of document ID rather than ranked.
+   */
+  public Retrieval[] retrieveUnranked(HashMapVector vector) {
+    refreshIfNeeded();
+    return retrieveUnranked(vector, getAccumulator());
+  }
+
+  /**
+   * Perform unranked retrieval using the given (cleared) accumulator for scores.
+   * Only reads the index, so it can run on many threads at once, each with
+   * its own accumulator.
+   */
+  protected Retrieval[] retrieveUnranked(HashMapVector vector, ScoreAccumulator accumulator) {
+    double queryLength = accumulateScores(vector, accumulator);
+    // Make an array to store the final Retrievals.
+    Retrieval[] retrievals = new Retrieval[accumulator.numTouched()];
+    int retrievalCount = 0;
+    // Iterate through each of the retrieved documents in order of ID
+    accumulator.sortTouched();
+    for (int i = 0; i < accumulator.numTouched(); i++) {
+      DocumentReference docRef = docRefs.get(accumulator.touched(i));
+      // Deleted documents keep their postings until statistics are refreshed
+      if (!docRef.deleted)
+        retrievals[retrievalCount++] = getRetrieval(queryLength, docRef, accumulator.score(docRef.id));
+    }
+    if (retrievalCount < retrievals.length)
+      retrievals = Arrays.copyOf(retrievals, retrievalCount);
+    return retrievals;
+  }
+
+  /**
+   * Perform ranked retrieval on every query in parallel, using an IndexSearcher.
+   *
+   * @return The retrievals for each query, in the order of the queries.
+   */
+  public List<Retrieval[]> retrieveAll(List<String> queries) {
+    refreshIfNeeded();
+    if (searcher == null || searcher.generation != generation) {
+      if (searcher != null)
+        searcher.close();
+      searcher = new IndexSearcher(this);
+    }
+    return searcher.retrieveAll(queries);
+  }
+
+  /**
+   * Perform ranked retrieval with pseudo-relevance feedback on this input query.
+   */
+  public Retrieval[] retrieveWithPseudoFeedback(String input, int numPositive, int maxTerms) {
+    return retrieveWithPseudoFeedback(new TextStringDocument(input, stem).hashMapVector(), numPositive, maxTerms);
+  }
+
+  /**
+   * Perform ranked retrieval with pseudo-relevance feedback: take the top
+   * numPositive retrievals for the query as relevant, revise the query with
+   * the Ide_regular algorithm of Feedback, keeping only its maxTerms most
+   * important tokens, and perform ranked retrieval on the revised query.
+   *
+   * @return The ranked retrievals for the revised query.
+   */
+  public Retrieval[] retrieveWithPseudoFeedback(HashMapVector vector, int numPositive, int maxTerms) {
+    Retrieval[] top = retrieve(vector, numPositive);
+    if (top.length == 0)
+      return top;
+    Feedback feedback = new Feedback(vector, top, this);
+    for (Retrieval retrieval : top)
+      feedback.addGood(retrieval.docRef);
+    return retrieve(feedback.newQuery(maxTerms));
+  }
+
+  /**
+   * Perform ranked retrieval on this input query, returning only the top k documents.
+   */
+  public Retrieval[] retrieve(String input, int k) {
+    return retrieve(new TextStringDocument(input, stem), k);
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document, returning only the top k documents.
+   */
+  public Retrieval[] retrieve(Document doc, int k) {
+    return retrieve(doc.hashMapVector(), k);
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, returning only
+   * the top k documents.  Unless pruning is PRUNING_NONE, documents are evaluated
+   * one at a time by a PruningEvaluator that skips those that cannot make the top k.
+   * Otherwise every matching document is scored and passed through a bounded heap
+   * instead of being sorted, and only the top k become Retrieval objects.
+   * The retrievals come from the cache, if there is one and it holds them.
+   */
+  public Retrieval[] retrieve(HashMapVector vector, int k) {
+    refreshIfNeeded();
+    if (cache != null) {
+      Retrieval[] cached = cache.get(vector, k, generation);
+      if (cached != null)
+        return cached;
+    }
+    Retrieval[] retrievals = retrieve(vector, k, getAccumulator());
+    if (cache != null)
+      cache.put(vector, k, generation, retrievals);
+    return retrievals;
+  }
+
+  /**
+   * Perform top k retrieval using the given (cleared) accumulator for scores
+   * when not pruning.  Only reads the index, so it can run on many threads at
+   * once, each with its own accumulator.
+   */
+  protected Retrieval[] retrieve(HashMapVector vector, int k, ScoreAccumulator accumulator) {
+    if (pruning == PRUNING_WAND)
+      return new PruningEvaluator(this, vector).wand(k);
+    if (pruning == PRUNING_MAXSCORE)
+      return new PruningEvaluator(this, vector).maxScore(k);
+    if (pruning == PRUNING_BLOCK_MAX_WAND)
+      return new PruningEvaluator(this, vector).blockMaxWand(k);
+    double queryLength = accumulateScores(vector, accumulator);
+    RetrievalHeap heap = new RetrievalHeap(Math.min(k, accumulator.numTouched()));
+    for (int i = 0; i < accumulator.numTouched(); i++) {
+      int docId = accumulator.touched(i);
+      DocumentReference docRef = docRefs.get(docId);
+      if (!docRef.deleted)
+        heap.offer(docRef, getScore(queryLength, docRef, accumulator.score(docId)));
+    }
+    return heap.toRetrievals();
+  }
+
+  /**
+   * The length of a query vector, counting only tokens in the index as retrieval does
+   */
+  public double queryLength(HashMapVector vector) {
+    double queryLength = 0.0;
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = tokenHash.get(vector.token(i));
+      if (tokenInfo != null && tokenInfo.idf != 0.0) {
+        double weight = tokenInfo.idf * vector.weight(i);
+        queryLength = queryLength + weight * weight;
+      }
+    }
+    return Math.sqrt(queryLength);
+  }
+
+  /**
+   * Add the score of every document matching the query vector to the accumulator.
+   *
+   * @return The length of the query vector.
+   */
+  protected double accumulateScores(HashMapVector vector, ScoreAccumulator accumulator) {
+    if (impactBits != 0)
+      return accumulateImpacts(vector, accumulator);
+    // Scores are accumulated in an array indexed by document ID.
+    // As each token in the query is processed, the score (similarity
+    // to the query) of each document it indexes is updated.
     // Initialize a variable to store the length of the query vector
     double queryLength = 0.0;
     // Iterate through each token in the query input Document
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
-      String token = entry.getKey();
-      double count = entry.getValue().getValue();
+    for (int i = 0; i < vector.size(); i++) {
+      String token = vector.token(i);
+      double count = vector.weight(i);
       // Determine the score added to the similarity of each document
       // indexed under this token and update the length of the
       // query vector with the square of the weight for this token.
-      queryLength = queryLength + incorporateToken(token, count, retrievalHash);
+      queryLength = queryLength + incorporateToken(token, count, accumulator);
     }
     // Finalize the length of the query vector by taking the square-root of the
     // final sum of squares of its token weights.
-    queryLength = Math.sqrt(queryLength);
-    // Make an array to store the final ranked Retrievals.
-    Retrieval[] retrievals = new Retrieval[retrievalHash.size()];
-    // Iterate through each of the retrieved documents stored in
-    // the final retrievalHash.
-    int retrievalCount = 0;
-    for (Map.Entry<DocumentReference, DoubleValue> entry : retrievalHash.entrySet()) {
-      DocumentReference docRef = entry.getKey();
-      double score = entry.getValue().value;
-      retrievals[retrievalCount++] = getRetrieval(queryLength, docRef, score);
+    return Math.sqrt(queryLength);
+  }
+
+  /**
+   * Add the score of every document matching the query vector to the
+   * accumulator, computed from quantized impacts.  The weight of each query
+   * token times the scale of its impacts is quantized to QUERY_WEIGHT_BITS
+   * bits, so each posting adds an integer product to its document's impact
+   * score.  The sums are then turned back into partial scores as
+   * accumulateScores leaves them, ready for getScore.
+   *
+   * @return The length of the query vector.
+   */
+  protected double accumulateImpacts(HashMapVector vector, ScoreAccumulator accumulator) {
+    double queryLength = 0.0;
+    // The postings, impacts and weight per unit of impact of each query token that adds to scores
+    PostingsList[] postings = new PostingsList[vector.size()];
+    ImpactList[] impacts = new ImpactList[vector.size()];
+    double[] factors = new double[vector.size()];
+    double maxFactor = 0.0;
+    int numTokens = 0;
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = tokenHash.get(vector.token(i));
+      if (tokenInfo == null || tokenInfo.idf == 0.0)
+        continue;
+      double weight = tokenInfo.idf * vector.weight(i);
+      queryLength = queryLength + weight * weight;
+      postings[numTokens] = tokenInfo.postings;
+      impacts[numTokens] = impacts(tokenInfo);
+      factors[numTokens] = weight * impacts[numTokens].scale;
+      maxFactor = Math.max(maxFactor, Math.abs(factors[numTokens]));
+      numTokens++;
     }
-    // Sort the retrievals to produce a final ranked list using the
-    // Comparator for retrievals that produces a best to worst ordering.
-    Arrays.sort(retrievals);
-    return retrievals;
+    // The score represented by an integer product of 1
+    double unit = maxFactor > 0.0 ? maxFactor / ImpactList.maxValue(QUERY_WEIGHT_BITS) : 1.0;
+    for (int t = 0; t < numTokens; t++)
+      accumulator.addImpacts(postings[t], impacts[t], Math.round(factors[t] / unit));
+    // Impacts are already divided by the document length, which getScore divides by
+    for (int i = 0; i < accumulator.numTouched(); i++) {
+      int doc = accumulator.touched(i);
+      accumulator.set(doc, accumulator.impactScore(doc) * unit * docRefs.get(doc).length);
+    }
+    return Math.sqrt(queryLength);
+  }
+
+  /**
+   * Return the score accumulator cleared and ready for a new query.
+   */
+  protected ScoreAccumulator getAccumulator() {
+    if (accumulator == null || accumulator.capacity() < docRefs.size())
+      accumulator = new ScoreAccumulator(docRefs.size());
+    accumulator.clear();
+    return accumulator;
   }
 
   /**
@@ -312,12 +1205,55 @@ public class InvertedIndex {
    *     and score under the query with length queryLength
    */
   protected Retrieval getRetrieval(double queryLength, DocumentReference docRef, double score) {
-    // Normalize score for the lengths of the two document vectors
-    score = score / (queryLength * docRef.length);
     // Add a Retrieval for this document to the result array
-    return new Retrieval(docRef, score);
+    return new Retrieval(docRef, getScore(queryLength, docRef, score));
   }
 
+  /**
+   * Calculate the final score for a retrieval from its partially computed score.
+   *
+   * @param queryLength The length of the query vector, incorporated into the final score
+   * @param docRef The document reference for the document concerned
+   * @param score The partially computed score
+   * @return The final score of the document described by docRef under the query
+   */
+  protected double getScore(double queryLength, DocumentReference docRef, double score) {
+    // Normalize score for the lengths of the two document vectors
+    return score / (queryLength * docRef.length);
+  }
+
+  /**
+   * The most getScore can add to a document's normalized score, used to bound
+   * scores when pruning top k retrieval.
+   */
+  protected double maxScoreBoost() {
+    return 0.0;
+  }
+
+
+  /**
+   * Retrieve the documents indexed by this token in the inverted index
+   * and add its contribution to their scores in the accumulator.
+   *
+   * @param token       The token in the query to incorporate.
+   * @param count       The count of this token in the query.
+   * @param accumulator The current scores of the retrieved documents, by document ID.
+   * @return The square of the weight of this token in the query vector for use
+   *         in calculating the length of the query vector.
+   */
+  public double incorporateToken(String token, double count, ScoreAccumulator accumulator) {
+    TokenInfo tokenInfo = tokenHash.get(token);
+    // If token is not in the index or has no IDF, it adds nothing and its squared weight is 0
+    if (tokenInfo == null || tokenInfo.idf == 0.0) return 0.0;
+    // The weight of a token in the query is is IDF factor times the number
+    // of times it occurs in the query.
+    double weight = tokenInfo.idf * count;
+    // Add the product of the weight of this token in the query and its weight
+    // in each retrieved document (IDF * occurrence count) to the document's score
+    accumulator.addPostings(tokenInfo.postings, weight * tokenInfo.idf);
+    // Return the square of the weight of this token in the query
+    return weight * weight;
+  }
 
   /**
    * Retrieve the documents indexed by this token in the inverted index,
@@ -333,25 +1269,33 @@ public class InvertedIndex {
   public double incorporateToken(String token, double count,
                                  Map<DocumentReference, DoubleValue> retrievalHash) {
     TokenInfo tokenInfo = tokenHash.get(token);
-    // If token is not in the index, it adds nothing and its squared weight is 0
-    if (tokenInfo == null) return 0.0;
+    // If token is not in the index or has no IDF, it adds nothing and its squared weight is 0
+    if (tokenInfo == null || tokenInfo.idf == 0.0) return 0.0;
     // The weight of a token in the query is is IDF factor times the number
     // of times it occurs in the query.
     double weight = tokenInfo.idf * count;
-    // For each document occurrence indexed for this token...
-    for (TokenOccurrence occ : tokenInfo.occList) {
-      // Get the current score for this document in the retrievalHash.
-      DoubleValue val = retrievalHash.get(occ.docRef);
-      if (val == null) {
-        // If this is a new retrieved document, create an initial score
-        // for it and store in the retrievalHash
-        val = new DoubleValue(0.0);
-        retrievalHash.put(occ.docRef, val);
+    // Buffers for decoding blocks of postings
+    int[] docs = new int[PostingsList.BLOCK_SIZE];
+    int[] counts = new int[PostingsList.BLOCK_SIZE];
+    // For each block of documents indexed for this token...
+    PostingsList postings = tokenInfo.postings;
+    for (int block = 0; block < postings.numBlocks(); block++) {
+      int n = postings.decodeBlock(block, docs, counts);
+      for (int i = 0; i < n; i++) {
+        DocumentReference docRef = docRefs.get(docs[i]);
+        // Get the current score for this document in the retrievalHash.
+        DoubleValue val = retrievalHash.get(docRef);
+        if (val == null) {
+          // If this is a new retrieved document, create an initial score
+          // for it and store in the retrievalHash
+          val = new DoubleValue(0.0);
+          retrievalHash.put(docRef, val);
+        }
+        // Update the score for this document by adding the product
+        // of the weight of this token in the query and its weight
+        // in the retrieved document (IDF * occurrence count)
+        val.value = val.value + weight * tokenInfo.idf * counts[i];
       }
-      // Update the score for this document by adding the product
-      // of the weight of this token in the query and its weight
-      // in the retrieved document (IDF * occurrence count)
-      val.value = val.value + weight * tokenInfo.idf * occ.count;
     }
     // Return the square of the weight of this token in the query
     return weight * weight;
@@ -378,6 +1322,8 @@ public class InvertedIndex {
       presentRetrievals(queryVector, retrievals);
     }
     while (true);
+    if (cache != null)
+      System.out.println(cache);
   }
 
   /**
@@ -389,8 +1335,11 @@ public class InvertedIndex {
     if (showRetrievals(retrievals)) {
       // Data structure for saving info about any user feedback for relevance feedback
       Feedback fdback = null;
-      if (feedback)
+      if (feedback) {
         fdback = new Feedback(queryVector, retrievals, this);
+        // The first revision of a new query is scored from scratch
+        feedbackScorer().reset();
+      }
       // The number of the last document presented
       int currentPosition = MAX_RETRIEVALS;
       // The number of a document to be displayed.  This is one one greater than the array index
@@ -418,7 +1367,7 @@ public class InvertedIndex {
               "\nNegative docs: " + fdback.badDocRefs);
           System.out.println("Executing New Expanded and Reweighted Query: ");
           queryVector = fdback.newQuery();
-          retrievals = retrieve(queryVector);
+          retrievals = retrieveRevised(queryVector);
           // Update the list of retrievals stored in the feedback
           fdback.retrievals = retrievals;
           if (showRetrievals(retrievals))
@@ -492,20 +1441,61 @@ public class InvertedIndex {
   /**
    * Index a directory of files and then interactively accept retrieval queries.
    * Command format: "InvertedIndex [OPTION]* [DIR]" where DIR is the name of
-   * the directory whose files should be indexed, and OPTIONs can be
+   * the directory whose files should be indexed (or of a zip or tar archive or
+   * a JSONL or TSV file of documents, see DocumentIterator.forSource), and OPTIONs can be
    * "-html" to specify HTML files whose HTML tags should be removed.
    * "-stem" to specify tokens should be stemmed with Porter stemmer.
    * "-feedback" to allow relevance feedback from the user.
+   * "-threads N" to tokenize documents on N threads while indexing.
+   * "-codec NAME" to compress postings with the "vbyte" (default) or "pfor" codec.
+   * "-index FILE" to load the index from FILE, or if FILE does not exist yet,
+   * to save the index built from DIR to FILE.
+   * "-budget MB" with "-index FILE" to build FILE in external memory with a
+   * memory budget of MB megabytes for postings (see SPIMIIndexer), for a
+   * corpus too big to index in memory, and then load it.
+   * "-cache N" to cache the retrievals for the last N distinct queries.
+   * "-cachemb MB" to cache at most MB megabytes of retrievals (default 64, see
+   * QueryCache), for the last N distinct queries with "-cache N" or for as many
+   * as fit without it.
+   * "-impacts BITS" to score with impacts quantized to BITS (8 or 16) bits
+   * (see setImpactBits), which the interactive queries use since they
+   * retrieve every matching document; pruned top k retrieval scores exactly.
+   * "-forward" to build a forward index of the documents for relevance
+   * feedback, which is saved with the index if it is saved.
    */
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
     // Parse the arguments into a directory name and optional flag
 
     String dirName = args[args.length - 1];
     short docType = DocumentIterator.TYPE_TEXT;
     boolean stem = false, feedback = false;
+    int numThreads = 1;
+    PostingsCodec codec = PostingsCodec.VBYTE;
+    File indexFile = null;
+    int cacheSize = 0;
+    long cacheBytes = 0;
+    boolean forward = false;
+    long memoryBudget = 0;
+    int impactBits = 0;
     for (int i = 0; i < args.length - 1; i++) {
       String flag = args[i];
-      if (flag.equals("-html"))
+      if (flag.equals("-threads"))
+        numThreads = Integer.parseInt(args[++i]);
+      else if (flag.equals("-index"))
+        indexFile = new File(args[++i]);
+      else if (flag.equals("-codec"))
+        codec = PostingsCodec.forName(args[++i]);
+      else if (flag.equals("-cache"))
+        cacheSize = Integer.parseInt(args[++i]);
+      else if (flag.equals("-cachemb"))
+        cacheBytes = (long) (Double.parseDouble(args[++i]) * 1048576);
+      else if (flag.equals("-budget"))
+        memoryBudget = (long) (Double.parseDouble(args[++i]) * 1048576);
+      else if (flag.equals("-impacts"))
+        impactBits = Integer.parseInt(args[++i]);
+      else if (flag.equals("-forward"))
+        forward = true;
+      else if (flag.equals("-html"))
         // Create HTMLFileDocuments to filter HTML tags
         docType = DocumentIterator.TYPE_HTML;
       else if (flag.equals("-stem"))
@@ -521,7 +1511,25 @@ public class InvertedIndex {
 
 
     // Create an inverted index for the files in the given directory.
-    InvertedIndex index = new InvertedIndex(new File(dirName), docType, stem, feedback);
+    InvertedIndex index;
+    if (indexFile != null && !indexFile.exists() && memoryBudget > 0)
+      // Build the index file without holding the whole index in memory
+      new SPIMIIndexer(new File(dirName), docType, stem, codec, memoryBudget).build(indexFile);
+    if (indexFile != null && indexFile.exists()) {
+      index = load(indexFile);
+      index.feedback = feedback;
+    } else {
+      index = new InvertedIndex(new File(dirName), docType, stem, feedback, numThreads, codec);
+      if (forward)
+        index.forwardIndex();
+      if (indexFile != null)
+        index.save(indexFile);
+    }
+    if (cacheSize > 0 || cacheBytes > 0)
+      index.cache = new QueryCache(cacheSize > 0 ? cacheSize : Integer.MAX_VALUE,
+          cacheBytes > 0 ? cacheBytes : QueryCache.DEFAULT_MAX_BYTES);
+    if (impactBits > 0)
+      index.setImpactBits(impactBits);
     // index.print();
     // Interactively process queries to this index.
     index.processQueries();
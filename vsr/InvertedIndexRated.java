@@ -42,8 +42,11 @@ public class InvertedIndexRated extends InvertedIndex {
     if (showRetrievals(retrievals)) {
       // Data structure for saving info about any user feedback for relevance feedback
       FeedbackRated fdback = null;
-      if (feedback)
+      if (feedback) {
         fdback = new FeedbackRated(queryVector, retrievals, this);
+        // The first revision of a new query is scored from scratch
+        feedbackScorer().reset();
+      }
       // The number of the last document presented
       int currentPosition = MAX_RETRIEVALS;
       // The number of a document to be displayed.  This is one one greater than the array index
@@ -71,7 +74,7 @@ public class InvertedIndexRated extends InvertedIndex {
               "\nNegative docs: " + fdback.irrelavant.keySet());
           System.out.println("Executing New Expanded and Reweighted Query: ");
           queryVector = fdback.newQuery();
-          retrievals = retrieve(queryVector);
+          retrievals = retrieveRevised(queryVector);
           // Update the list of retrievals stored in the feedback
           fdback.retrievals = retrievals;
           if (showRetrievals(retrievals))
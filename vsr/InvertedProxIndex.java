@@ -11,11 +11,39 @@ import ir.classifiers.*;
  * An inverted index for vector-space information retrieval. Contains methods
  * for creating an inverted index from a set of documents and retrieving ranked
  * matches to queries using standard TF/IDF weighting and cosine similarity.
+ * Also stores the positions of every token in its postings (see
+ * PositionalPostingsList), and uses them to compute how close together the
+ * query tokens are in each retrieved document without rereading it.
+ * Queries can also contain phrases and NEAR groups (see PositionalQuery),
+ * which are answered from the positions as well.
  *
  * @author Ray Mooney
  */
 public class InvertedProxIndex extends InvertedIndex {
 
+  /**
+   * The distance beyond which query tokens count as unrelated
+   */
+  public static final int MAX_DISTANCE = 1000;
+
+  /**
+   * The proximity model averaging the distances between every pair of
+   * occurrences of different query tokens (see pairProximity)
+   */
+  public static final short PROXIMITY_PAIRS = 0;
+
+  /**
+   * The proximity model using the smallest window of the document containing
+   * every query token that occurs in it (see minSpanProximity)
+   */
+  public static final short PROXIMITY_MIN_SPAN = 1;
+
+  /**
+   * The proximity model used to set the proximity of retrievals, which is
+   * changed with setProximityModel
+   */
+  protected short proximityModel = PROXIMITY_PAIRS;
+
   /**
    * Create an inverted index of the documents in a directory.
    *
@@ -39,122 +67,456 @@ public class InvertedProxIndex extends InvertedIndex {
   }
 
   /**
-   * Index the documents in dirFile.
-   */
-  protected void indexDocuments() {
-    if (!tokenHash.isEmpty() || !docRefs.isEmpty()) {
-      // Currently can only index one set of documents when an index is created
-      throw new IllegalStateException("Cannot indexDocuments more than once in the same InvertedIndex");
-    }
-    // Get an iterator for the documents
-    DocumentIterator docIter = new DocumentIterator(dirFile, docType, stem);
-    System.out.println("Indexing documents in " + dirFile);
-    // Loop, processing each of the documents
-    while (docIter.hasMoreDocuments()) {
-      FileDocument doc = docIter.nextDocument();
-      // Create a document vector for this document
-      // System.out.print(doc.file.getName() + ",");
-      HashMapVector vector = doc.hashMapVector();
-      // Inserts HashMapVector into the allPostions hashmap
-      allPositons.put(doc.file.getName(), vector);
-      indexDocument(doc, vector);
-    }
-    // Now that all documents have been processed, we can calculate the IDF weights for
-    // all tokens and the resulting lengths of all weighted document vectors.
-    computeIDFandDocumentLengths();
-    System.out.println("\nIndexed " + docRefs.size() + " documents with " + size() + " unique terms.");
-  }
-
-  /**
-   * Perform ranked retrieval on this input query Document vector.
-   */
-  public Retrieval[] retrieve(HashMapVector vector) {
-    // Create a hashtable to store the retrieved documents. Keys
-    // are docRefs and values are DoubleValues which indicate the
-    // partial score accumulated for this document so far.
-    // As each token in the query is processed, each document
-    // it indexes is added to this hashtable and its retrieval
-    // score (similarity to the query) is appropriately updated.
-    Map<DocumentReference, DoubleValue> retrievalHash = new HashMap<DocumentReference, DoubleValue>();
-    // Initialize a variable to store the length of the query vector
-    double queryLength = 0.0;
-    // Iterate through each token in the query input Document
-    for (Map.Entry<String, Weight> entry : vector.entrySet()) {
+   * Create an empty index, to be filled in by loading an index file.
+   */
+  protected InvertedProxIndex() {
+    super();
+  }
+
+  /**
+   * Load a positional index previously written to a file with save.
+   *
+   * @param indexFile The index file to load.
+   */
+  public static InvertedProxIndex load(File indexFile) throws IOException {
+    InvertedProxIndex index = new InvertedProxIndex();
+    IndexFile.read(indexFile, index);
+    System.out.println("Loaded " + index.docRefs.size() + " documents with " + index.size() +
+        " unique terms from " + indexFile);
+    return index;
+  }
+
+  /**
+   * The postings of this index store token positions.
+   */
+  public boolean positional() {
+    return true;
+  }
+
+  /**
+   * Set the proximity of retrievals with the given model (PROXIMITY_PAIRS
+   * or PROXIMITY_MIN_SPAN) from now on.
+   */
+  public void setProximityModel(short model) {
+    if (model != PROXIMITY_PAIRS && model != PROXIMITY_MIN_SPAN)
+      throw new IllegalArgumentException("Unknown proximity model: " + model);
+    proximityModel = model;
+    generation++;
+  }
+
+  /**
+   * Index the given document, tokenizing it into the positions of its tokens
+   *
+   * @return The vector of the document.
+   */
+  protected HashMapVector indexDocument(FileDocument doc) {
+    Map<String, int[]> positions = doc.tokenPositions();
+    // Create a reference to this document, numbered by its position in the list of documents
+    DocumentReference docRef = new DocumentReference(doc);
+    docRef.id = docRefs.size();
+    docRefs.add(docRef);
+    HashMapVector vector = new HashMapVector();
+    for (Map.Entry<String, int[]> entry : positions.entrySet()) {
       String token = entry.getKey();
-      double count = entry.getValue().getValue();
-      // Determine the score added to the similarity of each document
-      // indexed under this token and update the length of the
-      // query vector with the square of the weight for this token.
-      queryLength = queryLength + incorporateToken(token, count, retrievalHash);
-    }
-    // Finalize the length of the query vector by taking the square-root of the
-    // final sum of squares of its token weights.
-    queryLength = Math.sqrt(queryLength);
-    // Make an array to store the final ranked Retrievals.
-    Retrieval[] retrievals = new Retrieval[retrievalHash.size()];
-    // Iterate through each of the retrieved documents stored in
-    // the final retrievalHash.
-    int retrievalCount = 0;
-    for (Map.Entry<DocumentReference, DoubleValue> entry : retrievalHash.entrySet()) {
-      DocumentReference docRef = entry.getKey();
-      double score = entry.getValue().value;
-      retrievals[retrievalCount++] = (Retrieval) getRetrieval(queryLength, docRef, score);
-    }
-    // Iterates every document to set proximity values.
-    for (Retrieval ret : retrievals) {
-        double proximity = 0;
-        int count = 0;
-        FileDocument doc = docType == 0 ? new TextFileDocument(ret.docRef.file, true) 
-                                      : new HTMLFileDocument(ret.docRef.file, true);
-        // Checks proximity between every word in query.
-        for (Map.Entry<String, Weight> entry1 : vector.entrySet()) {
-          for (Map.Entry<String, Weight> entry2 : vector.entrySet()) {
-            String word1 = entry1.getKey();
-            List<Integer> positions1 = allPositons.get(doc.file.getName()).positions.get(word1);
-            String word2 = entry2.getKey();
-            List<Integer> positions2 = allPositons.get(doc.file.getName()).positions.get(word2);
-            if (!word1.equals(word2)) {
-              if (positions1 != null && positions2 != null) {
-                // Calculates distance for every occurance of two selected words.
-                for (Integer x : positions1) {
-                  // Finds position of the most adjacent second word and measures from there.
-                  int i = bSearch(positions2, x);
-                  for (int j = i; j < positions2.size(); j++) {
-                    count++;
-                    // Makes sure distance isn't over 1000.
-                    proximity += Math.min(1000, Math.abs(x - positions2.get(j)));
-                  }
-                }
-              } else {
-                // Adds the default value to calculate 1.0 when averaged
-                proximity += 1000;
-                count++;
-              }
-            }
-          }
+      int[] tokenPositions = entry.getValue();
+      vector.increment(token, tokenPositions.length);
+      // Find this token in the index, adding it if it is new
+      TokenInfo tokenInfo = tokenHash.get(token);
+      if (tokenInfo == null) {
+        tokenInfo = new TokenInfo(codec);
+        tokenInfo.postings = new PositionalPostingsList(codec);
+        tokenHash.put(token, tokenInfo);
+      }
+      ((PositionalPostingsList) tokenInfo.postings).add(docRef.id, tokenPositions, tokenPositions.length);
+    }
+    return vector;
+  }
+
+  /**
+   * Index a document given with its vector, such as an Example for text
+   * categorization.  The vector has no positions, so the document is reread.
+   */
+  protected void indexDocument(FileDocument doc, HashMapVector vector) {
+    short type = (doc instanceof HTMLFileDocument) ? DocumentIterator.TYPE_HTML : DocumentIterator.TYPE_TEXT;
+    try {
+      // The document may be stored in an archive or other source file
+      indexDocument(DocumentIterator.getDocument(doc.file, type, doc.stem));
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not reread document: " + doc.file);
+      System.exit(1);
+    }
+  }
+
+  /**
+   * Perform ranked retrieval on this input query, which may contain phrases
+   * and NEAR groups (see PositionalQuery).
+   */
+  public Retrieval[] retrieve(String input) {
+    return retrieve(new PositionalQuery(input, stem));
+  }
+
+  /**
+   * Perform ranked retrieval on a query, retrieving only the documents that
+   * satisfy all of its phrases and NEAR groups, if it has any.
+   */
+  public Retrieval[] retrieve(PositionalQuery query) {
+    if (query.clauses.isEmpty())
+      return retrieve(query.vector);
+    refreshIfNeeded();
+    // Retrievals come in order of document ID, the order of the postings
+    return rank(query.vector, retrieveMatching(query));
+  }
+
+  /**
+   * Perform ranked retrieval on this input query, which may contain phrases
+   * and NEAR groups (see PositionalQuery), returning only the top k documents.
+   */
+  public Retrieval[] retrieve(String input, int k) {
+    return retrieve(new PositionalQuery(input, stem), k);
+  }
+
+  /**
+   * Perform ranked retrieval on a query as retrieve(PositionalQuery) does,
+   * returning only the top k documents.
+   */
+  public Retrieval[] retrieve(PositionalQuery query, int k) {
+    if (query.clauses.isEmpty())
+      return retrieve(query.vector, k);
+    refreshIfNeeded();
+    // Only the top k matching documents are kept, so only they get proximities
+    Retrieval[] retrievals = retrieveMatching(query, new RetrievalHeap(Math.min(k, docRefs.size())));
+    sortByDocument(retrievals);
+    return rank(query.vector, retrievals);
+  }
+
+  /**
+   * Find the top k documents as InvertedIndex does, and then rank them,
+   * which sets their proximities.
+   */
+  protected Retrieval[] retrieve(HashMapVector vector, int k, ScoreAccumulator accumulator) {
+    Retrieval[] retrievals = super.retrieve(vector, k, accumulator);
+    sortByDocument(retrievals);
+    return rank(vector, retrievals);
+  }
+
+  /**
+   * Sort retrievals into order of document ID, the order rank takes them in
+   */
+  protected static void sortByDocument(Retrieval[] retrievals) {
+    Arrays.sort(retrievals, new Comparator<Retrieval>() {
+      public int compare(Retrieval retrieval1, Retrieval retrieval2) {
+        return Integer.compare(retrieval1.docRef.id, retrieval2.docRef.id);
+      }
+    });
+  }
+
+  /**
+   * Retrieve the documents that satisfy every clause of a query, in order of
+   * document ID, scored on the query vector as in retrieveUnranked.  Documents
+   * are found one at a time by leapfrogging the cursors of the clause tokens
+   * past one another, led by the rarest, so that the postings of frequent
+   * tokens are mostly skipped rather than decoded.  Positions are only
+   * decoded for documents containing every clause token.
+   */
+  protected Retrieval[] retrieveMatching(PositionalQuery query) {
+    return retrieveMatching(query, null);
+  }
+
+  /**
+   * Retrieve the documents that satisfy every clause of a query as
+   * retrieveMatching(PositionalQuery) does, but if heap is not null, keep
+   * only the best of them in it and return those, ranked from best to worst.
+   */
+  protected Retrieval[] retrieveMatching(PositionalQuery query, RetrievalHeap heap) {
+    // A cursor over the positions of each clause token, shared by the clauses with that token
+    Map<String, PositionsCursor> cursors = new HashMap<String, PositionsCursor>();
+    PositionsCursor[][] clauseCursors = new PositionsCursor[query.clauses.size()][];
+    for (int c = 0; c < clauseCursors.length; c++) {
+      String[] tokens = query.clauses.get(c).tokens;
+      clauseCursors[c] = new PositionsCursor[tokens.length];
+      for (int i = 0; i < tokens.length; i++) {
+        PositionsCursor cursor = cursors.get(tokens[i]);
+        if (cursor == null) {
+          TokenInfo tokenInfo = tokenHash.get(tokens[i]);
+          if (tokenInfo == null)
+            // No document contains this token, so none satisfies the clause
+            return new Retrieval[0];
+          cursor = new PositionsCursor((PositionalPostingsList) tokenInfo.postings);
+          cursors.put(tokens[i], cursor);
+        }
+        clauseCursors[c][i] = cursor;
+      }
+    }
+    // Every document retrieved must contain all of the clause tokens; the rarest leads
+    PositionsCursor[] required = cursors.values().toArray(new PositionsCursor[cursors.size()]);
+    Arrays.sort(required, new Comparator<PositionsCursor>() {
+      public int compare(PositionsCursor cursor1, PositionsCursor cursor2) {
+        return Integer.compare(cursor1.postings().size(), cursor2.postings().size());
+      }
+    });
+    // A cursor and score weight for each query token that adds to the score
+    List<PostingsCursor> scoreCursors = new ArrayList<PostingsCursor>();
+    List<Double> scoreWeights = new ArrayList<Double>();
+    for (int i = 0; i < query.vector.size(); i++) {
+      TokenInfo tokenInfo = tokenHash.get(query.vector.token(i));
+      if (tokenInfo != null && tokenInfo.idf != 0.0) {
+        PostingsCursor cursor = cursors.get(query.vector.token(i));
+        scoreCursors.add(cursor != null ? cursor : new PostingsCursor(tokenInfo.postings));
+        scoreWeights.add(tokenInfo.idf * query.vector.weight(i) * tokenInfo.idf);
+      }
+    }
+    double queryLength = queryLength(query.vector);
+    List<Retrieval> retrievals = new ArrayList<Retrieval>();
+    // Space for the positions of the tokens of each clause
+    int[][][] positions = new int[clauseCursors.length][][];
+    int[][] numPositions = new int[clauseCursors.length][];
+    for (int c = 0; c < clauseCursors.length; c++) {
+      positions[c] = new int[clauseCursors[c].length][];
+      numPositions[c] = new int[clauseCursors[c].length];
+    }
+    int doc = required[0].doc();
+    candidates:
+    while (doc != PostingsCursor.END) {
+      // Move every cursor to the candidate, starting over from any that passes it
+      for (PositionsCursor cursor : required) {
+        cursor.advance(doc);
+        if (cursor.doc() != doc) {
+          doc = cursor.doc();
+          continue candidates;
+        }
+      }
+      DocumentReference docRef = docRefs.get(doc);
+      if (!docRef.deleted && satisfiesClauses(query, clauseCursors, positions, numPositions)) {
+        double score = 0.0;
+        for (int i = 0; i < scoreCursors.size(); i++) {
+          PostingsCursor cursor = scoreCursors.get(i);
+          cursor.advance(doc);
+          if (cursor.doc() == doc)
+            score = score + scoreWeights.get(i) * cursor.count();
         }
-        ret.prox = proximity / count / 1000;
+        if (heap != null)
+          heap.offer(docRef, getScore(queryLength, docRef, score));
+        else
+          retrievals.add(getRetrieval(queryLength, docRef, score));
+      }
+      required[0].next();
+      doc = required[0].doc();
+    }
+    if (heap != null)
+      return heap.toRetrievals();
+    return retrievals.toArray(new Retrieval[retrievals.size()]);
+  }
+
+  /**
+   * Whether the document all the clause cursors are on satisfies every clause.
+   */
+  protected boolean satisfiesClauses(PositionalQuery query, PositionsCursor[][] clauseCursors,
+                                     int[][][] positions, int[][] numPositions) {
+    for (int c = 0; c < clauseCursors.length; c++) {
+      for (int i = 0; i < clauseCursors[c].length; i++) {
+        positions[c][i] = clauseCursors[c][i].positions();
+        numPositions[c][i] = clauseCursors[c][i].count();
+      }
+      if (!query.clauses.get(c).matches(positions[c], numPositions[c]))
+        return false;
     }
+    return true;
+  }
+
+  /**
+   * Rank the retrievals of a query, given in order of document ID, after
+   * setting the proximity of the query tokens in each retrieved document.
+   */
+  protected Retrieval[] rank(HashMapVector vector, Retrieval[] retrievals) {
+    setProximities(vector, retrievals);
     // Sort the retrievals to produce a final ranked list using the
     // Comparator for retrievals that produces a best to worst ordering.
     Arrays.sort(retrievals);
     return retrievals;
   }
 
+  /**
+   * Set the proximity of every retrieval from the positions of the query
+   * tokens stored in the postings.
+   *
+   * @param vector     The query vector.
+   * @param retrievals The retrievals, in increasing order of document ID.
+   */
+  protected void setProximities(HashMapVector vector, Retrieval[] retrievals) {
+    // A cursor over the positions of each query token, or null if it is not indexed
+    PositionsCursor[] cursors = new PositionsCursor[vector.size()];
+    int numTokens = 0;
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = tokenHash.get(vector.token(i));
+      if (tokenInfo != null)
+        cursors[numTokens] = new PositionsCursor((PositionalPostingsList) tokenInfo.postings);
+      numTokens++;
+    }
+    // The positions of each query token in the current document, or null if it does not occur
+    int[][] positions = new int[numTokens][];
+    int[] numPositions = new int[numTokens];
+    for (Retrieval retrieval : retrievals) {
+      int doc = retrieval.docRef.id;
+      for (int i = 0; i < numTokens; i++) {
+        positions[i] = null;
+        if (cursors[i] != null) {
+          cursors[i].advance(doc);
+          if (cursors[i].doc() == doc) {
+            positions[i] = cursors[i].positions();
+            numPositions[i] = cursors[i].count();
+          }
+        }
+      }
+      if (proximityModel == PROXIMITY_MIN_SPAN)
+        retrieval.prox = minSpanProximity(positions, numPositions);
+      else
+        retrieval.prox = pairProximity(positions, numPositions);
+    }
+  }
+
+  /**
+   * The average distance, up to MAX_DISTANCE and as a fraction of it, from
+   * each occurrence of each query token to the later occurrences of every
+   * other query token.  A pair of tokens one of which does not occur counts
+   * as MAX_DISTANCE apart.
+   *
+   * @param positions    The positions of each query token, or null if it does not occur.
+   * @param numPositions The number of positions of each query token.
+   */
+  protected double pairProximity(int[][] positions, int[] numPositions) {
+    double proximity = 0;
+    int count = 0;
+    // Checks proximity between every word in query.
+    for (int i = 0; i < positions.length; i++) {
+      for (int j = 0; j < positions.length; j++) {
+        if (i != j) {
+          if (positions[i] != null && positions[j] != null) {
+            // Calculates distance for every occurrence of two selected words.
+            for (int k = 0; k < numPositions[i]; k++) {
+              int x = positions[i][k];
+              // Finds position of the most adjacent second word and measures from there.
+              for (int m = bSearch(positions[j], numPositions[j], x); m < numPositions[j]; m++) {
+                count++;
+                // Makes sure distance isn't over MAX_DISTANCE.
+                proximity += Math.min(MAX_DISTANCE, Math.abs(x - positions[j][m]));
+              }
+            }
+          } else {
+            // Adds the default value to calculate 1.0 when averaged
+            proximity += MAX_DISTANCE;
+            count++;
+          }
+        }
+      }
+    }
+    // A single query token has no proximity to measure
+    return count == 0 ? 1.0 : proximity / count / MAX_DISTANCE;
+  }
+
+  /**
+   * The proximity of the query tokens measured by the smallest window of the
+   * document that contains an occurrence of every query token that occurs in
+   * it.  The position lists are merged in a single pass, keeping the current
+   * occurrence of each token in a heap ordered by position, which takes
+   * O(P log q) time for P positions of q tokens.  The window counts as the
+   * average gap between its consecutive tokens, up to MAX_DISTANCE and as a
+   * fraction of it, and each query token that does not occur counts as 1.
+   *
+   * @param positions    The positions of each query token, or null if it does not occur.
+   * @param numPositions The number of positions of each query token.
+   */
+  protected double minSpanProximity(int[][] positions, int[] numPositions) {
+    int numTokens = positions.length;
+    int numFound = 0;
+    for (int i = 0; i < numTokens; i++) {
+      if (positions[i] != null && numPositions[i] > 0)
+        numFound++;
+    }
+    if (numFound < 2)
+      // A single query token has no proximity to measure
+      return 1.0;
+    double spanProximity = Math.min(MAX_DISTANCE, (double) minSpan(positions, numPositions) / (numFound - 1)) /
+        MAX_DISTANCE;
+    return (numFound * spanProximity + numTokens - numFound) / numTokens;
+  }
+
+  /**
+   * The smallest distance between the first and last positions of a window
+   * containing an occurrence of every token that occurs, or 0 if fewer than
+   * two tokens occur.  Different tokens must never share a position.
+   *
+   * @param positions    The positions of each token, or null if it does not occur.
+   * @param numPositions The number of positions of each token.
+   */
+  public static int minSpan(int[][] positions, int[] numPositions) {
+    int numTokens = positions.length;
+    // The tokens that occur, in a heap ordered by their current position
+    int[] heap = new int[numTokens];
+    // The index of the current position of each token
+    int[] next = new int[numTokens];
+    int numFound = 0;
+    // The largest current position of any token
+    int last = -1;
+    for (int i = 0; i < numTokens; i++) {
+      if (positions[i] != null && numPositions[i] > 0) {
+        heap[numFound++] = i;
+        last = Math.max(last, positions[i][0]);
+      }
+    }
+    if (numFound < 2)
+      return 0;
+    for (int i = numFound / 2 - 1; i >= 0; i--)
+      siftDown(heap, numFound, i, positions, next);
+    int minSpan = Integer.MAX_VALUE;
+    while (true) {
+      // The window from the earliest current position to the latest contains every token
+      int first = heap[0];
+      minSpan = Math.min(minSpan, last - positions[first][next[first]]);
+      if (minSpan == numFound - 1 || ++next[first] == numPositions[first])
+        // No window is shorter, or none without this occurrence of the first token
+        break;
+      last = Math.max(last, positions[first][next[first]]);
+      siftDown(heap, numFound, 0, positions, next);
+    }
+    return minSpan;
+  }
+
+  /**
+   * Move the token at index i of the heap down until its current position is
+   * no later than that of its children.
+   */
+  private static void siftDown(int[] heap, int size, int i, int[][] positions, int[] next) {
+    int token = heap[i];
+    int position = positions[token][next[token]];
+    while (2 * i + 1 < size) {
+      int child = 2 * i + 1;
+      if (child + 1 < size &&
+          positions[heap[child + 1]][next[heap[child + 1]]] < positions[heap[child]][next[heap[child]]])
+        child++;
+      if (positions[heap[child]][next[heap[child]]] >= position)
+        break;
+      heap[i] = heap[child];
+      i = child;
+    }
+    heap[i] = token;
+  }
+
   /**
    * Binary Search implementation to find closest index to adjacent word.
    * @param list array being searched
+   * @param size number of entries of the array in use
    * @param val item being found
    * @return position of closest index
    */
-  private int bSearch(List<Integer> list, int val) {
+  private int bSearch(int[] list, int size, int val) {
     int left = 0;
-    int right = list.size() - 1;
+    int right = size - 1;
     while (left <= right) {
       int mid = (right + left) / 2;
-      if (list.get(mid) == val) {
+      if (list[mid] == val) {
           return mid;
-      } else if (list.get(mid) < val) {
+      } else if (list[mid] < val) {
           left = mid + 1;
       } else {
           right = mid - 1;
@@ -163,6 +525,31 @@ public class InvertedProxIndex extends InvertedIndex {
     return left;
   }
 
+  /**
+   * Enter an interactive user-query loop, accepting queries, which may contain
+   * phrases and NEAR groups, and showing the retrieved documents in ranked order.
+   */
+  public void processQueries() {
+
+    System.out.println("Now able to process queries. When done, enter an empty query to exit.");
+    System.out.println("Put phrases in double quotes, and use NEAR/k for words within k of each other.");
+    // Loop indefinitely answering queries
+    do {
+      // Get a query from the console
+      String query = UserInput.prompt("\nEnter query:  ");
+      // If query is empty then exit the interactive loop
+      if (query.equals(""))
+        break;
+      // Get the ranked retrievals for this query string and present them
+      PositionalQuery positionalQuery = new PositionalQuery(query, stem);
+      Retrieval[] retrievals = retrieve(positionalQuery);
+      presentRetrievals(positionalQuery.vector, retrievals);
+    }
+    while (true);
+    if (cache != null)
+      System.out.println(cache);
+  }
+
   /**
    * Print out at most MAX_RETRIEVALS ranked retrievals starting at given starting rank number.
    * Include the rank number and the score.
@@ -188,16 +575,32 @@ public class InvertedProxIndex extends InvertedIndex {
    * "-html" to specify HTML files whose HTML tags should be removed.
    * "-stem" to specify tokens should be stemmed with Porter stemmer.
    * "-feedback" to allow relevance feedback from the user.
+   * "-index FILE" to load the index from FILE, or if FILE does not exist yet,
+   * to save the index built from DIR to FILE.
+   * "-proximity MODEL" for the proximity model, "pairs" (the default) or "minspan".
    */
-  public static void main(String[] args) {
+  public static void main(String[] args) throws IOException {
     // Parse the arguments into a directory name and optional flag
 
     String dirName = args[args.length - 1];
     short docType = DocumentIterator.TYPE_TEXT;
     boolean stem = false, feedback = false;
+    File indexFile = null;
+    short proximityModel = PROXIMITY_PAIRS;
     for (int i = 0; i < args.length - 1; i++) {
       String flag = args[i];
-      if (flag.equals("-html"))
+      if (flag.equals("-index"))
+        indexFile = new File(args[++i]);
+      else if (flag.equals("-proximity")) {
+        String model = args[++i];
+        if (model.equals("pairs"))
+          proximityModel = PROXIMITY_PAIRS;
+        else if (model.equals("minspan"))
+          proximityModel = PROXIMITY_MIN_SPAN;
+        else
+          throw new IllegalArgumentException("Unknown proximity model: " + model);
+      }
+      else if (flag.equals("-html"))
         // Create HTMLFileDocuments to filter HTML tags
         docType = DocumentIterator.TYPE_HTML;
       else if (flag.equals("-stem"))
@@ -213,7 +616,16 @@ public class InvertedProxIndex extends InvertedIndex {
 
 
     // Create an inverted index for the files in the given directory.
-    InvertedProxIndex index = new InvertedProxIndex(new File(dirName), docType, stem, feedback);
+    InvertedProxIndex index;
+    if (indexFile != null && indexFile.exists()) {
+      index = load(indexFile);
+      index.feedback = feedback;
+    } else {
+      index = new InvertedProxIndex(new File(dirName), docType, stem, feedback);
+      if (indexFile != null)
+        index.save(indexFile);
+    }
+    index.setProximityModel(proximityModel);
     // index.print();
     // Interactively process queries to this index.
     index.processQueries();
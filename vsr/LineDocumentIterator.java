@@ -0,0 +1,606 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * An object for iterating over a file of one document per line, either
+ * JSON Lines (each line a JSON object) or tab-separated values, optionally
+ * gzip compressed.
+ * <p/>
+ * For JSON, a document is named by the first of its top-level fields named
+ * in ID_FIELDS and its text is the string values of the fields named in
+ * TEXT_FIELDS, in the order they occur.  For TSV, a document is named by the
+ * first column and its text is the rest of the line.  A line with no name
+ * is named by its line number.  JSON is UTF-8; TSV is decoded in the
+ * default charset, as FileReader does.
+ * <p/>
+ * An uncompressed file is memory-mapped, a window of up to WINDOW_SIZE bytes
+ * at a time, and split on line boundaries: handing out a document only finds
+ * the end of its line and its name, and decoding its text is put off until
+ * the document is first read, so when documents are indexed in parallel
+ * that work is done by the indexing threads.  A document of an uncompressed
+ * file is fetched again by its offset, found by one pass over the file the
+ * first time a document is fetched; a compressed file is read from the
+ * start until the document is found.
+ */
+
+public class LineDocumentIterator extends DocumentIterator {
+
+  /**
+   * format for JSON Lines
+   */
+  public static final short FORMAT_JSON = 0;
+  /**
+   * format for tab-separated values
+   */
+  public static final short FORMAT_TSV = 1;
+
+  /**
+   * The JSON fields that can give the name of a document, in order of preference
+   */
+  public static final String[] ID_FIELDS = {"id", "_id", "docid", "doc_id", "docno"};
+  /**
+   * The JSON fields whose string values make up the text of a document
+   */
+  public static final String[] TEXT_FIELDS = {"title", "text", "contents", "body"};
+
+  /**
+   * The most bytes of the file mapped at once.  A line must fit in a window.
+   */
+  public static final int WINDOW_SIZE = 1 << 30;
+
+  /**
+   * The file of documents
+   */
+  protected File lineFile;
+
+  /**
+   * FORMAT_JSON or FORMAT_TSV
+   */
+  protected short format;
+
+  /**
+   * The charset of the text
+   */
+  protected Charset charset;
+
+  /**
+   * The channel of an uncompressed file, or null if the file is compressed
+   */
+  protected FileChannel channel = null;
+
+  /**
+   * The size of an uncompressed file
+   */
+  protected long size = 0;
+
+  /**
+   * The mapped window of an uncompressed file
+   */
+  protected MappedByteBuffer window = null;
+
+  /**
+   * The offset in the file of the start of the window
+   */
+  protected long windowStart = 0;
+
+  /**
+   * The offset in the file of the next line to read
+   */
+  protected long lineStart = 0;
+
+  /**
+   * The stream of a compressed file, or null if the file is uncompressed
+   */
+  protected InputStream in = null;
+
+  /**
+   * The buffer a compressed file is read into
+   */
+  protected byte[] chunk = new byte[1 << 16];
+
+  /**
+   * The position of the next byte to read, and the number of bytes read, in chunk
+   */
+  protected int chunkPos = 0;
+  protected int chunkLimit = 0;
+
+  /**
+   * The number of the next line to read, counting from 1
+   */
+  protected long lineNumber = 1;
+
+  /**
+   * The next document, read ahead so that hasMoreDocuments knows whether there
+   * is one, or null at the end of the file
+   */
+  protected FileDocument next = null;
+
+  /**
+   * The offset of each document of an uncompressed file by its name, built
+   * the first time a document is fetched
+   */
+  protected Map<String, Long> offsets = null;
+
+  /**
+   * Create an iterator over the documents in a file of one document per line
+   *
+   * @param lineFile The file to use as a source of documents.
+   * @param format   FORMAT_JSON or FORMAT_TSV.
+   * @param docType  The type of Document to create. e.g. TYPE_TEXT or TYPE_HTML
+   * @param stem     Whether tokens should be stemmed with Porter stemmer.
+   */
+  public LineDocumentIterator(File lineFile, short format, short docType, boolean stem) throws IOException {
+    super(docType, stem);
+    this.lineFile = lineFile;
+    this.format = format;
+    this.charset = format == FORMAT_JSON ? StandardCharsets.UTF_8 : Charset.defaultCharset();
+    if (lineFile.getName().toLowerCase().endsWith(".gz"))
+      in = new GZIPInputStream(new FileInputStream(lineFile), 1 << 16);
+    else {
+      channel = new FileInputStream(lineFile).getChannel();
+      size = channel.size();
+    }
+    next = readDocument();
+  }
+
+  /**
+   * Get the next document
+   */
+  public FileDocument nextDocument() {
+    FileDocument doc = next;
+    if (doc == null)
+      return null;
+    position++;
+    try {
+      next = readDocument();
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not read document file: " + lineFile);
+      System.exit(1);
+    }
+    return doc;
+  }
+
+  /**
+   * Returns true iff there are more documents in this file
+   */
+  public boolean hasMoreDocuments() {
+    return next != null;
+  }
+
+  /**
+   * A new iterator over the same file, starting from the first document
+   */
+  protected DocumentIterator restart() throws IOException {
+    return new LineDocumentIterator(lineFile, format, docType, stem);
+  }
+
+  /**
+   * Fetch a document of this file again.  For an uncompressed file, this
+   * iterator is moved to the document's line, after finding the offset of
+   * every document the first time.  A compressed file is read from the
+   * start until the document is found.
+   */
+  protected FileDocument fetch(File file) throws IOException {
+    if (channel == null)
+      return find(restart(), file);
+    if (offsets == null) {
+      offsets = new HashMap<String, Long>();
+      seek(0, 1);
+      while (true) {
+        long start = lineStart;
+        long number = lineNumber;
+        ByteBuffer line = readLine();
+        if (line == null)
+          break;
+        if (isBlank(line))
+          continue;
+        String name = name(line);
+        if (name == null)
+          name = String.valueOf(number);
+        if (!offsets.containsKey(name))
+          offsets.put(name, start);
+      }
+    }
+    String name = entryName(lineFile, file);
+    Long offset = offsets.get(name);
+    if (offset == null)
+      return null;
+    // A document without a name of its own is named by its line number
+    long number = -1;
+    try {
+      number = Long.parseLong(name);
+    }
+    catch (NumberFormatException e) {
+      // Named by the document itself, so the line number does not matter
+    }
+    seek(offset, number);
+    return readDocument();
+  }
+
+  /**
+   * Close the file.  Documents already handed out can still be read.
+   */
+  public void close() throws IOException {
+    if (channel != null)
+      channel.close();
+    else
+      in.close();
+  }
+
+  /**
+   * Move to the line starting at an offset of an uncompressed file, with
+   * the given line number
+   */
+  protected void seek(long offset, long number) {
+    lineStart = offset;
+    lineNumber = number;
+  }
+
+  /**
+   * Read lines up to and including the next that is not blank and create its
+   * document, or return null at the end of the file.
+   */
+  protected FileDocument readDocument() throws IOException {
+    while (true) {
+      long number = lineNumber;
+      final ByteBuffer line = readLine();
+      if (line == null)
+        return null;
+      if (isBlank(line))
+        continue;
+      String name = name(line);
+      if (name == null)
+        name = String.valueOf(number);
+      Reader text = new DeferredReader() {
+        protected Reader open() {
+          return new StringReader(text(line));
+        }
+      };
+      return createDocument(new File(lineFile, name), text, docType, stem);
+    }
+  }
+
+  /**
+   * Read the next line, without its line terminator, or return null at the
+   * end of the file.  A line of an uncompressed file is a slice of the
+   * mapped window.
+   */
+  protected ByteBuffer readLine() throws IOException {
+    ByteBuffer line;
+    if (channel != null) {
+      if (lineStart >= size)
+        return null;
+      if (window == null || lineStart < windowStart || lineStart >= windowStart + window.limit())
+        map(lineStart);
+      int start = (int) (lineStart - windowStart);
+      int end = indexOf(window, start, '\n');
+      if (end == window.limit() && windowStart + end < size) {
+        // The line runs past the window, so map a window starting with it
+        map(lineStart);
+        start = 0;
+        end = indexOf(window, start, '\n');
+        if (end == window.limit() && windowStart + end < size)
+          throw new IOException("Line " + lineNumber + " longer than " + WINDOW_SIZE + " bytes: " + lineFile);
+      }
+      lineStart = windowStart + Math.min(end + 1, window.limit());
+      ByteBuffer slice = window.duplicate();
+      slice.limit(end);
+      slice.position(start);
+      line = slice.slice();
+    } else {
+      // Gather the line a chunk at a time
+      byte[] bytes = null;
+      int length = 0;
+      while (true) {
+        if (chunkPos == chunkLimit) {
+          chunkPos = 0;
+          chunkLimit = Math.max(in.read(chunk), 0);
+          if (chunkLimit == 0)
+            break;
+        }
+        int end = chunkPos;
+        while (end < chunkLimit && chunk[end] != '\n')
+          end++;
+        int n = end - chunkPos;
+        if (bytes == null)
+          bytes = new byte[n];
+        else if (length + n > bytes.length)
+          bytes = Arrays.copyOf(bytes, Math.max(length + n, 2 * bytes.length));
+        System.arraycopy(chunk, chunkPos, bytes, length, n);
+        length = length + n;
+        chunkPos = end;
+        if (end < chunkLimit) {
+          // Past the newline
+          chunkPos++;
+          break;
+        }
+      }
+      if (bytes == null) {
+        in.close();
+        return null;
+      }
+      line = ByteBuffer.wrap(bytes, 0, length).slice();
+    }
+    lineNumber++;
+    // Drop the carriage return of a Windows line end
+    if (line.limit() > 0 && line.get(line.limit() - 1) == '\r')
+      line.limit(line.limit() - 1);
+    return line;
+  }
+
+  /**
+   * Map the window of an uncompressed file starting at an offset
+   */
+  protected void map(long offset) throws IOException {
+    windowStart = offset;
+    window = channel.map(FileChannel.MapMode.READ_ONLY, offset, Math.min(WINDOW_SIZE, size - offset));
+  }
+
+  /**
+   * The position of the first byte b at or after start in a buffer, or its limit if none
+   */
+  protected static int indexOf(ByteBuffer buffer, int start, char b) {
+    int limit = buffer.limit();
+    for (int i = start; i < limit; i++) {
+      if (buffer.get(i) == b)
+        return i;
+    }
+    return limit;
+  }
+
+  /**
+   * Whether a line is all whitespace
+   */
+  protected static boolean isBlank(ByteBuffer line) {
+    for (int i = 0; i < line.limit(); i++) {
+      if (line.get(i) > ' ')
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * The name of the document on a line, or null if it has none
+   */
+  protected String name(ByteBuffer line) {
+    if (format == FORMAT_TSV) {
+      int tab = indexOf(line, 0, '\t');
+      if (tab == line.limit())
+        return null;
+      String name = decode(line, 0, tab).trim();
+      return name.isEmpty() ? null : name;
+    }
+    int[] fields = jsonFields(line);
+    for (String key : ID_FIELDS) {
+      for (int i = 0; i < fields.length; i = i + 4) {
+        if (keyIs(line, fields, i, key)) {
+          String name = jsonValue(line, fields[i + 2], fields[i + 3]).trim();
+          return name.isEmpty() ? null : name;
+        }
+      }
+    }
+    return null;
+  }
+
+  /**
+   * The text of the document on a line
+   */
+  protected String text(ByteBuffer line) {
+    if (format == FORMAT_TSV) {
+      int tab = indexOf(line, 0, '\t');
+      if (tab == line.limit() || decode(line, 0, tab).trim().isEmpty())
+        // A line with no name is all text
+        return decode(line, 0, line.limit());
+      return decode(line, tab + 1, line.limit());
+    }
+    StringBuilder text = new StringBuilder();
+    int[] fields = jsonFields(line);
+    for (int i = 0; i < fields.length; i = i + 4) {
+      for (String key : TEXT_FIELDS) {
+        if (keyIs(line, fields, i, key) && line.get(fields[i + 2]) == '"') {
+          text.append(jsonValue(line, fields[i + 2], fields[i + 3])).append('\n');
+          break;
+        }
+      }
+    }
+    return text.toString();
+  }
+
+  /**
+   * Decode the bytes from start to end of a line
+   */
+  protected String decode(ByteBuffer line, int start, int end) {
+    return new String(bytes(line, start, end), charset);
+  }
+
+  /**
+   * Copy the bytes from start to end of a line
+   */
+  protected static byte[] bytes(ByteBuffer line, int start, int end) {
+    byte[] bytes = new byte[end - start];
+    ByteBuffer slice = line.duplicate();
+    slice.limit(end);
+    slice.position(start);
+    slice.get(bytes);
+    return bytes;
+  }
+
+  /**
+   * The top-level fields of the JSON object on a line, as four positions per
+   * field: the start and end of its key (without quotes) and of its value.
+   * Parsing is lenient, stopping at anything that is not a well-formed field.
+   */
+  protected static int[] jsonFields(ByteBuffer line) {
+    int[] fields = new int[16];
+    int numFields = 0;
+    int limit = line.limit();
+    int pos = skipSpace(line, 0);
+    if (pos >= limit || line.get(pos) != '{')
+      return new int[0];
+    pos++;
+    while (true) {
+      pos = skipSpace(line, pos);
+      if (pos >= limit || line.get(pos) != '"')
+        break;
+      int keyEnd = skipString(line, pos);
+      int colon = skipSpace(line, keyEnd);
+      if (colon >= limit || line.get(colon) != ':')
+        break;
+      int valueStart = skipSpace(line, colon + 1);
+      int valueEnd = skipValue(line, valueStart);
+      if (numFields + 4 > fields.length)
+        fields = Arrays.copyOf(fields, 2 * fields.length);
+      fields[numFields++] = pos + 1;
+      fields[numFields++] = keyEnd - 1;
+      fields[numFields++] = valueStart;
+      fields[numFields++] = valueEnd;
+      pos = skipSpace(line, valueEnd);
+      if (pos >= limit || line.get(pos) != ',')
+        break;
+      pos++;
+    }
+    return Arrays.copyOf(fields, numFields);
+  }
+
+  /**
+   * Whether the key of the field at index i of fields (from jsonFields) is key
+   */
+  protected static boolean keyIs(ByteBuffer line, int[] fields, int i, String key) {
+    int start = fields[i];
+    if (fields[i + 1] - start != key.length())
+      return false;
+    for (int j = 0; j < key.length(); j++) {
+      if (line.get(start + j) != key.charAt(j))
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * The position after any whitespace at pos
+   */
+  protected static int skipSpace(ByteBuffer line, int pos) {
+    while (pos < line.limit() && line.get(pos) <= ' ' && line.get(pos) >= 0)
+      pos++;
+    return pos;
+  }
+
+  /**
+   * The position after the JSON string starting (with its quote) at pos
+   */
+  protected static int skipString(ByteBuffer line, int pos) {
+    int limit = line.limit();
+    pos++;
+    while (pos < limit) {
+      byte b = line.get(pos);
+      if (b == '\\')
+        pos = pos + 2;
+      else if (b == '"')
+        return pos + 1;
+      else
+        pos++;
+    }
+    return limit;
+  }
+
+  /**
+   * The position after the JSON value starting at pos
+   */
+  protected static int skipValue(ByteBuffer line, int pos) {
+    int limit = line.limit();
+    if (pos >= limit)
+      return limit;
+    byte b = line.get(pos);
+    if (b == '"')
+      return skipString(line, pos);
+    if (b == '{' || b == '[') {
+      // Skip to the matching bracket, skipping the strings inside
+      int depth = 0;
+      while (pos < limit) {
+        b = line.get(pos);
+        if (b == '"') {
+          pos = skipString(line, pos);
+          continue;
+        }
+        if (b == '{' || b == '[')
+          depth++;
+        else if ((b == '}' || b == ']') && --depth == 0)
+          return pos + 1;
+        pos++;
+      }
+      return limit;
+    }
+    // A number, true, false or null
+    while (pos < limit) {
+      b = line.get(pos);
+      if (b == ',' || b == '}' || b == ']' || (b <= ' ' && b >= 0))
+        break;
+      pos++;
+    }
+    return pos;
+  }
+
+  /**
+   * The value of a JSON string (unquoted and unescaped) or, for any other
+   * value, its text, from start to end of a line
+   */
+  protected static String jsonValue(ByteBuffer line, int start, int end) {
+    String value = new String(bytes(line, start, end), StandardCharsets.UTF_8);
+    if (value.length() < 2 || value.charAt(0) != '"' || value.charAt(value.length() - 1) != '"')
+      return value;
+    value = value.substring(1, value.length() - 1);
+    if (value.indexOf('\\') == -1)
+      return value;
+    StringBuilder unescaped = new StringBuilder(value.length());
+    for (int i = 0; i < value.length(); i++) {
+      char c = value.charAt(i);
+      if (c != '\\' || i + 1 == value.length()) {
+        unescaped.append(c);
+        continue;
+      }
+      c = value.charAt(++i);
+      switch (c) {
+        case 'n':
+          unescaped.append('\n');
+          break;
+        case 't':
+          unescaped.append('\t');
+          break;
+        case 'r':
+          unescaped.append('\r');
+          break;
+        case 'b':
+          unescaped.append('\b');
+          break;
+        case 'f':
+          unescaped.append('\f');
+          break;
+        case 'u':
+          if (i + 4 < value.length()) {
+            try {
+              unescaped.append((char) Integer.parseInt(value.substring(i + 1, i + 5), 16));
+              i = i + 4;
+              break;
+            }
+            catch (NumberFormatException e) {
+              // Not an escape after all, so keep it as is
+            }
+          }
+          unescaped.append('\\').append(c);
+          break;
+        default:
+          // \" \\ \/
+          unescaped.append(c);
+      }
+    }
+    return unescaped.toString();
+  }
+
+}
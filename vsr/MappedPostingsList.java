@@ -0,0 +1,111 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.*;
+
+/**
+ * A PostingsList whose compressed blocks stay in a memory-mapped index file
+ * (see IndexFile) rather than being copied onto the heap, so that an index
+ * file much larger than the heap can be loaded.  Each block is copied into
+ * a small per-thread buffer as it is decoded.
+ * <p/>
+ * The list can still be added to: the first time a new block is
+ * compressed, the blocks are copied onto the heap and the list behaves as
+ * an ordinary CountPostingsList from then on.
+ */
+
+public class MappedPostingsList extends CountPostingsList {
+
+  /**
+   * The buffer of each thread that blocks are copied into to be decoded
+   */
+  protected static final ThreadLocal<byte[]> blockBuffers = ThreadLocal.withInitial(() -> new byte[1024]);
+
+  /**
+   * The compressed blocks, as a slice of the mapped index file, or null
+   * once they have been copied onto the heap
+   */
+  protected ByteBuffer mapped;
+
+  /**
+   * Create a postings list from compressed blocks in a mapped buffer, as
+   * read from an index file
+   */
+  protected MappedPostingsList(PostingsCodec codec, ByteBuffer mapped, int[] blockOffsets, int[] blockLastDocs,
+                               int[] blockSizes, int size) {
+    super(codec, null, mapped.remaining(), blockOffsets, blockLastDocs, blockSizes, size);
+    this.mapped = mapped;
+  }
+
+  /**
+   * Decode a block of postings straight from the mapped blocks.
+   */
+  public int decodeBlock(int block, int[] docs, int[] counts) {
+    if (mapped == null || block == numBlocks)
+      return super.decodeBlock(block, docs, counts);
+    byte[] bytes = blockBytes(block);
+    int n = blockSizes[block];
+    int offset = codec.decode(bytes, 0, docs, n);
+    codec.decode(bytes, offset, counts, n);
+    undoGaps(block, docs, counts, n);
+    return n;
+  }
+
+  /**
+   * Decode just the document numbers of a block straight from the mapped blocks.
+   */
+  public int decodeBlockDocs(int block, int[] docs) {
+    if (mapped == null || block == numBlocks)
+      return super.decodeBlockDocs(block, docs);
+    byte[] bytes = blockBytes(block);
+    int n = blockSizes[block];
+    codec.decode(bytes, 0, docs, n);
+    undoGaps(block, docs, null, n);
+    return n;
+  }
+
+  /**
+   * Copy the bytes of a compressed block into the calling thread's buffer
+   */
+  protected byte[] blockBytes(int block) {
+    int start = blockOffsets[block];
+    int end = (block + 1 < numBlocks) ? blockOffsets[block + 1] : dataSize;
+    byte[] bytes = blockBuffers.get();
+    if (bytes.length < end - start) {
+      bytes = new byte[Math.max(end - start, 2 * bytes.length)];
+      blockBuffers.set(bytes);
+    }
+    // An absolute get, so threads can share the buffer
+    mapped.get(start, bytes, 0, end - start);
+    return bytes;
+  }
+
+  /**
+   * Copy the blocks onto the heap before compressing a new one after them
+   */
+  protected void flushPending() {
+    if (mapped != null) {
+      data = new byte[dataSize];
+      mapped.get(0, data, 0, dataSize);
+      mapped = null;
+    }
+    super.flushPending();
+  }
+
+  /**
+   * Write the compressed blocks to a stream
+   */
+  protected void writeData(DataOutputStream out) throws IOException {
+    if (mapped == null) {
+      super.writeData(out);
+      return;
+    }
+    byte[] bytes = new byte[Math.min(dataSize, 1 << 16)];
+    for (int start = 0; start < dataSize; start = start + bytes.length) {
+      int length = Math.min(bytes.length, dataSize - start);
+      mapped.get(start, bytes, 0, length);
+      out.write(bytes, 0, length);
+    }
+  }
+
+}
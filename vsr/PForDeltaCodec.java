@@ -0,0 +1,128 @@
+package ir.vsr;
+
+/**
+ * Patched frame-of-reference (PForDelta) coding of postings.  A block of
+ * values is stored with a single bit width b chosen so that the block is
+ * as small as possible: the low b bits of every value are packed densely,
+ * and the few values too large for b bits ("exceptions") are patched
+ * afterwards from a short list of (position, high bits) pairs.  Unpacking
+ * fixed-width values is a simple branch-free loop, which makes decoding
+ * faster than variable-byte coding for long postings.
+ * <p/>
+ * Layout of a block: the bit width, the number of exceptions, the packed
+ * values, and then for each exception its position and high bits, all
+ * counts and exceptions being variable-byte coded.
+ */
+
+public class PForDeltaCodec extends PostingsCodec {
+
+  public int encode(int[] values, int n, byte[] out, int offset) {
+    int bits = bestBitWidth(values, n);
+    long mask = (1L << bits) - 1;
+    int numExceptions = 0;
+    for (int i = 0; i < n; i++) {
+      if ((values[i] & 0xFFFFFFFFL) > mask)
+        numExceptions++;
+    }
+    out[offset++] = (byte) bits;
+    offset = writeVByte(numExceptions, out, offset);
+    // Pack the low bits of every value
+    long buffer = 0;
+    int buffered = 0;
+    for (int i = 0; i < n; i++) {
+      buffer |= (values[i] & mask) << buffered;
+      buffered += bits;
+      while (buffered >= 8) {
+        out[offset++] = (byte) buffer;
+        buffer = buffer >>> 8;
+        buffered -= 8;
+      }
+    }
+    if (buffered > 0)
+      out[offset++] = (byte) buffer;
+    // Then the patches for values that did not fit
+    for (int i = 0; i < n && numExceptions > 0; i++) {
+      if ((values[i] & 0xFFFFFFFFL) > mask) {
+        offset = writeVByte(i, out, offset);
+        offset = writeVByte(values[i] >>> bits, out, offset);
+      }
+    }
+    return offset;
+  }
+
+  public int decode(byte[] bytes, int offset, int[] values, int n) {
+    int bits = bytes[offset++];
+    int numExceptions = 0;
+    int shift = 0;
+    int b;
+    do {
+      b = bytes[offset++];
+      numExceptions |= (b & 0x7F) << shift;
+      shift += 7;
+    } while (b < 0);
+    // Unpack n fixed-width values
+    long mask = (1L << bits) - 1;
+    long buffer = 0;
+    int buffered = 0;
+    for (int i = 0; i < n; i++) {
+      while (buffered < bits) {
+        buffer |= (bytes[offset++] & 0xFFL) << buffered;
+        buffered += 8;
+      }
+      values[i] = (int) (buffer & mask);
+      buffer = buffer >>> bits;
+      buffered -= bits;
+    }
+    // Patch in the high bits of the exceptions
+    for (int e = 0; e < numExceptions; e++) {
+      int position = 0;
+      shift = 0;
+      do {
+        b = bytes[offset++];
+        position |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      int high = 0;
+      shift = 0;
+      do {
+        b = bytes[offset++];
+        high |= (b & 0x7F) << shift;
+        shift += 7;
+      } while (b < 0);
+      values[position] |= high << bits;
+    }
+    return offset;
+  }
+
+  public int maxEncodedSize(int n) {
+    // Bit width, exception count, packed values and worst case patches
+    return 1 + 5 + 4 * n + 10 * n;
+  }
+
+  /**
+   * Choose the bit width that makes the encoded block smallest, counting
+   * the packed values plus the patches needed for the values too large for it.
+   */
+  protected int bestBitWidth(int[] values, int n) {
+    int bestBits = 32;
+    int bestSize = Integer.MAX_VALUE;
+    for (int bits = 0; bits <= 32; bits++) {
+      long mask = (1L << bits) - 1;
+      int size = (n * bits + 7) / 8;
+      for (int i = 0; i < n && size < bestSize; i++) {
+        if ((values[i] & 0xFFFFFFFFL) > mask)
+          size += vByteSize(i) + vByteSize(values[i] >>> bits);
+      }
+      if (size < bestSize) {
+        bestSize = size;
+        bestBits = bits;
+      }
+    }
+    return bestBits;
+  }
+
+  public String toString() {
+    return "pfor";
+  }
+
+}
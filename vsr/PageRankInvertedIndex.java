@@ -36,22 +36,30 @@ public class PageRankInvertedIndex extends InvertedIndex{
     }
 
     /**
-     * Calculate the final score for a retrieval and return a Retrieval object representing
-     * the retrieval with its final score.
+     * Calculate the final score for a retrieval from its partially computed score.
      *
      * @param queryLength The length of the query vector, incorporated into the final score
      * @param docRef The document reference for the document concerned
      * @param score The partially computed score 
-     * @return The retrieval object for the document described by docRef
-     *     and score under the query with length queryLength
+     * @return The final score of the document described by docRef
+     *     under the query with length queryLength
      */
-    protected Retrieval getRetrieval(double queryLength, DocumentReference docRef, double score) {
+    protected double getScore(double queryLength, DocumentReference docRef, double score) {
         // Normalize score for the lengths of the two document vectors
         score = score / (queryLength * docRef.length);
         // multiply by weight
         score += rank.get(docRef.file.getName()) * weight;
-        // Add a Retrieval for this document to the result array
-        return new Retrieval(docRef, score);
+        return score;
+    }
+
+    /**
+     * The most the weighted page rank can add to a document's score
+     */
+    protected double maxScoreBoost() {
+        double max = Double.NEGATIVE_INFINITY;
+        for (double pageRank : rank.values())
+            max = Math.max(max, pageRank * weight);
+        return max == Double.NEGATIVE_INFINITY ? 0.0 : max;
     }
 
     /**
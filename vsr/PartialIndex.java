@@ -0,0 +1,66 @@
+package ir.vsr;
+
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A partial inverted index for a contiguous batch of documents.  Used
+ * by parallel indexing, where each worker thread tokenizes a batch of
+ * documents into its own PartialIndex, and the partial indices are then
+ * merged, in document order, into the final InvertedIndex.
+ */
+
+public class PartialIndex {
+
+  /**
+   * A HashMap where tokens for this batch are indexed. Each indexed
+   * token maps to a TokenInfo whose postings only cover this batch.
+   */
+  public Map<String, TokenInfo> tokenHash = new HashMap<String, TokenInfo>();
+
+  /**
+   * The documents in this batch, in the order they were read.
+   */
+  public List<DocumentReference> docRefs = new ArrayList<DocumentReference>();
+
+  /**
+   * The codec used to compress postings
+   */
+  protected PostingsCodec codec;
+
+  /**
+   * Tokenize each document in the batch and index it.
+   *
+   * @param docs     The batch of documents.
+   * @param firstDoc The document number the first document of the batch will have
+   *                 in the final index.
+   * @param codec    The codec used to compress postings.
+   */
+  public PartialIndex(List<FileDocument> docs, int firstDoc, PostingsCodec codec) {
+    this.codec = codec;
+    int doc = firstDoc;
+    for (FileDocument fileDoc : docs) {
+      // Create a document vector for this document
+      indexDocument(fileDoc, fileDoc.hashMapVector(), doc++);
+    }
+  }
+
+  /**
+   * Index the given document using its corresponding vector
+   */
+  protected void indexDocument(FileDocument fileDoc, HashMapVector vector, int doc) {
+    docRefs.add(new DocumentReference(fileDoc));
+    for (int i = 0; i < vector.size(); i++) {
+      String token = vector.token(i);
+      int count = (int) vector.weight(i);
+      TokenInfo tokenInfo = tokenHash.get(token);
+      if (tokenInfo == null) {
+        tokenInfo = new TokenInfo(codec);
+        tokenHash.put(token, tokenInfo);
+      }
+      ((CountPostingsList) tokenInfo.postings).add(doc, count);
+    }
+  }
+
+}
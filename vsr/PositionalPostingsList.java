@@ -0,0 +1,165 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * A PostingsList that also stores the positions at which its token occurs in
+ * each document, so that proximity and phrase matching can be done straight
+ * from the index without rereading any documents.
+ * <p/>
+ * The positions of a posting are stored as count gaps, each position less the
+ * previous one less 1 (the first counting from -1), in variable-byte form.
+ * The positions of all the postings of a block follow one another, and the
+ * offset where each block's positions start is recorded, so the positions of
+ * a block can be read without touching those of any other block.  Positions
+ * are written as soon as postings are added, so they need no pending buffer.
+ */
+
+public class PositionalPostingsList extends PostingsList {
+
+  /**
+   * The gap-encoded positions of every posting, one after another
+   */
+  protected byte[] positionData = new byte[16];
+
+  /**
+   * The number of bytes of positionData in use
+   */
+  protected int positionSize = 0;
+
+  /**
+   * The offset in positionData where the positions of each block start,
+   * including the block of postings not yet compressed
+   */
+  protected int[] blockPositionOffsets = new int[1];
+
+  /**
+   * Create an empty positional postings list compressed with the given codec
+   */
+  public PositionalPostingsList(PostingsCodec codec) {
+    super(codec);
+  }
+
+  /**
+   * Create a positional postings list from already compressed blocks and
+   * positions, as read from an index file
+   */
+  protected PositionalPostingsList(PostingsCodec codec, byte[] data, int[] blockOffsets, int[] blockLastDocs,
+                                   int[] blockSizes, int size, byte[] positionData, int[] blockPositionOffsets) {
+    super(codec, data, blockOffsets, blockLastDocs, blockSizes, size);
+    this.positionData = positionData;
+    this.positionSize = positionData.length;
+    this.blockPositionOffsets = blockPositionOffsets;
+  }
+
+  /**
+   * Add a posting for a document after all those already in the list.
+   *
+   * @param doc       The number of the document, which must be greater than the last one added.
+   * @param positions The positions of the token in the document, in increasing order.
+   * @param count     The number of positions, i.e. times the token occurs in the document.
+   */
+  public void add(int doc, int[] positions, int count) {
+    if (numPending == 0) {
+      // This posting starts a new block
+      if (numBlocks == blockPositionOffsets.length)
+        blockPositionOffsets = Arrays.copyOf(blockPositionOffsets, 2 * numBlocks);
+      blockPositionOffsets[numBlocks] = positionSize;
+    }
+    addPosting(doc, count);
+    if (positionSize + 5 * count > positionData.length)
+      positionData = Arrays.copyOf(positionData, Math.max(positionSize + 5 * count, 2 * positionData.length));
+    int previous = -1;
+    for (int i = 0; i < count; i++) {
+      positionSize = PostingsCodec.writeVByte(positions[i] - previous - 1, positionData, positionSize);
+      previous = positions[i];
+    }
+  }
+
+  /**
+   * Add all the postings of another positional list, with their positions,
+   * renumbering its documents by adding docOffset.
+   */
+  public void addAll(PostingsList other, int docOffset) {
+    if (!(other instanceof PositionalPostingsList))
+      throw new IllegalArgumentException("Only postings with positions can be added to a positional list");
+    PositionsCursor cursor = new PositionsCursor((PositionalPostingsList) other);
+    while (cursor.doc() != PostingsCursor.END) {
+      add(cursor.doc() + docOffset, cursor.positions(), cursor.count());
+      cursor.next();
+    }
+  }
+
+  /**
+   * Compress any remaining postings and trim the storage to its final size.
+   */
+  public void finish() {
+    super.finish();
+    if (positionData.length > positionSize)
+      positionData = Arrays.copyOf(positionData, positionSize);
+    if (blockPositionOffsets.length > numBlocks)
+      blockPositionOffsets = Arrays.copyOf(blockPositionOffsets, Math.max(numBlocks, 1));
+  }
+
+  /**
+   * The number of bytes used by the compressed positions
+   */
+  public int positionsSize() {
+    return positionSize;
+  }
+
+  /**
+   * The offset in positionData where the positions of a block start
+   */
+  public int blockPositionOffset(int block) {
+    return blockPositionOffsets[block];
+  }
+
+  /**
+   * Decode count positions starting at offset in positionData.
+   *
+   * @return The offset just past the decoded positions.
+   */
+  public int decodePositions(int offset, int[] positions, int count) {
+    offset = PostingsCodec.VBYTE.decode(positionData, offset, positions, count);
+    int position = -1;
+    for (int i = 0; i < count; i++) {
+      position = position + positions[i] + 1;
+      positions[i] = position;
+    }
+    return offset;
+  }
+
+  /**
+   * Skip over count positions starting at offset in positionData.
+   *
+   * @return The offset just past the skipped positions.
+   */
+  public int skipPositions(int offset, int count) {
+    // Every value ends with the one byte that has its high bit clear
+    while (count > 0) {
+      if (positionData[offset++] >= 0)
+        count--;
+    }
+    return offset;
+  }
+
+  /**
+   * Return a new, finished list of the postings, with their positions,
+   * whose documents are not deleted.
+   *
+   * @param docRefs The documents of the index, by document number.
+   */
+  public PostingsList withoutDeleted(List<DocumentReference> docRefs) {
+    PositionalPostingsList livePostings = new PositionalPostingsList(codec);
+    PositionsCursor cursor = new PositionsCursor(this);
+    while (cursor.doc() != PostingsCursor.END) {
+      if (!docRefs.get(cursor.doc()).deleted)
+        livePostings.add(cursor.doc(), cursor.positions(), cursor.count());
+      cursor.next();
+    }
+    livePostings.finish();
+    return livePostings;
+  }
+
+}
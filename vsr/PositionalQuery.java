@@ -0,0 +1,107 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * A query that can require its tokens to occur in certain places, parsed
+ * from a string such as
+ * <pre>
+ *   "cystic fibrosis" treatment gene NEAR/5 therapy
+ * </pre>
+ * Text in double quotes is a phrase, whose tokens must occur next to one
+ * another in order.  "NEAR/k" between two words requires them to occur
+ * within k tokens of each other, in either order, and a chain such as
+ * "a NEAR/5 b NEAR/5 c" requires all of them within one window of k tokens.
+ * The words on either side of NEAR/k must each be a single token; a NEAR/k
+ * next to a phrase or a stopword is ignored.  Every token, in a clause or
+ * not, also counts towards the vector-space score of the documents that
+ * satisfy every clause.
+ */
+
+public class PositionalQuery {
+
+  /**
+   * The vector of every token in the query
+   */
+  public HashMapVector vector = new HashMapVector();
+
+  /**
+   * The phrases and NEAR groups every retrieved document must satisfy
+   */
+  public List<ProximityClause> clauses = new ArrayList<ProximityClause>();
+
+  /**
+   * Parse a query string.
+   *
+   * @param input The query.
+   * @param stem  Whether tokens should be stemmed with Porter stemmer.
+   */
+  public PositionalQuery(String input, boolean stem) {
+    // Pieces at odd indices were between quotes
+    String[] pieces = input.split("\"", -1);
+    // The one token of the last word, or null if it did not have exactly one
+    String lastToken = null;
+    // The window of a NEAR/k just read, or -1 if none
+    int nearWindow = -1;
+    // The NEAR group ending with lastToken, if any
+    ProximityClause near = null;
+    for (int p = 0; p < pieces.length; p++) {
+      String[] words = (p % 2 == 1) ? new String[]{pieces[p]} : pieces[p].trim().split("\\s+");
+      for (String word : words) {
+        if (p % 2 == 0 && word.matches("NEAR/\\d+")) {
+          nearWindow = Integer.parseInt(word.substring(5));
+          continue;
+        }
+        String[] tokens = tokenize(word, stem);
+        for (String token : tokens)
+          vector.increment(token);
+        if (p % 2 == 1 && tokens.length > 1) {
+          clauses.add(new ProximityClause(tokens, true, 0));
+          lastToken = null;
+        } else if (tokens.length == 1) {
+          String token = tokens[0];
+          if (nearWindow >= 0 && lastToken != null && !token.equals(lastToken)) {
+            if (near != null && near.window == nearWindow) {
+              // Extend the chain, unless it already has this token
+              if (!Arrays.asList(near.tokens).contains(token)) {
+                near.tokens = Arrays.copyOf(near.tokens, near.tokens.length + 1);
+                near.tokens[near.tokens.length - 1] = token;
+              }
+            } else {
+              near = new ProximityClause(new String[]{lastToken, token}, false, nearWindow);
+              clauses.add(near);
+            }
+          } else
+            near = null;
+          lastToken = token;
+        } else {
+          lastToken = null;
+          near = null;
+        }
+        nearWindow = -1;
+      }
+    }
+  }
+
+  /**
+   * The tokens of a string, in order.
+   */
+  protected static String[] tokenize(String string, boolean stem) {
+    List<String> tokens = new ArrayList<String>();
+    Document doc = new TextStringDocument(string, stem);
+    while (doc.hasMoreTokens())
+      tokens.add(doc.nextToken());
+    return tokens.toArray(new String[tokens.size()]);
+  }
+
+  /**
+   * The clauses and tokens of the query
+   */
+  public String toString() {
+    List<String> tokens = new ArrayList<String>();
+    for (int i = 0; i < vector.size(); i++)
+      tokens.add(vector.token(i));
+    return clauses + " " + tokens;
+  }
+
+}
@@ -0,0 +1,84 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * A PostingsCursor over a PositionalPostingsList that can also return the
+ * positions of the token in the current document.  Positions are only
+ * decoded for the documents they are asked for; those of the documents
+ * skipped over in a block are passed over without decoding.
+ */
+
+public class PositionsCursor extends PostingsCursor {
+
+  /**
+   * The postings being traversed
+   */
+  protected PositionalPostingsList positional;
+
+  /**
+   * The offset in the position data of the positions of posting positionIndex
+   * of the current block
+   */
+  protected int positionOffset;
+
+  /**
+   * The posting in the current block whose positions start at positionOffset.
+   * (These fields are set by loadBlock, which runs before field initializers.)
+   */
+  protected int positionIndex;
+
+  /**
+   * The posting in the current block whose positions are in the positions
+   * array, or -1 if none
+   */
+  protected int decodedIndex;
+
+  /**
+   * The decoded positions of the current posting
+   */
+  protected int[] positions = new int[16];
+
+  /**
+   * Create a cursor positioned on the first posting
+   */
+  public PositionsCursor(PositionalPostingsList postings) {
+    super(postings);
+  }
+
+  /**
+   * The positions of the token in the current document, in increasing order.
+   * The array is reused for the next document, and only its first count()
+   * entries are positions.
+   */
+  public int[] positions() {
+    resolve();
+    if (decodedIndex != pos) {
+      // Skip the positions of the postings passed over since the last ones decoded
+      int skipped = 0;
+      for (int i = positionIndex; i < pos; i++)
+        skipped += counts[i];
+      positionOffset = positional.skipPositions(positionOffset, skipped);
+      if (counts[pos] > positions.length)
+        positions = new int[Math.max(counts[pos], 2 * positions.length)];
+      positionOffset = positional.decodePositions(positionOffset, positions, counts[pos]);
+      positionIndex = pos + 1;
+      decodedIndex = pos;
+    }
+    return positions;
+  }
+
+  /**
+   * Decode a block and position the cursor on its first posting
+   */
+  protected void loadBlock(int newBlock) {
+    // Called by the PostingsCursor constructor, before positional is set
+    positional = (PositionalPostingsList) postings;
+    super.loadBlock(newBlock);
+    if (block < postings.numBlocks())
+      positionOffset = positional.blockPositionOffset(block);
+    positionIndex = 0;
+    decodedIndex = -1;
+  }
+
+}
@@ -0,0 +1,159 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Compares the heap used by, and the query speed of, compressed postings
+ * (PostingsList) with the original layout of one TokenOccurrence object per
+ * posting held in an ArrayList for each token.
+ */
+
+public class PostingsBenchmark {
+
+  /**
+   * The number of times the whole query set is run for each layout
+   */
+  public static int REPETITIONS = 20;
+
+  /**
+   * Return the heap currently in use, after encouraging a full garbage collection
+   */
+  public static long usedHeap() {
+    Runtime runtime = Runtime.getRuntime();
+    for (int i = 0; i < 4; i++)
+      System.gc();
+    return runtime.totalMemory() - runtime.freeMemory();
+  }
+
+  /**
+   * Score a query against postings stored as lists of TokenOccurrences, exactly as
+   * InvertedIndex.retrieve did before postings were compressed.
+   */
+  public static Retrieval[] retrieveObjects(InvertedIndex index, Map<String, List<TokenOccurrence>> occLists,
+                                            HashMapVector vector) {
+    Map<DocumentReference, DoubleValue> retrievalHash = new HashMap<DocumentReference, DoubleValue>();
+    double queryLength = 0.0;
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = index.tokenHash.get(vector.token(i));
+      if (tokenInfo == null)
+        continue;
+      double weight = tokenInfo.idf * vector.weight(i);
+      for (TokenOccurrence occ : occLists.get(vector.token(i))) {
+        DoubleValue val = retrievalHash.get(occ.docRef);
+        if (val == null) {
+          val = new DoubleValue(0.0);
+          retrievalHash.put(occ.docRef, val);
+        }
+        val.value = val.value + weight * tokenInfo.idf * occ.count;
+      }
+      queryLength = queryLength + weight * weight;
+    }
+    queryLength = Math.sqrt(queryLength);
+    Retrieval[] retrievals = new Retrieval[retrievalHash.size()];
+    int retrievalCount = 0;
+    for (Map.Entry<DocumentReference, DoubleValue> entry : retrievalHash.entrySet()) {
+      DocumentReference docRef = entry.getKey();
+      retrievals[retrievalCount++] = new Retrieval(docRef, entry.getValue().value / (queryLength * docRef.length));
+    }
+    Arrays.sort(retrievals);
+    return retrievals;
+  }
+
+  /**
+   * Read the queries from a query file in the format used by ir.eval.Experiment
+   * (a query line, a line of relevant documents, and a blank line).
+   */
+  public static List<HashMapVector> readQueries(File queryFile, boolean stem) throws IOException {
+    List<HashMapVector> queries = new ArrayList<HashMapVector>();
+    for (String query : readQueryStrings(queryFile))
+      queries.add(new TextStringDocument(query, stem).hashMapVector());
+    return queries;
+  }
+
+  /**
+   * Read the text of the queries in a query file in the format used by ir.eval.Experiment.
+   */
+  public static List<String> readQueryStrings(File queryFile) throws IOException {
+    List<String> queries = new ArrayList<String>();
+    BufferedReader in = new BufferedReader(new FileReader(queryFile));
+    String query;
+    while ((query = in.readLine()) != null) {
+      queries.add(query);
+      in.readLine();
+      in.readLine();
+    }
+    in.close();
+    return queries;
+  }
+
+  /**
+   * Command format: "PostingsBenchmark [OPTION]* [DIR] [QUERIES]" where DIR is the
+   * directory of documents to index and QUERIES is a query file in the format used by
+   * ir.eval.Experiment.  OPTIONs can be "-html", "-stem" and "-codec NAME" as for InvertedIndex.
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 2];
+    File queryFile = new File(args[args.length - 1]);
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    PostingsCodec codec = PostingsCodec.VBYTE;
+    for (int i = 0; i < args.length - 2; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-codec"))
+        codec = PostingsCodec.forName(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index = new InvertedIndex(new File(dirName), docType, stem, false, 1, codec);
+    List<HashMapVector> queries = readQueries(queryFile, stem);
+
+    // Heap for the compressed postings, counted from the arrays they hold
+    long postingsCount = 0;
+    long compressedBytes = 0;
+    for (TokenInfo tokenInfo : index.tokenHash.values()) {
+      PostingsList postings = tokenInfo.postings;
+      postingsCount += postings.size();
+      // Object headers plus the data array and the three per-block arrays
+      compressedBytes += 48 + 16 + postings.compressedSize() + 3 * (16 + 4L * postings.numBlocks());
+    }
+    // Heap for the same postings as lists of TokenOccurrences, measured
+    long before = usedHeap();
+    Map<String, List<TokenOccurrence>> occLists = new HashMap<String, List<TokenOccurrence>>();
+    for (Map.Entry<String, TokenInfo> entry : index.tokenHash.entrySet())
+      occLists.put(entry.getKey(), entry.getValue().postings.occurrences(index.docRefs));
+    long objectBytes = usedHeap() - before;
+
+    // Time both layouts, alternating runs to even out JIT and GC effects
+    long compressedTime = 0;
+    long objectTime = 0;
+    long checksum = 0;
+    for (int rep = 0; rep < REPETITIONS; rep++) {
+      long start = System.nanoTime();
+      for (HashMapVector query : queries)
+        checksum += index.retrieve(query).length;
+      compressedTime += System.nanoTime() - start;
+      start = System.nanoTime();
+      for (HashMapVector query : queries)
+        checksum -= retrieveObjects(index, occLists, query).length;
+      objectTime += System.nanoTime() - start;
+    }
+    if (checksum != 0)
+      System.out.println("Layouts retrieved different numbers of documents!");
+    long numQueries = (long) REPETITIONS * queries.size();
+    System.out.println("\nPostings: " + postingsCount + " for " + index.size() + " tokens");
+    System.out.println("Compressed (" + codec + ") postings: " + compressedBytes / 1024 + " KB, " +
+        MoreMath.roundTo((double) compressedBytes / postingsCount, 2) + " bytes/posting, " +
+        MoreMath.roundTo(compressedTime / 1000.0 / numQueries, 1) + " us/query");
+    System.out.println("TokenOccurrence postings:  " + objectBytes / 1024 + " KB, " +
+        MoreMath.roundTo((double) objectBytes / postingsCount, 2) + " bytes/posting, " +
+        MoreMath.roundTo(objectTime / 1000.0 / numQueries, 1) + " us/query");
+  }
+
+}
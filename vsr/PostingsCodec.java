@@ -0,0 +1,81 @@
+package ir.vsr;
+
+/**
+ * A method of compressing a block of small non-negative integers, such as
+ * the gaps between document numbers or the occurrence counts in a block of
+ * a PostingsList, into bytes.
+ */
+
+public abstract class PostingsCodec {
+
+  /**
+   * Variable-byte coding, 7 bits of value per byte
+   */
+  public static final PostingsCodec VBYTE = new VByteCodec();
+
+  /**
+   * Patched frame-of-reference (PForDelta) coding
+   */
+  public static final PostingsCodec PFOR = new PForDeltaCodec();
+
+  /**
+   * Encode the first n values into out starting at offset.
+   *
+   * @return The offset just past the encoded bytes.
+   */
+  public abstract int encode(int[] values, int n, byte[] out, int offset);
+
+  /**
+   * Decode n values encoded starting at offset in bytes into values.
+   *
+   * @return The offset just past the encoded bytes.
+   */
+  public abstract int decode(byte[] bytes, int offset, int[] values, int n);
+
+  /**
+   * The largest number of bytes encode could use for n values.
+   */
+  public int maxEncodedSize(int n) {
+    return 5 * n;
+  }
+
+  /**
+   * Return the codec with the given name: "vbyte" or "pfor".
+   */
+  public static PostingsCodec forName(String name) {
+    if (name.equals("vbyte"))
+      return VBYTE;
+    else if (name.equals("pfor"))
+      return PFOR;
+    else
+      throw new IllegalArgumentException("Unknown postings codec: " + name);
+  }
+
+  /**
+   * Write a single value in variable-byte form.
+   *
+   * @return The offset just past the written bytes.
+   */
+  public static int writeVByte(int value, byte[] out, int offset) {
+    // Low 7 bits first, with the high bit set on every byte but the last
+    while ((value & ~0x7F) != 0) {
+      out[offset++] = (byte) ((value & 0x7F) | 0x80);
+      value = value >>> 7;
+    }
+    out[offset++] = (byte) value;
+    return offset;
+  }
+
+  /**
+   * The number of bytes writeVByte uses for a value
+   */
+  public static int vByteSize(int value) {
+    int size = 1;
+    while ((value & ~0x7F) != 0) {
+      value = value >>> 7;
+      size++;
+    }
+    return size;
+  }
+
+}
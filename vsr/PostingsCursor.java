@@ -0,0 +1,226 @@
+package ir.vsr;
+
+/**
+ * Steps through a PostingsList one posting at a time in increasing order of
+ * document ID, decoding one block at a time.  Used for document-at-a-time
+ * query evaluation, where a cursor can be advanced to a target document
+ * without decoding the blocks that lie entirely before it.
+ * <p/>
+ * A cursor can also be moved "shallowly", to the block that would hold a
+ * target document without decoding that block.  Until the cursor is
+ * resolved, doc() is then only a lower bound on its true document, which is
+ * enough to decide that the document cannot make the top k and move on.
+ */
+
+public class PostingsCursor {
+
+  /**
+   * The document ID of a cursor that has passed its last posting
+   */
+  public static final int END = Integer.MAX_VALUE;
+
+  /**
+   * The postings being traversed
+   */
+  protected PostingsList postings;
+
+  /**
+   * The number of the current block
+   */
+  protected int block = -1;
+
+  /**
+   * Whether the current block has been decoded and doc is exact
+   */
+  protected boolean decoded = false;
+
+  /**
+   * The decoded documents and counts of the current block
+   */
+  protected int[] docs = new int[PostingsList.BLOCK_SIZE];
+  protected int[] counts = new int[PostingsList.BLOCK_SIZE];
+
+  /**
+   * The number of postings in the current block
+   */
+  protected int blockSize = 0;
+
+  /**
+   * The position of the current posting in the current block
+   */
+  protected int pos = 0;
+
+  /**
+   * The document ID of the current posting, or END; only a lower bound
+   * on it if the current block is not decoded
+   */
+  protected int doc = -1;
+
+  /**
+   * Create a cursor positioned on the first posting
+   */
+  public PostingsCursor(PostingsList postings) {
+    this.postings = postings;
+    loadBlock(0);
+  }
+
+  /**
+   * The document ID of the current posting, or END once all are passed.
+   * After shallowAdvance, only a lower bound until resolve is called.
+   */
+  public int doc() {
+    return doc;
+  }
+
+  /**
+   * The occurrence count of the current posting
+   */
+  public int count() {
+    resolve();
+    return counts[pos];
+  }
+
+  /**
+   * Move to the next posting
+   */
+  public void next() {
+    resolve();
+    if (++pos < blockSize)
+      doc = docs[pos];
+    else
+      loadBlock(block + 1);
+  }
+
+  /**
+   * Move to the first posting whose document ID is at least target.
+   * Blocks that end before target are skipped without being decoded.
+   */
+  public void advance(int target) {
+    shallowAdvance(target);
+    resolve();
+  }
+
+  /**
+   * Move to the block that would hold the first posting whose document ID is
+   * at least target, without decoding it unless it is the current block.
+   * Afterwards doc() is target, or END if every posting is before target.
+   */
+  public void shallowAdvance(int target) {
+    if (doc >= target)
+      return;
+    int next = blockContaining(target);
+    if (next == block && decoded) {
+      // The target is in the block already decoded
+      pos = search(pos, target);
+      doc = docs[pos];
+    } else if (next < postings.numBlocks()) {
+      block = next;
+      decoded = false;
+      doc = target;
+    } else
+      loadBlock(next);
+  }
+
+  /**
+   * Decode the current block if needed, so doc() is exact
+   */
+  public void resolve() {
+    if (decoded)
+      return;
+    int target = doc;
+    loadBlock(block);
+    pos = search(pos, target);
+    doc = docs[pos];
+  }
+
+  /**
+   * The position in the decoded block, from position from on, of the first
+   * posting whose document ID is at least target, which the block must hold.
+   * Gallops ahead in steps that double until it passes target, then binary
+   * searches the last step, so short moves stay cheap and long ones take
+   * logarithmic time.
+   */
+  protected int search(int from, int target) {
+    if (docs[from] >= target)
+      return from;
+    // Invariant: docs[low] < target <= docs[high]
+    int low = from;
+    int high = Math.min(from + 1, blockSize - 1);
+    int step = 1;
+    while (high < blockSize - 1 && docs[high] < target) {
+      low = high;
+      step = 2 * step;
+      high = Math.min(low + step, blockSize - 1);
+    }
+    while (high - low > 1) {
+      int mid = (low + high) >>> 1;
+      if (docs[mid] < target)
+        low = mid;
+      else
+        high = mid;
+    }
+    return high;
+  }
+
+  /**
+   * The number of the block the cursor is in
+   */
+  public int block() {
+    return block;
+  }
+
+  /**
+   * The number of the block that would hold target, found from the blocks'
+   * last documents without moving the cursor or decoding anything.  Returns
+   * the number of blocks if every posting is before target.  Gallops
+   * through the blocks like search, so skipping far ahead is logarithmic
+   * in the number of blocks skipped.
+   */
+  public int blockContaining(int target) {
+    int numBlocks = postings.numBlocks();
+    if (block >= numBlocks || postings.blockLastDoc(block) >= target)
+      return block;
+    // Invariant: block low ends before target, and block high ends at or after it or is past the last
+    int low = block;
+    int high = low + 1;
+    int step = 1;
+    while (high < numBlocks && postings.blockLastDoc(high) < target) {
+      low = high;
+      step = 2 * step;
+      high = low + step;
+    }
+    high = Math.min(high, numBlocks);
+    while (high - low > 1) {
+      int mid = (low + high) >>> 1;
+      if (postings.blockLastDoc(mid) < target)
+        low = mid;
+      else
+        high = mid;
+    }
+    return high;
+  }
+
+  /**
+   * The postings being traversed
+   */
+  public PostingsList postings() {
+    return postings;
+  }
+
+  /**
+   * Decode a block and position the cursor on its first posting
+   */
+  protected void loadBlock(int newBlock) {
+    block = newBlock;
+    pos = 0;
+    decoded = true;
+    if (block < postings.numBlocks()) {
+      blockSize = postings.decodeBlock(block, docs, counts);
+      doc = docs[0];
+    } else {
+      blockSize = 0;
+      doc = END;
+    }
+  }
+
+}
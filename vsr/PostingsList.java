@@ -0,0 +1,370 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * The postings for a token in an inverted index: the numbers of the
+ * documents it occurs in (their positions in the index's list of documents)
+ * and its occurrence count in each, in increasing document order.
+ * <p/>
+ * Postings are stored compressed in blocks of BLOCK_SIZE.  Within a block
+ * each document number is stored as the gap from the previous one and each
+ * count as count-1, both compressed with a PostingsCodec.  Every block also
+ * records its last document number, so blocks can be decoded independently
+ * and skipped without decoding.  Once document lengths are known, each
+ * block can also be given the largest impact (IDF times count over document
+ * length) of its postings, so query evaluation can skip blocks whose
+ * documents cannot score highly enough.  The most recently added postings
+ * are kept uncompressed until there are enough of them to fill a block.
+ * <p/>
+ * How postings are added depends on what else they store, so this class
+ * only reads them: a CountPostingsList adds postings from their counts
+ * alone and a PositionalPostingsList adds them with their positions.
+ */
+
+public abstract class PostingsList {
+
+  /**
+   * The number of postings in a full block
+   */
+  public static final int BLOCK_SIZE = 128;
+
+  /**
+   * The codec used to compress the blocks
+   */
+  protected PostingsCodec codec;
+
+  /**
+   * The compressed blocks, one after another
+   */
+  protected byte[] data = null;
+  /**
+   * The number of bytes of data in use
+   */
+  protected int dataSize = 0;
+
+  /**
+   * The offset in data where each block starts
+   */
+  protected int[] blockOffsets = null;
+  /**
+   * The last document number in each block
+   */
+  protected int[] blockLastDocs = null;
+  /**
+   * The number of postings in each block
+   */
+  protected int[] blockSizes = null;
+  /**
+   * The largest impact of any posting in each block, if computed
+   */
+  protected double[] blockMaxImpacts = null;
+  /**
+   * The number of compressed blocks
+   */
+  protected int numBlocks = 0;
+
+  /**
+   * Document numbers of postings added but not yet compressed into a block
+   */
+  protected int[] pendingDocs = null;
+  /**
+   * Counts of postings added but not yet compressed into a block
+   */
+  protected int[] pendingCounts = null;
+  /**
+   * The number of postings not yet compressed
+   */
+  protected int numPending = 0;
+
+  /**
+   * The total number of postings
+   */
+  protected int size = 0;
+
+  /**
+   * The last document number added
+   */
+  protected int lastDoc = -1;
+
+  /**
+   * Create an empty postings list compressed with the given codec
+   */
+  protected PostingsList(PostingsCodec codec) {
+    this.codec = codec;
+  }
+
+  /**
+   * Create a postings list from already compressed blocks, as read from an index file
+   */
+  protected PostingsList(PostingsCodec codec, byte[] data, int[] blockOffsets, int[] blockLastDocs,
+                         int[] blockSizes, int size) {
+    this(codec, data, data.length, blockOffsets, blockLastDocs, blockSizes, size);
+  }
+
+  /**
+   * Create a postings list from dataSize bytes of already compressed blocks,
+   * which are held in data or, if it is null, elsewhere by a subclass
+   */
+  protected PostingsList(PostingsCodec codec, byte[] data, int dataSize, int[] blockOffsets,
+                         int[] blockLastDocs, int[] blockSizes, int size) {
+    this.codec = codec;
+    this.data = data;
+    this.dataSize = dataSize;
+    this.blockOffsets = blockOffsets;
+    this.blockLastDocs = blockLastDocs;
+    this.blockSizes = blockSizes;
+    this.numBlocks = blockOffsets.length;
+    this.size = size;
+    this.lastDoc = numBlocks == 0 ? -1 : blockLastDocs[numBlocks - 1];
+  }
+
+  /**
+   * The total number of postings, i.e. the document frequency of the token
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The number of bytes used by the compressed blocks
+   */
+  public int compressedSize() {
+    return dataSize;
+  }
+
+  /**
+   * An estimate of the bytes of memory taken by this list, counting the
+   * capacity of its arrays, as used to bound the memory of indexing (see
+   * SPIMIIndexer)
+   */
+  public long memorySize() {
+    long bytes = 64;
+    if (data != null)
+      bytes = bytes + 16 + data.length;
+    if (blockOffsets != null)
+      bytes = bytes + 3 * (16 + 4L * blockOffsets.length);
+    if (blockMaxImpacts != null)
+      bytes = bytes + 16 + 8L * blockMaxImpacts.length;
+    if (pendingDocs != null)
+      bytes = bytes + 2 * (16 + 4L * pendingDocs.length);
+    return bytes;
+  }
+
+  /**
+   * The codec compressing these postings
+   */
+  public PostingsCodec codec() {
+    return codec;
+  }
+
+  /**
+   * Add a posting for a document after all those already in the list.
+   * Subclasses add whatever else they store about the posting.
+   *
+   * @param doc   The number of the document, which must be greater than the last one added.
+   * @param count The number of times the token occurs in the document.
+   */
+  protected void addPosting(int doc, int count) {
+    if (doc <= lastDoc)
+      throw new IllegalArgumentException("Postings must be added in increasing document order: " +
+          doc + " after " + lastDoc);
+    if (pendingDocs == null) {
+      // Most tokens occur in few documents, so start small
+      pendingDocs = new int[4];
+      pendingCounts = new int[4];
+    } else if (numPending == pendingDocs.length) {
+      pendingDocs = Arrays.copyOf(pendingDocs, Math.min(2 * numPending, BLOCK_SIZE));
+      pendingCounts = Arrays.copyOf(pendingCounts, pendingDocs.length);
+    }
+    pendingDocs[numPending] = doc;
+    pendingCounts[numPending] = count;
+    numPending++;
+    size++;
+    lastDoc = doc;
+    if (numPending == BLOCK_SIZE)
+      flushPending();
+  }
+
+  /**
+   * Add all the postings of another list, renumbering its documents by adding docOffset.
+   */
+  public abstract void addAll(PostingsList other, int docOffset);
+
+  /**
+   * Return a new, finished list of the postings whose documents are not deleted.
+   *
+   * @param docRefs The documents of the index, by document number.
+   */
+  public abstract PostingsList withoutDeleted(List<DocumentReference> docRefs);
+
+  /**
+   * Compress any remaining postings and trim the storage to its final size.
+   * Call once no more postings will be added for a while; adding more
+   * afterwards is still allowed.
+   */
+  public void finish() {
+    if (numPending > 0)
+      flushPending();
+    pendingDocs = null;
+    pendingCounts = null;
+    if (data != null && data.length > dataSize)
+      data = Arrays.copyOf(data, dataSize);
+    if (blockOffsets != null && blockOffsets.length > numBlocks) {
+      blockOffsets = Arrays.copyOf(blockOffsets, numBlocks);
+      blockLastDocs = Arrays.copyOf(blockLastDocs, numBlocks);
+      blockSizes = Arrays.copyOf(blockSizes, numBlocks);
+    }
+  }
+
+  /**
+   * Compress the pending postings into a new block
+   */
+  protected void flushPending() {
+    if (blockOffsets == null) {
+      blockOffsets = new int[1];
+      blockLastDocs = new int[1];
+      blockSizes = new int[1];
+      data = new byte[16];
+    } else if (numBlocks == blockOffsets.length) {
+      blockOffsets = Arrays.copyOf(blockOffsets, 2 * numBlocks);
+      blockLastDocs = Arrays.copyOf(blockLastDocs, 2 * numBlocks);
+      blockSizes = Arrays.copyOf(blockSizes, 2 * numBlocks);
+    }
+    int needed = dataSize + 2 * codec.maxEncodedSize(numPending);
+    if (needed > data.length)
+      data = Arrays.copyOf(data, Math.max(needed, 2 * data.length));
+    // Turn document numbers into gaps and counts into count-1 (both >= 0)
+    int previous = numBlocks == 0 ? -1 : blockLastDocs[numBlocks - 1];
+    for (int i = 0; i < numPending; i++) {
+      int doc = pendingDocs[i];
+      pendingDocs[i] = doc - previous - 1;
+      previous = doc;
+      pendingCounts[i] = pendingCounts[i] - 1;
+    }
+    blockOffsets[numBlocks] = dataSize;
+    blockLastDocs[numBlocks] = previous;
+    blockSizes[numBlocks] = numPending;
+    dataSize = codec.encode(pendingDocs, numPending, data, dataSize);
+    dataSize = codec.encode(pendingCounts, numPending, data, dataSize);
+    numBlocks++;
+    numPending = 0;
+  }
+
+  /**
+   * The number of blocks, counting postings not yet compressed as a final block
+   */
+  public int numBlocks() {
+    return numPending > 0 ? numBlocks + 1 : numBlocks;
+  }
+
+  /**
+   * Decode a block of postings.
+   *
+   * @param block  The number of the block.
+   * @param docs   Receives the document numbers; must have room for BLOCK_SIZE values.
+   * @param counts Receives the occurrence counts; must have room for BLOCK_SIZE values.
+   * @return The number of postings in the block.
+   */
+  public int decodeBlock(int block, int[] docs, int[] counts) {
+    if (block == numBlocks) {
+      // The uncompressed postings at the end
+      System.arraycopy(pendingDocs, 0, docs, 0, numPending);
+      System.arraycopy(pendingCounts, 0, counts, 0, numPending);
+      return numPending;
+    }
+    int n = blockSizes[block];
+    int offset = codec.decode(data, blockOffsets[block], docs, n);
+    codec.decode(data, offset, counts, n);
+    undoGaps(block, docs, counts, n);
+    return n;
+  }
+
+  /**
+   * Turn the decoded gaps of a block back into document numbers, and the
+   * decoded counts (if not null) back into counts.
+   */
+  protected void undoGaps(int block, int[] docs, int[] counts, int n) {
+    int doc = block == 0 ? -1 : blockLastDocs[block - 1];
+    if (counts == null) {
+      for (int i = 0; i < n; i++) {
+        doc = doc + docs[i] + 1;
+        docs[i] = doc;
+      }
+      return;
+    }
+    for (int i = 0; i < n; i++) {
+      doc = doc + docs[i] + 1;
+      docs[i] = doc;
+      counts[i] = counts[i] + 1;
+    }
+  }
+
+  /**
+   * Decode just the document numbers of a block of postings, leaving the
+   * occurrence counts after them undecoded.
+   *
+   * @param block The number of the block.
+   * @param docs  Receives the document numbers; must have room for BLOCK_SIZE values.
+   * @return The number of postings in the block.
+   */
+  public int decodeBlockDocs(int block, int[] docs) {
+    if (block == numBlocks) {
+      System.arraycopy(pendingDocs, 0, docs, 0, numPending);
+      return numPending;
+    }
+    int n = blockSizes[block];
+    codec.decode(data, blockOffsets[block], docs, n);
+    undoGaps(block, docs, null, n);
+    return n;
+  }
+
+  /**
+   * Write the compressed blocks to a stream
+   */
+  protected void writeData(DataOutputStream out) throws IOException {
+    out.write(data, 0, dataSize);
+  }
+
+  /**
+   * The last document number in a block
+   */
+  public int blockLastDoc(int block) {
+    return block == numBlocks ? lastDoc : blockLastDocs[block];
+  }
+
+  /**
+   * The largest impact of any posting in a block, or positive infinity
+   * if it has not been computed for the block.
+   */
+  public double blockMaxImpact(int block) {
+    if (blockMaxImpacts == null || block >= blockMaxImpacts.length)
+      return Double.POSITIVE_INFINITY;
+    return blockMaxImpacts[block];
+  }
+
+  /**
+   * Set the largest impact of the postings in each block
+   */
+  public void setBlockMaxImpacts(double[] blockMaxImpacts) {
+    this.blockMaxImpacts = blockMaxImpacts;
+  }
+
+  /**
+   * Return the postings as a list of TokenOccurrence's pointing to the
+   * corresponding documents in docRefs.  Mainly useful for printing.
+   */
+  public List<TokenOccurrence> occurrences(List<DocumentReference> docRefs) {
+    List<TokenOccurrence> occList = new ArrayList<TokenOccurrence>(size);
+    int[] docs = new int[BLOCK_SIZE];
+    int[] counts = new int[BLOCK_SIZE];
+    for (int block = 0; block < numBlocks(); block++) {
+      int n = decodeBlock(block, docs, counts);
+      for (int i = 0; i < n; i++)
+        occList.add(new TokenOccurrence(docRefs.get(docs[i]), counts[i]));
+    }
+    return occList;
+  }
+
+}
@@ -0,0 +1,100 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * A condition on where tokens occur in a document, answered from the
+ * positions stored in a positional index.  Either an exact phrase, whose
+ * tokens must occur at consecutive positions in order, or a NEAR group,
+ * whose tokens must all occur within a window of a given width, in any
+ * order.  Positions count only the tokens left after stopword removal, so a
+ * phrase matches whatever stopwords come between its words.
+ */
+
+public class ProximityClause {
+
+  /**
+   * The tokens of the clause, in order for a phrase
+   */
+  public String[] tokens;
+
+  /**
+   * Whether the clause is a phrase, rather than a NEAR group
+   */
+  public boolean phrase;
+
+  /**
+   * The most the positions of the tokens may differ by
+   */
+  public int window;
+
+  /**
+   * Create a clause over these tokens.
+   *
+   * @param tokens The tokens of the clause, in order for a phrase.
+   * @param phrase Whether the tokens must occur at consecutive positions in order.
+   * @param window For a NEAR group, the most the positions of its tokens may differ by.
+   */
+  public ProximityClause(String[] tokens, boolean phrase, int window) {
+    this.tokens = tokens;
+    this.phrase = phrase;
+    this.window = phrase ? tokens.length - 1 : window;
+  }
+
+  /**
+   * Whether the tokens occur where the clause requires.
+   *
+   * @param positions    The positions of each token of the clause in a document, in increasing order.
+   * @param numPositions The number of positions of each token.
+   */
+  public boolean matches(int[][] positions, int[] numPositions) {
+    if (phrase)
+      return matchesPhrase(positions, numPositions);
+    return InvertedProxIndex.minSpan(positions, numPositions) <= window;
+  }
+
+  /**
+   * Whether the tokens occur at consecutive positions in order.  The position
+   * lists are merged in one pass, trying each position of the rarest token as
+   * the place of that token in the phrase.
+   */
+  protected boolean matchesPhrase(int[][] positions, int[] numPositions) {
+    int anchor = 0;
+    for (int i = 1; i < tokens.length; i++) {
+      if (numPositions[i] < numPositions[anchor])
+        anchor = i;
+    }
+    // The index of the next position of each token to compare
+    int[] next = new int[tokens.length];
+    for (int k = 0; k < numPositions[anchor]; k++) {
+      int start = positions[anchor][k] - anchor;
+      boolean found = true;
+      for (int i = 0; i < tokens.length && found; i++) {
+        int target = start + i;
+        while (next[i] < numPositions[i] && positions[i][next[i]] < target)
+          next[i]++;
+        if (next[i] == numPositions[i])
+          // Every later start would need a later position of this token
+          return false;
+        found = positions[i][next[i]] == target;
+      }
+      if (found)
+        return true;
+    }
+    return false;
+  }
+
+  /**
+   * The clause in query syntax
+   */
+  public String toString() {
+    StringBuilder string = new StringBuilder();
+    for (String token : tokens) {
+      if (string.length() > 0)
+        string.append(phrase ? " " : " NEAR/" + window + " ");
+      string.append(token);
+    }
+    return phrase ? "\"" + string + "\"" : string.toString();
+  }
+
+}
@@ -0,0 +1,369 @@
+package ir.vsr;
+
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Document-at-a-time evaluation of a query against an InvertedIndex that
+ * returns the top k documents while skipping documents that can never make
+ * the top k.  Each query token has an upper bound on the score it can add to
+ * any document, computed from the token's maxImpact (the largest IDF times
+ * occurrence count over document length of any of its postings).  Two pruning
+ * strategies are provided:
+ * <ul>
+ * <li> WAND (Broder et al.) sorts the postings cursors by their current
+ * document and only fully scores a document once the upper bounds of the
+ * cursors up to it could beat the current k'th best score; the cursors
+ * before it jump straight to it.
+ * <li> MaxScore (Turtle and Flood) splits the tokens into "essential" ones
+ * and "non-essential" ones whose upper bounds together cannot beat the k'th
+ * best score, only considers documents from the essential postings, and
+ * stops checking the non-essential postings as soon as a document's bound
+ * falls below the k'th best score.
+ * <li> Block-Max WAND (Ding and Suel) finds a pivot as WAND does, then
+ * checks it against the maxImpacts of just the postings blocks that would
+ * hold it, and jumps past the end of the first of those blocks if even
+ * they cannot beat the k'th best score.  Cursors are only moved shallowly
+ * until a document passes this check, so skipped blocks are never decoded.
+ * Short queries with very frequent tokens have loose per-token bounds but
+ * much tighter per-block ones.
+ * </ul>
+ * All return exactly the same top k as exhaustive term-at-a-time retrieval,
+ * since a document's score is summed over the query tokens in the same order
+ * and finished with the index's getScore.  Not safe for use by more than one
+ * thread at a time.
+ */
+
+public class PruningEvaluator {
+
+  /**
+   * Relative margin added to upper bounds to allow for rounding in the scores
+   */
+  public static final double SLACK = 1e-9;
+
+  /**
+   * The index searched
+   */
+  protected InvertedIndex index;
+
+  /**
+   * The number of query tokens that occur in the index
+   */
+  protected int numTokens = 0;
+
+  /**
+   * A cursor over the postings of each query token, in the order of the query vector
+   */
+  protected PostingsCursor[] cursors;
+
+  /**
+   * The factor multiplying the occurrence count of each query token in a
+   * document's partial score (its weight in the query times its IDF)
+   */
+  protected double[] factors;
+
+  /**
+   * The factor turning an impact of each query token into an upper bound on
+   * the final score it can add (its weight in the query over the query length)
+   */
+  protected double[] impactFactors;
+
+  /**
+   * The upper bound on the final score each query token can add to a document
+   */
+  protected double[] upperBounds;
+
+  /**
+   * The length of the query vector
+   */
+  protected double queryLength = 0.0;
+
+  /**
+   * The largest amount the index's getScore may add beyond the normalized score
+   */
+  protected double maxBoost;
+
+  /**
+   * The normalized score a document must reach to possibly enter the top k:
+   * the k'th best score so far less maxBoost
+   */
+  protected double threshold = Double.NEGATIVE_INFINITY;
+
+  /**
+   * The number of documents whose score was fully computed, for measuring pruning
+   */
+  public int numScored = 0;
+
+  /**
+   * Prepare to evaluate a query vector against an index.
+   */
+  public PruningEvaluator(InvertedIndex index, HashMapVector vector) {
+    this.index = index;
+    cursors = new PostingsCursor[vector.size()];
+    factors = new double[vector.size()];
+    double[] weights = new double[vector.size()];
+    TokenInfo[] tokenInfos = new TokenInfo[vector.size()];
+    // Iterate through each token in the query in the same order as InvertedIndex.retrieve
+    for (int i = 0; i < vector.size(); i++) {
+      TokenInfo tokenInfo = index.tokenHash.get(vector.token(i));
+      // A token not in the index or with no IDF adds nothing to any score
+      if (tokenInfo == null || tokenInfo.idf == 0.0)
+        continue;
+      double weight = tokenInfo.idf * vector.weight(i);
+      queryLength = queryLength + weight * weight;
+      weights[numTokens] = weight;
+      tokenInfos[numTokens] = tokenInfo;
+      factors[numTokens] = weight * tokenInfo.idf;
+      cursors[numTokens] = new PostingsCursor(tokenInfo.postings);
+      numTokens++;
+    }
+    queryLength = Math.sqrt(queryLength);
+    impactFactors = new double[numTokens];
+    upperBounds = new double[numTokens];
+    for (int i = 0; i < numTokens; i++) {
+      // A token with a negative weight can only lower a score.  If the query
+      // length is 0 scores are undefined, and the threshold is never raised.
+      if (queryLength > 0.0)
+        impactFactors[i] = Math.max(0.0, weights[i] / queryLength);
+      upperBounds[i] = impactFactors[i] * tokenInfos[i].maxImpact;
+    }
+    maxBoost = index.maxScoreBoost();
+  }
+
+  /**
+   * Return the top k documents using WAND pruning.
+   */
+  public Retrieval[] wand(int k) {
+    RetrievalHeap heap = new RetrievalHeap(Math.min(k, index.docRefs.size()));
+    threshold = heap.threshold() - maxBoost;
+    // The query tokens in increasing order of the current document of their cursor
+    int[] order = new int[numTokens];
+    for (int i = 0; i < numTokens; i++)
+      order[i] = i;
+    while (true) {
+      sortByDocument(order);
+      // Find the first cursor at which the upper bounds so far could enter the top k
+      double bound = 0.0;
+      int pivot = -1;
+      for (int p = 0; p < numTokens; p++) {
+        if (cursors[order[p]].doc() == PostingsCursor.END)
+          break;
+        bound = bound + upperBounds[order[p]];
+        if (mayEnter(bound)) {
+          pivot = p;
+          break;
+        }
+      }
+      if (pivot < 0)
+        // No remaining document can enter the top k
+        break;
+      int pivotDoc = cursors[order[pivot]].doc();
+      if (cursors[order[0]].doc() == pivotDoc) {
+        // Every cursor up to the pivot is on the pivot document, so score it
+        offer(heap, pivotDoc);
+        for (int i = 0; i < numTokens; i++) {
+          if (cursors[i].doc() == pivotDoc)
+            cursors[i].next();
+        }
+      } else {
+        // No document before the pivot document can enter the top k
+        for (int p = 0; p < pivot; p++)
+          cursors[order[p]].advance(pivotDoc);
+      }
+    }
+    return heap.toRetrievals();
+  }
+
+  /**
+   * Return the top k documents using MaxScore pruning.
+   */
+  public Retrieval[] maxScore(int k) {
+    RetrievalHeap heap = new RetrievalHeap(Math.min(k, index.docRefs.size()));
+    threshold = heap.threshold() - maxBoost;
+    // The query tokens in increasing order of upper bound
+    Integer[] sorted = new Integer[numTokens];
+    for (int i = 0; i < numTokens; i++)
+      sorted[i] = i;
+    Arrays.sort(sorted, new Comparator<Integer>() {
+      public int compare(Integer i, Integer j) {
+        return Double.compare(upperBounds[i], upperBounds[j]);
+      }
+    });
+    int[] order = new int[numTokens];
+    // cumulativeBounds[j] is the sum of the upper bounds of order[0..j]
+    double[] cumulativeBounds = new double[numTokens];
+    double bound = 0.0;
+    for (int j = 0; j < numTokens; j++) {
+      order[j] = sorted[j];
+      bound = bound + upperBounds[order[j]];
+      cumulativeBounds[j] = bound;
+    }
+    // Tokens order[0..firstEssential-1] are non-essential
+    int firstEssential = 0;
+    while (firstEssential < numTokens) {
+      // The next candidate is the smallest document of any essential token
+      int doc = PostingsCursor.END;
+      for (int j = firstEssential; j < numTokens; j++)
+        doc = Math.min(doc, cursors[order[j]].doc());
+      if (doc == PostingsCursor.END)
+        break;
+      DocumentReference docRef = index.docRefs.get(doc);
+      double normalizer = queryLength * docRef.length;
+      // Bound the document's score using the essential tokens it actually has
+      double partial = 0.0;
+      for (int j = firstEssential; j < numTokens; j++) {
+        PostingsCursor cursor = cursors[order[j]];
+        if (cursor.doc() == doc)
+          partial = partial + factors[order[j]] * cursor.count() / normalizer;
+      }
+      // Check the non-essential tokens, largest bound first, while the document can still enter
+      boolean pruned = false;
+      for (int j = firstEssential - 1; j >= 0; j--) {
+        if (!mayEnter(partial + cumulativeBounds[j])) {
+          pruned = true;
+          break;
+        }
+        PostingsCursor cursor = cursors[order[j]];
+        cursor.advance(doc);
+        if (cursor.doc() == doc)
+          partial = partial + factors[order[j]] * cursor.count() / normalizer;
+      }
+      if (!pruned)
+        offer(heap, doc);
+      for (int j = firstEssential; j < numTokens; j++) {
+        if (cursors[order[j]].doc() == doc)
+          cursors[order[j]].next();
+      }
+      // A higher threshold may make more tokens non-essential
+      while (firstEssential < numTokens && !mayEnter(cumulativeBounds[firstEssential]))
+        firstEssential++;
+    }
+    return heap.toRetrievals();
+  }
+
+  /**
+   * Return the top k documents using Block-Max WAND pruning.
+   */
+  public Retrieval[] blockMaxWand(int k) {
+    RetrievalHeap heap = new RetrievalHeap(Math.min(k, index.docRefs.size()));
+    threshold = heap.threshold() - maxBoost;
+    // The query tokens in increasing order of the current document of their cursor
+    int[] order = new int[numTokens];
+    for (int i = 0; i < numTokens; i++)
+      order[i] = i;
+    while (true) {
+      sortByDocument(order);
+      // Find the pivot exactly as WAND does
+      double bound = 0.0;
+      int pivot = -1;
+      for (int p = 0; p < numTokens; p++) {
+        if (cursors[order[p]].doc() == PostingsCursor.END)
+          break;
+        bound = bound + upperBounds[order[p]];
+        if (mayEnter(bound)) {
+          pivot = p;
+          break;
+        }
+      }
+      if (pivot < 0)
+        break;
+      int pivotDoc = cursors[order[pivot]].doc();
+      // Include the cursors after the pivot that are also on the pivot document
+      int last = pivot;
+      while (last + 1 < numTokens && cursors[order[last + 1]].doc() == pivotDoc)
+        last++;
+      // Bound the pivot document's score by the blocks that would hold it
+      double blockBound = 0.0;
+      for (int p = 0; p <= last; p++) {
+        PostingsCursor cursor = cursors[order[p]];
+        int block = cursor.blockContaining(pivotDoc);
+        if (block < cursor.postings().numBlocks() && impactFactors[order[p]] > 0.0)
+          blockBound = blockBound + impactFactors[order[p]] * cursor.postings().blockMaxImpact(block);
+      }
+      if (mayEnter(blockBound)) {
+        if (cursors[order[0]].doc() == pivotDoc) {
+          // Decode the blocks of cursors only known to be at or before their documents
+          boolean moved = false;
+          for (int p = 0; p <= last; p++) {
+            cursors[order[p]].resolve();
+            if (cursors[order[p]].doc() != pivotDoc)
+              moved = true;
+          }
+          if (moved)
+            // Not every cursor really is on the pivot document, so look again
+            continue;
+          offer(heap, pivotDoc);
+          for (int p = 0; p <= last; p++)
+            cursors[order[p]].next();
+        } else {
+          for (int p = 0; p < pivot; p++)
+            cursors[order[p]].shallowAdvance(pivotDoc);
+        }
+      } else {
+        // No document up to the end of the first of these blocks, or before the
+        // next cursor's document, can enter the top k
+        int nextDoc = last + 1 < numTokens ? cursors[order[last + 1]].doc() : PostingsCursor.END;
+        for (int p = 0; p <= last; p++) {
+          PostingsCursor cursor = cursors[order[p]];
+          int block = cursor.blockContaining(pivotDoc);
+          if (block < cursor.postings().numBlocks())
+            nextDoc = Math.min(nextDoc, cursor.postings().blockLastDoc(block) + 1);
+        }
+        for (int p = 0; p <= last; p++)
+          cursors[order[p]].shallowAdvance(nextDoc);
+      }
+    }
+    return heap.toRetrievals();
+  }
+
+  /**
+   * Compute the final score of a document all of whose query tokens' cursors are on it.
+   * Contributions are added in query vector order exactly as InvertedIndex.retrieve does.
+   */
+  protected double score(int doc) {
+    numScored++;
+    double score = 0.0;
+    for (int i = 0; i < numTokens; i++) {
+      if (cursors[i].doc() == doc)
+        score = score + factors[i] * cursors[i].count();
+    }
+    return index.getScore(queryLength, index.docRefs.get(doc), score);
+  }
+
+  /**
+   * Score a document and offer it to the heap, updating the threshold
+   */
+  protected void offer(RetrievalHeap heap, int doc) {
+    // Deleted documents keep their postings until the index's statistics are refreshed
+    if (index.docRefs.get(doc).deleted)
+      return;
+    if (heap.offer(index.docRefs.get(doc), score(doc)) && queryLength > 0.0)
+      threshold = heap.threshold() - maxBoost;
+  }
+
+  /**
+   * Whether a document whose normalized score is at most bound could enter the top k
+   */
+  protected boolean mayEnter(double bound) {
+    return bound + SLACK * (Math.abs(bound) + 1.0) >= threshold;
+  }
+
+  /**
+   * Insertion sort the token numbers by the current document of their cursors;
+   * the order changes little between steps.
+   */
+  protected void sortByDocument(int[] order) {
+    for (int i = 1; i < order.length; i++) {
+      int token = order[i];
+      int doc = cursors[token].doc();
+      int j = i - 1;
+      while (j >= 0 && cursors[order[j]].doc() > doc) {
+        order[j + 1] = order[j];
+        j--;
+      }
+      order[j + 1] = token;
+    }
+  }
+
+}
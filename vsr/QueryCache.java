@@ -0,0 +1,324 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * A cache of the retrievals for recent queries, so that a query that is
+ * asked again is answered without traversing any postings.  Queries are
+ * keyed by their vector, after tokenizing, stopword removal and stemming,
+ * so queries that differ only in case, punctuation, word order or stopwords
+ * share an entry.  The least recently used entries are evicted once the
+ * cache holds more than maxEntries queries or more than about maxBytes of
+ * retrievals.
+ * <p/>
+ * Entries are only valid for the index as it was when they were computed:
+ * as soon as the index reports a new generation (documents added or deleted,
+ * or statistics recomputed), the whole cache is cleared.
+ * <p/>
+ * Retrieval objects are copied into the cache and out of it again, so a
+ * caller may change the scores of the retrievals it gets without changing
+ * what later callers get.
+ */
+
+public class QueryCache {
+
+  /**
+   * The default limit on the memory used by cached retrievals
+   */
+  public static final long DEFAULT_MAX_BYTES = 64L << 20;
+
+  /**
+   * The estimated bytes of memory for each cached retrieval (a Retrieval
+   * object and the array slot referring to it)
+   */
+  protected static final int RETRIEVAL_BYTES = 32;
+
+  /**
+   * The estimated bytes of memory for an entry apart from its key and retrievals
+   */
+  protected static final int ENTRY_BYTES = 96;
+
+  /**
+   * The most queries kept in the cache
+   */
+  public int maxEntries;
+
+  /**
+   * The most bytes of memory the cache tries to use
+   */
+  public long maxBytes;
+
+  /**
+   * The number of queries answered from the cache
+   */
+  public long hits = 0;
+
+  /**
+   * The number of queries that had to be evaluated
+   */
+  public long misses = 0;
+
+  /**
+   * The number of entries removed to make room for others
+   */
+  public long evictions = 0;
+
+  /**
+   * The number of times the cache was cleared because the index changed
+   */
+  public long invalidations = 0;
+
+  /**
+   * The cached retrievals, from least to most recently used
+   */
+  protected LinkedHashMap<String, Retrieval[]> entries = new LinkedHashMap<String, Retrieval[]>(16, 0.75f, true);
+
+  /**
+   * The estimated bytes of memory used by the entries
+   */
+  protected long numBytes = 0;
+
+  /**
+   * The generation of the index the entries were computed for
+   */
+  protected int generation = -1;
+
+  /**
+   * Create a cache holding at most maxEntries queries and about maxBytes of retrievals
+   */
+  public QueryCache(int maxEntries, long maxBytes) {
+    this.maxEntries = maxEntries;
+    this.maxBytes = maxBytes;
+  }
+
+  /**
+   * Create a cache holding at most maxEntries queries
+   */
+  public QueryCache(int maxEntries) {
+    this(maxEntries, DEFAULT_MAX_BYTES);
+  }
+
+  /**
+   * Return the cached retrievals for a query, or null if they are not cached.
+   *
+   * @param vector     The query vector.
+   * @param k          The number of retrievals asked for, or -1 for all of them.
+   * @param generation The current generation of the index.
+   */
+  public synchronized Retrieval[] get(HashMapVector vector, int k, int generation) {
+    validate(generation);
+    Retrieval[] retrievals = entries.get(key(vector, k));
+    if (retrievals == null) {
+      misses++;
+      return null;
+    }
+    hits++;
+    return copy(retrievals);
+  }
+
+  /**
+   * Cache the retrievals for a query, evicting the least recently used
+   * queries if the cache is then too big.
+   *
+   * @param vector     The query vector.
+   * @param k          The number of retrievals asked for, or -1 for all of them.
+   * @param generation The generation of the index the retrievals came from.
+   */
+  public synchronized void put(HashMapVector vector, int k, int generation, Retrieval[] retrievals) {
+    validate(generation);
+    String key = key(vector, k);
+    long bytes = bytes(key, retrievals);
+    if (maxEntries <= 0 || bytes > maxBytes)
+      return;
+    Retrieval[] old = entries.put(key, copy(retrievals));
+    numBytes += bytes;
+    if (old != null)
+      numBytes -= bytes(key, old);
+    Iterator<Map.Entry<String, Retrieval[]>> iterator = entries.entrySet().iterator();
+    while (entries.size() > maxEntries || numBytes > maxBytes) {
+      Map.Entry<String, Retrieval[]> eldest = iterator.next();
+      numBytes -= bytes(eldest.getKey(), eldest.getValue());
+      iterator.remove();
+      evictions++;
+    }
+  }
+
+  /**
+   * Remove every entry.
+   */
+  public synchronized void clear() {
+    entries.clear();
+    numBytes = 0;
+  }
+
+  /**
+   * The number of queries cached
+   */
+  public synchronized int size() {
+    return entries.size();
+  }
+
+  /**
+   * The fraction of queries answered from the cache
+   */
+  public synchronized double hitRate() {
+    return (hits + misses == 0) ? 0.0 : (double) hits / (hits + misses);
+  }
+
+  /**
+   * Summarize the contents and effectiveness of the cache
+   */
+  public synchronized String toString() {
+    return "QueryCache: " + entries.size() + " queries, " + numBytes / 1024 + "KB, " + hits + " hits, " +
+        misses + " misses (hit rate " + MoreMath.roundTo(hitRate(), 3) + "), " + evictions + " evictions, " +
+        invalidations + " invalidations";
+  }
+
+  /**
+   * Clear the cache if its entries came from an earlier generation of the index
+   */
+  protected void validate(int generation) {
+    if (generation != this.generation) {
+      if (!entries.isEmpty())
+        invalidations++;
+      clear();
+      this.generation = generation;
+    }
+  }
+
+  /**
+   * A string identifying a query vector and the number of retrievals asked for,
+   * listing its tokens and weights in alphabetical order of token.
+   */
+  protected static String key(HashMapVector vector, int k) {
+    String[] tokens = new String[vector.size()];
+    for (int i = 0; i < tokens.length; i++)
+      tokens[i] = vector.token(i);
+    Arrays.sort(tokens);
+    StringBuilder key = new StringBuilder();
+    key.append(k);
+    for (String token : tokens)
+      key.append(' ').append(token).append(' ').append(vector.getWeight(token));
+    return key.toString();
+  }
+
+  /**
+   * A copy of an array of retrievals with a copy of each retrieval
+   */
+  protected static Retrieval[] copy(Retrieval[] retrievals) {
+    Retrieval[] copies = new Retrieval[retrievals.length];
+    for (int i = 0; i < retrievals.length; i++) {
+      copies[i] = new Retrieval(retrievals[i].docRef, retrievals[i].score);
+      copies[i].prox = retrievals[i].prox;
+    }
+    return copies;
+  }
+
+  /**
+   * The estimated bytes of memory used by an entry
+   */
+  protected static long bytes(String key, Retrieval[] retrievals) {
+    return ENTRY_BYTES + 2L * key.length() + (long) RETRIEVAL_BYTES * retrievals.length;
+  }
+
+  /**
+   * Replay a query stream in which a few queries are asked far more often than
+   * the rest, with and without a cache, and report the hit rate and time per query.
+   * Command format: "QueryCache [OPTION]* [DIR] [QUERIES]" where DIR is the
+   * directory of documents to index and QUERIES is a query file in the format used by
+   * ir.eval.Experiment.  OPTIONs can be "-html", "-stem", "-index FILE" as for
+   * InvertedIndex, "-k K" for the number of documents retrieved (default 10, 0 for all),
+   * "-entries N" for the size of the cache (default 10), "-mb MB" for the most
+   * megabytes of retrievals it holds (default 64) and "-stream N" for the number of
+   * queries in the stream (default 10000).
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 2];
+    File queryFile = new File(args[args.length - 1]);
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    File indexFile = null;
+    int k = 10;
+    int maxEntries = 10;
+    long maxBytes = DEFAULT_MAX_BYTES;
+    int streamLength = 10000;
+    for (int i = 0; i < args.length - 2; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-index"))
+        indexFile = new File(args[++i]);
+      else if (flag.equals("-k"))
+        k = Integer.parseInt(args[++i]);
+      else if (flag.equals("-entries"))
+        maxEntries = Integer.parseInt(args[++i]);
+      else if (flag.equals("-mb"))
+        maxBytes = (long) (Double.parseDouble(args[++i]) * 1048576);
+      else if (flag.equals("-stream"))
+        streamLength = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index;
+    if (indexFile != null)
+      index = InvertedIndex.loadOrBuild(indexFile, new File(dirName), docType, stem, false);
+    else
+      index = new InvertedIndex(new File(dirName), docType, stem, false);
+    List<String> queries = PostingsBenchmark.readQueryStrings(queryFile);
+    // Pick queries with probability proportional to 1/rank (Zipf's law)
+    double[] cumulative = new double[queries.size()];
+    double total = 0.0;
+    for (int i = 0; i < queries.size(); i++) {
+      total += 1.0 / (i + 1);
+      cumulative[i] = total;
+    }
+    Random random = new Random(1);
+    List<String> stream = new ArrayList<String>(streamLength);
+    for (int i = 0; i < streamLength; i++) {
+      int pick = Arrays.binarySearch(cumulative, random.nextDouble() * total);
+      stream.add(queries.get(Math.min(pick < 0 ? -pick - 1 : pick, queries.size() - 1)));
+    }
+
+    QueryCache cache = new QueryCache(maxEntries, maxBytes);
+    long[] times = new long[2];
+    String stats = null;
+    // Without and then with the cache, twice over so the second round is warmed up
+    for (int rep = 0; rep < 2; rep++) {
+      for (int cached = 0; cached < 2; cached++) {
+        index.cache = (cached == 1) ? cache : null;
+        cache.clear();
+        cache.hits = cache.misses = cache.evictions = 0;
+        long start = System.nanoTime();
+        for (String query : stream) {
+          if (k > 0)
+            index.retrieve(query, k);
+          else
+            index.retrieve(query);
+        }
+        times[cached] = System.nanoTime() - start;
+      }
+      stats = cache.toString();
+    }
+    // Check that cached retrievals are the same as evaluating the query
+    int mismatches = 0;
+    for (String query : queries) {
+      index.cache = cache;
+      Retrieval[] cachedRetrievals = (k > 0) ? index.retrieve(query, k) : index.retrieve(query);
+      index.cache = null;
+      if (!TopKBenchmark.sameRetrievals((k > 0) ? index.retrieve(query, k) : index.retrieve(query), cachedRetrievals))
+        mismatches++;
+    }
+    if (mismatches > 0)
+      System.out.println("\n" + mismatches + " cached rankings differ from evaluating the query!");
+    System.out.println("\n" + streamLength + " queries drawn from " + queries.size() + ":");
+    System.out.println("uncached: " + MoreMath.roundTo(times[0] / 1000.0 / streamLength, 1) + " us/query");
+    System.out.println("cached:   " + MoreMath.roundTo(times[1] / 1000.0 / streamLength, 1) + " us/query");
+    System.out.println(stats);
+  }
+
+}
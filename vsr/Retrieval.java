@@ -16,6 +16,12 @@ public class Retrieval implements Comparable {
    * mean it is more relevant to the query
    */
   public double score;
+  /**
+   * How far apart the query terms are in the document, as computed by
+   * InvertedProxIndex: from near 0 when they are adjacent to 1 when they are
+   * far apart or missing
+   */
+  public double prox = 1.0;
 
   /**
    * Create a retrieval with these values
@@ -0,0 +1,159 @@
+package ir.vsr;
+
+/**
+ * A bounded min-heap that keeps the k best scoring documents offered to it.
+ * Used to produce only the top k Retrievals for a query in O(n log k) time
+ * instead of sorting every matching document.  Documents are kept as plain
+ * arrays of references and scores, so a document that does not make the
+ * top k costs one comparison and no allocation.
+ * <p/>
+ * Documents with equal scores are ranked in increasing order of document ID,
+ * the same order a full ranking of retrievals listed by ID produces.
+ */
+
+public class RetrievalHeap {
+
+  /**
+   * The documents in the heap; heap[0] is the worst of them
+   */
+  protected DocumentReference[] docRefs;
+
+  /**
+   * The scores of the documents in the heap
+   */
+  protected double[] scores;
+
+  /**
+   * The number of documents in the heap
+   */
+  protected int size = 0;
+
+  /**
+   * Create a heap that keeps the best k documents
+   */
+  public RetrievalHeap(int k) {
+    docRefs = new DocumentReference[k];
+    scores = new double[k];
+  }
+
+  /**
+   * The number of documents kept so far
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * Whether the heap already holds k documents
+   */
+  public boolean isFull() {
+    return size == docRefs.length;
+  }
+
+  /**
+   * The score a document must beat to enter a full heap, negative infinity
+   * if the heap is not yet full, or positive infinity if it has no room at all.
+   */
+  public double threshold() {
+    if (docRefs.length == 0)
+      return Double.POSITIVE_INFINITY;
+    return isFull() ? scores[0] : Double.NEGATIVE_INFINITY;
+  }
+
+  /**
+   * Offer a document with its score; keep it if it is among the best k so far.
+   *
+   * @return true if the document was kept.
+   */
+  public boolean offer(DocumentReference docRef, double score) {
+    if (docRefs.length == 0)
+      return false;
+    if (!isFull()) {
+      // Add at the bottom and sift up
+      int i = size++;
+      docRefs[i] = docRef;
+      scores[i] = score;
+      siftUp(i);
+      return true;
+    }
+    if (!better(docRef, score, docRefs[0], scores[0]))
+      return false;
+    // Replace the worst document and sift down
+    docRefs[0] = docRef;
+    scores[0] = score;
+    siftDown(0);
+    return true;
+  }
+
+  /**
+   * Remove all documents, returning them as Retrievals ranked from best to worst.
+   */
+  public Retrieval[] toRetrievals() {
+    Retrieval[] retrievals = new Retrieval[size];
+    // Repeatedly take the worst remaining document and put it at the end
+    for (int i = size - 1; i >= 0; i--) {
+      retrievals[i] = new Retrieval(docRefs[0], scores[0]);
+      size--;
+      docRefs[0] = docRefs[size];
+      scores[0] = scores[size];
+      docRefs[size] = null;
+      siftDown(0);
+    }
+    return retrievals;
+  }
+
+  /**
+   * Whether document 1 ranks above document 2
+   */
+  protected static boolean better(DocumentReference docRef1, double score1,
+                                  DocumentReference docRef2, double score2) {
+    if (score1 != score2)
+      return score1 > score2;
+    return docRef1.id < docRef2.id;
+  }
+
+  /**
+   * Move the entry at i up until its parent is worse than it
+   */
+  protected void siftUp(int i) {
+    while (i > 0) {
+      int parent = (i - 1) / 2;
+      if (!better(docRefs[parent], scores[parent], docRefs[i], scores[i]))
+        break;
+      swap(i, parent);
+      i = parent;
+    }
+  }
+
+  /**
+   * Move the entry at i down until both its children are better than it
+   */
+  protected void siftDown(int i) {
+    while (true) {
+      int worst = i;
+      int left = 2 * i + 1;
+      int right = left + 1;
+      if (left < size && better(docRefs[worst], scores[worst], docRefs[left], scores[left]))
+        worst = left;
+      if (right < size && better(docRefs[worst], scores[worst], docRefs[right], scores[right]))
+        worst = right;
+      if (worst == i)
+        return;
+      swap(i, worst);
+      i = worst;
+    }
+  }
+
+  /**
+   * Exchange two entries of the heap
+   */
+  protected void swap(int i, int j) {
+    DocumentReference docRef = docRefs[i];
+    docRefs[i] = docRefs[j];
+    docRefs[j] = docRef;
+    double score = scores[i];
+    scores[i] = scores[j];
+    scores[j] = score;
+  }
+
+}
@@ -0,0 +1,497 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.channels.*;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Builds the index file (see IndexFile) of a corpus too big to index in
+ * memory, by single-pass in-memory indexing (SPIMI) with a bounded memory
+ * budget.  Documents are tokenized by an Analyzer of the indexer's own
+ * into an in-memory dictionary of compressed postings lists until their
+ * estimated size (see PostingsList.memorySize) together with that of the
+ * Analyzer's memo (see Analyzer.memorySize) reaches the budget; then the
+ * dictionary is written to disk as a run sorted by token and emptied, and
+ * the memo is reset.  Tokens are taken from the Analyzer, not from
+ * document vectors, so the current TermDictionary does not grow.  Since documents
+ * are numbered in the order they are read, the runs hold consecutive
+ * ranges of documents, so a token's postings are merged by concatenating
+ * them in run order.
+ * <p/>
+ * Once all documents are read, the runs are merged in one k-way pass into a
+ * file of merged postings, which gives each token its IDF and each document
+ * the sum of its squared weights.  A second pass over the merged postings,
+ * now that document lengths are known, computes maximum impacts and writes
+ * the final index file, with tokens in alphabetical order as InvertedIndex
+ * numbers them.  Memory beyond the budget is one merged postings list at a
+ * time, a buffer per run, and the length of every document.
+ * <p/>
+ * Only non-positional indexes are built this way.  Document lengths are
+ * summed in a different order than InvertedIndex sums them, so they may
+ * differ from those of an index built in memory by rounding error.
+ */
+
+public class SPIMIIndexer {
+
+  /**
+   * The estimated bytes of memory taken by a token in the dictionary besides
+   * its postings and its chars: the String, hash entry, etc.
+   */
+  public static final int TOKEN_OVERHEAD = 120;
+
+  /**
+   * The directory or source file of the documents to index
+   * (see DocumentIterator.forSource)
+   */
+  public File dirFile;
+
+  /**
+   * The type of Documents (text, HTML). See docType in DocumentIterator.
+   */
+  public short docType;
+
+  /**
+   * Whether tokens are stemmed with Porter stemmer
+   */
+  public boolean stem;
+
+  /**
+   * The codec used to compress postings
+   */
+  public PostingsCodec codec;
+
+  /**
+   * The most bytes of memory the dictionary of a run and the memo of the Analyzer may take
+   */
+  public long memoryBudget;
+
+  /**
+   * The number of runs written by the last build
+   */
+  public int numRuns = 0;
+
+  /**
+   * The largest estimated size in bytes of the dictionary and memo of a run in the last build
+   */
+  public long peakMemory = 0;
+
+  /**
+   * The dictionary of the run being built, from each token to its postings
+   */
+  protected Map<String, CountPostingsList> dictionary = new HashMap<String, CountPostingsList>();
+
+  /**
+   * The estimated bytes of memory taken by the dictionary
+   */
+  protected long memoryUsed = 0;
+
+  /**
+   * The Analyzer that tokenizes the documents, whose memo is counted in the
+   * budget and reset with each run
+   */
+  protected Analyzer analyzer = new Analyzer();
+
+  /**
+   * For each document, the sum of the squares of its token weights and then its length
+   */
+  protected double[] lengths = null;
+
+  /**
+   * Create an indexer for the documents in a directory or source file.
+   *
+   * @param dirFile      The directory of files (or source file of documents) to index.
+   * @param docType      The type of documents to index (See docType in DocumentIterator)
+   * @param stem         Whether tokens should be stemmed with Porter stemmer.
+   * @param codec        The codec used to compress postings.
+   * @param memoryBudget The most bytes of memory the postings of a run and the memo of the
+   *                     Analyzer may take.
+   */
+  public SPIMIIndexer(File dirFile, short docType, boolean stem, PostingsCodec codec, long memoryBudget) {
+    this.dirFile = dirFile;
+    this.docType = docType;
+    this.stem = stem;
+    this.codec = codec;
+    this.memoryBudget = memoryBudget;
+  }
+
+  /**
+   * Index the documents and write the index to an index file.  The runs
+   * and other intermediate files are kept in a directory next to the index
+   * file, which is deleted when done.
+   */
+  public void build(File indexFile) throws IOException {
+    File tempDir = new File(indexFile.getPath() + ".runs");
+    if (!tempDir.isDirectory() && !tempDir.mkdirs())
+      throw new IOException("Could not create directory for runs: " + tempDir);
+    File docsFile = new File(tempDir, "docs");
+    File mergedFile = new File(tempDir, "merged");
+    List<File> runFiles = new ArrayList<File>();
+    numRuns = 0;
+    peakMemory = 0;
+    try {
+      System.out.println("Indexing documents in " + dirFile + " with a budget of " +
+          memoryBudget / 1048576 + "MB");
+      int numDocs = invert(docsFile, tempDir, runFiles);
+      lengths = new double[numDocs];
+      int numTerms = merge(runFiles, mergedFile, numDocs);
+      for (File runFile : runFiles)
+        runFile.delete();
+      for (int doc = 0; doc < numDocs; doc++)
+        lengths[doc] = Math.sqrt(lengths[doc]);
+      write(indexFile, docsFile, mergedFile, numDocs, numTerms);
+      System.out.println("Indexed " + numDocs + " documents with " + numTerms + " unique terms in " +
+          numRuns + " runs.");
+    }
+    finally {
+      for (File runFile : runFiles)
+        runFile.delete();
+      docsFile.delete();
+      mergedFile.delete();
+      tempDir.delete();
+      dictionary = new HashMap<String, CountPostingsList>();
+      memoryUsed = 0;
+      analyzer.reset();
+    }
+  }
+
+  /**
+   * Tokenize every document, writing its file to the documents file and its
+   * postings to the dictionary, and write a run whenever the dictionary and
+   * the memo of the Analyzer fill the budget.
+   *
+   * @return The number of documents.
+   */
+  protected int invert(File docsFile, File tempDir, List<File> runFiles) throws IOException {
+    DocumentIterator docIter = DocumentIterator.forSource(dirFile, docType, stem);
+    int doc = 0;
+    try {
+      DataOutputStream docsOut = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(docsFile), 1 << 16));
+      try {
+        while (docIter.hasMoreDocuments()) {
+          FileDocument fileDoc = docIter.nextDocument();
+          IndexFile.writeString(docsOut, fileDoc.file.getPath());
+          fileDoc.analyze(analyzer);
+          for (int i = 0; i < analyzer.numTerms(); i++) {
+            String token = analyzer.term(analyzer.termId(i));
+            CountPostingsList postings = dictionary.get(token);
+            if (postings == null) {
+              postings = new CountPostingsList(codec);
+              dictionary.put(token, postings);
+              memoryUsed = memoryUsed + TOKEN_OVERHEAD + token.length();
+            }
+            long before = postings.memorySize();
+            postings.add(doc, analyzer.count(i));
+            memoryUsed = memoryUsed + postings.memorySize() - before;
+          }
+          doc++;
+          if (memoryUsed + analyzer.memorySize() >= memoryBudget)
+            runFiles.add(writeRun(tempDir));
+        }
+        if (!dictionary.isEmpty())
+          runFiles.add(writeRun(tempDir));
+      }
+      finally {
+        docsOut.close();
+      }
+    }
+    finally {
+      docIter.close();
+    }
+    return doc;
+  }
+
+  /**
+   * Write the dictionary to a new run file, sorted by token, and empty it
+   * and the memo of the Analyzer.
+   *
+   * @return The run file.
+   */
+  protected File writeRun(File tempDir) throws IOException {
+    memoryUsed = memoryUsed + analyzer.memorySize();
+    peakMemory = Math.max(peakMemory, memoryUsed);
+    File runFile = new File(tempDir, "run" + numRuns);
+    numRuns++;
+    List<String> tokens = new ArrayList<String>(dictionary.keySet());
+    Collections.sort(tokens);
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(runFile), 1 << 16));
+    try {
+      out.writeInt(tokens.size());
+      for (String token : tokens) {
+        PostingsList postings = dictionary.get(token);
+        IndexFile.writeString(out, token);
+        IndexFile.writePostings(out, postings);
+      }
+    }
+    finally {
+      out.close();
+    }
+    System.out.println("Wrote run " + runFile.getName() + " of " + tokens.size() + " tokens (" +
+        memoryUsed / 1024 + "KB in memory)");
+    dictionary = new HashMap<String, CountPostingsList>();
+    memoryUsed = 0;
+    analyzer.reset();
+    return runFile;
+  }
+
+  /**
+   * Merge the runs into one file of each token, its IDF and its postings, in
+   * alphabetical order, summing the squared token weights of each document
+   * in lengths.
+   *
+   * @return The number of tokens.
+   */
+  protected int merge(List<File> runFiles, File mergedFile, int numDocs) throws IOException {
+    // The runs in order of their next token, and then of their documents
+    PriorityQueue<Run> queue = new PriorityQueue<Run>();
+    for (int i = 0; i < runFiles.size(); i++) {
+      Run run = new Run(runFiles.get(i), i, codec);
+      if (run.next())
+        queue.add(run);
+    }
+    int[] docs = new int[PostingsList.BLOCK_SIZE];
+    int[] counts = new int[PostingsList.BLOCK_SIZE];
+    int numTerms = 0;
+    DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(mergedFile), 1 << 16));
+    try {
+      while (!queue.isEmpty()) {
+        Run run = queue.poll();
+        String token = run.token;
+        PostingsList postings = run.postings;
+        // Runs hold consecutive ranges of documents, so later runs just add to the end
+        while (!queue.isEmpty() && queue.peek().token.equals(token)) {
+          Run other = queue.poll();
+          if (postings == run.postings) {
+            PostingsList first = postings;
+            postings = new CountPostingsList(codec);
+            postings.addAll(first, 0);
+          }
+          postings.addAll(other.postings, 0);
+          if (other.next())
+            queue.add(other);
+        }
+        if (run.next())
+          queue.add(run);
+        postings.finish();
+        double idf = Math.log((double) numDocs / postings.size());
+        if (idf != 0.0) {
+          for (int block = 0; block < postings.numBlocks(); block++) {
+            int n = postings.decodeBlock(block, docs, counts);
+            for (int i = 0; i < n; i++)
+              lengths[docs[i]] = lengths[docs[i]] + Math.pow(idf * counts[i], 2);
+          }
+        }
+        IndexFile.writeString(out, token);
+        out.writeDouble(idf);
+        IndexFile.writePostings(out, postings);
+        numTerms++;
+      }
+    }
+    finally {
+      out.close();
+      for (Run run : queue)
+        run.close();
+    }
+    return numTerms;
+  }
+
+  /**
+   * Write the final index file from the documents file, the merged postings
+   * and the document lengths, computing the maximum impacts of each token
+   * and of each block of its postings.
+   */
+  protected void write(File indexFile, File docsFile, File mergedFile, int numDocs, int numTerms)
+      throws IOException {
+    int[] docs = new int[PostingsList.BLOCK_SIZE];
+    int[] counts = new int[PostingsList.BLOCK_SIZE];
+    try (FileChannel channel = FileChannel.open(indexFile.toPath(), StandardOpenOption.CREATE,
+        StandardOpenOption.TRUNCATE_EXISTING, StandardOpenOption.WRITE)) {
+      DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Channels.newOutputStream(channel), 1 << 16));
+      out.write(new byte[IndexFile.headerSize(dirFile, codec)]);
+      // Offsets are taken from the channel, since DataOutputStream counts bytes in an int
+      out.flush();
+      long docsOffset = channel.position();
+      DataInputStream docsIn = new DataInputStream(new BufferedInputStream(new FileInputStream(docsFile), 1 << 16));
+      try {
+        for (int doc = 0; doc < numDocs; doc++)
+          IndexFile.writeDocument(out, new File(IndexFile.readString(docsIn)), lengths[doc], false);
+      }
+      finally {
+        docsIn.close();
+      }
+      out.flush();
+      long termsOffset = channel.position();
+      DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(mergedFile), 1 << 16));
+      try {
+        for (int i = 0; i < numTerms; i++) {
+          String token = IndexFile.readString(in);
+          double idf = in.readDouble();
+          PostingsList postings = IndexFile.readPostings(in, codec);
+          // As in InvertedIndex.computeMaxImpacts
+          double maxImpact = 0.0;
+          double[] blockMaxImpacts = new double[postings.numBlocks()];
+          for (int block = 0; block < postings.numBlocks(); block++) {
+            int n = postings.decodeBlock(block, docs, counts);
+            double blockMaxImpact = 0.0;
+            for (int j = 0; j < n; j++)
+              blockMaxImpact = Math.max(blockMaxImpact, idf * counts[j] / lengths[docs[j]]);
+            blockMaxImpacts[block] = blockMaxImpact;
+            maxImpact = Math.max(maxImpact, blockMaxImpact);
+          }
+          postings.setBlockMaxImpacts(blockMaxImpacts);
+          IndexFile.writeTerm(out, token, idf, maxImpact, postings);
+        }
+      }
+      finally {
+        in.close();
+      }
+      out.flush();
+      IndexFile.writeHeader(channel, dirFile, codec, docType, stem, false, numDocs, numTerms,
+          docsOffset, termsOffset, 0);
+    }
+  }
+
+  /**
+   * A run being read by the merge, positioned at one of its tokens
+   */
+  protected static class Run implements Comparable<Run> {
+
+    /**
+     * The order of the run, which is also the order of its documents
+     */
+    protected int number;
+
+    /**
+     * The stream of the run file
+     */
+    protected DataInputStream in;
+
+    /**
+     * The codec of its postings
+     */
+    protected PostingsCodec codec;
+
+    /**
+     * The number of tokens not yet read
+     */
+    protected int remaining;
+
+    /**
+     * The current token and its postings
+     */
+    protected String token = null;
+    protected PostingsList postings = null;
+
+    /**
+     * Open a run file, before its first token
+     */
+    protected Run(File runFile, int number, PostingsCodec codec) throws IOException {
+      this.number = number;
+      this.codec = codec;
+      in = new DataInputStream(new BufferedInputStream(new FileInputStream(runFile), 1 << 16));
+      remaining = in.readInt();
+    }
+
+    /**
+     * Move to the next token, returning false (and closing the file) if there are none left
+     */
+    protected boolean next() throws IOException {
+      if (remaining == 0) {
+        close();
+        return false;
+      }
+      remaining--;
+      token = IndexFile.readString(in);
+      postings = IndexFile.readPostings(in, codec);
+      return true;
+    }
+
+    /**
+     * Close the run file
+     */
+    protected void close() throws IOException {
+      in.close();
+    }
+
+    /**
+     * Order runs by their current token, and then by run number
+     */
+    public int compareTo(Run other) {
+      int order = token.compareTo(other.token);
+      return order != 0 ? order : Integer.compare(number, other.number);
+    }
+
+  }
+
+  /**
+   * Build an index file with a memory budget and report the time taken and the runs written.
+   * Command format: "SPIMIIndexer [OPTION]* [DIR] [INDEXFILE]" where DIR is the directory
+   * or source file of documents (see DocumentIterator.forSource) and INDEXFILE is the index
+   * file to write.  OPTIONs can be "-html" and "-stem" as for InvertedIndex, "-codec NAME"
+   * for the postings codec and "-budget MB" for the memory budget (default a quarter of
+   * the maximum heap) and "-check QUERYFILE" to then load the index and run the queries
+   * in QUERYFILE against it, reporting the heap used, which shows that an index larger
+   * than the heap can be loaded and searched.  Load the result with
+   * "InvertedIndex -index INDEXFILE".
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 2];
+    File indexFile = new File(args[args.length - 1]);
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    PostingsCodec codec = PostingsCodec.VBYTE;
+    long memoryBudget = Runtime.getRuntime().maxMemory() / 4;
+    File queryFile = null;
+    for (int i = 0; i < args.length - 2; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-codec"))
+        codec = PostingsCodec.forName(args[++i]);
+      else if (flag.equals("-budget"))
+        memoryBudget = (long) (Double.parseDouble(args[++i]) * 1048576);
+      else if (flag.equals("-check"))
+        queryFile = new File(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    SPIMIIndexer indexer = new SPIMIIndexer(new File(dirName), docType, stem, codec, memoryBudget);
+    long start = System.nanoTime();
+    indexer.build(indexFile);
+    double seconds = (System.nanoTime() - start) / 1e9;
+    Runtime runtime = Runtime.getRuntime();
+    System.out.println("Built " + indexFile + " (" + indexFile.length() / 1024 + "KB) in " +
+        MoreMath.roundTo(seconds, 2) + " sec with " + indexer.numRuns + " runs; largest run " +
+        indexer.peakMemory / 1024 + "KB, maximum heap " + runtime.maxMemory() / 1048576 + "MB");
+    if (queryFile != null)
+      check(indexFile, queryFile, stem);
+  }
+
+  /**
+   * Load an index file and run the queries in a query file against it, reporting the
+   * heap used by the loaded index and the average time per query.
+   */
+  public static void check(File indexFile, File queryFile, boolean stem) throws IOException {
+    Runtime runtime = Runtime.getRuntime();
+    System.gc();
+    long heapBefore = runtime.totalMemory() - runtime.freeMemory();
+    InvertedIndex index = InvertedIndex.load(indexFile);
+    System.gc();
+    long heapUsed = runtime.totalMemory() - runtime.freeMemory() - heapBefore;
+    List<HashMapVector> queries = PostingsBenchmark.readQueries(queryFile, stem);
+    int numRetrieved = 0;
+    long start = System.nanoTime();
+    for (HashMapVector query : queries)
+      numRetrieved = numRetrieved + index.retrieve(query, 10).length;
+    double seconds = (System.nanoTime() - start) / 1e9;
+    System.out.println("Index file " + indexFile.length() / 1048576 + "MB loaded in " +
+        heapUsed / 1048576 + "MB of heap (maximum " + runtime.maxMemory() / 1048576 + "MB); " +
+        queries.size() + " queries retrieved " + numRetrieved + " documents in " +
+        MoreMath.roundTo(1000 * seconds / Math.max(queries.size(), 1), 3) + " ms/query");
+  }
+
+}
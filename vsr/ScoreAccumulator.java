@@ -0,0 +1,197 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * Reusable storage for the partial retrieval scores of documents while a
+ * query is evaluated, indexed directly by document ID.  Replaces a HashMap
+ * from DocumentReference to DoubleValue, so adding a posting's contribution
+ * is an array update with no hashing or allocation.
+ * <p/>
+ * Instead of clearing the whole array between queries, each slot is stamped
+ * with the number of the query that last touched it; a slot with an old
+ * stamp counts as zero.  The documents touched by the current query are
+ * also listed so the results can be collected without scanning every slot.
+ * Scores from quantized impacts (see ImpactList) are summed exactly in a
+ * separate array of longs.
+ * Not safe for use by more than one thread at a time.
+ */
+
+public class ScoreAccumulator {
+
+  /**
+   * The partial score of each document for the current query
+   */
+  protected double[] scores;
+
+  /**
+   * The sum of integer products of quantized impacts and query weights of
+   * each document for the current query, or null until impacts are added
+   */
+  protected long[] impactScores = null;
+
+  /**
+   * The query during which each document's score was last set
+   */
+  protected int[] stamps;
+
+  /**
+   * The number of the current query
+   */
+  protected int currentStamp = 1;
+
+  /**
+   * The IDs of the documents touched by the current query
+   */
+  protected int[] touched;
+
+  /**
+   * The number of documents touched by the current query
+   */
+  protected int numTouched = 0;
+
+  /**
+   * Buffers for decoding a block of postings
+   */
+  protected int[] docs = new int[PostingsList.BLOCK_SIZE];
+  protected int[] counts = new int[PostingsList.BLOCK_SIZE];
+
+  /**
+   * Create an accumulator for an index of numDocs documents
+   */
+  public ScoreAccumulator(int numDocs) {
+    scores = new double[numDocs];
+    stamps = new int[numDocs];
+    touched = new int[numDocs];
+  }
+
+  /**
+   * The number of documents this accumulator has room for
+   */
+  public int capacity() {
+    return scores.length;
+  }
+
+  /**
+   * Forget all scores, ready for a new query
+   */
+  public void clear() {
+    numTouched = 0;
+    currentStamp++;
+    if (currentStamp == Integer.MAX_VALUE) {
+      // Stamps are about to wrap around, so really clear them
+      Arrays.fill(stamps, 0);
+      currentStamp = 1;
+    }
+  }
+
+  /**
+   * Add to the score of a document
+   */
+  public void add(int doc, double amount) {
+    // The first contribution to a document for the current query starts from 0
+    touch(doc);
+    scores[doc] = scores[doc] + amount;
+  }
+
+  /**
+   * Set the score of a document
+   */
+  public void set(int doc, double score) {
+    add(doc, 0.0);
+    scores[doc] = score;
+  }
+
+  /**
+   * For every posting, add factor times its count to the score of its document.
+   */
+  public void addPostings(PostingsList postings, double factor) {
+    for (int block = 0; block < postings.numBlocks(); block++) {
+      int n = postings.decodeBlock(block, docs, counts);
+      for (int i = 0; i < n; i++)
+        add(docs[i], factor * counts[i]);
+    }
+  }
+
+  /**
+   * For every posting, add factor times its quantized impact to the impact
+   * score of its document, with integer arithmetic.
+   */
+  public void addImpacts(PostingsList postings, ImpactList impacts, long factor) {
+    if (impactScores == null)
+      impactScores = new long[scores.length];
+    int p = 0;
+    for (int block = 0; block < postings.numBlocks(); block++) {
+      // Impacts take the place of counts, so only documents are decoded
+      int n = postings.decodeBlockDocs(block, docs);
+      // Test the width of the impacts once a block rather than once a posting
+      if (impacts.bits == 8) {
+        byte[] bytes = impacts.bytes;
+        for (int i = 0; i < n; i++) {
+          int doc = touch(docs[i]);
+          impactScores[doc] = impactScores[doc] + factor * (bytes[p + i] & 0xff);
+        }
+      } else {
+        short[] shorts = impacts.shorts;
+        for (int i = 0; i < n; i++) {
+          int doc = touch(docs[i]);
+          impactScores[doc] = impactScores[doc] + factor * (shorts[p + i] & 0xffff);
+        }
+      }
+      p = p + n;
+    }
+  }
+
+  /**
+   * Give a document a score of 0 if the current query has not touched it yet
+   *
+   * @return The document.
+   */
+  protected int touch(int doc) {
+    if (stamps[doc] != currentStamp) {
+      stamps[doc] = currentStamp;
+      scores[doc] = 0.0;
+      if (impactScores != null)
+        impactScores[doc] = 0;
+      touched[numTouched++] = doc;
+    }
+    return doc;
+  }
+
+  /**
+   * The current impact score of a document
+   */
+  public long impactScore(int doc) {
+    return impactScores != null && stamps[doc] == currentStamp ? impactScores[doc] : 0;
+  }
+
+  /**
+   * The current score of a document
+   */
+  public double score(int doc) {
+    return stamps[doc] == currentStamp ? scores[doc] : 0.0;
+  }
+
+  /**
+   * The number of documents with a score for the current query
+   */
+  public int numTouched() {
+    return numTouched;
+  }
+
+  /**
+   * The ID of the i'th document with a score; after sortTouched, in increasing order.
+   */
+  public int touched(int i) {
+    return touched[i];
+  }
+
+  /**
+   * Put the touched documents in increasing order of ID, so that documents
+   * with equal scores are ranked the same way every time.
+   */
+  public void sortTouched() {
+    Arrays.sort(touched, 0, numTouched);
+  }
+
+}
@@ -0,0 +1,232 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+/**
+ * One segment of a SegmentedIndex: an InvertedIndex over part of the corpus
+ * whose IDF factors, and therefore document lengths, come from the statistics
+ * of the whole SegmentedIndex rather than just its own documents.  So a
+ * segment scores its documents exactly as one index over the whole corpus
+ * would, except for the query length, which only counts the query tokens
+ * that occur in the segment.
+ * <p/>
+ * Once written to disk, a segment never changes except for deletions, which
+ * just mark documents deleted and are saved to a small sidecar file next to
+ * the segment file.  Their postings are dropped when the segment is merged.
+ */
+
+public class Segment extends InvertedIndex {
+
+  /**
+   * The index this segment belongs to
+   */
+  public SegmentedIndex parent;
+
+  /**
+   * The file this segment is stored in, or null if it is still in memory only
+   */
+  public File file = null;
+
+  /**
+   * Whether documents have been deleted since the sidecar file of deletions was written
+   */
+  public boolean deletesChanged = false;
+
+  /**
+   * For a segment built by merge, the document each of its documents was copied from
+   */
+  protected DocumentReference[] origins = null;
+
+  /**
+   * Create an empty segment of the given index.
+   */
+  public Segment(SegmentedIndex parent) {
+    super();
+    this.parent = parent;
+    docType = parent.docType;
+    stem = parent.stem;
+    codec = parent.codec;
+    pruning = parent.pruning;
+    // Statistics are refreshed by the parent over all of its segments
+    refreshFraction = Double.POSITIVE_INFINITY;
+  }
+
+  /**
+   * Load a segment from its file, along with any deletions saved for it.
+   */
+  public static Segment read(SegmentedIndex parent, File file) throws IOException {
+    Segment segment = new Segment(parent);
+    IndexFile.read(file, segment);
+    segment.file = file;
+    File deletesFile = deletesFile(file);
+    if (deletesFile.exists()) {
+      try (DataInputStream in = new DataInputStream(new BufferedInputStream(new FileInputStream(deletesFile)))) {
+        int numDeletes = in.readInt();
+        for (int i = 0; i < numDeletes; i++) {
+          DocumentReference docRef = segment.docRefs.get(in.readInt());
+          if (!docRef.deleted) {
+            docRef.deleted = true;
+            segment.numDeleted++;
+          }
+        }
+      }
+    }
+    return segment;
+  }
+
+  /**
+   * The sidecar file listing the deleted documents of a segment file
+   */
+  public static File deletesFile(File file) {
+    String name = file.getName();
+    return new File(file.getParentFile(), name.substring(0, name.lastIndexOf('.')) + ".del");
+  }
+
+  /**
+   * Save the IDs of the deleted documents to the sidecar file of deletions,
+   * writing a temporary file first so a crash never leaves a partial one.
+   */
+  public void writeDeletes() throws IOException {
+    File deletesFile = deletesFile(file);
+    File tempFile = new File(deletesFile.getPath() + ".tmp");
+    try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(tempFile)))) {
+      out.writeInt(numDeleted);
+      for (DocumentReference docRef : docRefs) {
+        if (docRef.deleted)
+          out.writeInt(docRef.id);
+      }
+    }
+    SegmentedIndex.replace(tempFile, deletesFile);
+    deletesChanged = false;
+  }
+
+  /**
+   * Build a new segment holding the live documents of the given segments, in
+   * order, with the postings of deleted documents dropped.  Only reads the
+   * sources, so it can run while they are being searched.
+   */
+  public static Segment merge(SegmentedIndex parent, List<Segment> sources) {
+    Segment merged = new Segment(parent);
+    // Number the live documents consecutively across the sources
+    List<int[]> newIds = new ArrayList<int[]>();
+    List<DocumentReference> origins = new ArrayList<DocumentReference>();
+    for (Segment source : sources) {
+      int[] ids = new int[source.docRefs.size()];
+      for (DocumentReference docRef : source.docRefs) {
+        if (docRef.deleted)
+          ids[docRef.id] = -1;
+        else {
+          DocumentReference copy = new DocumentReference(docRef.file, docRef.length);
+          copy.id = ids[docRef.id] = merged.docRefs.size();
+          merged.docRefs.add(copy);
+          origins.add(docRef);
+        }
+      }
+      newIds.add(ids);
+    }
+    merged.origins = origins.toArray(new DocumentReference[origins.size()]);
+    // Append each source's live postings, which keeps every list in increasing order of ID
+    int[] docs = new int[PostingsList.BLOCK_SIZE];
+    int[] counts = new int[PostingsList.BLOCK_SIZE];
+    for (int s = 0; s < sources.size(); s++) {
+      int[] ids = newIds.get(s);
+      for (Map.Entry<String, TokenInfo> entry : sources.get(s).tokenHash.entrySet()) {
+        PostingsList postings = entry.getValue().postings;
+        TokenInfo tokenInfo = null;
+        for (int block = 0; block < postings.numBlocks(); block++) {
+          int n = postings.decodeBlock(block, docs, counts);
+          for (int i = 0; i < n; i++) {
+            if (ids[docs[i]] < 0)
+              continue;
+            if (tokenInfo == null) {
+              tokenInfo = merged.tokenHash.get(entry.getKey());
+              if (tokenInfo == null) {
+                tokenInfo = new TokenInfo(merged.codec);
+                tokenInfo.idf = entry.getValue().idf;
+                merged.tokenHash.put(entry.getKey(), tokenInfo);
+              }
+            }
+            ((CountPostingsList) tokenInfo.postings).add(ids[docs[i]], counts[i]);
+          }
+        }
+      }
+    }
+    for (TokenInfo tokenInfo : merged.tokenHash.values())
+      tokenInfo.postings.finish();
+    merged.computeMaxImpacts();
+    merged.assignTermIds();
+    return merged;
+  }
+
+  /**
+   * The number of documents in this segment that have not been deleted
+   */
+  public int numLiveDocs() {
+    return docRefs.size() - numDeleted;
+  }
+
+  /**
+   * Add to docFreqs the number of live documents each token of this segment occurs in.
+   */
+  public void addDocFreqs(Map<String, Integer> docFreqs) {
+    int[] docs = new int[PostingsList.BLOCK_SIZE];
+    int[] counts = new int[PostingsList.BLOCK_SIZE];
+    for (Map.Entry<String, TokenInfo> entry : tokenHash.entrySet()) {
+      PostingsList postings = entry.getValue().postings;
+      int docFreq = postings.size();
+      if (numDeleted > 0) {
+        // Postings of deleted documents stay until the segment is merged
+        docFreq = 0;
+        for (int block = 0; block < postings.numBlocks(); block++) {
+          int n = postings.decodeBlock(block, docs, counts);
+          for (int i = 0; i < n; i++) {
+            if (!docRefs.get(docs[i]).deleted)
+              docFreq++;
+          }
+        }
+      }
+      if (docFreq > 0)
+        docFreqs.merge(entry.getKey(), docFreq, Integer::sum);
+    }
+  }
+
+  /**
+   * Give every token the IDF factor in the given map (0 if it has none, since
+   * it then only occurs in deleted documents) and recompute document lengths.
+   */
+  public void applyIdfs(Map<String, Double> idfs) {
+    for (Map.Entry<String, TokenInfo> entry : tokenHash.entrySet()) {
+      Double idf = idfs.get(entry.getKey());
+      entry.getValue().idf = (idf == null) ? 0.0 : idf;
+    }
+    computeDocumentLengths();
+  }
+
+  /**
+   * Compress the last postings and compute everything needed to search and
+   * save this segment once no more documents will be added to it.
+   */
+  public void finish() {
+    if (numPurged < numDeleted)
+      purgeDeletedPostings();
+    for (TokenInfo tokenInfo : tokenHash.values())
+      tokenInfo.postings.finish();
+    computeDocumentLengths();
+  }
+
+  /**
+   * A token new to this segment gets the IDF factor it has over the whole
+   * index, and a token new to the whole index gets one from its current size.
+   */
+  protected double newTokenIdf(String token) {
+    return parent.newTokenIdf(token);
+  }
+
+  /**
+   * Statistics are only refreshed by the parent index.
+   */
+  protected void refreshIfNeeded() {
+  }
+
+}
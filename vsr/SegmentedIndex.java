@@ -0,0 +1,625 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.file.*;
+import java.util.*;
+import java.util.concurrent.*;
+
+import ir.utilities.*;
+
+/**
+ * An index for a corpus that keeps growing, such as the directory a Spider
+ * saves pages into, organized like a log-structured merge tree.  New documents
+ * go into a small in-memory Segment, which is written to disk as an immutable
+ * segment file once it holds maxBufferedDocs documents.  A background thread
+ * merges segments of about the same size, mergeFactor at a time, so there are
+ * only ever a logarithmic number of segments of each size to search.  Deleting
+ * a document just marks it deleted; its postings are dropped when its segment
+ * is merged.
+ * <p/>
+ * Every segment uses the IDF factors of the whole corpus, kept up to date as
+ * in InvertedIndex by refreshing them once enough documents have changed, and
+ * a query is run on every segment with the scores rescaled to use the length
+ * of the query over the whole corpus.  So retrieval gives the same scores as
+ * one InvertedIndex of all the live documents.
+ * <p/>
+ * The segments making up the index are listed in a manifest file in the
+ * segment directory, which is only replaced once the segments it lists are
+ * completely written, so the index can be reopened after a crash.
+ */
+
+public class SegmentedIndex {
+
+  /**
+   * The name of the manifest file listing the segments of the index
+   */
+  public static final String MANIFEST = "segments.txt";
+
+  /**
+   * The directory holding the segment files and manifest
+   */
+  public File segmentDir;
+
+  /**
+   * The type of Documents (text or HTML). See docType in DocumentIterator.
+   */
+  public short docType = DocumentIterator.TYPE_TEXT;
+
+  /**
+   * Whether tokens should be stemmed with Porter stemmer
+   */
+  public boolean stem = false;
+
+  /**
+   * The codec used to compress postings
+   */
+  public PostingsCodec codec = PostingsCodec.VBYTE;
+
+  /**
+   * How each segment finds its top k documents (see the PRUNING constants in InvertedIndex)
+   */
+  public short pruning = InvertedIndex.PRUNING_MAXSCORE;
+
+  /**
+   * The number of documents the in-memory segment holds before it is written to disk
+   */
+  public int maxBufferedDocs = 1000;
+
+  /**
+   * The number of segments of about the same size that are merged into one
+   */
+  public int mergeFactor = 10;
+
+  /**
+   * The fraction of the live documents that must have been added or deleted
+   * since statistics were computed before a query refreshes them
+   */
+  public double refreshFraction = 0.1;
+
+  /**
+   * The segment new documents are added to
+   */
+  protected Segment buffer;
+
+  /**
+   * The segments written to disk, oldest first
+   */
+  protected List<Segment> segments = new ArrayList<Segment>();
+
+  /**
+   * The segment holding the live document for each indexed file
+   */
+  protected Map<File, Segment> segmentOf = new HashMap<File, Segment>();
+
+  /**
+   * The IDF factor of every token over the whole index
+   */
+  protected Map<String, Double> idfs = new HashMap<String, Double>();
+
+  /**
+   * The number of documents added or deleted since statistics were computed
+   */
+  protected int numChanges = 0;
+
+  /**
+   * Incremented every time statistics are computed, so a merge can tell
+   * whether the segments it copied were given new IDF factors meanwhile
+   */
+  protected int statsVersion = 0;
+
+  /**
+   * The number in the name of the next segment file
+   */
+  protected int nextSegment = 0;
+
+  /**
+   * The segments being merged in the background
+   */
+  protected Set<Segment> merging = new HashSet<Segment>();
+
+  /**
+   * Whether the index has been closed, after which no more merges are started
+   */
+  protected boolean closed = false;
+
+  /**
+   * The thread that merges segments
+   */
+  protected ExecutorService merger = Executors.newSingleThreadExecutor(new ThreadFactory() {
+    public Thread newThread(Runnable runnable) {
+      Thread thread = new Thread(runnable, "SegmentedIndex merger");
+      thread.setDaemon(true);
+      return thread;
+    }
+  });
+
+  /**
+   * Open the index stored in segmentDir, creating an empty one if there is none.
+   *
+   * @param segmentDir The directory holding the segments of the index.
+   * @param docType    The type of documents to index (See docType in DocumentIterator)
+   * @param stem       Whether tokens should be stemmed with Porter stemmer.
+   */
+  public SegmentedIndex(File segmentDir, short docType, boolean stem) throws IOException {
+    this.segmentDir = segmentDir;
+    this.docType = docType;
+    this.stem = stem;
+    if (!segmentDir.exists() && !segmentDir.mkdirs())
+      throw new IOException("Failed to create directory " + segmentDir);
+    buffer = new Segment(this);
+    File manifest = new File(segmentDir, MANIFEST);
+    Set<String> names = new HashSet<String>();
+    if (manifest.exists()) {
+      try (BufferedReader in = new BufferedReader(new FileReader(manifest))) {
+        String name;
+        while ((name = in.readLine()) != null) {
+          if (name.isEmpty())
+            continue;
+          Segment segment = Segment.read(this, new File(segmentDir, name));
+          segments.add(segment);
+          for (DocumentReference docRef : segment.docRefs) {
+            if (!docRef.deleted)
+              segmentOf.put(docRef.file, segment);
+          }
+          names.add(name);
+        }
+      }
+    }
+    // Remove files left by flushes and merges that never made it into the manifest
+    for (File file : segmentDir.listFiles()) {
+      String name = file.getName();
+      if (!name.startsWith("segment-"))
+        continue;
+      nextSegment = Math.max(nextSegment, segmentNumber(name) + 1);
+      String idxName = name.substring(0, name.indexOf('.')) + ".idx";
+      if (!names.contains(idxName))
+        file.delete();
+    }
+    refreshStatistics();
+  }
+
+  /**
+   * The number in the name of a segment file ("segment-N.idx" or "segment-N.del")
+   */
+  protected static int segmentNumber(String name) {
+    return Integer.parseInt(name.substring("segment-".length(), name.indexOf('.')));
+  }
+
+  /**
+   * Add a document file to the index.
+   *
+   * @return The reference to the newly indexed document.
+   */
+  public synchronized DocumentReference addDocument(File file) throws IOException {
+    if (segmentOf.containsKey(file))
+      throw new IllegalArgumentException("Document already indexed, use updateDocument: " + file);
+    DocumentReference docRef = buffer.addDocument(file);
+    segmentOf.put(file, buffer);
+    numChanges++;
+    if (buffer.docRefs.size() >= maxBufferedDocs)
+      flush();
+    return docRef;
+  }
+
+  /**
+   * Replace the indexed version of a document file with its current contents.
+   *
+   * @return The reference to the newly indexed document.
+   */
+  public synchronized DocumentReference updateDocument(File file) throws IOException {
+    deleteDocument(file);
+    return addDocument(file);
+  }
+
+  /**
+   * Delete a document file from the index.
+   *
+   * @return true if the file was indexed.
+   */
+  public synchronized boolean deleteDocument(File file) {
+    Segment segment = segmentOf.remove(file);
+    if (segment == null)
+      return false;
+    segment.deleteDocument(file);
+    if (segment != buffer)
+      segment.deletesChanged = true;
+    numChanges++;
+    return true;
+  }
+
+  /**
+   * Add every file in a directory that is not already indexed.
+   *
+   * @return The number of files added.
+   */
+  public synchronized int addNewFiles(File dirFile) throws IOException {
+    File[] files = dirFile.listFiles();
+    if (files == null)
+      return 0;
+    Arrays.sort(files);
+    int numAdded = 0;
+    for (File file : files) {
+      if (file.isFile() && !segmentOf.containsKey(file)) {
+        addDocument(file);
+        numAdded++;
+      }
+    }
+    return numAdded;
+  }
+
+  /**
+   * Whether a file is indexed
+   */
+  public synchronized boolean contains(File file) {
+    return segmentOf.containsKey(file);
+  }
+
+  /**
+   * The IDF factor of a token over the whole index, for a segment adding a
+   * document with it.  A token new to the index gets the IDF of a token
+   * occurring in one document until statistics are next refreshed.
+   */
+  protected double newTokenIdf(String token) {
+    Double idf = idfs.get(token);
+    if (idf == null) {
+      idf = Math.log(numLiveDocs());
+      idfs.put(token, idf);
+    }
+    return idf;
+  }
+
+  /**
+   * Write the in-memory segment to disk, if it holds any documents, and start
+   * a merge if there are now enough segments of the same size.
+   */
+  public synchronized void flush() throws IOException {
+    if (buffer.docRefs.isEmpty())
+      return;
+    Segment segment = buffer;
+    buffer = new Segment(this);
+    if (segment.numLiveDocs() == 0)
+      return;
+    segment.finish();
+    segment.file = new File(segmentDir, "segment-" + nextSegment++ + ".idx");
+    IndexFile.write(segment, segment.file);
+    segments.add(segment);
+    writeManifest();
+    maybeMerge();
+  }
+
+  /**
+   * Flush the in-memory segment and save all deletions, so everything
+   * indexed so far survives reopening the index.
+   */
+  public synchronized void commit() throws IOException {
+    flush();
+    for (Segment segment : segments) {
+      if (segment.deletesChanged)
+        segment.writeDeletes();
+    }
+    writeManifest();
+  }
+
+  /**
+   * Wait for running merges, commit and stop the merge thread.
+   */
+  public synchronized void close() throws IOException {
+    closed = true;
+    waitForMerges();
+    commit();
+    merger.shutdown();
+  }
+
+  /**
+   * Wait until no merges are running.
+   */
+  public synchronized void waitForMerges() {
+    while (!merging.isEmpty()) {
+      try {
+        wait();
+      }
+      catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new IllegalStateException("Interrupted while waiting for merges in " + segmentDir);
+      }
+    }
+  }
+
+  /**
+   * Replace the manifest with one listing the current segments
+   */
+  protected void writeManifest() throws IOException {
+    File tempFile = new File(segmentDir, MANIFEST + ".tmp");
+    try (PrintWriter out = new PrintWriter(new FileWriter(tempFile))) {
+      for (Segment segment : segments)
+        out.println(segment.file.getName());
+    }
+    replace(tempFile, new File(segmentDir, MANIFEST));
+  }
+
+  /**
+   * Atomically replace a file with a newly written temporary file
+   */
+  protected static void replace(File tempFile, File file) throws IOException {
+    Files.move(tempFile.toPath(), file.toPath(), StandardCopyOption.REPLACE_EXISTING,
+        StandardCopyOption.ATOMIC_MOVE);
+  }
+
+  /**
+   * The tier of a segment: segments in tier t hold up to about
+   * maxBufferedDocs * mergeFactor^t live documents.
+   */
+  protected int tier(Segment segment) {
+    double size = Math.max(1.0, (double) segment.numLiveDocs() / maxBufferedDocs);
+    return (int) Math.floor(Math.log(size) / Math.log(mergeFactor) + 1e-9);
+  }
+
+  /**
+   * Start merging the oldest mergeFactor segments of the lowest tier that has
+   * that many, unless a merge is already running.
+   */
+  protected void maybeMerge() {
+    if (closed || !merging.isEmpty())
+      return;
+    Map<Integer, List<Segment>> tiers = new TreeMap<Integer, List<Segment>>();
+    for (Segment segment : segments) {
+      int tier = tier(segment);
+      if (!tiers.containsKey(tier))
+        tiers.put(tier, new ArrayList<Segment>());
+      tiers.get(tier).add(segment);
+    }
+    for (List<Segment> tier : tiers.values()) {
+      if (tier.size() >= mergeFactor) {
+        startMerge(new ArrayList<Segment>(tier.subList(0, mergeFactor)));
+        return;
+      }
+    }
+  }
+
+  /**
+   * Merge the given segments on the merge thread
+   */
+  protected void startMerge(final List<Segment> sources) {
+    merging.addAll(sources);
+    final int version = statsVersion;
+    final File file = new File(segmentDir, "segment-" + nextSegment++ + ".idx");
+    merger.execute(new Runnable() {
+      public void run() {
+        try {
+          Segment merged = Segment.merge(SegmentedIndex.this, sources);
+          merged.file = file;
+          IndexFile.write(merged, file);
+          installMerge(sources, merged, version);
+        }
+        catch (IOException e) {
+          System.err.println("Could not merge segments into " + file + ": " + e);
+          abandonMerge(sources, file);
+        }
+      }
+    });
+  }
+
+  /**
+   * Replace the merged segments with the segment built from them.  Documents
+   * deleted while the merge ran are deleted from the new segment too, and it
+   * gets new IDF factors if statistics were refreshed meanwhile.
+   */
+  protected synchronized void installMerge(List<Segment> sources, Segment merged, int version) throws IOException {
+    for (int i = 0; i < merged.origins.length; i++) {
+      DocumentReference origin = merged.origins[i];
+      if (origin.deleted) {
+        merged.docRefs.get(i).deleted = true;
+        merged.numDeleted++;
+        merged.deletesChanged = true;
+      } else
+        segmentOf.put(origin.file, merged);
+    }
+    merged.origins = null;
+    if (version != statsVersion)
+      merged.applyIdfs(idfs);
+    if (merged.deletesChanged)
+      merged.writeDeletes();
+    // The merged segment takes the place of the oldest of its sources
+    segments.set(segments.indexOf(sources.get(0)), merged);
+    segments.removeAll(sources.subList(1, sources.size()));
+    writeManifest();
+    for (Segment source : sources) {
+      source.file.delete();
+      Segment.deletesFile(source.file).delete();
+    }
+    merging.removeAll(sources);
+    notifyAll();
+    maybeMerge();
+  }
+
+  /**
+   * Give up on a merge that failed, leaving its sources in place
+   */
+  protected synchronized void abandonMerge(List<Segment> sources, File file) {
+    file.delete();
+    merging.removeAll(sources);
+    notifyAll();
+  }
+
+  /**
+   * Recompute the IDF factor of every token from its number of live documents
+   * across all segments, and the document lengths of every segment from them.
+   */
+  public synchronized void refreshStatistics() {
+    Map<String, Integer> docFreqs = new HashMap<String, Integer>();
+    for (Segment segment : allSegments())
+      segment.addDocFreqs(docFreqs);
+    double N = numLiveDocs();
+    idfs = new HashMap<String, Double>();
+    for (Map.Entry<String, Integer> entry : docFreqs.entrySet())
+      idfs.put(entry.getKey(), Math.log(N / entry.getValue()));
+    for (Segment segment : allSegments())
+      segment.applyIdfs(idfs);
+    statsVersion++;
+    numChanges = 0;
+  }
+
+  /**
+   * Call refreshStatistics if more than refreshFraction of the documents have
+   * changed since the statistics were last computed.
+   */
+  protected void refreshIfNeeded() {
+    if (numChanges > 0 && numChanges >= refreshFraction * numLiveDocs())
+      refreshStatistics();
+  }
+
+  /**
+   * The segments on disk followed by the in-memory segment
+   */
+  protected List<Segment> allSegments() {
+    List<Segment> all = new ArrayList<Segment>(segments);
+    all.add(buffer);
+    return all;
+  }
+
+  /**
+   * The number of live documents in the index
+   */
+  public synchronized int numLiveDocs() {
+    int numLiveDocs = buffer.numLiveDocs();
+    for (Segment segment : segments)
+      numLiveDocs += segment.numLiveDocs();
+    return numLiveDocs;
+  }
+
+  /**
+   * The number of segments on disk
+   */
+  public synchronized int numSegments() {
+    return segments.size();
+  }
+
+  /**
+   * The length of a query vector over the whole index, counting only tokens
+   * in the index as retrieval does
+   */
+  public synchronized double queryLength(HashMapVector vector) {
+    double queryLength = 0.0;
+    for (int i = 0; i < vector.size(); i++) {
+      Double idf = idfs.get(vector.token(i));
+      if (idf != null && idf != 0.0) {
+        double weight = idf * vector.weight(i);
+        queryLength = queryLength + weight * weight;
+      }
+    }
+    return Math.sqrt(queryLength);
+  }
+
+  /**
+   * Perform ranked retrieval on this input query, returning only the top k documents.
+   */
+  public Retrieval[] retrieve(String input, int k) {
+    return retrieve(new TextStringDocument(input, stem).hashMapVector(), k);
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, returning
+   * only the top k documents.  Each segment finds its own top k, whose scores
+   * are rescaled from the length of the query over that segment to its length
+   * over the whole index.
+   */
+  public synchronized Retrieval[] retrieve(HashMapVector vector, int k) {
+    refreshIfNeeded();
+    double queryLength = queryLength(vector);
+    if (queryLength == 0.0)
+      // No query token is in the index, so nothing matches
+      return new Retrieval[0];
+    RetrievalHeap heap = new RetrievalHeap(k);
+    for (Segment segment : allSegments()) {
+      double scale = segment.queryLength(vector) / queryLength;
+      if (scale == 0.0)
+        continue;
+      for (Retrieval retrieval : segment.retrieve(vector, k))
+        heap.offer(retrieval.docRef, retrieval.score * scale);
+    }
+    return heap.toRetrievals();
+  }
+
+  /**
+   * Perform ranked retrieval on this input query Document vector, returning
+   * every matching document.
+   */
+  public synchronized Retrieval[] retrieve(HashMapVector vector) {
+    refreshIfNeeded();
+    double queryLength = queryLength(vector);
+    if (queryLength == 0.0)
+      return new Retrieval[0];
+    List<Retrieval> retrievals = new ArrayList<Retrieval>();
+    for (Segment segment : allSegments()) {
+      double scale = segment.queryLength(vector) / queryLength;
+      if (scale == 0.0)
+        continue;
+      for (Retrieval retrieval : segment.retrieveUnranked(vector)) {
+        retrieval.score = retrieval.score * scale;
+        retrievals.add(retrieval);
+      }
+    }
+    Retrieval[] ranked = retrievals.toArray(new Retrieval[retrievals.size()]);
+    Arrays.sort(ranked);
+    return ranked;
+  }
+
+  /**
+   * Index the files in a directory, adding files that appear in it later (for
+   * example, as a Spider saves pages into it) before each query, and then
+   * interactively accept retrieval queries.
+   * Command format: "SegmentedIndex [OPTION]* [DIR] [SEGMENTDIR]" where DIR is
+   * the directory whose files should be indexed, SEGMENTDIR is the directory
+   * the segments of the index are kept in, and OPTIONs can be
+   * "-html" to specify HTML files whose HTML tags should be removed.
+   * "-stem" to specify tokens should be stemmed with Porter stemmer.
+   * "-buffer N" to write a segment to disk every N documents (default 1000).
+   * "-merge F" to merge segments F at a time (default 10).
+   */
+  public static void main(String[] args) throws IOException {
+    File dirFile = new File(args[args.length - 2]);
+    File segmentDir = new File(args[args.length - 1]);
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    int maxBufferedDocs = 1000;
+    int mergeFactor = 10;
+    for (int i = 0; i < args.length - 2; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-buffer"))
+        maxBufferedDocs = Integer.parseInt(args[++i]);
+      else if (flag.equals("-merge"))
+        mergeFactor = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    SegmentedIndex index = new SegmentedIndex(segmentDir, docType, stem);
+    index.maxBufferedDocs = maxBufferedDocs;
+    index.mergeFactor = mergeFactor;
+    System.out.println("Indexed " + index.addNewFiles(dirFile) + " new files; " + index.numLiveDocs() +
+        " documents in " + index.numSegments() + " segments.");
+    System.out.println("Now able to process queries. When done, enter an empty query to exit.");
+    while (true) {
+      String query = UserInput.prompt("\nEnter query:  ");
+      if (query.equals(""))
+        break;
+      int numAdded = index.addNewFiles(dirFile);
+      if (numAdded > 0)
+        System.out.println("Indexed " + numAdded + " new files.");
+      Retrieval[] retrievals = index.retrieve(query, InvertedIndex.MAX_RETRIEVALS);
+      System.out.println("");
+      if (retrievals.length == 0)
+        System.out.println("No matching documents.");
+      for (int i = 0; i < retrievals.length; i++) {
+        System.out.println(MoreString.padTo((i + 1) + ". ", 4) +
+            MoreString.padTo(retrievals[i].docRef.file.getName(), 20) +
+            " Score: " + MoreMath.roundTo(retrievals[i].score, 5));
+      }
+    }
+    index.close();
+  }
+
+}
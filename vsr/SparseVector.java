@@ -0,0 +1,266 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * A compact sparse vector: the term IDs (in a TermDictionary) of its
+ * entries, sorted, in one int array and their weights in a parallel float
+ * array.  Two vectors are compared and combined by merging their sorted
+ * IDs, with no hashing, boxing or per-entry objects, so it is the form to
+ * keep vectors in once they are built, e.g. with a SparseVectorBuilder or
+ * HashMapVector.sparseVector().  Sums are accumulated in doubles.
+ */
+
+public class SparseVector {
+
+  /**
+   * The dictionary of the term IDs
+   */
+  protected TermDictionary dictionary;
+
+  /**
+   * The term IDs of the entries, in increasing order
+   */
+  protected int[] termIds;
+
+  /**
+   * The weight of each entry
+   */
+  protected float[] weights;
+
+  /**
+   * The number of entries in use
+   */
+  protected int size;
+
+  /**
+   * Create an empty vector
+   */
+  public SparseVector() {
+    this(new int[4], new float[4], 0);
+  }
+
+  /**
+   * Create a vector from the first size entries of parallel arrays, which
+   * it keeps; termIds, in the current TermDictionary, must be strictly
+   * increasing
+   */
+  public SparseVector(int[] termIds, float[] weights, int size) {
+    this(TermDictionary.current(), termIds, weights, size);
+  }
+
+  /**
+   * Create a vector from the first size entries of parallel arrays, which
+   * it keeps; termIds, in the given dictionary, must be strictly increasing
+   */
+  public SparseVector(TermDictionary dictionary, int[] termIds, float[] weights, int size) {
+    this.dictionary = dictionary;
+    this.termIds = termIds;
+    this.weights = weights;
+    this.size = size;
+  }
+
+  /**
+   * The number of entries
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The dictionary of the term IDs
+   */
+  public TermDictionary dictionary() {
+    return dictionary;
+  }
+
+  /**
+   * The term ID of the i'th entry
+   */
+  public int termId(int i) {
+    return termIds[i];
+  }
+
+  /**
+   * The weight of the i'th entry
+   */
+  public float weight(int i) {
+    return weights[i];
+  }
+
+  /**
+   * The token of the i'th entry
+   */
+  public String token(int i) {
+    return dictionary.token(termIds[i]);
+  }
+
+  /**
+   * The weight of a term ID, or 0 if it has no entry
+   */
+  public double getWeight(int termId) {
+    int i = Arrays.binarySearch(termIds, 0, size, termId);
+    return i < 0 ? 0.0 : weights[i];
+  }
+
+  /**
+   * The weight of a token, or 0 if it has no entry
+   */
+  public double getWeight(String token) {
+    int termId = dictionary.find(token);
+    return termId == -1 ? 0.0 : getWeight(termId);
+  }
+
+  /**
+   * The dot product with another vector
+   */
+  public double dot(SparseVector other) {
+    if (other.dictionary != dictionary) {
+      // The IDs cannot be merged, so look up each token in the other vector
+      double dotProd = 0;
+      for (int i = 0; i < size; i++)
+        dotProd += weights[i] * other.getWeight(token(i));
+      return dotProd;
+    }
+    int[] ids = termIds;
+    int[] otherIds = other.termIds;
+    double dotProd = 0;
+    int i = 0;
+    int j = 0;
+    while (i < size && j < other.size) {
+      int id = ids[i];
+      int otherId = otherIds[j];
+      if (id == otherId)
+        dotProd += (double) weights[i++] * other.weights[j++];
+      else if (id < otherId)
+        i++;
+      else
+        j++;
+    }
+    return dotProd;
+  }
+
+  /**
+   * Euclidian length (sqrt of sum of squares) of the vector
+   */
+  public double length() {
+    double sum = 0;
+    for (int i = 0; i < size; i++)
+      sum += (double) weights[i] * weights[i];
+    return Math.sqrt(sum);
+  }
+
+  /**
+   * Cosine of the angle to another vector
+   */
+  public double cosineTo(SparseVector other) {
+    return cosineTo(other, other.length());
+  }
+
+  /**
+   * Cosine of the angle to another vector when also given its length
+   */
+  public double cosineTo(SparseVector other, double length) {
+    return dot(other) / (length() * length);
+  }
+
+  /**
+   * Destructively add a scaled version of another vector to this one,
+   * merging the two in one pass from the end of the arrays so that no
+   * entry is moved twice
+   */
+  public void addScaled(SparseVector other, double factor) {
+    if (other.dictionary != dictionary)
+      other = other.inDictionary(dictionary);
+    // Count the entries of the result to see whether the arrays must grow
+    int count = size + other.size;
+    for (int i = 0, j = 0; i < size && j < other.size; ) {
+      if (termIds[i] == other.termIds[j]) {
+        count--;
+        i++;
+        j++;
+      } else if (termIds[i] < other.termIds[j])
+        i++;
+      else
+        j++;
+    }
+    if (count > termIds.length) {
+      int capacity = Math.max(count, termIds.length + termIds.length / 2);
+      termIds = Arrays.copyOf(termIds, capacity);
+      weights = Arrays.copyOf(weights, capacity);
+    }
+    // Merge downward so the unread entries of this vector are never overwritten
+    int i = size - 1;
+    int j = other.size - 1;
+    int k = count - 1;
+    while (j >= 0) {
+      if (i >= 0 && termIds[i] > other.termIds[j]) {
+        termIds[k] = termIds[i];
+        weights[k--] = weights[i--];
+      } else if (i >= 0 && termIds[i] == other.termIds[j]) {
+        termIds[k] = termIds[i];
+        weights[k--] = (float) (weights[i--] + factor * other.weights[j--]);
+      } else {
+        termIds[k] = other.termIds[j];
+        weights[k--] = (float) (factor * other.weights[j--]);
+      }
+    }
+    size = count;
+  }
+
+  /**
+   * Destructively add another vector to this one
+   */
+  public void add(SparseVector other) {
+    addScaled(other, 1.0);
+  }
+
+  /**
+   * Destructively multiply the vector by a constant
+   */
+  public void multiply(double factor) {
+    for (int i = 0; i < size; i++)
+      weights[i] = (float) (factor * weights[i]);
+  }
+
+  /**
+   * A copy of this vector with its own arrays
+   */
+  public SparseVector copy() {
+    return new SparseVector(dictionary, Arrays.copyOf(termIds, size), Arrays.copyOf(weights, size), size);
+  }
+
+  /**
+   * This vector with its term IDs in the given dictionary: itself if they
+   * already are, otherwise a new vector
+   */
+  public SparseVector inDictionary(TermDictionary dictionary) {
+    if (dictionary == this.dictionary)
+      return this;
+    SparseVectorBuilder builder = new SparseVectorBuilder(size, dictionary);
+    for (int i = 0; i < size; i++)
+      builder.add(dictionary.id(token(i)), weights[i]);
+    return builder.build();
+  }
+
+  /**
+   * This vector as a HashMapVector
+   */
+  public HashMapVector toHashMapVector() {
+    HashMapVector vector = new HashMapVector(new SparseVectorBuilder(size, dictionary));
+    for (int i = 0; i < size; i++)
+      vector.increment(termIds[i], weights[i]);
+    return vector;
+  }
+
+  /**
+   * Return String of the vector showing the tokens and their weights
+   */
+  public String toString() {
+    StringBuilder ret = new StringBuilder();
+    for (int i = 0; i < size; i++)
+      ret.append(token(i)).append(": ").append(weights[i]).append(" ");
+    return ret.toString();
+  }
+
+}
@@ -0,0 +1,260 @@
+package ir.vsr;
+
+import java.util.*;
+
+/**
+ * An open-addressing hash table from term IDs (in a TermDictionary) to
+ * double weights, for accumulating a sparse vector one weight at a time.
+ * Entries are kept in parallel arrays in the order their terms were first
+ * added, and the table only holds the index of each entry, so adding to a
+ * weight costs an int hash probe and no allocation.  HashMapVector keeps
+ * its weights in one; build() turns one into a compact SparseVector.
+ */
+
+public class SparseVectorBuilder {
+
+  /**
+   * The dictionary of the term IDs
+   */
+  protected TermDictionary dictionary;
+
+  /**
+   * The hash table: 1 + the index of the entry in each slot, or 0 if
+   * empty.  Its size is a power of 2, at most half full.
+   */
+  protected int[] slots;
+
+  /**
+   * The term ID of each entry, in the order added
+   */
+  protected int[] termIds;
+
+  /**
+   * The weight of each entry
+   */
+  protected double[] weights;
+
+  /**
+   * The number of entries
+   */
+  protected int size = 0;
+
+  /**
+   * Create an empty builder
+   */
+  public SparseVectorBuilder() {
+    this(8);
+  }
+
+  /**
+   * Create an empty builder with room for this many entries before growing
+   */
+  public SparseVectorBuilder(int capacity) {
+    this(capacity, TermDictionary.current());
+  }
+
+  /**
+   * Create an empty builder for term IDs of the given dictionary with room
+   * for this many entries before growing
+   */
+  public SparseVectorBuilder(int capacity, TermDictionary dictionary) {
+    this.dictionary = dictionary;
+    capacity = Math.max(capacity, 4);
+    slots = new int[Integer.highestOneBit(2 * capacity - 1) << 1];
+    termIds = new int[capacity];
+    weights = new double[capacity];
+  }
+
+  /**
+   * The number of entries
+   */
+  public int size() {
+    return size;
+  }
+
+  /**
+   * The dictionary of the term IDs
+   */
+  public TermDictionary dictionary() {
+    return dictionary;
+  }
+
+  /**
+   * The term ID of the i'th entry
+   */
+  public int termId(int i) {
+    return termIds[i];
+  }
+
+  /**
+   * The weight of the i'th entry
+   */
+  public double weight(int i) {
+    return weights[i];
+  }
+
+  /**
+   * Set the weight of the i'th entry
+   */
+  public void setWeight(int i, double weight) {
+    weights[i] = weight;
+  }
+
+  /**
+   * Remove every entry
+   */
+  public void clear() {
+    if (size > 0)
+      Arrays.fill(slots, 0);
+    size = 0;
+  }
+
+  /**
+   * The index of the entry for a term ID, or -1 if there is none
+   */
+  public int indexOf(int termId) {
+    int mask = slots.length - 1;
+    for (int slot = hash(termId) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+      if (termIds[slots[slot] - 1] == termId)
+        return slots[slot] - 1;
+    }
+    return -1;
+  }
+
+  /**
+   * The weight of a term ID, or 0 if it has no entry
+   */
+  public double get(int termId) {
+    int i = indexOf(termId);
+    return i == -1 ? 0.0 : weights[i];
+  }
+
+  /**
+   * Add an amount to the weight of a term ID, giving it an entry if it has
+   * none, and return the new weight
+   */
+  public double add(int termId, double amount) {
+    int mask = slots.length - 1;
+    int slot = hash(termId) & mask;
+    while (slots[slot] != 0) {
+      int i = slots[slot] - 1;
+      if (termIds[i] == termId) {
+        weights[i] = weights[i] + amount;
+        return weights[i];
+      }
+      slot = (slot + 1) & mask;
+    }
+    if (size == termIds.length) {
+      termIds = Arrays.copyOf(termIds, 2 * size);
+      weights = Arrays.copyOf(weights, 2 * size);
+    }
+    termIds[size] = termId;
+    weights[size] = amount;
+    size++;
+    slots[slot] = size;
+    if (2 * size > slots.length)
+      rehash(2 * slots.length);
+    return amount;
+  }
+
+  /**
+   * Add a scaled copy of another builder's weights to this one
+   */
+  public void addScaled(SparseVectorBuilder other, double factor) {
+    if (other.dictionary != dictionary) {
+      // Give the other builder's tokens IDs in this one's dictionary
+      for (int i = 0; i < other.size; i++)
+        add(dictionary.id(other.dictionary.token(other.termIds[i])), factor * other.weights[i]);
+      return;
+    }
+    for (int i = 0; i < other.size; i++)
+      add(other.termIds[i], factor * other.weights[i]);
+  }
+
+  /**
+   * Multiply every weight by a factor
+   */
+  public void multiply(double factor) {
+    for (int i = 0; i < size; i++)
+      weights[i] = factor * weights[i];
+  }
+
+  /**
+   * The dot product with another builder, probing the larger with the
+   * entries of the smaller
+   */
+  public double dot(SparseVectorBuilder other) {
+    if (other.size < size)
+      return other.dot(this);
+    double dotProd = 0;
+    for (int i = 0; i < size; i++) {
+      int j = other.indexOf(other.dictionary == dictionary ? termIds[i] :
+          other.dictionary.find(dictionary.token(termIds[i])));
+      if (j != -1)
+        dotProd += weights[i] * other.weights[j];
+    }
+    return dotProd;
+  }
+
+  /**
+   * The sum of the squares of the weights
+   */
+  public double sumOfSquares() {
+    double sum = 0;
+    for (int i = 0; i < size; i++)
+      sum += weights[i] * weights[i];
+    return sum;
+  }
+
+  /**
+   * A copy of this builder, with the same entries in the same order
+   */
+  public SparseVectorBuilder copy() {
+    SparseVectorBuilder copy = new SparseVectorBuilder(0, dictionary);
+    copy.slots = slots.clone();
+    copy.termIds = Arrays.copyOf(termIds, Math.max(size, 4));
+    copy.weights = Arrays.copyOf(weights, Math.max(size, 4));
+    copy.size = size;
+    return copy;
+  }
+
+  /**
+   * The entries as a SparseVector, sorted by term ID, with weights rounded to floats
+   */
+  public SparseVector build() {
+    // Sort the entries by term ID through their indices
+    long[] order = new long[size];
+    for (int i = 0; i < size; i++)
+      order[i] = ((long) termIds[i] << 32) | i;
+    Arrays.sort(order);
+    int[] sortedIds = new int[size];
+    float[] sortedWeights = new float[size];
+    for (int k = 0; k < size; k++) {
+      sortedIds[k] = (int) (order[k] >>> 32);
+      sortedWeights[k] = (float) weights[(int) order[k]];
+    }
+    return new SparseVector(dictionary, sortedIds, sortedWeights, size);
+  }
+
+  /**
+   * Rebuild the hash table with a new number of slots
+   */
+  protected void rehash(int numSlots) {
+    slots = new int[numSlots];
+    int mask = numSlots - 1;
+    for (int i = 0; i < size; i++) {
+      int slot = hash(termIds[i]) & mask;
+      while (slots[slot] != 0)
+        slot = (slot + 1) & mask;
+      slots[slot] = i + 1;
+    }
+  }
+
+  /**
+   * Spread the bits of a term ID, which are dense, over the table
+   */
+  protected static int hash(int termId) {
+    return termId * 0x9E3779B9;
+  }
+
+}
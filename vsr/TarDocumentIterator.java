@@ -0,0 +1,396 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * An object for iterating over the documents in a tar archive, optionally
+ * gzip compressed (.tar.gz or .tgz), without extracting it, one document
+ * per regular file entry.  The archive is read as a stream, so each entry's
+ * bytes are read in turn as its document is handed out, but they are only
+ * decoded (in the default charset, as FileReader does) when the document is
+ * first read.  Long names stored as GNU ('L') or POSIX pax ('x') extended
+ * headers are understood.
+ * <p/>
+ * A tar archive has no index of its entries.  The first time a document of
+ * an uncompressed archive is fetched again, one pass over the headers finds
+ * where the data of every entry is, and then each document is read directly
+ * from there.  A compressed archive cannot be read from the middle, so
+ * fetching one of its documents reads it from the start until the document
+ * is found, which makes fetching many of them slow.
+ */
+
+public class TarDocumentIterator extends DocumentIterator {
+
+  /**
+   * The size of a tar header and the unit tar data is padded to
+   */
+  public static final int BLOCK_SIZE = 512;
+
+  /**
+   * The tar archive
+   */
+  protected File tarFile;
+
+  /**
+   * The stream of the (uncompressed) archive
+   */
+  protected InputStream in;
+
+  /**
+   * The next document, read ahead so that hasMoreDocuments knows whether there
+   * is one, or null at the end of the archive
+   */
+  protected FileDocument next = null;
+
+  /**
+   * The buffer tar headers are read into
+   */
+  protected byte[] header = new byte[BLOCK_SIZE];
+
+  /**
+   * Whether the archive is gzip compressed
+   */
+  protected boolean compressed;
+
+  /**
+   * The number of bytes of the (uncompressed) archive read so far
+   */
+  protected long offset = 0;
+
+  /**
+   * The name and the size of the data of the entry found by the last call
+   * to nextEntry
+   */
+  protected String currentName = null;
+  protected long currentSize = 0;
+
+  /**
+   * For an uncompressed archive, the offset and size of the data of each
+   * document by its name, built the first time a document is fetched
+   */
+  protected Map<String, long[]> entries = null;
+
+  /**
+   * Create an iterator over the documents in a tar archive
+   *
+   * @param tarFile The tar archive to use as a source of documents.
+   * @param docType The type of Document to create. e.g. TYPE_TEXT or TYPE_HTML
+   * @param stem    Whether tokens should be stemmed with Porter stemmer.
+   */
+  public TarDocumentIterator(File tarFile, short docType, boolean stem) throws IOException {
+    this(tarFile, docType, stem, true);
+  }
+
+  /**
+   * Create an iterator over the entries of a tar archive, reading the first
+   * document ahead if it is to be used for documents
+   */
+  protected TarDocumentIterator(File tarFile, short docType, boolean stem, boolean readAhead) throws IOException {
+    super(docType, stem);
+    this.tarFile = tarFile;
+    String name = tarFile.getName().toLowerCase();
+    compressed = name.endsWith(".gz") || name.endsWith(".tgz");
+    InputStream fileIn = new FileInputStream(tarFile);
+    if (compressed)
+      in = new BufferedInputStream(new GZIPInputStream(fileIn, 1 << 16), 1 << 16);
+    else
+      in = new BufferedInputStream(fileIn, 1 << 16);
+    if (readAhead)
+      next = readDocument();
+  }
+
+  /**
+   * Get the next document
+   */
+  public FileDocument nextDocument() {
+    FileDocument doc = next;
+    if (doc == null)
+      return null;
+    position++;
+    try {
+      next = readDocument();
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not read tar archive: " + tarFile);
+      System.exit(1);
+    }
+    return doc;
+  }
+
+  /**
+   * Returns true iff there are more documents in this archive
+   */
+  public boolean hasMoreDocuments() {
+    return next != null;
+  }
+
+  /**
+   * A new iterator over the same archive, starting from the first document
+   */
+  protected DocumentIterator restart() throws IOException {
+    return new TarDocumentIterator(tarFile, docType, stem);
+  }
+
+  /**
+   * Fetch a document of this archive again.  For an uncompressed archive,
+   * its data is read directly, after finding where the data of every entry
+   * is the first time.  A compressed archive is read from the start until
+   * the document is found.
+   */
+  protected FileDocument fetch(File file) throws IOException {
+    if (compressed)
+      return find(restart(), file);
+    if (entries == null) {
+      entries = new HashMap<String, long[]>();
+      TarDocumentIterator scan = new TarDocumentIterator(tarFile, docType, stem, false);
+      try {
+        while (scan.nextEntry()) {
+          if (!entries.containsKey(scan.currentName))
+            entries.put(scan.currentName, new long[]{scan.offset, scan.currentSize});
+          scan.skipData(scan.currentSize);
+        }
+      }
+      finally {
+        scan.close();
+      }
+    }
+    long[] entry = entries.get(entryName(tarFile, file));
+    if (entry == null)
+      return null;
+    byte[] bytes = new byte[checkedSize(entry[1], file.getPath(), Integer.MAX_VALUE)];
+    RandomAccessFile archive = new RandomAccessFile(tarFile, "r");
+    try {
+      archive.seek(entry[0]);
+      archive.readFully(bytes);
+    }
+    finally {
+      archive.close();
+    }
+    return createDocument(file, text(bytes), docType, stem);
+  }
+
+  /**
+   * Close the archive
+   */
+  public void close() throws IOException {
+    in.close();
+  }
+
+  /**
+   * Read entries up to and including the next regular file and create its
+   * document, or return null at the end of the archive.
+   */
+  protected FileDocument readDocument() throws IOException {
+    if (!nextEntry())
+      return null;
+    byte[] bytes = readData(checkedSize(currentSize, currentName, Integer.MAX_VALUE));
+    return createDocument(new File(tarFile, currentName), text(bytes), docType, stem);
+  }
+
+  /**
+   * A reader of the text of an entry, decoded when first read
+   */
+  protected static Reader text(final byte[] bytes) {
+    return new DeferredReader() {
+      protected Reader open() {
+        return new InputStreamReader(new ByteArrayInputStream(bytes));
+      }
+    };
+  }
+
+  /**
+   * Read headers up to and including that of the next regular file, setting
+   * currentName and currentSize and leaving the archive at the start of its
+   * data, or return false (and close the archive) at the end of the archive.
+   */
+  protected boolean nextEntry() throws IOException {
+    // The name given by an extended header to the entry that follows it
+    String longName = null;
+    while (readBlock(header)) {
+      if (isZeroBlock(header))
+        break;
+      String name = string(header, 0, 100);
+      // A ustar archive stores the start of a long path as a prefix
+      if (string(header, 257, 5).equals("ustar")) {
+        String prefix = string(header, 345, 155);
+        if (!prefix.isEmpty())
+          name = prefix + "/" + name;
+      }
+      long size = size(header);
+      char type = (char) header[156];
+      if (type == '0' || type == '\0' || type == '7') {
+        if (longName != null)
+          name = longName;
+        // Archives made of "." name their entries "./NAME"
+        if (name.startsWith("./"))
+          name = name.substring(2);
+        currentName = name;
+        currentSize = size;
+        return true;
+      } else if (type == 'L') {
+        // GNU long name of the next entry
+        byte[] bytes = readData(checkedSize(size, name, 1 << 20));
+        longName = string(bytes, 0, bytes.length);
+      } else if (type == 'x') {
+        // POSIX pax extended header for the next entry
+        String path = paxPath(readData(checkedSize(size, name, 1 << 20)));
+        if (path != null)
+          longName = path;
+      } else
+        // Directories, links, global pax headers, etc.
+        skipData(size);
+    }
+    in.close();
+    return false;
+  }
+
+  /**
+   * Read a whole block, returning false at the end of the stream
+   */
+  protected boolean readBlock(byte[] block) throws IOException {
+    int n = 0;
+    while (n < block.length) {
+      int read = in.read(block, n, block.length - n);
+      if (read == -1) {
+        if (n == 0)
+          return false;
+        throw new EOFException("Truncated tar archive: " + tarFile);
+      }
+      n = n + read;
+    }
+    offset = offset + block.length;
+    return true;
+  }
+
+  /**
+   * Read the data of an entry of the given size, and the padding after it
+   */
+  protected byte[] readData(int size) throws IOException {
+    byte[] bytes = new byte[size];
+    int n = 0;
+    while (n < size) {
+      int read = in.read(bytes, n, size - n);
+      if (read == -1)
+        throw new EOFException("Truncated tar archive: " + tarFile);
+      n = n + read;
+    }
+    offset = offset + size;
+    skip(padding(size));
+    return bytes;
+  }
+
+  /**
+   * Skip the data of an entry of the given size, and the padding after it
+   */
+  protected void skipData(long size) throws IOException {
+    skip(size + padding(size));
+  }
+
+  /**
+   * Skip a number of bytes of the archive
+   */
+  protected void skip(long remaining) throws IOException {
+    while (remaining > 0) {
+      long skipped = in.skip(remaining);
+      if (skipped <= 0) {
+        if (in.read() == -1)
+          throw new EOFException("Truncated tar archive: " + tarFile);
+        skipped = 1;
+      }
+      remaining = remaining - skipped;
+      offset = offset + skipped;
+    }
+  }
+
+  /**
+   * The number of bytes padding data of the given size out to a whole block
+   */
+  protected static long padding(long size) {
+    return (BLOCK_SIZE - size % BLOCK_SIZE) % BLOCK_SIZE;
+  }
+
+  /**
+   * The size of the data of an entry or extended header that is read into
+   * memory, which must be at most max bytes
+   */
+  protected static int checkedSize(long size, String name, int max) throws IOException {
+    if (size > max)
+      throw new IOException("Tar entry too large: " + name);
+    return (int) size;
+  }
+
+  /**
+   * Whether a block is all zeros, which marks the end of the archive
+   */
+  protected static boolean isZeroBlock(byte[] block) {
+    for (byte b : block) {
+      if (b != 0)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * The size field of a header, either octal digits or, for sizes too big
+   * for them, a big-endian binary number flagged by the high bit
+   */
+  protected static long size(byte[] header) {
+    long size = 0;
+    if ((header[124] & 0x80) != 0) {
+      for (int i = 125; i < 136; i++)
+        size = (size << 8) | (header[i] & 0xff);
+      return size;
+    }
+    for (int i = 124; i < 136; i++) {
+      byte b = header[i];
+      if (b >= '0' && b <= '7')
+        size = (size << 3) + (b - '0');
+      else if (b != ' ' || size > 0)
+        break;
+    }
+    return size;
+  }
+
+  /**
+   * The string in a NUL-terminated field of bytes
+   */
+  protected static String string(byte[] bytes, int start, int length) {
+    int end = start;
+    while (end < start + length && bytes[end] != 0)
+      end++;
+    return new String(bytes, start, end - start, StandardCharsets.UTF_8);
+  }
+
+  /**
+   * The path given by the records of a pax extended header, each of the
+   * form "LENGTH KEY=VALUE\n", or null if it gives none
+   */
+  protected static String paxPath(byte[] data) {
+    String path = null;
+    int pos = 0;
+    while (pos < data.length) {
+      int space = pos;
+      while (space < data.length && data[space] != ' ')
+        space++;
+      int length;
+      try {
+        length = Integer.parseInt(new String(data, pos, space - pos, StandardCharsets.US_ASCII));
+      }
+      catch (NumberFormatException e) {
+        break;
+      }
+      if (length <= 0 || pos + length > data.length)
+        break;
+      // The record without its length and final newline
+      String record = new String(data, space + 1, pos + length - space - 2, StandardCharsets.UTF_8);
+      if (record.startsWith("path="))
+        path = record.substring(5);
+      pos = pos + length;
+    }
+    return path;
+  }
+
+}
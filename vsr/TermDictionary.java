@@ -0,0 +1,111 @@
+package ir.vsr;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Numbers tokens with dense integer term IDs, so that vectors
+ * (HashMapVector, SparseVector) with the same dictionary can be compared
+ * and combined by ID rather than by String.  IDs are handed out in the
+ * order tokens are first seen and never change, and a dictionary is safe
+ * to use from many threads at once.
+ * <p/>
+ * Every vector keeps the dictionary its IDs come from.  New vectors use
+ * the current dictionary (see current()), which is replaced by a new,
+ * empty one once it holds MAX_TOKENS tokens, so a long-running program
+ * does not keep the vocabulary of all the work it has ever done.  A
+ * dictionary lives only as long as some vector still uses it, and it can
+ * still give IDs to the tokens added to such vectors.  Vectors with
+ * different dictionaries are compared and combined by token instead,
+ * which is slower but gives the same results.
+ * <p/>
+ * These IDs are unrelated to the term IDs of an InvertedIndex, which number
+ * its tokens alphabetically.
+ */
+
+public class TermDictionary {
+
+  /**
+   * The number of tokens in the current dictionary at which a new one
+   * replaces it
+   */
+  public static final int MAX_TOKENS = 1 << 20;
+
+  /**
+   * The dictionary that new vectors use
+   */
+  protected static volatile TermDictionary current = new TermDictionary();
+
+  /**
+   * The ID of each token
+   */
+  protected final ConcurrentHashMap<String, Integer> ids = new ConcurrentHashMap<String, Integer>();
+
+  /**
+   * The token of each ID
+   */
+  protected volatile String[] tokens = new String[1 << 12];
+
+  /**
+   * The number of IDs handed out
+   */
+  protected volatile int numTokens = 0;
+
+  /**
+   * The dictionary that new vectors use, replacing it with a new one if it
+   * is full
+   */
+  public static TermDictionary current() {
+    TermDictionary dictionary = current;
+    if (dictionary.size() < MAX_TOKENS)
+      return dictionary;
+    synchronized (TermDictionary.class) {
+      if (current.size() >= MAX_TOKENS)
+        current = new TermDictionary();
+      return current;
+    }
+  }
+
+  /**
+   * The ID of a token, giving it the next ID if it has none yet
+   */
+  public int id(String token) {
+    Integer id = ids.get(token);
+    if (id == null)
+      id = ids.computeIfAbsent(token, this::add);
+    return id;
+  }
+
+  /**
+   * The ID of a token, or -1 if it has none
+   */
+  public int find(String token) {
+    Integer id = ids.get(token);
+    return id == null ? -1 : id;
+  }
+
+  /**
+   * The token with this ID
+   */
+  public String token(int id) {
+    return tokens[id];
+  }
+
+  /**
+   * The number of tokens with IDs
+   */
+  public int size() {
+    return numTokens;
+  }
+
+  /**
+   * Record the token of the next ID and return the ID
+   */
+  protected synchronized Integer add(String token) {
+    if (numTokens == tokens.length)
+      tokens = Arrays.copyOf(tokens, 2 * numTokens);
+    tokens[numTokens] = token;
+    return numTokens++;
+  }
+
+}
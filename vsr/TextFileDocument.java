@@ -21,11 +21,43 @@ public class TextFileDocument extends FileDocument {
    */
   protected StringTokenizer tokenizer = null;
 
+  /**
+   * Whether the file has been opened to read it a line at a time, which is
+   * put off until a token is asked for, so that a document that is analyzed
+   * whole can instead be loaded whole (see analyzeTokens)
+   */
+  protected boolean opened = false;
+
   /**
    * Create a new text document for the given file.
    */
   public TextFileDocument(File file, boolean stem) {
-    super(file, stem);  // Create a FileDocument
+    super(file, stem, false);  // Create a FileDocument, without opening it yet
+  }
+
+  /**
+   * Create a new text document named by the given file whose text is read
+   * from the given reader, e.g. an entry of an archive.
+   */
+  public TextFileDocument(File file, Reader text, boolean stem) {
+    super(file, text, stem);
+  }
+
+  /**
+   * Create a new text document for the given file name.
+   */
+  public TextFileDocument(String fileName, boolean stem) {
+    this(new File(fileName), stem);
+  }
+
+  /**
+   * Open the file and prepare the first token, if not done yet
+   */
+  protected void open() {
+    if (opened)
+      return;
+    opened = true;
+    openReader();
     try {
       // create a StringTokenizer for the first line in the file
       String line = reader.readLine();
@@ -41,10 +73,28 @@ public class TextFileDocument extends FileDocument {
   }
 
   /**
-   * Create a new text document for the given file name.
+   * Returns true iff the document contains more tokens
    */
-  public TextFileDocument(String fileName, boolean stem) {
-    this(new File(fileName), stem);
+  public boolean hasMoreTokens() {
+    open();
+    return super.hasMoreTokens();
+  }
+
+  /**
+   * Returns the next token in the document or null if there are none
+   */
+  public String nextToken() {
+    open();
+    return super.nextToken();
+  }
+
+  /**
+   * Returns the total number of tokens in the document or -1 if
+   * there are still more tokens to be read and the total count is not yet available.
+   */
+  public int numberOfTokens() {
+    open();
+    return super.numberOfTokens();
   }
 
   /**
@@ -77,6 +127,48 @@ public class TextFileDocument extends FileDocument {
     return candidateToken;
   }
 
+  /**
+   * Add the tokens left in this document to an Analyzer.  If no tokens have
+   * been asked for, the file is analyzed by the thread's TextLoader (or
+   * the text of a document not stored in its own file is analyzed straight
+   * from its reader); otherwise the rest of the text read so far and then the rest of the file
+   * are handed over.
+   */
+  protected void analyzeTokens(Analyzer analyzer) {
+    if (!opened) {
+      // Nothing read yet, so read the whole file through reused buffers
+      opened = true;
+      try {
+        if (text != null) {
+          analyzer.analyze(text);
+          text.close();
+          return;
+        }
+        TextLoader.forThread().analyze(file, analyzer);
+      }
+      catch (IOException e) {
+        System.out.println("\nCould not read TextFileDocument: " + file);
+        System.exit(1);
+      }
+      return;
+    }
+    // Once there is no next token, the whole document has been read
+    if (nextToken == null)
+      return;
+    analyzer.addTerm(nextToken);
+    try {
+      // The rest of the line the next token came from
+      while (tokenizer.hasMoreTokens())
+        analyzer.analyze(tokenizer.nextToken());
+      analyzer.analyze(reader);
+      reader.close();
+    }
+    catch (IOException e) {
+      System.out.println("\nCould not read from TextFileDocument: " + file);
+      System.exit(1);
+    }
+  }
+
   /**
    * For testing, print the bag-of-words vector for a given file
    */
@@ -0,0 +1,259 @@
+package ir.vsr;
+
+import java.io.*;
+import java.nio.*;
+import java.nio.channels.*;
+import java.nio.charset.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Reads the whole text of a file at once into a reused char buffer.  The
+ * bytes are read in bulk through a FileChannel into a reused ByteBuffer and
+ * decoded with a reused CharsetDecoder for the default charset, replacing
+ * malformed input just as FileReader does.  Reading a file costs no
+ * allocation once the buffers are big enough for it.
+ * <p/>
+ * Buffers grown past MAX_RETAINED for a large file are dropped once it has
+ * been analyzed, and files of at least CHUNK_THRESHOLD bytes are not loaded
+ * whole at all but decoded and analyzed a chunk at a time (see analyze).
+ * <p/>
+ * A TextLoader is not thread-safe; forThread() gives each thread its own.
+ */
+
+public class TextLoader {
+
+  /**
+   * Files of at least this many bytes are analyzed a chunk at a time rather
+   * than loaded whole
+   */
+  public static final long CHUNK_THRESHOLD = 1 << 26;
+
+  /**
+   * Buffers bigger than this many bytes or chars are not kept for the next file
+   */
+  public static final int MAX_RETAINED = 1 << 22;
+
+  /**
+   * The initial size of the buffers, and of the chunks of large files
+   */
+  protected static final int INITIAL_CAPACITY = 1 << 16;
+
+  /**
+   * The TextLoader of each thread
+   */
+  protected static final ThreadLocal<TextLoader> loaders = ThreadLocal.withInitial(TextLoader::new);
+
+  /**
+   * The buffer files are read into
+   */
+  protected ByteBuffer bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+
+  /**
+   * The buffer the text is decoded into
+   */
+  protected CharBuffer chars = CharBuffer.allocate(INITIAL_CAPACITY);
+
+  /**
+   * The decoder of the default charset, as used by FileReader
+   */
+  protected CharsetDecoder decoder = Charset.defaultCharset().newDecoder()
+      .onMalformedInput(CodingErrorAction.REPLACE)
+      .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+  /**
+   * The TextLoader of the current thread
+   */
+  public static TextLoader forThread() {
+    return loaders.get();
+  }
+
+  /**
+   * Add the tokens of the text of a file to an Analyzer.  A file smaller
+   * than CHUNK_THRESHOLD is loaded whole and analyzed from the char buffer;
+   * a larger one is decoded and analyzed a chunk at a time.
+   */
+  public void analyze(File file, Analyzer analyzer) throws IOException {
+    if (file.length() < CHUNK_THRESHOLD) {
+      int length = load(file);
+      analyzer.analyze(chars.array(), 0, length);
+      release();
+      return;
+    }
+    FileChannel channel = new FileInputStream(file).getChannel();
+    try {
+      decoder.reset();
+      analyzer.analyze(Channels.newReader(channel, decoder, INITIAL_CAPACITY));
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * Read and decode the whole text of a file.  The text is in the first
+   * length() chars of chars(), until the next file is loaded or release is
+   * called.
+   *
+   * @return The number of chars of text.
+   * @throws IOException If the file cannot be read, or its text is too long
+   *                     for a char array.
+   */
+  public int load(File file) throws IOException {
+    FileChannel channel = new FileInputStream(file).getChannel();
+    try {
+      long size = channel.size();
+      if (size >= maxBytes())
+        throw new IOException("File too large to load whole: " + file);
+      if (bytes.capacity() < size)
+        bytes = ByteBuffer.allocate((int) Math.min(Math.max(size, 2L * bytes.capacity()), maxBytes()));
+      bytes.clear();
+      // A file may be shorter or longer than when its size was taken
+      while (channel.read(bytes) > 0) {
+        if (!bytes.hasRemaining()) {
+          if (bytes.capacity() >= maxBytes())
+            throw new IOException("File too large to load whole: " + file);
+          bytes.flip();
+          bytes = ByteBuffer.allocate((int) Math.min(2L * bytes.capacity(), maxBytes())).put(bytes);
+        }
+      }
+      bytes.flip();
+      int maxChars = (int) Math.ceil(bytes.remaining() * (double) decoder.maxCharsPerByte()) + 1;
+      if (chars.capacity() < maxChars)
+        chars = CharBuffer.allocate((int) Math.min(Math.max(maxChars, 2L * chars.capacity()), Integer.MAX_VALUE - 8));
+      chars.clear();
+      decoder.reset();
+      decoder.decode(bytes, chars, true);
+      decoder.flush(chars);
+      chars.flip();
+      // The bytes are no longer needed
+      if (bytes.capacity() > MAX_RETAINED)
+        bytes = ByteBuffer.allocate(INITIAL_CAPACITY);
+      return chars.limit();
+    }
+    finally {
+      channel.close();
+    }
+  }
+
+  /**
+   * The most bytes of a file that can be loaded, so that its decoded text
+   * still fits in a char array
+   */
+  protected int maxBytes() {
+    return (int) ((Integer.MAX_VALUE - 9) / Math.max(decoder.maxCharsPerByte(), 1.0f));
+  }
+
+  /**
+   * Drop a char buffer grown past MAX_RETAINED by a large file, which also
+   * drops the text of the last file loaded.
+   */
+  public void release() {
+    if (chars.capacity() > MAX_RETAINED) {
+      chars = CharBuffer.allocate(INITIAL_CAPACITY);
+      chars.flip();
+    }
+  }
+
+  /**
+   * The array holding the text of the last file loaded
+   */
+  public char[] chars() {
+    return chars.array();
+  }
+
+  /**
+   * The number of chars of text of the last file loaded
+   */
+  public int length() {
+    return chars.limit();
+  }
+
+  /**
+   * Compare ingesting text files through a BufferedReader a line at a time
+   * with loading them whole through a TextLoader, first just reading the
+   * text and then also tokenizing it, and check that both give the same
+   * vectors.
+   * Command format: "TextLoader [-stem] [DIR]" where DIR is the directory of
+   * text documents.
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 1];
+    boolean stem = false;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-stem"))
+        stem = true;
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    List<File> files = new ArrayList<File>();
+    long numBytes = 0;
+    for (File file : new File(dirName).listFiles()) {
+      if (!file.isDirectory()) {
+        files.add(file);
+        numBytes = numBytes + file.length();
+      }
+    }
+    TextLoader loader = forThread();
+    long[] times = new long[4];
+    long[] numChars = new long[2];
+    int mismatches = 0;
+    // Twice over, so the second round is warmed up (and the files are cached)
+    for (int rep = 0; rep < 2; rep++) {
+      long start = System.nanoTime();
+      numChars[0] = 0;
+      for (File file : files) {
+        BufferedReader in = new BufferedReader(new FileReader(file));
+        String line;
+        while ((line = in.readLine()) != null)
+          numChars[0] = numChars[0] + line.length();
+        in.close();
+      }
+      times[0] = System.nanoTime() - start;
+      start = System.nanoTime();
+      numChars[1] = 0;
+      for (File file : files)
+        numChars[1] = numChars[1] + loader.load(file);
+      times[1] = System.nanoTime() - start;
+      List<HashMapVector> lines = new ArrayList<HashMapVector>(files.size());
+      start = System.nanoTime();
+      for (File file : files) {
+        TextFileDocument doc = new TextFileDocument(file, stem);
+        // Asking for a token first makes the document read its file a line at a time
+        doc.hasMoreTokens();
+        lines.add(doc.hashMapVector());
+      }
+      times[2] = System.nanoTime() - start;
+      List<HashMapVector> loaded = new ArrayList<HashMapVector>(files.size());
+      start = System.nanoTime();
+      for (File file : files)
+        loaded.add(new TextFileDocument(file, stem).hashMapVector());
+      times[3] = System.nanoTime() - start;
+      mismatches = 0;
+      for (int i = 0; i < files.size(); i++) {
+        if (!ForwardIndex.sameVectors(lines.get(i), loaded.get(i)))
+          mismatches++;
+      }
+    }
+    if (mismatches > 0)
+      System.out.println(mismatches + " document vectors differ between reading lines and loading files!");
+    System.out.println(files.size() + " files, " + numBytes / 1024 + "KB (" + numChars[0] + " chars in lines, " +
+        numChars[1] + " chars loaded):");
+    System.out.println("read lines:            " + throughput(files.size(), numBytes, times[0]));
+    System.out.println("load:                  " + throughput(files.size(), numBytes, times[1]));
+    System.out.println("read lines + tokenize: " + throughput(files.size(), numBytes, times[2]));
+    System.out.println("load + tokenize:       " + throughput(files.size(), numBytes, times[3]));
+  }
+
+  /**
+   * Describe the rate at which files were ingested
+   */
+  protected static String throughput(int numFiles, long numBytes, long nanos) {
+    double seconds = nanos / 1e9;
+    return MoreMath.roundTo(numFiles / seconds, 0) + " files/sec, " +
+        MoreMath.roundTo(numBytes / 1048576.0 / seconds, 1) + " MB/sec";
+  }
+
+}
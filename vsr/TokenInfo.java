@@ -19,16 +19,45 @@ public class TokenInfo {
   public double idf;
 
   /**
-   * A list of TokenOccurences giving documents where this
-   * token occurs
+   * The largest IDF times occurrence count divided by document vector length
+   * over all postings of this token, i.e. the most this token can contribute
+   * to the cosine similarity of any document per unit of query weight.
+   * Used to skip documents that cannot make the top k of a query.
    */
-  public List<TokenOccurrence> occList;
+  public double maxImpact = 0.0;
+
+  /**
+   * The dense integer ID of this token in its index, assigned in
+   * alphabetical order of the tokens once indexing is finished (a token
+   * first added later gets the next ID until they are reassigned)
+   */
+  public int termId = -1;
+
+  /**
+   * The compressed postings giving the documents where this
+   * token occurs and how often
+   */
+  public PostingsList postings;
+
+  /**
+   * The quantized impact of each of the postings, if the index scores with
+   * impacts (see InvertedIndex.setImpactBits), otherwise null
+   */
+  public ImpactList impacts = null;
+
+  /**
+   * Create an initially empty data structure whose postings are
+   * compressed with the given codec
+   */
+  public TokenInfo(PostingsCodec codec) {
+    postings = new CountPostingsList(codec);
+    idf = 0.0;
+  }
 
   /**
    * Create an initially empty data structure
    */
   public TokenInfo() {
-    occList = new ArrayList<TokenOccurrence>();
-    idf = 0.0;
+    this(PostingsCodec.VBYTE);
   }
 }
@@ -2,7 +2,8 @@ package ir.vsr;
 
 /**
  * A lightweight object for storing information about an occurrence of a token (a.k.a word, term)
- * in a Document.
+ * in a Document.  The index itself stores occurrences compressed in a PostingsList;
+ * this object is the decoded form of one of its postings.
  *
  * @author Ray Mooney
  */
@@ -0,0 +1,113 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Compares the speed of the ways InvertedIndex can find the top k documents
+ * for a query (see the PRUNING constants in InvertedIndex) and checks that
+ * they all return exactly the same retrievals.
+ */
+
+public class TopKBenchmark {
+
+  /**
+   * The number of times the whole query set is run for each method
+   */
+  public static int REPETITIONS = 20;
+
+  /**
+   * The names of the pruning methods, indexed by their PRUNING constant
+   */
+  public static final String[] NAMES = {"exhaustive", "WAND", "MaxScore", "Block-Max WAND"};
+
+  /**
+   * Whether two rankings have the same documents with the same scores in the same order
+   */
+  public static boolean sameRetrievals(Retrieval[] retrievals1, Retrieval[] retrievals2) {
+    if (retrievals1.length != retrievals2.length)
+      return false;
+    for (int i = 0; i < retrievals1.length; i++) {
+      if (retrievals1[i].docRef != retrievals2[i].docRef || retrievals1[i].score != retrievals2[i].score)
+        return false;
+    }
+    return true;
+  }
+
+  /**
+   * Command format: "TopKBenchmark [OPTION]* [DIR] [QUERIES]" where DIR is the
+   * directory of documents to index and QUERIES is a query file in the format used by
+   * ir.eval.Experiment.  OPTIONs can be "-html", "-stem", "-index FILE" as for
+   * InvertedIndex, and "-k K" for the number of documents retrieved (default 10).
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 2];
+    File queryFile = new File(args[args.length - 1]);
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    File indexFile = null;
+    int k = 10;
+    for (int i = 0; i < args.length - 2; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-index"))
+        indexFile = new File(args[++i]);
+      else if (flag.equals("-k"))
+        k = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    InvertedIndex index;
+    if (indexFile != null)
+      index = InvertedIndex.loadOrBuild(indexFile, new File(dirName), docType, stem, false);
+    else
+      index = new InvertedIndex(new File(dirName), docType, stem, false);
+    List<HashMapVector> queries = PostingsBenchmark.readQueries(queryFile, index.stem);
+
+    // Check every method against exhaustive retrieval and count the documents scored
+    long[] numScored = new long[NAMES.length];
+    int mismatches = 0;
+    for (HashMapVector query : queries) {
+      index.pruning = InvertedIndex.PRUNING_NONE;
+      Retrieval[] expected = index.retrieve(query, k);
+      numScored[InvertedIndex.PRUNING_NONE] += index.retrieveUnranked(query).length;
+      PruningEvaluator evaluator = new PruningEvaluator(index, query);
+      if (!sameRetrievals(expected, evaluator.wand(k)))
+        mismatches++;
+      numScored[InvertedIndex.PRUNING_WAND] += evaluator.numScored;
+      evaluator = new PruningEvaluator(index, query);
+      if (!sameRetrievals(expected, evaluator.maxScore(k)))
+        mismatches++;
+      numScored[InvertedIndex.PRUNING_MAXSCORE] += evaluator.numScored;
+      evaluator = new PruningEvaluator(index, query);
+      if (!sameRetrievals(expected, evaluator.blockMaxWand(k)))
+        mismatches++;
+      numScored[InvertedIndex.PRUNING_BLOCK_MAX_WAND] += evaluator.numScored;
+    }
+    if (mismatches > 0)
+      System.out.println("\n" + mismatches + " pruned rankings differ from exhaustive retrieval!");
+
+    // Time each method, interleaving repetitions to even out JIT and GC effects
+    long[] times = new long[NAMES.length];
+    for (int rep = 0; rep < REPETITIONS; rep++) {
+      for (short pruning = 0; pruning < NAMES.length; pruning++) {
+        index.pruning = pruning;
+        long start = System.nanoTime();
+        for (HashMapVector query : queries)
+          index.retrieve(query, k);
+        times[pruning] += System.nanoTime() - start;
+      }
+    }
+    long numQueries = (long) REPETITIONS * queries.size();
+    System.out.println("\nTop " + k + " of " + index.docRefs.size() + " documents for " + queries.size() + " queries:");
+    for (int pruning = 0; pruning < NAMES.length; pruning++)
+      System.out.println(NAMES[pruning] + ": " + MoreMath.roundTo(times[pruning] / 1000.0 / numQueries, 1) +
+          " us/query, " + MoreMath.roundTo((double) numScored[pruning] / queries.size(), 1) + " documents scored/query");
+  }
+
+}
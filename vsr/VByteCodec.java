@@ -0,0 +1,37 @@
+package ir.vsr;
+
+/**
+ * Variable-byte coding of postings.  Each value is stored 7 bits at a time,
+ * low bits first, with the high bit of a byte set when more bytes follow.
+ * Small gaps and counts, which are by far the most common, take one byte.
+ */
+
+public class VByteCodec extends PostingsCodec {
+
+  public int encode(int[] values, int n, byte[] out, int offset) {
+    for (int i = 0; i < n; i++)
+      offset = writeVByte(values[i], out, offset);
+    return offset;
+  }
+
+  public int decode(byte[] bytes, int offset, int[] values, int n) {
+    for (int i = 0; i < n; i++) {
+      int b = bytes[offset++];
+      int value = b & 0x7F;
+      int shift = 7;
+      while (b < 0) {
+        // High bit set, so there is another byte
+        b = bytes[offset++];
+        value |= (b & 0x7F) << shift;
+        shift += 7;
+      }
+      values[i] = value;
+    }
+    return offset;
+  }
+
+  public String toString() {
+    return "vbyte";
+  }
+
+}
@@ -0,0 +1,175 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+
+import ir.utilities.*;
+
+/**
+ * Compares the speed of vector operations on the original representation
+ * of a HashMapVector, a HashMap from each token to a Weight object, with
+ * the current HashMapVector (an open-addressing table of term IDs, see
+ * SparseVectorBuilder) and with a SparseVector (sorted parallel arrays).
+ */
+
+public class VectorBenchmark {
+
+  /**
+   * Compare the old representation of a vector, a HashMap from tokens to
+   * Weights, with a HashMapVector and a SparseVector on the operations
+   * feedback and classification use most: cosine, scaled add and copy.
+   * Command format: "VectorBenchmark [OPTION]* [DIR]" where DIR is a directory
+   * of documents, whose vectors are used.  OPTIONs can be "-html" and
+   * "-stem" as for InvertedIndex, and "-docs N" to use at most N documents
+   * (default 500).
+   */
+  public static void main(String[] args) throws IOException {
+    String dirName = args[args.length - 1];
+    short docType = DocumentIterator.TYPE_TEXT;
+    boolean stem = false;
+    int maxDocs = 500;
+    for (int i = 0; i < args.length - 1; i++) {
+      String flag = args[i];
+      if (flag.equals("-html"))
+        docType = DocumentIterator.TYPE_HTML;
+      else if (flag.equals("-stem"))
+        stem = true;
+      else if (flag.equals("-docs"))
+        maxDocs = Integer.parseInt(args[++i]);
+      else
+        throw new IllegalArgumentException("Unknown flag: " + flag);
+    }
+    List<HashMapVector> vectors = new ArrayList<HashMapVector>();
+    DocumentIterator docIter = DocumentIterator.forSource(new File(dirName), docType, stem);
+    while (docIter.hasMoreDocuments() && vectors.size() < maxDocs)
+      vectors.add(docIter.nextDocument().hashMapVector());
+    int n = vectors.size();
+    List<Map<String, Weight>> maps = new ArrayList<Map<String, Weight>>(n);
+    List<SparseVector> sparse = new ArrayList<SparseVector>(n);
+    for (HashMapVector vector : vectors) {
+      Map<String, Weight> map = new HashMap<String, Weight>();
+      for (int i = 0; i < vector.size(); i++)
+        incrementMap(map, vector.token(i), vector.weight(i));
+      maps.add(map);
+      sparse.add(vector.sparseVector());
+    }
+    System.out.println(n + " documents, " + ((long) n * n) + " cosines per round");
+    for (int round = 0; round < 3; round++) {
+      System.out.println("Round " + (round + 1));
+      // Cosine of every pair of vectors
+      double check = 0;
+      long start = System.nanoTime();
+      for (Map<String, Weight> map1 : maps)
+        for (Map<String, Weight> map2 : maps)
+          check += mapCosine(map1, map2);
+      report("cosine", "HashMap<String, Weight>", start, check);
+      check = 0;
+      start = System.nanoTime();
+      for (HashMapVector vector1 : vectors)
+        for (HashMapVector vector2 : vectors)
+          check += vector1.cosineTo(vector2);
+      report("cosine", "HashMapVector", start, check);
+      check = 0;
+      start = System.nanoTime();
+      for (SparseVector vector1 : sparse)
+        for (SparseVector vector2 : sparse)
+          check += vector1.cosineTo(vector2);
+      report("cosine", "SparseVector", start, check);
+      // Add half of the next vector to a copy of each vector, as feedback does
+      long total = 0;
+      start = System.nanoTime();
+      for (int k = 0; k < 20; k++)
+        for (int d = 0; d < n; d++) {
+          Map<String, Weight> sum = new HashMap<String, Weight>();
+          for (Map.Entry<String, Weight> entry : maps.get(d).entrySet())
+            incrementMap(sum, entry.getKey(), entry.getValue().getValue());
+          for (Map.Entry<String, Weight> entry : maps.get((d + 1) % n).entrySet())
+            incrementMap(sum, entry.getKey(), 0.5 * entry.getValue().getValue());
+          total += sum.size();
+        }
+      report("addScaled", "HashMap<String, Weight>", start, total);
+      total = 0;
+      start = System.nanoTime();
+      for (int k = 0; k < 20; k++)
+        for (int d = 0; d < n; d++) {
+          HashMapVector sum = vectors.get(d).copy();
+          sum.addScaled(vectors.get((d + 1) % n), 0.5);
+          total += sum.size();
+        }
+      report("addScaled", "HashMapVector", start, total);
+      total = 0;
+      start = System.nanoTime();
+      for (int k = 0; k < 20; k++)
+        for (int d = 0; d < n; d++) {
+          SparseVector sum = sparse.get(d).copy();
+          sum.addScaled(sparse.get((d + 1) % n), 0.5);
+          total += sum.size();
+        }
+      report("addScaled", "SparseVector", start, total);
+      // Copy every vector
+      total = 0;
+      start = System.nanoTime();
+      for (int k = 0; k < 20; k++)
+        for (Map<String, Weight> map : maps) {
+          Map<String, Weight> copy = new HashMap<String, Weight>();
+          for (Map.Entry<String, Weight> entry : map.entrySet())
+            incrementMap(copy, entry.getKey(), entry.getValue().getValue());
+          total += copy.size();
+        }
+      report("copy", "HashMap<String, Weight>", start, total);
+      total = 0;
+      start = System.nanoTime();
+      for (int k = 0; k < 20; k++)
+        for (HashMapVector vector : vectors)
+          total += vector.copy().size();
+      report("copy", "HashMapVector", start, total);
+      total = 0;
+      start = System.nanoTime();
+      for (int k = 0; k < 20; k++)
+        for (SparseVector vector : sparse)
+          total += vector.copy().size();
+      report("copy", "SparseVector", start, total);
+    }
+  }
+
+  /**
+   * Increment the Weight of a token in a map, as HashMapVector.increment
+   * used to
+   */
+  protected static void incrementMap(Map<String, Weight> map, String token, double amount) {
+    Weight weight = map.get(token);
+    if (weight == null) {
+      weight = new Weight();
+      map.put(token, weight);
+    }
+    weight.increment(amount);
+  }
+
+  /**
+   * The cosine of two maps of tokens to Weights, as HashMapVector.cosineTo
+   * used to compute it
+   */
+  protected static double mapCosine(Map<String, Weight> map1, Map<String, Weight> map2) {
+    double length = 0;
+    for (Weight weight : map2.values())
+      length += weight.getValue() * weight.getValue();
+    double sum = 0;
+    double dotProd = 0;
+    for (Map.Entry<String, Weight> entry : map1.entrySet()) {
+      double weight = entry.getValue().getValue();
+      Weight otherWeight = map2.get(entry.getKey());
+      dotProd += weight * (otherWeight == null ? 0.0 : otherWeight.getValue());
+      sum += weight * weight;
+    }
+    return dotProd / (Math.sqrt(sum) * Math.sqrt(length));
+  }
+
+  /**
+   * Print the time taken since start by one representation on one operation
+   */
+  protected static void report(String operation, String representation, long start, double check) {
+    System.out.printf("  %-10s %-24s %8.1f ms  (%s)%n", operation, representation,
+        (System.nanoTime() - start) / 1e6, check);
+  }
+
+}
@@ -0,0 +1,116 @@
+package ir.vsr;
+
+import java.io.*;
+import java.util.*;
+import java.util.zip.*;
+
+/**
+ * An object for iterating over the documents in a zip archive without
+ * extracting it, one document per file entry.  An entry is inflated and
+ * decoded (in the default charset, as FileReader does) only when its
+ * document is first read, so when documents are indexed in parallel that
+ * work is done by the indexing threads.  A document can be fetched again
+ * directly through the archive's central directory.
+ * <p/>
+ * The archive stays open for the documents' sake until the iterator is
+ * closed, after which the documents it handed out that have not been read
+ * yet cannot be.
+ */
+
+public class ZipDocumentIterator extends DocumentIterator {
+
+  /**
+   * The zip archive
+   */
+  protected File zipFile;
+
+  /**
+   * The open archive
+   */
+  protected ZipFile zip;
+
+  /**
+   * The file entries of the archive, in the order they are stored
+   */
+  protected List<ZipEntry> entries = new ArrayList<ZipEntry>();
+
+  /**
+   * Create an iterator over the documents in a zip archive
+   *
+   * @param zipFile The zip archive to use as a source of documents.
+   * @param docType The type of Document to create. e.g. TYPE_TEXT or TYPE_HTML
+   * @param stem    Whether tokens should be stemmed with Porter stemmer.
+   */
+  public ZipDocumentIterator(File zipFile, short docType, boolean stem) throws IOException {
+    super(docType, stem);
+    this.zipFile = zipFile;
+    this.zip = new ZipFile(zipFile);
+    Enumeration<? extends ZipEntry> all = zip.entries();
+    while (all.hasMoreElements()) {
+      ZipEntry entry = all.nextElement();
+      if (!entry.isDirectory())
+        entries.add(entry);
+    }
+  }
+
+  /**
+   * Get the next document
+   */
+  public FileDocument nextDocument() {
+    if (position >= entries.size())
+      return null;
+    return document(entries.get(position++));
+  }
+
+  /**
+   * Returns true iff there are more documents in this archive
+   */
+  public boolean hasMoreDocuments() {
+    return position < entries.size();
+  }
+
+  /**
+   * Fetch a document of this archive again by looking up its entry.  The
+   * entry is inflated right away, so the document can be read after the
+   * archive is closed.
+   */
+  protected FileDocument fetch(File file) throws IOException {
+    ZipEntry entry = zip.getEntry(entryName(zipFile, file));
+    if (entry == null || entry.isDirectory())
+      return null;
+    InputStream in = zip.getInputStream(entry);
+    final byte[] bytes;
+    try {
+      bytes = in.readAllBytes();
+    }
+    finally {
+      in.close();
+    }
+    Reader text = new DeferredReader() {
+      protected Reader open() {
+        return new InputStreamReader(new ByteArrayInputStream(bytes));
+      }
+    };
+    return createDocument(new File(zipFile, entry.getName()), text, docType, stem);
+  }
+
+  /**
+   * Close the archive
+   */
+  public void close() throws IOException {
+    zip.close();
+  }
+
+  /**
+   * Create the document for an entry, reading its text when first needed
+   */
+  protected FileDocument document(final ZipEntry entry) {
+    Reader text = new DeferredReader() {
+      protected Reader open() throws IOException {
+        return new InputStreamReader(zip.getInputStream(entry));
+      }
+    };
+    return createDocument(new File(zipFile, entry.getName()), text, docType, stem);
+  }
+
+}
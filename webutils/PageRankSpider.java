@@ -24,6 +24,7 @@ public class PageRankSpider extends Spider{
   public void go(String[] args) {
     processArgs(args);
     doCrawl();
+    closeIndex();
     // clear the graph
     graph = clear();
     System.out.println("Graph Structure");
@@ -230,6 +231,7 @@ public class PageRankSpider extends Spider{
         }
     }
     page.write(saveDir, pageData);
+    addToIndex(pageData);
   }
 
   public static void main(String args[]) {
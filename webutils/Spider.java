@@ -4,6 +4,7 @@ import java.util.*;
 import java.io.*;
 
 import ir.utilities.*;
+import ir.vsr.*;
 
 /**
  * Spider defines a framework for writing a web crawler.  Users can
@@ -55,6 +56,11 @@ public class Spider {
    */
   protected HashSet<Link> visited;
 
+  /**
+   * The index that saved pages are added to as they are downloaded, if any.
+   */
+  protected SegmentedIndex index = null;
+
   /**
    * Checks command line arguments and performs the crawl.  <p> This
    * implementation calls <code>processArgs</code> and
@@ -65,6 +71,23 @@ public class Spider {
   public void go(String[] args) {
     processArgs(args);
     doCrawl();
+    closeIndex();
+  }
+
+  /**
+   * Saves and closes the index of saved pages, if there is one.
+   * Subclasses that override <code>go</code> should call this once the
+   * crawl is done.
+   */
+  protected void closeIndex() {
+    if (index != null) {
+      try {
+        index.close();
+      }
+      catch (IOException e) {
+        System.err.println("Could not save index: " + e);
+      }
+    }
   }
 
   /**
@@ -78,6 +101,8 @@ public class Spider {
    * <li>-u &lt;url&gt; : Start at &lt;url&gt;.</li>
    * <li>-slow : Pause briefly before getting a page.  This can be
    * useful when debugging.
+   * <li>-index &lt;directory&gt; : Index saved pages in a SegmentedIndex
+   * stored in &lt;directory&gt;.</li>
    * </ul>
    * <p/>
    * Each option has a corresponding
@@ -112,6 +137,8 @@ public class Spider {
           handleUCommandLineOption(args[++i]);
         else if (args[i].equals("-slow"))
           handleSlowCommandLineOption();
+        else if (args[i].equals("-index"))
+          handleIndexCommandLineOption(args[++i]);
       }
       ++i;
     }
@@ -174,6 +201,23 @@ public class Spider {
     slow = true;
   }
 
+  /**
+   * Called when "-index" is passed in on the command line.  <p> This
+   * implementation opens (or creates) a {@link SegmentedIndex
+   * SegmentedIndex} of HTML documents in directory <code>value</code>,
+   * which pages are added to as they are saved.
+   *
+   * @param value The value associated with the "-index" option.
+   */
+  protected void handleIndexCommandLineOption(String value) {
+    try {
+      index = new SegmentedIndex(new File(value), DocumentIterator.TYPE_HTML, false);
+    }
+    catch (IOException e) {
+      throw new IllegalArgumentException("Failed to open index " + value + ": " + e);
+    }
+  }
+
   /**
    * Performs the crawl.  Should be called after
    * <code>processArgs</code> has been called.  Assumes that
@@ -280,8 +324,28 @@ public class Spider {
    *             index.
    */
   protected void indexPage(HTMLPage page) {
-    page.write(saveDir,
-        "P" + MoreString.padWithZeros(count, (int) Math.floor(MoreMath.log(maxCount, 10)) + 1));
+    String name = "P" + MoreString.padWithZeros(count, (int) Math.floor(MoreMath.log(maxCount, 10)) + 1);
+    page.write(saveDir, name);
+    addToIndex(name);
+  }
+
+  /**
+   * Adds a page just written to <code>saveDir</code> to the index, if
+   * there is one.  Subclasses that override <code>indexPage</code> must
+   * call this after writing the page, or "-index" has no effect.
+   *
+   * @param name The name the page was written under, without ".html".
+   */
+  protected final void addToIndex(String name) {
+    if (index != null) {
+      // A later crawl into the same directory overwrites earlier pages
+      try {
+        index.updateDocument(new File(saveDir, name + ".html"));
+      }
+      catch (IOException e) {
+        System.err.println("Could not index " + name + ": " + e);
+      }
+    }
   }
 
   /**
@@ -294,6 +358,8 @@ public class Spider {
    * <li>-u &lt;url&gt; : Start at &lt;url&gt;.</li>
    * <li>-slow : Pause briefly before getting a page.  This can be
    * useful when debugging.
+   * <li>-index &lt;directory&gt; : Index saved pages in a SegmentedIndex
+   * stored in &lt;directory&gt;.</li>
    * </ul>
    */
   public static void main(String args[]) {
@@ -4,6 +4,7 @@ import java.util.*;
 import java.io.*;
 
 import ir.utilities.*;
+import ir.vsr.*;
 
 /**
  * Specific spider for extracting and saving a particular number of random set of 
@@ -85,6 +86,11 @@ public class YahooSpider {
    */
   protected Random random = new Random();
 
+  /**
+   * The index that saved pages are added to as they are downloaded, if any.
+   */
+  protected SegmentedIndex index = null;
+
   /**
    * Checks command line arguments and performs the crawl.  <p> This
    * implementation calls <code>processArgs</code> and
@@ -95,6 +101,14 @@ public class YahooSpider {
   public void go(String[] args) {
     processArgs(args);
     doCrawl();
+    if (index != null) {
+      try {
+        index.close();
+      }
+      catch (IOException e) {
+        System.err.println("Could not save index: " + e);
+      }
+    }
   }
 
   /**
@@ -107,6 +121,8 @@ public class YahooSpider {
    * <li>-p &lt;prefix &gt; : Prefix saved file names with &lt;prefix&gt;.</li>
    * <li>-slow : Pause briefly before getting a page.  This can be
    * useful when debugging.
+   * <li>-index &lt;directory&gt; : Index saved pages in a SegmentedIndex
+   * stored in &lt;directory&gt;.</li>
    * </ul>
    * <p/>
    * Each option has a corresponding
@@ -139,6 +155,8 @@ public class YahooSpider {
           handlePCommandLineOption(args[++i]);
         else if (args[i].equals("-slow"))
           handleSlowCommandLineOption();
+        else if (args[i].equals("-index"))
+          handleIndexCommandLineOption(args[++i]);
       }
       ++i;
     }
@@ -201,6 +219,23 @@ public class YahooSpider {
     slow = true;
   }
 
+  /**
+   * Called when "-index" is passed in on the command line.  <p> This
+   * implementation opens (or creates) a {@link SegmentedIndex
+   * SegmentedIndex} of HTML documents in directory <code>value</code>,
+   * which pages are added to as they are saved.
+   *
+   * @param value The value associated with the "-index" option.
+   */
+  protected void handleIndexCommandLineOption(String value) {
+    try {
+      index = new SegmentedIndex(new File(value), DocumentIterator.TYPE_HTML, false);
+    }
+    catch (IOException e) {
+      throw new IllegalArgumentException("Failed to open index " + value + ": " + e);
+    }
+  }
+
   /**
    * Performs the crawl.  Should be called after
    * <code>processArgs</code> has been called.  Assumes that
@@ -331,8 +366,17 @@ public class YahooSpider {
    *             index.
    */
   protected void indexPage(HTMLPage page) {
-    page.write(saveDir,
-	       filePrefix + MoreString.padWithZeros(count, (int) Math.floor(MoreMath.log(maxCount, 10)) + 1));
+    String name = filePrefix + MoreString.padWithZeros(count, (int) Math.floor(MoreMath.log(maxCount, 10)) + 1);
+    page.write(saveDir, name);
+    if (index != null) {
+      // A later crawl into the same directory overwrites earlier pages
+      try {
+        index.updateDocument(new File(saveDir, name + ".html"));
+      }
+      catch (IOException e) {
+        System.err.println("Could not index " + name + ": " + e);
+      }
+    }
   }
 
   /**
@@ -344,6 +388,8 @@ public class YahooSpider {
    * <li>-p &lt;prefix &gt; : Prefix saved file names with &lt;prefix&gt;.</li>
    * <li>-slow : Pause briefly before getting a page.  This can be
    * useful when debugging.
+   * <li>-index &lt;directory&gt; : Index saved pages in a SegmentedIndex
+   * stored in &lt;directory&gt;.</li>
    * </ul>
    */
   public static void main(String args[]) {